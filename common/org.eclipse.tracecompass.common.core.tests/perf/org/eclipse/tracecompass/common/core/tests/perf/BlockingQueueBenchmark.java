@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.common.core.tests.perf;
+
+import org.eclipse.test.performance.Dimension;
+import org.eclipse.test.performance.Performance;
+import org.eclipse.test.performance.PerformanceMeter;
+import org.eclipse.tracecompass.common.core.collect.BufferedBlockingQueue;
+import org.eclipse.tracecompass.common.core.collect.RingBufferBlockingQueue;
+import org.eclipse.tracecompass.common.core.collect.RingBufferBlockingQueue.WaitStrategy;
+import org.junit.Test;
+
+/**
+ * Compare the blocking queue implementations, for transferring elements from a
+ * producer thread to a consumer thread, as done by the threaded history tree
+ * backend.
+ */
+public class BlockingQueueBenchmark {
+
+    private static final String TEST_ID = "org.eclipse.linuxtools#Blocking queue#";
+    private static final String TEST_SUMMARY = "Blocking queue: ";
+
+    private static final int LOOP_COUNT = 5;
+
+    /** Number of elements to transfer */
+    private static final int NB_ELEMENTS = 5000000;
+    /** Same queue dimensions as the threaded history tree backend */
+    private static final int QUEUE_SIZE = 10000 / 127;
+    private static final int CHUNK_SIZE = 127;
+
+    private static final Object ELEMENT = new Object();
+    private static final Object END = new Object();
+
+    /**
+     * Benchmark the buffered blocking queue
+     */
+    @Test
+    public void testBufferedBlockingQueue() {
+        runBenchmark("Buffered blocking queue", new QueueFactory() {
+            @Override
+            public Queue create() {
+                final BufferedBlockingQueue<Object> queue = new BufferedBlockingQueue<>(QUEUE_SIZE, CHUNK_SIZE);
+                return new Queue() {
+                    @Override
+                    public void put(Object element) {
+                        queue.put(element);
+                    }
+
+                    @Override
+                    public void flush() {
+                        queue.flushInputBuffer();
+                    }
+
+                    @Override
+                    public Object take() {
+                        return queue.take();
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * Benchmark the ring buffer queue, parking the waiting threads
+     */
+    @Test
+    public void testRingBufferPark() {
+        runBenchmark("Ring buffer (park)", new RingBufferFactory(WaitStrategy.PARK));
+    }
+
+    /**
+     * Benchmark the ring buffer queue, yielding in the waiting threads
+     */
+    @Test
+    public void testRingBufferYield() {
+        runBenchmark("Ring buffer (yield)", new RingBufferFactory(WaitStrategy.YIELD));
+    }
+
+    private interface Queue {
+        void put(Object element);
+
+        void flush();
+
+        Object take();
+    }
+
+    private interface QueueFactory {
+        Queue create();
+    }
+
+    private static final class RingBufferFactory implements QueueFactory {
+
+        private final WaitStrategy fStrategy;
+
+        public RingBufferFactory(WaitStrategy strategy) {
+            fStrategy = strategy;
+        }
+
+        @Override
+        public Queue create() {
+            final RingBufferBlockingQueue<Object> queue = new RingBufferBlockingQueue<>(QUEUE_SIZE, CHUNK_SIZE, fStrategy);
+            return new Queue() {
+                @Override
+                public void put(Object element) {
+                    queue.put(element);
+                }
+
+                @Override
+                public void flush() {
+                    queue.flushInputBuffer();
+                }
+
+                @Override
+                public Object take() {
+                    return queue.take();
+                }
+            };
+        }
+    }
+
+    private static void runBenchmark(String testName, QueueFactory factory) {
+        Performance perf = Performance.getDefault();
+        PerformanceMeter pm = perf.createPerformanceMeter(TEST_ID + testName);
+        perf.tagAsSummary(pm, TEST_SUMMARY + testName, Dimension.CPU_TIME);
+
+        for (int loop = 0; loop < LOOP_COUNT; loop++) {
+            final Queue queue = factory.create();
+            Thread consumer = new Thread() {
+                @Override
+                public void run() {
+                    while (queue.take() != END) {
+                        /* Only measure the transfer */
+                    }
+                }
+            };
+
+            pm.start();
+            consumer.start();
+            for (int i = 0; i < NB_ELEMENTS; i++) {
+                queue.put(ELEMENT);
+            }
+            queue.put(END);
+            queue.flush();
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            pm.stop();
+        }
+        pm.commit();
+    }
+}
@@ -21,7 +21,9 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
-    BufferedBlockingQueueTest.class
+    BroadcastBlockingQueueTest.class,
+    BufferedBlockingQueueTest.class,
+    RingBufferBlockingQueueTest.class
 })
 public class AllTests {
 
@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.common.core.tests.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.tracecompass.common.core.collect.BroadcastBlockingQueue;
+import org.eclipse.tracecompass.common.core.collect.BroadcastBlockingQueue.Subscriber;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+/**
+ * Test suite for the {@link BroadcastBlockingQueue}
+ */
+public class BroadcastBlockingQueueTest {
+
+    /** Timeout the tests after 2 minutes */
+    @Rule
+    public TestRule timeoutRule = new Timeout(2, TimeUnit.MINUTES);
+
+    /**
+     * Test that every subscriber receives every element, and that elements
+     * are only visible once published.
+     */
+    @Test
+    public void testSequential() {
+        BroadcastBlockingQueue<String> queue = new BroadcastBlockingQueue<>(4, 4);
+        Subscriber<String> first = queue.subscribe();
+        Subscriber<String> second = queue.subscribe();
+        assertEquals(2, queue.getNbSubscribers());
+
+        queue.put("a");
+        queue.put("b");
+        assertTrue(first.isEmpty());
+        queue.flushInputBuffer();
+        assertFalse(first.isEmpty());
+
+        assertEquals("a", first.take());
+        assertEquals("b", first.blockingPeek());
+        assertEquals("b", first.take());
+        assertTrue(first.isEmpty());
+        assertEquals(2, first.getPosition());
+
+        /* The second subscriber is unaffected */
+        assertEquals("a", second.take());
+        assertEquals("b", second.take());
+        assertTrue(second.isEmpty());
+    }
+
+    /**
+     * Test that a subscriber only receives the elements published after it
+     * subscribed, and that a closed subscriber does not hold back the
+     * producer.
+     */
+    @Test
+    public void testSubscribeAndClose() {
+        BroadcastBlockingQueue<Integer> queue = new BroadcastBlockingQueue<>(2, 4);
+        Subscriber<Integer> early = queue.subscribe();
+        queue.put(0);
+        queue.flushInputBuffer();
+        Subscriber<Integer> late = queue.subscribe();
+        queue.put(1);
+        queue.flushInputBuffer();
+        assertEquals(Integer.valueOf(0), early.take());
+        assertEquals(Integer.valueOf(1), late.take());
+
+        /* Without the early subscriber, many more elements than the capacity can go through */
+        early.close();
+        assertEquals(1, queue.getNbSubscribers());
+        for (int i = 2; i < 100; i++) {
+            queue.put(i);
+            queue.flushInputBuffer();
+            assertEquals(Integer.valueOf(i), late.take());
+        }
+        late.close();
+        for (int i = 0; i < 100; i++) {
+            queue.put(i);
+        }
+    }
+
+    /**
+     * Test that the queue stops referencing an element once every subscriber
+     * took it, or closed before taking it.
+     */
+    @Test
+    public void testElementsReleased() {
+        BroadcastBlockingQueue<Object> queue = new BroadcastBlockingQueue<>(4, 4);
+        Subscriber<Object> first = queue.subscribe();
+        Subscriber<Object> second = queue.subscribe();
+        List<WeakReference<Object>> refs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Object element = new Object();
+            refs.add(new WeakReference<>(element));
+            queue.put(element);
+        }
+        queue.flushInputBuffer();
+
+        for (int i = 0; i < 8; i++) {
+            first.take();
+        }
+        /* The second subscriber did not take them yet */
+        collectGarbage(refs);
+        for (WeakReference<Object> ref : refs) {
+            assertNotNull(ref.get());
+        }
+
+        for (int i = 0; i < 4; i++) {
+            second.take();
+        }
+        second.close();
+        assertTrue(collectGarbage(refs));
+    }
+
+    /**
+     * Test that the elements published while there is no subscriber are not
+     * kept by the queue.
+     */
+    @Test
+    public void testNoSubscriberReleased() {
+        BroadcastBlockingQueue<Object> queue = new BroadcastBlockingQueue<>(4, 4);
+        List<WeakReference<Object>> refs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Object element = new Object();
+            refs.add(new WeakReference<>(element));
+            queue.put(element);
+        }
+        queue.flushInputBuffer();
+        assertTrue(collectGarbage(refs));
+    }
+
+    /*
+     * Run the garbage collector until the referents of the weak references
+     * are collected, or give up after a while.
+     */
+    private static boolean collectGarbage(List<WeakReference<Object>> refs) {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            System.gc();
+            boolean collected = true;
+            for (WeakReference<Object> ref : refs) {
+                collected &= (ref.get() == null);
+            }
+            if (collected) {
+                return true;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Broadcast elements to consumers of different speeds, with a queue much
+     * smaller than the number of elements, and check that each consumer gets
+     * all of them in order.
+     *
+     * @throws Throwable
+     *             If one of the threads failed
+     */
+    @Test
+    public void testMultiThread() throws Throwable {
+        final BroadcastBlockingQueue<Integer> queue = new BroadcastBlockingQueue<>(4, 8);
+        final int nbElements = 50000;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> consumers = new ArrayList<>();
+        for (int n = 0; n < 3; n++) {
+            final Subscriber<Integer> subscriber = queue.subscribe();
+            final int period = (n + 1) * 1000;
+            Thread consumer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < nbElements; i++) {
+                            int value = subscriber.take();
+                            if (value != i) {
+                                throw new IllegalStateException("Expected " + i + ", got " + value);
+                            }
+                            /* Slow consumers, each at its own pace */
+                            if (i % period == 0) {
+                                Thread.sleep(1);
+                            }
+                        }
+                        subscriber.close();
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            };
+            consumers.add(consumer);
+            consumer.start();
+        }
+
+        for (int i = 0; i < nbElements; i++) {
+            queue.put(i);
+        }
+        queue.flushInputBuffer();
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        Throwable e = error.get();
+        if (e != null) {
+            throw e;
+        }
+        assertEquals(0, queue.getNbSubscribers());
+    }
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.common.core.tests.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.tracecompass.common.core.collect.RingBufferBlockingQueue;
+import org.eclipse.tracecompass.common.core.collect.RingBufferBlockingQueue.WaitStrategy;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Iterators;
+
+/**
+ * Test suite for the {@link RingBufferBlockingQueue}
+ */
+public class RingBufferBlockingQueueTest {
+
+    /** Timeout the tests after 2 minutes */
+    @Rule
+    public TestRule timeoutRule = new Timeout(2, TimeUnit.MINUTES);
+
+    private static final String testString = "abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyz" +
+            "abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyz" +
+            "abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyz";
+
+    private RingBufferBlockingQueue<Character> charQueue;
+
+    /**
+     * Test setup
+     */
+    @Before
+    public void init() {
+        /* 15 * 15 is rounded up to a capacity of 256 */
+        charQueue = new RingBufferBlockingQueue<>(15, 15);
+    }
+
+    /**
+     * Test insertion of elements that will require more than one batch.
+     */
+    @Test
+    public void testLargeInsertion() {
+        String string = testString.substring(0, 222);
+        for (char elem : string.toCharArray()) {
+            charQueue.put(elem);
+        }
+        charQueue.flushInputBuffer();
+
+        StringBuilder sb = new StringBuilder();
+        while (!charQueue.isEmpty()) {
+            sb.append(charQueue.take());
+        }
+        assertEquals(string, sb.toString());
+    }
+
+    /**
+     * Test that the queue can be filled and emptied several times, so that the
+     * positions wrap around the ring buffer.
+     */
+    @Test
+    public void testWrapAround() {
+        RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<>(2, 4);
+        int next = 0;
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 8; j++) {
+                queue.put(i * 8 + j);
+            }
+            assertEquals(8, queue.size());
+            for (int j = 0; j < 8; j++) {
+                assertEquals(Integer.valueOf(next++), queue.take());
+            }
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    /**
+     * Test the state of the {@link RingBufferBlockingQueue#isEmpty()} method
+     * at various moments.
+     */
+    @Test
+    public void testIsEmpty() {
+        RingBufferBlockingQueue<String> stringQueue = new RingBufferBlockingQueue<>(15, 15);
+        assertTrue(stringQueue.isEmpty());
+
+        stringQueue.put("Hello");
+        assertFalse(stringQueue.isEmpty());
+
+        stringQueue.flushInputBuffer();
+        assertFalse(stringQueue.isEmpty());
+
+        stringQueue.take();
+        assertTrue(stringQueue.isEmpty());
+
+        stringQueue.flushInputBuffer();
+        assertTrue(stringQueue.isEmpty());
+    }
+
+    /**
+     * Test the contents returned by {@link RingBufferBlockingQueue#iterator()}.
+     */
+    @Test
+    public void testIteratorContents() {
+        Deque<Character> expected = new LinkedList<>();
+        assertFalse(charQueue.iterator().hasNext());
+
+        /* Elements that are not published yet are also returned */
+        for (int i = 0; i < 50; i++) {
+            char c = testString.charAt(i);
+            charQueue.put(c);
+            expected.addFirst(c);
+        }
+        List<Character> actual = new ArrayList<>();
+        Iterators.addAll(actual, charQueue.iterator());
+        assertEquals(expected, actual);
+
+        for (int i = 0; i < 30; i++) {
+            charQueue.take();
+            expected.removeLast();
+        }
+        actual = new ArrayList<>();
+        Iterators.addAll(actual, charQueue.iterator());
+        assertEquals(expected, actual);
+
+        while (!charQueue.isEmpty()) {
+            charQueue.take();
+        }
+        assertFalse(charQueue.iterator().hasNext());
+    }
+
+    /**
+     * Transfer elements from a producer to a consumer with each wait strategy,
+     * using a queue smaller than the number of elements, so that both threads
+     * have to wait.
+     *
+     * @throws Throwable
+     *             If one of the threads failed
+     */
+    @Test
+    public void testMultiThread() throws Throwable {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            /*
+             * Busy-spinning threads are only safe with a core each, the test
+             * machine may not have them.
+             */
+            if (strategy == WaitStrategy.SPIN && Runtime.getRuntime().availableProcessors() < 2) {
+                continue;
+            }
+            runProducerConsumer(new RingBufferBlockingQueue<Integer>(4, 16, strategy), 100000);
+        }
+    }
+
+    /**
+     * Iterate on the queue while a producer and a consumer are using it. Every
+     * element seen by the iterator must be one that was inserted, and the
+     * consumer must still get all the elements in order.
+     *
+     * @throws Throwable
+     *             If one of the threads failed
+     */
+    @Test
+    public void testConcurrentIteration() throws Throwable {
+        final RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<>(4, 16);
+        final int nbElements = 50000;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final HashMultiset<Integer> seen = HashMultiset.create();
+        final Thread observer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        for (Integer i : queue) {
+                            seen.add(i);
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }
+        };
+        observer.start();
+        runProducerConsumer(queue, nbElements);
+        observer.interrupt();
+        observer.join();
+        Throwable e = error.get();
+        if (e != null) {
+            throw e;
+        }
+        for (Integer i : seen.elementSet()) {
+            assertTrue(i >= 0 && i <= nbElements);
+        }
+    }
+
+    private static void runProducerConsumer(final RingBufferBlockingQueue<Integer> queue, final int nbElements) throws Throwable {
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i <= nbElements; i++) {
+                    queue.put(i);
+                }
+                queue.flushInputBuffer();
+            }
+        };
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i <= nbElements; i++) {
+                        int value = queue.blockingPeek();
+                        if (value != i || queue.take() != i) {
+                            throw new IllegalStateException("Expected " + i + ", got " + value);
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }
+        };
+        consumer.start();
+        producer.start();
+        producer.join();
+        consumer.join();
+        Throwable e = error.get();
+        if (e != null) {
+            throw e;
+        }
+        assertTrue(queue.isEmpty());
+    }
+}
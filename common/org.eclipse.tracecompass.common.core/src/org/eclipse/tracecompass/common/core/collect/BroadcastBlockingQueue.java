@@ -0,0 +1,373 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.common.core.collect;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.internal.common.core.Activator;
+
+/**
+ * A blocking queue with one producer and several consumers, in which every
+ * consumer receives every element.
+ * <p>
+ * Each consumer reads the queue through its own {@link Subscriber}, at its
+ * own pace. The elements are kept in a shared ring buffer, so the lag of the
+ * slowest subscriber is bounded by the capacity of the queue: the producer
+ * blocks when it would overwrite an element that a subscriber has not taken
+ * yet. An element is removed from the buffer as soon as every subscriber has
+ * taken it, so the queue does not keep it alive.
+ * <p>
+ * Like in {@link BufferedBlockingQueue}, the elements are published to the
+ * subscribers in batches, either when a batch is full or when
+ * {@link #flushInputBuffer()} is called.
+ * <p>
+ * The {@link #put} and {@link #flushInputBuffer} methods must only be called
+ * by one thread at a time. Each subscriber must only be used by one thread at
+ * a time.
+ *
+ * @param <T>
+ *            The data type of the elements contained by the queue
+ * @since 1.1
+ */
+public class BroadcastBlockingQueue<T> {
+
+    private final @Nullable Object[] fBuffer;
+    /** Number of subscribers that did not take each published element yet */
+    private final AtomicIntegerArray fNbReaders;
+    private final int fMask;
+    private final int fChunkSize;
+
+    private final List<Subscriber<T>> fSubscribers = new CopyOnWriteArrayList<>();
+
+    private final Lock fLock = new ReentrantLock();
+    /** Signaled when elements are published */
+    private final Condition fPublishedCondition = fLock.newCondition();
+    /** Signaled when a subscriber takes an element while the producer waits */
+    private final Condition fTakenCondition = fLock.newCondition();
+
+    /** Number of elements visible to the subscribers */
+    private volatile long fPublished = 0;
+    /** Set while the producer waits for the subscribers to catch up */
+    private volatile boolean fProducerWaiting = false;
+
+    /* Producer fields */
+    private long fTail = 0;
+    private long fCachedMinHead = 0;
+
+    /**
+     * Constructor
+     *
+     * @param queueSize
+     *            The number of batches the queue can hold. The capacity of
+     *            the queue, queueSize * chunkSize, is rounded up to the next
+     *            power of 2.
+     * @param chunkSize
+     *            The number of elements in a batch
+     */
+    public BroadcastBlockingQueue(int queueSize, int chunkSize) {
+        if (queueSize <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        long requested = (long) queueSize * chunkSize;
+        if (requested > (1 << 30)) {
+            throw new IllegalArgumentException("Queue too large: " + requested); //$NON-NLS-1$
+        }
+        int capacity = Integer.highestOneBit((int) requested);
+        if (capacity < requested) {
+            capacity <<= 1;
+        }
+        fBuffer = new Object[capacity];
+        fNbReaders = new AtomicIntegerArray(capacity);
+        fMask = capacity - 1;
+        fChunkSize = chunkSize;
+    }
+
+    /**
+     * Add a subscriber to this queue. It will receive the elements published
+     * from now on, including the elements of the current batch.
+     * <p>
+     * A subscriber that stops reading must be closed, otherwise the producer
+     * will eventually block waiting for it.
+     *
+     * @return The new subscriber
+     */
+    public Subscriber<T> subscribe() {
+        fLock.lock();
+        try {
+            Subscriber<T> subscriber = new Subscriber<>(this, fPublished);
+            fSubscribers.add(subscriber);
+            return subscriber;
+        } finally {
+            fLock.unlock();
+        }
+    }
+
+    /**
+     * Put an element at the tail of the queue.
+     * <p>
+     * This method will block the caller if the slowest subscriber is a full
+     * queue behind.
+     *
+     * @param element
+     *            The element to insert
+     */
+    public void put(T element) {
+        long tail = fTail;
+        if (tail - fCachedMinHead > fMask) {
+            fCachedMinHead = getMinHead();
+            if (tail - fCachedMinHead > fMask) {
+                waitForSubscribers(tail);
+            }
+        }
+        fBuffer[(int) tail & fMask] = element;
+        fTail = tail + 1;
+        if (fTail - fPublished >= fChunkSize) {
+            publish();
+        }
+    }
+
+    /**
+     * Publish the current batch, even if it is not full.
+     * <p>
+     * This will guarantee that an element that was inserted via the
+     * {@link #put} method becomes visible to the subscribers.
+     */
+    public void flushInputBuffer() {
+        publish();
+    }
+
+    private void publish() {
+        fLock.lock();
+        try {
+            /*
+             * The subscribers are only added and removed with the lock held,
+             * so the elements are published to the current subscribers.
+             */
+            int nbSubscribers = fSubscribers.size();
+            for (long pos = fPublished; pos < fTail; pos++) {
+                int slot = (int) pos & fMask;
+                if (nbSubscribers == 0) {
+                    fBuffer[slot] = null;
+                } else {
+                    fNbReaders.set(slot, nbSubscribers);
+                }
+            }
+            fPublished = fTail;
+            fPublishedCondition.signalAll();
+        } finally {
+            fLock.unlock();
+        }
+    }
+
+    /*
+     * The position of the slowest subscriber. A new subscriber starts at the
+     * published position, so that is the limit when there is none.
+     */
+    private long getMinHead() {
+        long min = fPublished;
+        for (Subscriber<T> subscriber : fSubscribers) {
+            min = Math.min(min, subscriber.fHead);
+        }
+        return min;
+    }
+
+    private void waitForSubscribers(long tail) {
+        /* Make sure the subscribers have something to take */
+        publish();
+        fLock.lock();
+        try {
+            /*
+             * Set the flag before reading the positions, the subscribers
+             * update their position before reading the flag, so at least one
+             * side sees the other's write.
+             */
+            fProducerWaiting = true;
+            fCachedMinHead = getMinHead();
+            while (tail - fCachedMinHead > fMask) {
+                fTakenCondition.await();
+                fCachedMinHead = getMinHead();
+            }
+        } catch (InterruptedException e) {
+            Activator.instance().logError("Broadcast queue interrupted", e); //$NON-NLS-1$
+            throw new IllegalStateException();
+        } finally {
+            fProducerWaiting = false;
+            fLock.unlock();
+        }
+    }
+
+    /*
+     * A subscriber took, or skipped, the element at this position. This must
+     * be done before the subscriber's position moves past it, so that the
+     * producer does not reuse the slot before it is cleared.
+     */
+    private void release(long pos) {
+        int slot = (int) pos & fMask;
+        if (fNbReaders.decrementAndGet(slot) == 0) {
+            fBuffer[slot] = null;
+        }
+    }
+
+    private void signalTaken() {
+        fLock.lock();
+        try {
+            fTakenCondition.signalAll();
+        } finally {
+            fLock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of elements published so far. A subscriber has taken
+     * all the published elements when its position reaches this number.
+     *
+     * @return The number of published elements
+     */
+    public long getNbPublished() {
+        return fPublished;
+    }
+
+    /**
+     * Get the number of subscribers currently reading the queue.
+     *
+     * @return The number of subscribers
+     */
+    public int getNbSubscribers() {
+        return fSubscribers.size();
+    }
+
+    /**
+     * The view of one consumer on a {@link BroadcastBlockingQueue}.
+     *
+     * @param <T>
+     *            The data type of the elements contained by the queue
+     */
+    public static final class Subscriber<T> {
+
+        private final BroadcastBlockingQueue<T> fQueue;
+
+        /** Position of the next element to take */
+        private volatile long fHead;
+        private long fCachedPublished;
+        private volatile boolean fClosed = false;
+
+        private Subscriber(BroadcastBlockingQueue<T> queue, long head) {
+            fQueue = queue;
+            fHead = head;
+            fCachedPublished = head;
+        }
+
+        /**
+         * Retrieve the next element for this subscriber.
+         * <p>
+         * If there is no published element left, this call will block until
+         * a batch of elements is published.
+         *
+         * @return The retrieved element
+         */
+        public T take() {
+            long head = fHead;
+            T element = peek(head);
+            fQueue.release(head);
+            fHead = head + 1;
+            if (fQueue.fProducerWaiting) {
+                fQueue.signalTaken();
+            }
+            return element;
+        }
+
+        /**
+         * Retrieve, but do not remove, the next element for this subscriber.
+         * <p>
+         * If there is no published element left, this call will block until
+         * a batch of elements is published.
+         *
+         * @return The next element, blocking until one is available
+         */
+        public T blockingPeek() {
+            return peek(fHead);
+        }
+
+        @SuppressWarnings("unchecked")
+        private T peek(long head) {
+            if (fClosed) {
+                throw new IllegalStateException("Subscriber is closed"); //$NON-NLS-1$
+            }
+            if (head >= fCachedPublished) {
+                fCachedPublished = fQueue.fPublished;
+                if (head >= fCachedPublished) {
+                    waitForElement(head);
+                }
+            }
+            return (T) fQueue.fBuffer[(int) head & fQueue.fMask];
+        }
+
+        private void waitForElement(long head) {
+            fQueue.fLock.lock();
+            try {
+                while ((fCachedPublished = fQueue.fPublished) <= head) {
+                    fQueue.fPublishedCondition.await();
+                }
+            } catch (InterruptedException e) {
+                Activator.instance().logError("Broadcast queue interrupted", e); //$NON-NLS-1$
+                throw new IllegalStateException();
+            } finally {
+                fQueue.fLock.unlock();
+            }
+        }
+
+        /**
+         * Returns true if there is no published element left for this
+         * subscriber, meaning that {@link #take()} would block.
+         *
+         * @return true if no element is available
+         */
+        public boolean isEmpty() {
+            return (fQueue.fPublished <= fHead);
+        }
+
+        /**
+         * Get the number of elements this subscriber has taken so far.
+         *
+         * @return The position of this subscriber in the queue
+         */
+        public long getPosition() {
+            return fHead;
+        }
+
+        /**
+         * Stop reading the queue. The producer will not wait for this
+         * subscriber anymore.
+         */
+        public void close() {
+            if (fClosed) {
+                return;
+            }
+            fClosed = true;
+            fQueue.fLock.lock();
+            try {
+                /* Release the published elements this subscriber will not take */
+                for (long pos = fHead; pos < fQueue.fPublished; pos++) {
+                    fQueue.release(pos);
+                }
+                fQueue.fSubscribers.remove(this);
+                fQueue.fTakenCondition.signalAll();
+            } finally {
+                fQueue.fLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.common.core.collect;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A blocking queue for one producer thread and one consumer thread, backed by
+ * a pre-allocated ring buffer. It offers the same operations as
+ * {@link BufferedBlockingQueue}, but without locks or allocations on the
+ * insertion and removal paths.
+ * <p>
+ * The producer writes the elements directly in the ring buffer, and makes
+ * each one visible to the other threads with an ordered store of the tail
+ * position, which does not need a memory fence. This way the elements that
+ * are not consumed yet can always be found with the {@link #iterator()}.
+ * Only the full publication, a volatile store that wakes up a waiting
+ * consumer, is done in batches: when a full batch has been inserted, or when
+ * {@link #flushInputBuffer()} is called. A running consumer may thus take the
+ * elements of a batch that is not complete.
+ * <p>
+ * The way the threads wait, when the queue is full or empty, is chosen with
+ * a {@link WaitStrategy}.
+ * <p>
+ * The {@link #put} and {@link #flushInputBuffer} methods must only be called
+ * by one thread at a time, and so must the {@link #take} and
+ * {@link #blockingPeek} methods. The other methods can be called from any
+ * thread.
+ *
+ * @param <T>
+ *            The data type of the elements contained by the queue
+ * @since 1.1
+ */
+public class RingBufferBlockingQueue<T> implements Iterable<T> {
+
+    /**
+     * How a thread waits for elements or for free space in the queue
+     */
+    public enum WaitStrategy {
+        /**
+         * Busy-spin. This gives the lowest latency, but keeps a core busy, so
+         * it should only be used when the producer and consumer have their
+         * own cores.
+         */
+        SPIN,
+        /** Yield the processor between checks */
+        YIELD,
+        /**
+         * Yield for a short while, then park the thread until it is woken up.
+         * This is the best choice when the threads may wait for a long time.
+         */
+        PARK
+    }
+
+    /** Number of times to yield before parking with the PARK strategy */
+    private static final int YIELD_TRIES = 100;
+
+    /** Time a producer waiting for free space parks before checking again */
+    private static final long PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final @Nullable Object[] fBuffer;
+    private final int fMask;
+    private final int fBatchSize;
+    private final WaitStrategy fWaitStrategy;
+
+    /** Position of the next element to take, only written by the consumer */
+    private final AtomicLong fHead = new AtomicLong(0);
+    /** Position after the last element put, only written by the producer */
+    private final AtomicLong fTail = new AtomicLong(0);
+
+    /* Producer fields */
+    private long fProducerTail = 0;
+    private long fPublishedTail = 0;
+    private long fCachedHead = 0;
+
+    /* Consumer fields */
+    private long fConsumerHead = 0;
+    private long fCachedTail = 0;
+    private volatile @Nullable Thread fWaitingConsumer = null;
+
+    /**
+     * Constructor, using the {@link WaitStrategy#PARK} wait strategy. The
+     * parameters are the same as the ones of {@link BufferedBlockingQueue},
+     * so this queue can replace it.
+     *
+     * @param queueSize
+     *            The number of batches the queue can hold
+     * @param chunkSize
+     *            The number of elements in a batch
+     */
+    public RingBufferBlockingQueue(int queueSize, int chunkSize) {
+        this(queueSize, chunkSize, WaitStrategy.PARK);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param queueSize
+     *            The number of batches the queue can hold. The capacity of
+     *            the queue, queueSize * chunkSize, is rounded up to the next
+     *            power of 2.
+     * @param chunkSize
+     *            The number of elements in a batch
+     * @param waitStrategy
+     *            How the producer and consumer wait when the queue is full or
+     *            empty
+     */
+    public RingBufferBlockingQueue(int queueSize, int chunkSize, WaitStrategy waitStrategy) {
+        if (queueSize <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        long requested = (long) queueSize * chunkSize;
+        if (requested > (1 << 30)) {
+            throw new IllegalArgumentException("Queue too large: " + requested); //$NON-NLS-1$
+        }
+        int capacity = Integer.highestOneBit((int) requested);
+        if (capacity < requested) {
+            capacity <<= 1;
+        }
+        fBuffer = new Object[capacity];
+        fMask = capacity - 1;
+        fBatchSize = chunkSize;
+        fWaitStrategy = waitStrategy;
+    }
+
+    /**
+     * Put an element at the tail of the queue.
+     * <p>
+     * This method will block the caller if the queue is full, waiting for
+     * space to become available.
+     *
+     * @param element
+     *            The element to insert
+     */
+    public void put(T element) {
+        long tail = fProducerTail;
+        if (tail - fCachedHead > fMask) {
+            fCachedHead = fHead.get();
+            while (tail - fCachedHead > fMask) {
+                /* Make sure the consumer is emptying the queue */
+                publish();
+                waitForSpace();
+                fCachedHead = fHead.get();
+            }
+        }
+        fBuffer[(int) tail & fMask] = element;
+        fProducerTail = tail + 1;
+        /*
+         * Make the element visible to the other threads, without a fence. The
+         * consumer is only woken up once per batch, by publish().
+         */
+        fTail.lazySet(tail + 1);
+        if (tail + 1 - fPublishedTail >= fBatchSize) {
+            publish();
+        }
+    }
+
+    /**
+     * Publish the current batch, even if it is not full.
+     * <p>
+     * This will guarantee that an element that was inserted via the
+     * {@link #put} method becomes visible to the {@link #take} method.
+     */
+    public void flushInputBuffer() {
+        publish();
+    }
+
+    private void publish() {
+        fPublishedTail = fProducerTail;
+        /*
+         * This volatile write, followed by the volatile read of the waiting
+         * consumer, pairs with the consumer's write of fWaitingConsumer
+         * followed by its read of fTail: at least one of the threads sees
+         * the other's write, so a wake-up cannot be lost.
+         */
+        fTail.set(fProducerTail);
+        Thread consumer = fWaitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Retrieve the head element from the queue.
+     * <p>
+     * If the queue is empty, this call will block until a batch of elements is
+     * published.
+     *
+     * @return The retrieved element. It will be removed from the queue.
+     */
+    @SuppressWarnings("unchecked")
+    public T take() {
+        long head = fConsumerHead;
+        waitForElement(head);
+        int index = (int) head & fMask;
+        T element = (T) fBuffer[index];
+        /* Do not keep a reference to the element */
+        fBuffer[index] = null;
+        fConsumerHead = head + 1;
+        fHead.lazySet(head + 1);
+        return element;
+    }
+
+    /**
+     * Retrieve, but do not remove, the head element of this queue.
+     * <p>
+     * If the queue is empty, this call will block until a batch of elements is
+     * published.
+     *
+     * @return The head element of this queue, blocking until one is available
+     */
+    @SuppressWarnings("unchecked")
+    public T blockingPeek() {
+        long head = fConsumerHead;
+        waitForElement(head);
+        return (T) fBuffer[(int) head & fMask];
+    }
+
+    private void waitForElement(long head) {
+        int tries = 0;
+        while (fCachedTail <= head) {
+            fCachedTail = fTail.get();
+            if (fCachedTail > head) {
+                return;
+            }
+            switch (fWaitStrategy) {
+            case SPIN:
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            case PARK:
+            default:
+                if (tries < YIELD_TRIES) {
+                    tries++;
+                    Thread.yield();
+                } else {
+                    fWaitingConsumer = Thread.currentThread();
+                    if (fTail.get() <= head) {
+                        LockSupport.park(this);
+                    }
+                    fWaitingConsumer = null;
+                }
+                break;
+            }
+        }
+    }
+
+    private void waitForSpace() {
+        switch (fWaitStrategy) {
+        case SPIN:
+            break;
+        case YIELD:
+            Thread.yield();
+            break;
+        case PARK:
+        default:
+            /*
+             * The consumer does not wake up the producer, so that taking an
+             * element stays cheap. A full queue means the consumer is the
+             * bottleneck, so checking again a bit later is fine.
+             */
+            LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+            break;
+        }
+    }
+
+    /**
+     * Returns true if the queue size is 0.
+     *
+     * @return true if the queue is empty
+     */
+    public boolean isEmpty() {
+        return (size() == 0);
+    }
+
+    /**
+     * Returns the number of elements in this queue, including the ones that
+     * are not published yet.
+     *
+     * @return the number of elements in this queue
+     */
+    public int size() {
+        /* Read the head first, so the difference cannot be negative */
+        long head = fHead.get();
+        long tail = fTail.get();
+        return (int) Math.max(0, tail - head);
+    }
+
+    /**
+     * Instantiate an iterator on the queue, including the elements that are
+     * not published yet. The elements will be returned in order from last
+     * (tail) to first (head).
+     * <p>
+     * If concurrent removals happen while the iterator is being used, it is
+     * possible for an element that was actually in the queue when the call was
+     * made to have been removed by the {@link #take} method in the meantime.
+     * However, this iterator guarantees that each element is either inside the
+     * queue OR was removed by the {@link #take} method. No element should
+     * "fall in the cracks". If the producer wraps around the ring buffer
+     * during the iteration, elements inserted after the creation of the
+     * iterator can also be returned.
+     * <p>
+     * The iterator itself is not safe to use concurrently by different threads.
+     * <p>
+     * The {@link Iterator#remove()} operation is not supported by this
+     * iterator.
+     *
+     * @return An iterator over the queue in reverse sequence
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Itr();
+    }
+
+    private class Itr implements Iterator<T> {
+
+        private final long fFirst;
+        private long fPosition;
+        private @Nullable T fNext = null;
+
+        Itr() {
+            fFirst = fHead.get();
+            fPosition = fTail.get();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public boolean hasNext() {
+            while (fNext == null && fPosition > fFirst) {
+                fPosition--;
+                /* Slots of elements taken in the meantime are null */
+                fNext = (T) fBuffer[(int) fPosition & fMask];
+            }
+            return (fNext != null);
+        }
+
+        @Override
+        public T next() {
+            if (hasNext()) {
+                T next = fNext;
+                if (next != null) {
+                    fNext = null;
+                    return next;
+                }
+            }
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
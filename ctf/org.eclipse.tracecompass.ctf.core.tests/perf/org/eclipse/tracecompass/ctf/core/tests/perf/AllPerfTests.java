@@ -22,6 +22,7 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+        org.eclipse.tracecompass.ctf.core.tests.perf.io.AllPerfTests.class,
         org.eclipse.tracecompass.ctf.core.tests.perf.trace.AllPerfTests.class
 })
 public class AllPerfTests {
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.ctf.core.tests.perf.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.eclipse.test.performance.Dimension;
+import org.eclipse.test.performance.Performance;
+import org.eclipse.test.performance.PerformanceMeter;
+import org.eclipse.tracecompass.ctf.core.CTFException;
+import org.eclipse.tracecompass.ctf.core.event.io.BitBuffer;
+import org.junit.Test;
+
+/**
+ * Benchmark of the {@link BitBuffer} decoding the fields of events laid out
+ * like in the packets of an LTTng kernel trace: little-endian, with a compact
+ * event header followed by the event payload.
+ */
+public class BitBufferBenchmark {
+
+    private static final String TEST_SUITE_NAME = "CTF BitBuffer Benchmark";
+    private static final String TEST_ID = "org.eclipse.linuxtools#" + TEST_SUITE_NAME;
+    private static final int LOOP_COUNT = 100;
+
+    /** The packet size of the LTTng kernel traces */
+    private static final int PACKET_SIZE = 1024 * 1024;
+    /** Number of times the packet is decoded in one loop */
+    private static final int NB_PASSES = 10;
+
+    /** Field width marking a char[16] array, like a process name */
+    private static final int COMM = -16;
+
+    /* Compact event header: 5-bit event id, 27-bit timestamp */
+    private static final int[] SCHED_SWITCH = {
+            5, 27,
+            COMM, 32, 32, 64,
+            COMM, 32, 32 };
+    private static final int[] SYSCALL_ENTRY_READ = {
+            5, 27,
+            32, 64, 64 };
+    /* Bit fields, always going through the unaligned decoders */
+    private static final int[] BITFIELDS = {
+            5, 27,
+            3, 13, 7, 9, 17, 11 };
+
+    /**
+     * Benchmark decoding sched_switch events
+     */
+    @Test
+    public void testSchedSwitch() {
+        benchmarkLayout(SCHED_SWITCH, "sched-switch", true);
+    }
+
+    /**
+     * Benchmark decoding syscall events
+     */
+    @Test
+    public void testSyscallEntry() {
+        benchmarkLayout(SYSCALL_ENTRY_READ, "syscall-entry", false);
+    }
+
+    /**
+     * Benchmark decoding events with unaligned bit fields
+     */
+    @Test
+    public void testBitFields() {
+        benchmarkLayout(BITFIELDS, "bitfields", false);
+    }
+
+    /**
+     * Benchmark bulk reading arrays of 64-bit integers
+     */
+    @Test
+    public void testIntegerArrays() {
+        Performance perf = Performance.getDefault();
+        PerformanceMeter pm = perf.createPerformanceMeter(TEST_ID + "#integer-arrays");
+        perf.tagAsSummary(pm, TEST_SUITE_NAME + ":integer-arrays", Dimension.CPU_TIME);
+
+        BitBuffer input = createPacket();
+        long[] values = new long[32];
+        int arrayBits = values.length * Long.SIZE;
+        for (int loop = 0; loop < LOOP_COUNT; loop++) {
+            pm.start();
+            try {
+                for (int pass = 0; pass < NB_PASSES; pass++) {
+                    input.position(0);
+                    while (input.canRead(arrayBits)) {
+                        input.get(values, Long.SIZE, false);
+                    }
+                }
+            } catch (CTFException e) {
+                throw new IllegalStateException(e);
+            }
+            pm.stop();
+        }
+        pm.commit();
+    }
+
+    private static void benchmarkLayout(int[] layout, String testName, boolean inGlobalSummary) {
+        Performance perf = Performance.getDefault();
+        PerformanceMeter pm = perf.createPerformanceMeter(TEST_ID + '#' + testName);
+        perf.tagAsSummary(pm, TEST_SUITE_NAME + ':' + testName, Dimension.CPU_TIME);
+
+        if (inGlobalSummary) {
+            perf.tagAsGlobalSummary(pm, TEST_SUITE_NAME + ':' + testName, Dimension.CPU_TIME);
+        }
+
+        BitBuffer input = createPacket();
+        int eventBits = 0;
+        for (int width : layout) {
+            eventBits += (width == COMM ? -COMM * Byte.SIZE : width);
+        }
+        byte[] comm = new byte[-COMM];
+        for (int loop = 0; loop < LOOP_COUNT; loop++) {
+            pm.start();
+            try {
+                for (int pass = 0; pass < NB_PASSES; pass++) {
+                    input.position(0);
+                    while (input.canRead(eventBits)) {
+                        for (int width : layout) {
+                            if (width == COMM) {
+                                input.get(comm);
+                            } else {
+                                input.get(width, false);
+                            }
+                        }
+                    }
+                }
+            } catch (CTFException e) {
+                throw new IllegalStateException(e);
+            }
+            pm.stop();
+        }
+        pm.commit();
+    }
+
+    private static BitBuffer createPacket() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(PACKET_SIZE);
+        if (buffer == null) {
+            throw new IllegalStateException("Failed to allocate memory");
+        }
+        for (int i = 0; i < PACKET_SIZE; i++) {
+            buffer.put(i, (byte) (i * 31));
+        }
+        return new BitBuffer(buffer, ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -12,6 +12,7 @@
 
 package org.eclipse.tracecompass.ctf.core.tests.io;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.nio.ByteBuffer;
@@ -456,6 +457,94 @@ public class BitBufferIntTest {
         assertEquals(0xFFFFFFL, result);
     }
 
+    /**
+     * Test reading byte-aligned negative values of every standard width.
+     *
+     * @throws CTFException
+     *             error
+     */
+    @Test
+    public void testGetAlignedSigned() throws CTFException {
+        fixture.position(0);
+        fixture.putInt(-1);
+        fixture.putInt(-1);
+        fixture.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+
+        for (int length = 8; length <= 64; length *= 2) {
+            fixture.position(0);
+            assertEquals(-1L, fixture.get(length, true));
+            assertEquals(length, fixture.position());
+            fixture.position(0);
+            assertEquals(-1L >>> (64 - length), fixture.get(length, false));
+        }
+    }
+
+    /**
+     * Test {@link BitBuffer#get(long[], int, boolean)} with byte-aligned
+     * 16-bit integers, in both byte orders.
+     *
+     * @throws CTFException
+     *             Not expected
+     */
+    @Test
+    public void testGetBulk_aligned() throws CTFException {
+        long[] result = new long[4];
+        fixture.position(0);
+        fixture.get(result, 16, false);
+        assertArrayEquals(new long[] { 0x0001, 0x0203, 0x0405, 0x0607 }, result);
+        assertEquals(64, fixture.position());
+
+        fixture.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        fixture.position(0);
+        fixture.get(result, 16, false);
+        assertArrayEquals(new long[] { 0x0100, 0x0302, 0x0504, 0x0706 }, result);
+    }
+
+    /**
+     * Test that {@link BitBuffer#get(long[], int, boolean)} reads the same
+     * values as successive calls to {@link BitBuffer#get(int, boolean)}, for
+     * aligned and unaligned integers.
+     *
+     * @throws CTFException
+     *             Not expected
+     */
+    @Test
+    public void testGetBulk_sameAsGet() throws CTFException {
+        BitBuffer buffer = createBuffer(64);
+        int[] lengths = { 5, 8, 12, 16, 32, 35, 64 };
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            buffer.setByteOrder(order);
+            for (int start = 0; start < 9; start++) {
+                for (int length : lengths) {
+                    long[] result = new long[4];
+                    buffer.position(start);
+                    buffer.get(result, length, true);
+                    long end = buffer.position();
+
+                    buffer.position(start);
+                    for (int i = 0; i < result.length; i++) {
+                        assertEquals(buffer.get(length, true), result[i]);
+                    }
+                    assertEquals(buffer.position(), end);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test {@link BitBuffer#get(long[], int, boolean)} reading past the end of
+     * the buffer. An exception should be thrown.
+     *
+     * @throws CTFException
+     *             Expected
+     */
+    @Test(expected = CTFException.class)
+    public void testGetBulk_invalid() throws CTFException {
+        BitBuffer fixture2 = createBuffer(16);
+        fixture2.position(0);
+        fixture2.get(new long[3], 64, false);
+    }
+
     /**
      * Test {@link BitBuffer#putInt(int)}
      *
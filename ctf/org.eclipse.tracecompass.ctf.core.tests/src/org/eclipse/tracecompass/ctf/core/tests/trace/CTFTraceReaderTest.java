@@ -17,11 +17,16 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.eclipse.tracecompass.ctf.core.CTFException;
 import org.eclipse.tracecompass.ctf.core.event.EventDefinition;
 import org.eclipse.tracecompass.ctf.core.tests.shared.CtfTestTrace;
 import org.eclipse.tracecompass.ctf.core.trace.CTFTrace;
 import org.eclipse.tracecompass.ctf.core.trace.CTFTraceReader;
+import org.eclipse.tracecompass.ctf.core.trace.ICTFPacketDescriptor;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -324,6 +329,95 @@ public class CTFTraceReaderTest {
         assertTrue(result);
     }
 
+    /**
+     * Test that reading the streams ahead returns the same events, in the same
+     * order and from the same packets, as reading them on the calling thread,
+     * also after a seek.
+     *
+     * @throws CTFException
+     *             error
+     */
+    @Test
+    public void testReadAhead() throws CTFException {
+        try (CTFTraceReader readAhead = new CTFTraceReader(testTrace.getTrace());) {
+            readAhead.setReadAhead(true);
+            assertTrue(readAhead.isReadAhead());
+            for (int i = 0; i < 2; i++) {
+                boolean hasMore = true;
+                for (int count = 0; hasMore && count < 10000; count++) {
+                    EventDefinition expected = fixture.getCurrentEventDef();
+                    EventDefinition actual = readAhead.getCurrentEventDef();
+                    assertNotNull(actual);
+                    assertEquals(expected.getTimestamp(), actual.getTimestamp());
+                    assertEquals(expected.getDeclaration(), actual.getDeclaration());
+                    assertEquals(expected.getCPU(), actual.getCPU());
+                    ICTFPacketDescriptor packet = actual.getPacketDescriptor();
+                    assertNotNull(packet);
+                    assertEquals(expected.getPacketDescriptor().getOffsetBytes(), packet.getOffsetBytes());
+                    assertTrue(packet.includes(actual.getTimestamp()));
+                    hasMore = fixture.advance();
+                    assertEquals(hasMore, readAhead.advance());
+                }
+                long timestamp = fixture.getCurrentEventDef().getTimestamp();
+                fixture.seek(timestamp);
+                readAhead.seek(timestamp);
+            }
+        }
+    }
+
+    /**
+     * Read a trace with several readers at once, while they build the packet
+     * indexes of the stream inputs they share, and check that every reader
+     * sees all the events, like a reader alone.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testConcurrentReaders() throws Throwable {
+        final List<Long> expected = new ArrayList<>();
+        try (CTFTraceReader reader = new CTFTraceReader(new CTFTrace(testTrace.getPath()));) {
+            while (reader.hasMoreEvents()) {
+                expected.add(reader.getCurrentEventDef().getTimestamp());
+                reader.advance();
+            }
+        }
+
+        /* A new trace, so that its packets are not indexed yet */
+        final CTFTrace trace = new CTFTrace(testTrace.getPath());
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final boolean readAhead = (i % 2 == 1);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try (CTFTraceReader reader = new CTFTraceReader(trace);) {
+                        reader.setReadAhead(readAhead);
+                        int count = 0;
+                        while (reader.hasMoreEvents()) {
+                            assertTrue(count < expected.size());
+                            assertEquals("Event " + count, expected.get(count).longValue(), reader.getCurrentEventDef().getTimestamp());
+                            count++;
+                            reader.advance();
+                        }
+                        assertEquals(expected.size(), count);
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Throwable e = error.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
     /**
      * @return
      */
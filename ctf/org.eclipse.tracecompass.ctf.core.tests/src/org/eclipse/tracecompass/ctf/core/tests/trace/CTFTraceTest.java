@@ -23,15 +23,21 @@ import static org.junit.Assume.assumeTrue;
 
 import java.io.File;
 import java.nio.ByteOrder;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.UUID;
 
 import org.eclipse.tracecompass.ctf.core.CTFException;
 import org.eclipse.tracecompass.ctf.core.event.CTFClock;
+import org.eclipse.tracecompass.ctf.core.event.EventDefinition;
 import org.eclipse.tracecompass.ctf.core.event.types.IDefinition;
 import org.eclipse.tracecompass.ctf.core.event.types.StructDeclaration;
 import org.eclipse.tracecompass.ctf.core.tests.shared.CtfTestTrace;
 import org.eclipse.tracecompass.ctf.core.trace.CTFStream;
 import org.eclipse.tracecompass.ctf.core.trace.CTFTrace;
+import org.eclipse.tracecompass.ctf.core.trace.CTFTraceReader;
+import org.eclipse.tracecompass.ctf.core.trace.ICTFPacketDescriptor;
+import org.eclipse.tracecompass.ctf.core.trace.ICTFPacketScanner;
 import org.eclipse.tracecompass.internal.ctf.core.event.metadata.exceptions.ParseException;
 import org.junit.Before;
 import org.junit.Test;
@@ -411,4 +417,50 @@ public class CTFTraceTest {
         assertEquals(7, (callsiteTest.getCallsite("testEvent", 7)).getIp());
         assertEquals(7, (callsiteTest.getCallsite("testEvent", 8)).getIp());
     }
+
+    /**
+     * Test scanning the packets in parallel, which must see the same events
+     * as a trace reader
+     *
+     * @throws CTFException
+     *             not expected
+     */
+    @Test
+    public void testScanPackets() throws CTFException {
+        CTFTrace trace = testTrace.getTraceFromFile();
+        Set<String> expectedNames = new HashSet<>();
+        long expectedCount = 0;
+        try (CTFTraceReader reader = new CTFTraceReader(trace);) {
+            reader.seek(0);
+            while (reader.hasMoreEvents()) {
+                expectedNames.add(reader.getCurrentEventDef().getDeclaration().getName());
+                expectedCount++;
+                reader.advance();
+            }
+        }
+
+        final Set<String> names = new HashSet<>();
+        long[] count = trace.scanPackets(new ICTFPacketScanner<long[]>() {
+            @Override
+            public long[] createResult() {
+                return new long[1];
+            }
+
+            @Override
+            public void addEvent(long[] result, ICTFPacketDescriptor packet, EventDefinition event) {
+                result[0]++;
+                synchronized (names) {
+                    names.add(event.getDeclaration().getName());
+                }
+            }
+
+            @Override
+            public long[] merge(long[] first, long[] second) {
+                first[0] += second[0];
+                return first;
+            }
+        });
+        assertEquals(expectedNames, names);
+        assertEquals(expectedCount, count[0]);
+    }
 }
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.ctf.core.tests.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.eclipse.tracecompass.ctf.core.CTFException;
+import org.eclipse.tracecompass.ctf.core.trace.ICTFPacketDescriptor;
+import org.eclipse.tracecompass.internal.ctf.core.trace.PacketIndexCacheFile;
+import org.eclipse.tracecompass.internal.ctf.core.trace.StreamInputPacketIndex;
+import org.eclipse.tracecompass.internal.ctf.core.trace.StreamInputPacketIndexEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the {@link PacketIndexCacheFile}, which stores the packet index of a
+ * stream file.
+ */
+public class PacketIndexCacheFileTest {
+
+    private static final int NB_PACKETS = 10;
+    private static final long PACKET_SIZE = 4096;
+
+    private File fStreamFile;
+    private File fCacheFile;
+    private StreamInputPacketIndex fIndex;
+
+    /**
+     * Create a stream file and its index
+     *
+     * @throws IOException
+     *             If the files could not be created
+     * @throws CTFException
+     *             If the index could not be created
+     */
+    @Before
+    public void setUp() throws IOException, CTFException {
+        fStreamFile = File.createTempFile("stream", ".ctf");
+        fCacheFile = new File(fStreamFile.getPath() + ".packet_index");
+        try (FileOutputStream out = new FileOutputStream(fStreamFile)) {
+            out.write(new byte[(int) (NB_PACKETS * PACKET_SIZE)]);
+        }
+        fIndex = new StreamInputPacketIndex();
+        for (int i = 0; i < NB_PACKETS; i++) {
+            fIndex.append(new StreamInputPacketIndexEntry(i * PACKET_SIZE * Byte.SIZE, PACKET_SIZE));
+        }
+    }
+
+    /**
+     * Delete the files
+     */
+    @After
+    public void tearDown() {
+        fStreamFile.delete();
+        fCacheFile.delete();
+    }
+
+    /**
+     * Test that the packets read from the cache file are the ones written
+     */
+    @Test
+    public void testReadWrite() {
+        assertNull(PacketIndexCacheFile.read(fCacheFile, fStreamFile));
+        PacketIndexCacheFile.write(fCacheFile, fStreamFile, fIndex);
+
+        List<ICTFPacketDescriptor> packets = PacketIndexCacheFile.read(fCacheFile, fStreamFile);
+        assertNotNull(packets);
+        assertEquals(NB_PACKETS, packets.size());
+        for (int i = 0; i < NB_PACKETS; i++) {
+            ICTFPacketDescriptor expected = fIndex.getElement(i);
+            ICTFPacketDescriptor actual = packets.get(i);
+            assertEquals(expected.getOffsetBits(), actual.getOffsetBits());
+            assertEquals(expected.getOffsetBytes(), actual.getOffsetBytes());
+            assertEquals(expected.getPacketSizeBits(), actual.getPacketSizeBits());
+            assertEquals(expected.getContentSizeBits(), actual.getContentSizeBits());
+            assertEquals(expected.getTimestampBegin(), actual.getTimestampBegin());
+            assertEquals(expected.getTimestampEnd(), actual.getTimestampEnd());
+            assertEquals(expected.getLostEvents(), actual.getLostEvents());
+            assertEquals(expected.getTarget(), actual.getTarget());
+            assertEquals(expected.getTargetId(), actual.getTargetId());
+        }
+    }
+
+    /**
+     * Test that the cache file is not used once the stream file changed
+     *
+     * @throws IOException
+     *             If the stream file could not be modified
+     */
+    @Test
+    public void testStreamFileChanged() throws IOException {
+        PacketIndexCacheFile.write(fCacheFile, fStreamFile, fIndex);
+        try (FileOutputStream out = new FileOutputStream(fStreamFile, true)) {
+            out.write(new byte[(int) PACKET_SIZE]);
+        }
+        assertNull(PacketIndexCacheFile.read(fCacheFile, fStreamFile));
+    }
+}
@@ -37,6 +37,7 @@ import org.junit.runners.Suite;
     CTFStreamInputTest.class,
     CTFStreamTest.class,
     CTFTraceWriterTest.class,
+    PacketIndexCacheFileTest.class,
     TraceReadAllTracesTest.class,
     UtilsTest.class
 })
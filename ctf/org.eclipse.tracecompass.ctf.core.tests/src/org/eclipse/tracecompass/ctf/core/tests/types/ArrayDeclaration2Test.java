@@ -19,15 +19,20 @@ import static org.junit.Assert.assertTrue;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import org.eclipse.tracecompass.ctf.core.CTFException;
 import org.eclipse.tracecompass.ctf.core.event.io.BitBuffer;
 import org.eclipse.tracecompass.ctf.core.event.scope.IDefinitionScope;
 import org.eclipse.tracecompass.ctf.core.event.types.AbstractArrayDefinition;
 import org.eclipse.tracecompass.ctf.core.event.types.CompoundDeclaration;
+import org.eclipse.tracecompass.ctf.core.event.types.Definition;
 import org.eclipse.tracecompass.ctf.core.event.types.Encoding;
 import org.eclipse.tracecompass.ctf.core.event.types.IDeclaration;
 import org.eclipse.tracecompass.ctf.core.event.types.IntegerDeclaration;
+import org.eclipse.tracecompass.ctf.core.event.types.IntegerDefinition;
 import org.eclipse.tracecompass.ctf.core.event.types.StringDeclaration;
 import org.eclipse.tracecompass.ctf.core.tests.io.Util;
 import org.eclipse.tracecompass.internal.ctf.core.event.types.ArrayDeclaration;
@@ -88,6 +93,93 @@ public class ArrayDeclaration2Test {
         assertNotNull(result);
     }
 
+    /**
+     * Get integer declarations whose arrays are read with the packed path:
+     * the standard widths, aligned or not, and a non-standard width, in both
+     * byte orders.
+     *
+     * @return the integer declarations
+     */
+    static List<IntegerDeclaration> createPackedIntegerDeclarations() {
+        List<IntegerDeclaration> declarations = new ArrayList<>();
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            declarations.add(IntegerDeclaration.createDeclaration(5, true, 10, order, Encoding.NONE, "", 1));
+            /* Bit-aligned, byte-aligned ones are read as a byte array instead */
+            declarations.add(IntegerDeclaration.createDeclaration(8, true, 10, order, Encoding.NONE, "", 1));
+            for (int length : new int[] { 16, 32, 64 }) {
+                declarations.add(IntegerDeclaration.createDeclaration(length, false, 10, order, Encoding.NONE, "", 1));
+                declarations.add(IntegerDeclaration.createDeclaration(length, true, 10, order, Encoding.NONE, "", length));
+            }
+        }
+        return declarations;
+    }
+
+    /**
+     * Check that the definitions of packed integers are the ones the elements
+     * would have if they were read one by one.
+     *
+     * @param elemType
+     *            the declaration of the integers
+     * @param data
+     *            the bytes the integers were read from
+     * @param startBit
+     *            the position where the integers were read from
+     * @param definitionScope
+     *            the scope where the array or sequence was read
+     * @param fieldName
+     *            the name of the array or sequence
+     * @param result
+     *            the definition of the array or sequence
+     * @param endBit
+     *            the position after reading the definition
+     * @throws CTFException
+     *             error in the bitbuffer
+     */
+    static void assertPackedIntegers(IntegerDeclaration elemType, byte[] data, long startBit,
+            IDefinitionScope definitionScope, String fieldName, AbstractArrayDefinition result, long endBit) throws CTFException {
+        BitBuffer input = new BitBuffer(Util.testMemory(ByteBuffer.wrap(data)));
+        input.position(startBit);
+        List<Definition> definitions = result.getDefinitions();
+        for (int i = 0; i < definitions.size(); i++) {
+            IntegerDefinition expected = elemType.createDefinition(definitionScope, fieldName + '[' + i + ']', input);
+            IntegerDefinition actual = (IntegerDefinition) definitions.get(i);
+            assertEquals(elemType.toString(), expected.getValue(), actual.getValue());
+            assertEquals(expected.getDeclaration(), actual.getDeclaration());
+            assertEquals(expected.getScopePath().getPath(), actual.getScopePath().getPath());
+        }
+        assertEquals(elemType.toString(), input.position(), endBit);
+    }
+
+    /**
+     * Run the ArrayDefinition createDefinition(DefinitionScope,String) method
+     * test with arrays of packed integers, which are bulk read.
+     *
+     * @throws CTFException
+     *             error in the bitbuffer
+     */
+    @Test
+    public void testCreateDefinitionPackedIntegers() throws CTFException {
+        final int nbElements = 13;
+        final long startBit = 3;
+        byte[] data = new byte[nbElements * 8 + 8];
+        new Random(0).nextBytes(data);
+
+        for (IntegerDeclaration elemType : createPackedIntegerDeclarations()) {
+            ArrayDeclaration declaration = new ArrayDeclaration(nbElements, elemType);
+            assertTrue(declaration.isPackedIntegers());
+            assertFalse(declaration.isAlignedBytes());
+
+            BitBuffer input = new BitBuffer(Util.testMemory(ByteBuffer.wrap(data)));
+            input.position(startBit);
+            AbstractArrayDefinition result = declaration.createDefinition(null, "packed", input);
+
+            assertEquals(nbElements, result.getDefinitions().size());
+            assertPackedIntegers(elemType, data, startBit, null, "packed", result, input.position());
+            /* The byte order of the buffer is restored */
+            assertEquals(ByteOrder.BIG_ENDIAN, input.getByteOrder());
+        }
+    }
+
     /**
      * Run the Declaration getElementType() method test.
      */
@@ -19,6 +19,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Random;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.tracecompass.ctf.core.CTFException;
@@ -32,6 +33,7 @@ import org.eclipse.tracecompass.ctf.core.event.types.IntegerDefinition;
 import org.eclipse.tracecompass.ctf.core.event.types.StringDeclaration;
 import org.eclipse.tracecompass.ctf.core.event.types.StructDeclaration;
 import org.eclipse.tracecompass.ctf.core.event.types.StructDefinition;
+import org.eclipse.tracecompass.ctf.core.tests.io.Util;
 import org.eclipse.tracecompass.internal.ctf.core.event.types.SequenceDeclaration;
 import org.junit.Before;
 import org.junit.Test;
@@ -107,6 +109,51 @@ public class SequenceDeclaration2Test {
         assertNotNull(result);
     }
 
+    /**
+     * Run the SequenceDefinition createDefinition(DefinitionScope,String)
+     * method test with sequences of packed integers, which are bulk read.
+     *
+     * @throws CTFException
+     *             an error in the bitbuffer
+     */
+    @Test
+    public void testCreateDefinitionPackedIntegers() throws CTFException {
+        final int seqLen = 13;
+        final long startBit = 3;
+        byte[] data = new byte[seqLen * 8 + 8];
+        new Random(0).nextBytes(data);
+
+        IntegerDeclaration id = IntegerDeclaration.createDeclaration(8, false, 8,
+                ByteOrder.LITTLE_ENDIAN, Encoding.UTF8, "", 32);
+        StructDeclaration structDec = new StructDeclaration(0);
+        structDec.addField(FIELD_NAME, id);
+        StructDefinition structDef = new StructDefinition(
+                structDec,
+                null,
+                "x",
+                new Definition[] {
+                        new IntegerDefinition(
+                                id,
+                                null,
+                                FIELD_NAME,
+                                seqLen)
+                });
+
+        for (IntegerDeclaration elemType : ArrayDeclaration2Test.createPackedIntegerDeclarations()) {
+            SequenceDeclaration declaration = new SequenceDeclaration(FIELD_NAME, elemType);
+            assertTrue(declaration.isPackedIntegers());
+            assertFalse(declaration.isAlignedBytes());
+
+            BitBuffer bb = new BitBuffer(Util.testMemory(ByteBuffer.wrap(data)));
+            bb.position(startBit);
+            AbstractArrayDefinition result = declaration.createDefinition(structDef, "packed", bb);
+
+            assertEquals(seqLen, result.getLength());
+            ArrayDeclaration2Test.assertPackedIntegers(elemType, data, startBit, structDef, "packed", result, bb.position());
+            assertEquals(ByteOrder.BIG_ENDIAN, bb.getByteOrder());
+        }
+    }
+
     /**
      * Run the Declaration getElementType() method test.
      */
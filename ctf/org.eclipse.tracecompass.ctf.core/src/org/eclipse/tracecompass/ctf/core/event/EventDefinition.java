@@ -25,6 +25,7 @@ import org.eclipse.tracecompass.ctf.core.event.types.IDefinition;
 import org.eclipse.tracecompass.ctf.core.event.types.StructDeclaration;
 import org.eclipse.tracecompass.ctf.core.event.types.StructDefinition;
 import org.eclipse.tracecompass.ctf.core.trace.CTFStreamInputReader;
+import org.eclipse.tracecompass.ctf.core.trace.ICTFPacketDescriptor;
 import org.eclipse.tracecompass.internal.ctf.core.event.EventDeclaration;
 
 /**
@@ -73,6 +74,17 @@ public final class EventDefinition implements IDefinitionScope {
      */
     private final CTFStreamInputReader fStreamInputReader;
 
+    /**
+     * The packet this event was read from, recorded when the event is read
+     * since the reader may already be decoding the next packets.
+     */
+    private final ICTFPacketDescriptor fPacketDescriptor;
+
+    /**
+     * The CPU of the packet this event was read from.
+     */
+    private final int fCpu;
+
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
@@ -136,9 +148,53 @@ public final class EventDefinition implements IDefinitionScope {
             ICompositeDefinition eventContext,
             ICompositeDefinition packetContext,
             ICompositeDefinition fields) {
+        this(declaration, streamInputReader,
+                streamInputReader == null ? null : streamInputReader.getPacketReader().getCurrentPacket(),
+                streamInputReader == null ? 0 : streamInputReader.getCPU(),
+                timestamp, eventHeaderDefinition, streamContext, eventContext,
+                packetContext, fields);
+    }
+
+    /**
+     * Constructs an event definition, with the packet it was read from.
+     *
+     * @param declaration
+     *            The corresponding event declaration
+     * @param streamInputReader
+     *            The SIR from where this EventDef was read
+     * @param packetDescriptor
+     *            The packet this event was read from, can be null
+     * @param cpu
+     *            The CPU of the packet this event was read from
+     * @param timestamp
+     *            event timestamp
+     * @param eventHeaderDefinition
+     *            the event header definition, can be null
+     * @param eventContext
+     *            The event context
+     * @param packetContext
+     *            the packet context
+     * @param streamContext
+     *            the stream context
+     * @param fields
+     *            The event fields
+     * @since 1.1
+     */
+    public EventDefinition(IEventDeclaration declaration,
+            CTFStreamInputReader streamInputReader,
+            ICTFPacketDescriptor packetDescriptor,
+            int cpu,
+            long timestamp,
+            ICompositeDefinition eventHeaderDefinition,
+            ICompositeDefinition streamContext,
+            ICompositeDefinition eventContext,
+            ICompositeDefinition packetContext,
+            ICompositeDefinition fields) {
         fDeclaration = declaration;
         fEventHeaderDefinition = eventHeaderDefinition;
         fStreamInputReader = streamInputReader;
+        fPacketDescriptor = packetDescriptor;
+        fCpu = cpu;
         fTimestamp = timestamp;
         fFields = fields;
         fEventContext = eventContext;
@@ -280,7 +336,17 @@ public final class EventDefinition implements IDefinitionScope {
      * @return The CPU the event was generated by
      */
     public int getCPU() {
-        return fStreamInputReader.getCPU();
+        return fCpu;
+    }
+
+    /**
+     * Gets the packet this event was read from
+     *
+     * @return the packet descriptor, can be null
+     * @since 1.1
+     */
+    public ICTFPacketDescriptor getPacketDescriptor() {
+        return fPacketDescriptor;
     }
 
     /**
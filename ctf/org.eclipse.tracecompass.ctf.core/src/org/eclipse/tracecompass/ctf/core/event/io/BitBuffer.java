@@ -151,6 +151,20 @@ public final class BitBuffer {
         if (length > BIT_LONG) {
             throw new CTFException("Cannot read a long longer than 64 bits. Rquested: " + length); //$NON-NLS-1$
         }
+        /*
+         * Most fields are byte-aligned and of a standard width, read them
+         * directly from the byte buffer.
+         */
+        if (isByteAligned() && isStandardWidth(length)) {
+            if (!canRead(length)) {
+                throw new CTFException("Cannot read the integer, " + //$NON-NLS-1$
+                        "the buffer does not have enough remaining space. " + //$NON-NLS-1$
+                        "Requested:" + length); //$NON-NLS-1$
+            }
+            long retVal = getAligned((int) (fPosition / BIT_CHAR), length, signed);
+            fPosition += length;
+            return retVal;
+        }
         if (length > BIT_INT) {
             final int highShift = length - BIT_INT;
             long a = getInt();
@@ -172,6 +186,52 @@ public final class BitBuffer {
         return (signed ? retVal : (retVal & INT_MASK));
     }
 
+    /**
+     * Relative bulk <i>get</i> method for reading consecutive integers of
+     * <i>length</i> bits.
+     *
+     * Reads <i>dst.length</i> integers of <i>length</i> bits each, starting at
+     * the current position, without any padding between them. The results are
+     * signed extended if <i>signed</i> is true. The current position is
+     * increased of <i>dst.length * length</i> bits.
+     *
+     * @param dst
+     *            The array to fill with the values read
+     * @param length
+     *            The length in bits of each integer
+     * @param signed
+     *            The sign extended flag
+     * @throws CTFException
+     *             An error occurred reading the data. If more than 64 bits at a
+     *             time are read, or the buffer is read beyond its end, this
+     *             exception will be raised.
+     * @since 1.1
+     */
+    public void get(long[] dst, int length, boolean signed) throws CTFException {
+        if (length > BIT_LONG) {
+            throw new CTFException("Cannot read a long longer than 64 bits. Rquested: " + length); //$NON-NLS-1$
+        }
+        if (fPosition + (long) dst.length * length > fBitCapacity) {
+            throw new CTFException("Cannot read the integers, " + //$NON-NLS-1$
+                    "the buffer does not have enough remaining space. " + //$NON-NLS-1$
+                    "Requested:" + dst.length + '*' + length); //$NON-NLS-1$
+        }
+        if (isByteAligned() && isStandardWidth(length)) {
+            /* Every element is aligned too, skip the checks of each read */
+            final int step = length / BIT_CHAR;
+            int index = (int) (fPosition / BIT_CHAR);
+            for (int i = 0; i < dst.length; i++) {
+                dst[i] = getAligned(index, length, signed);
+                index += step;
+            }
+            fPosition += (long) dst.length * length;
+            return;
+        }
+        for (int i = 0; i < dst.length; i++) {
+            dst[i] = get(length, signed);
+        }
+    }
+
     /**
      * Relative bulk <i>get</i> method.
      *
@@ -231,39 +291,9 @@ public final class BitBuffer {
          * Try a fast read when the position is byte-aligned by using
          * java.nio.ByteBuffer's native methods
          */
-        /*
-         * A faster alignment detection as the compiler cannot guaranty that pos
-         * is always positive.
-         */
-        if ((fPosition & (BitBuffer.BIT_CHAR - 1)) == 0) {
-            switch (length) {
-            case BitBuffer.BIT_CHAR:
-                // Byte
-                val = fBuffer.get((int) (fPosition / BIT_CHAR));
-                if (!signed) {
-                    val = val & BYTE_MASK;
-                }
-                gotIt = true;
-                break;
-
-            case BitBuffer.BIT_SHORT:
-                // Word
-                val = fBuffer.getShort((int) (fPosition / BIT_CHAR));
-                if (!signed) {
-                    val = val & SHORT_MASK;
-                }
-                gotIt = true;
-                break;
-
-            case BitBuffer.BIT_INT:
-                // Double word
-                val = fBuffer.getInt((int) (fPosition / BIT_CHAR));
-                gotIt = true;
-                break;
-
-            default:
-                break;
-            }
+        if (isByteAligned() && isStandardWidth(length)) {
+            val = (int) getAligned((int) (fPosition / BIT_CHAR), length, signed);
+            gotIt = true;
         }
 
         /* When not byte-aligned, fall-back to a general decoder. */
@@ -280,6 +310,44 @@ public final class BitBuffer {
         return val;
     }
 
+    private boolean isByteAligned() {
+        /*
+         * A faster alignment detection as the compiler cannot guaranty that pos
+         * is always positive.
+         */
+        return (fPosition & (BIT_CHAR - 1)) == 0;
+    }
+
+    private static boolean isStandardWidth(int length) {
+        return (length == BIT_CHAR) || (length == BIT_SHORT) || (length == BIT_INT) || (length == BIT_LONG);
+    }
+
+    /**
+     * Read a byte-aligned integer of a standard width, using
+     * java.nio.ByteBuffer's native methods. The bounds must have been checked.
+     */
+    private long getAligned(int byteIndex, int length, boolean signed) {
+        switch (length) {
+        case BIT_CHAR:
+            // Byte
+            byte b = fBuffer.get(byteIndex);
+            return (signed ? b : (b & BYTE_MASK));
+        case BIT_SHORT:
+            // Word
+            short s = fBuffer.getShort(byteIndex);
+            return (signed ? s : (s & SHORT_MASK));
+        case BIT_INT:
+            // Double word
+            int i = fBuffer.getInt(byteIndex);
+            return (signed ? i : (i & INT_MASK));
+        case BIT_LONG:
+            // Quad word
+            return fBuffer.getLong(byteIndex);
+        default:
+            throw new IllegalArgumentException("Not a standard width: " + length); //$NON-NLS-1$
+        }
+    }
+
     private int getIntBE(long index, int length, boolean signed) {
         if ((length <= 0) || (length > BIT_INT)) {
             throw new IllegalArgumentException("Length must be between 1-32 bits"); //$NON-NLS-1$
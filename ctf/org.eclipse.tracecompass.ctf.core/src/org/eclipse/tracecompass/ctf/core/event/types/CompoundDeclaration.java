@@ -12,6 +12,11 @@
 
 package org.eclipse.tracecompass.ctf.core.event.types;
 
+import java.nio.ByteOrder;
+
+import org.eclipse.tracecompass.ctf.core.CTFException;
+import org.eclipse.tracecompass.ctf.core.event.io.BitBuffer;
+
 /**
  * Parent of sequences and arrays
  *
@@ -66,4 +71,50 @@ public abstract class CompoundDeclaration extends Declaration {
         return false;
     }
 
+    /**
+     * If an array contains integers that follow each other without padding
+     * once the first one is aligned, their values can be bulk read.
+     *
+     * @return true if the elements are contiguous integers. false if it's a
+     *         "normal" array of generic Definition's.
+     * @since 1.1
+     */
+    public boolean isPackedIntegers() {
+        IDeclaration elementType = getElementType();
+        if (elementType instanceof IntegerDeclaration) {
+            IntegerDeclaration elemInt = (IntegerDeclaration) elementType;
+            int length = elemInt.getLength();
+            long alignment = elemInt.getAlignment();
+            return (length > 0) && (length <= Long.SIZE) && (alignment > 0) && ((length % alignment) == 0);
+        }
+        return false;
+    }
+
+    /**
+     * Bulk read the values of an array of packed integers, see
+     * {@link #isPackedIntegers()}.
+     *
+     * @param input
+     *            the bitbuffer containing the integers
+     * @param nbElements
+     *            the number of integers to read
+     * @return the values of the integers
+     * @throws CTFException
+     *             error in reading
+     * @since 1.1
+     */
+    protected final long[] readPackedIntegers(BitBuffer input, int nbElements) throws CTFException {
+        IntegerDeclaration elemInt = (IntegerDeclaration) getElementType();
+        alignRead(input);
+        long[] values = new long[nbElements];
+        ByteOrder byteOrder = input.getByteOrder();
+        input.setByteOrder(elemInt.getByteOrder());
+        try {
+            input.get(values, elemInt.getLength(), elemInt.isSigned());
+        } finally {
+            input.setByteOrder(byteOrder);
+        }
+        return values;
+    }
+
 }
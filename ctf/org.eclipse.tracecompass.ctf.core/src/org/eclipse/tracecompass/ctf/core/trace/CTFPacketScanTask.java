@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.eclipse.tracecompass.ctf.core.trace;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.eclipse.tracecompass.ctf.core.CTFException;
+import org.eclipse.tracecompass.ctf.core.event.EventDefinition;
+import org.eclipse.tracecompass.internal.ctf.core.Activator;
+import org.eclipse.tracecompass.internal.ctf.core.trace.StreamInputPacketIndex;
+
+/**
+ * Fork-join task decoding a range of packets of a stream input, splitting it
+ * until few enough packets are left for one worker.
+ *
+ * @param <R>
+ *            The type of the result
+ */
+final class CTFPacketScanTask<R> extends RecursiveTask<R> {
+
+    private static final long serialVersionUID = -3597434389476306217L;
+
+    /** Number of packets decoded by a task without splitting it */
+    private static final int PACKETS_PER_TASK = 4;
+
+    private final ICTFPacketScanner<R> fScanner;
+    private final CTFStreamInput fStreamInput;
+    private final int fStart;
+    private final int fEnd;
+
+    /**
+     * Constructor
+     *
+     * @param scanner
+     *            The scanner computing the result
+     * @param streamInput
+     *            The stream input to read
+     * @param start
+     *            The index of the first packet to decode
+     * @param end
+     *            The index after the last packet to decode
+     */
+    private CTFPacketScanTask(ICTFPacketScanner<R> scanner, CTFStreamInput streamInput, int start, int end) {
+        fScanner = scanner;
+        fStreamInput = streamInput;
+        fStart = start;
+        fEnd = end;
+    }
+
+    /**
+     * Decode all the packets of the trace in the pool and merge the results
+     *
+     * @param trace
+     *            The trace to scan
+     * @param scanner
+     *            The scanner computing the result
+     * @return The result for all the events of the trace
+     * @throws CTFException
+     *             If a packet could not be read
+     */
+    static <R> R scan(CTFTrace trace, final ICTFPacketScanner<R> scanner) throws CTFException {
+        final List<CTFPacketScanTask<R>> tasks = new ArrayList<>();
+        for (CTFStream stream : trace.getStreams()) {
+            for (CTFStreamInput streamInput : stream.getStreamInputs()) {
+                /* Index the packets that were not read yet */
+                while (streamInput.addPacketHeaderIndex()) {
+                    // Nothing to do
+                }
+                int nbPackets = streamInput.getIndex().size();
+                if (nbPackets > 0) {
+                    tasks.add(new CTFPacketScanTask<>(scanner, streamInput, 0, nbPackets));
+                }
+            }
+        }
+        try {
+            return PoolHolder.POOL.invoke(new RecursiveTask<R>() {
+                private static final long serialVersionUID = 5297461372810236475L;
+
+                @Override
+                protected R compute() {
+                    invokeAll(tasks);
+                    R result = scanner.createResult();
+                    for (CTFPacketScanTask<R> task : tasks) {
+                        result = scanner.merge(result, task.join());
+                    }
+                    return result;
+                }
+            });
+        } catch (ScanException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    protected R compute() {
+        if (fEnd - fStart > PACKETS_PER_TASK) {
+            int middle = (fStart + fEnd) >>> 1;
+            CTFPacketScanTask<R> second = new CTFPacketScanTask<>(fScanner, fStreamInput, middle, fEnd);
+            second.fork();
+            R first = new CTFPacketScanTask<>(fScanner, fStreamInput, fStart, middle).compute();
+            return fScanner.merge(first, second.join());
+        }
+        try {
+            return decodePackets();
+        } catch (CTFException e) {
+            throw new ScanException(e);
+        }
+    }
+
+    private R decodePackets() throws CTFException {
+        R result = fScanner.createResult();
+        StreamInputPacketIndex index = fStreamInput.getIndex();
+        /* A reader of its own, so that the workers do not share buffers */
+        try (CTFStreamInputReader reader = new CTFStreamInputReader(fStreamInput)) {
+            CTFStreamInputPacketReader packetReader = reader.getPacketReader();
+            for (int i = fStart; i < fEnd; i++) {
+                ICTFPacketDescriptor packet = index.getElement(i);
+                packetReader.setCurrentPacket(packet);
+                while (packetReader.hasMoreEvents()) {
+                    EventDefinition event = packetReader.readNextEvent();
+                    if (event == null) {
+                        break;
+                    }
+                    fScanner.addEvent(result, packet, event);
+                }
+            }
+        } catch (IOException e) {
+            Activator.logError(e.getMessage(), e);
+        }
+        return result;
+    }
+
+    /**
+     * Carries the errors of the workers out of the pool
+     */
+    private static final class ScanException extends RuntimeException {
+        private static final long serialVersionUID = 2437911427834512137L;
+
+        public ScanException(CTFException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized CTFException getCause() {
+            return (CTFException) super.getCause();
+        }
+    }
+
+    /**
+     * The pool decoding the packets, created on first use
+     */
+    private static final class PoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+}
@@ -18,6 +18,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.StandardOpenOption;
+import java.util.List;
 import java.util.UUID;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
@@ -32,7 +33,9 @@ import org.eclipse.tracecompass.ctf.core.event.types.Definition;
 import org.eclipse.tracecompass.ctf.core.event.types.IntegerDefinition;
 import org.eclipse.tracecompass.ctf.core.event.types.StructDeclaration;
 import org.eclipse.tracecompass.ctf.core.event.types.StructDefinition;
+import org.eclipse.tracecompass.internal.ctf.core.Activator;
 import org.eclipse.tracecompass.internal.ctf.core.SafeMappedByteBuffer;
+import org.eclipse.tracecompass.internal.ctf.core.trace.PacketIndexCacheFile;
 import org.eclipse.tracecompass.internal.ctf.core.trace.StreamInputPacketIndex;
 import org.eclipse.tracecompass.internal.ctf.core.trace.StreamInputPacketIndexEntry;
 import org.eclipse.tracecompass.internal.ctf.core.trace.Utils;
@@ -66,7 +69,7 @@ public class CTFStreamInput implements IDefinitionScope {
      */
     private final StreamInputPacketIndex fIndex;
 
-    private long fTimestampEnd;
+    private volatile long fTimestampEnd;
 
     /**
      * Definition of trace packet header
@@ -83,6 +86,16 @@ public class CTFStreamInput implements IDefinitionScope {
      */
     private long fLostSoFar = 0;
 
+    /**
+     * File caching the packet index, null if the index is not cached
+     */
+    private @Nullable File fIndexCacheFile = null;
+
+    /**
+     * Number of packets of the index that are in the cache file
+     */
+    private int fNbCachedPackets = 0;
+
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
@@ -203,6 +216,38 @@ public class CTFStreamInput implements IDefinitionScope {
 
     }
 
+    /**
+     * Set the file caching the packet index of this stream input. If the
+     * index is empty, it is read from the cache file, when that file is up to
+     * date with the stream file. Once all the packets are indexed, the index
+     * is written to the cache file.
+     *
+     * @param cacheFile
+     *            The cache file
+     * @since 1.1
+     */
+    public synchronized void setIndexCacheFile(File cacheFile) {
+        fIndexCacheFile = cacheFile;
+        if (!fIndex.isEmpty()) {
+            return;
+        }
+        List<ICTFPacketDescriptor> packets = PacketIndexCacheFile.read(cacheFile, fFile);
+        if (packets == null || packets.isEmpty()) {
+            return;
+        }
+        try {
+            fIndex.appendAll(packets);
+        } catch (CTFException e) {
+            Activator.logError(e.getMessage(), e);
+            return;
+        }
+        for (ICTFPacketDescriptor packet : packets) {
+            fLostSoFar += packet.getLostEvents();
+        }
+        setTimestampEnd(packets.get(packets.size() - 1).getTimestampEnd());
+        fNbCachedPackets = packets.size();
+    }
+
     /**
      * Adds the next packet header index entry to the index of a stream input.
      *
@@ -214,6 +259,20 @@ public class CTFStreamInput implements IDefinitionScope {
      *             If there was a problem reading the packed header
      */
     public boolean addPacketHeaderIndex() throws CTFException {
+        return indexNextPacket() >= 0;
+    }
+
+    /**
+     * Adds the next packet header index entry to the index of a stream input.
+     * Several readers can index the same stream input concurrently, so the
+     * packet that was added is not necessarily the last one a reader saw.
+     *
+     * @return the position of the packet that was added in the index, or -1
+     *         if all the packets are already indexed
+     * @throws CTFException
+     *             If there was a problem reading the packed header
+     */
+    synchronized int indexNextPacket() throws CTFException {
         long currentPosBits = 0L;
         if (!fIndex.isEmpty()) {
             ICTFPacketDescriptor pos = fIndex.lastElement();
@@ -223,10 +282,15 @@ public class CTFStreamInput implements IDefinitionScope {
             currentPosBits = pos.getOffsetBits() + pos.getPacketSizeBits();
         }
         if (currentPosBits < getStreamSizeBits()) {
-            fIndex.append(createPacketIndexEntry(currentPosBits));
-            return true;
+            return fIndex.append(createPacketIndexEntry(currentPosBits));
+        }
+        /* All the packets are indexed, update the cache if needed */
+        File cacheFile = fIndexCacheFile;
+        if (cacheFile != null && fIndex.size() > fNbCachedPackets) {
+            PacketIndexCacheFile.write(cacheFile, fFile, fIndex);
+            fNbCachedPackets = fIndex.size();
         }
-        return false;
+        return -1;
     }
 
     private long getStreamSizeBits() {
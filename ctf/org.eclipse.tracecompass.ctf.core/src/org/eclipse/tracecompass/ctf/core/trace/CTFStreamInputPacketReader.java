@@ -192,8 +192,9 @@ public class CTFStreamInputPacketReader implements IDefinitionScope, AutoCloseab
      * Gets the current packet
      *
      * @return the current packet
+     * @since 1.1
      */
-    ICTFPacketDescriptor getCurrentPacket() {
+    public ICTFPacketDescriptor getCurrentPacket() {
         return fCurrentPacket;
     }
 
@@ -342,10 +343,13 @@ public class CTFStreamInputPacketReader implements IDefinitionScope, AutoCloseab
             return new EventDefinition(
                     lostEventDeclaration,
                     fStreamInputReader,
+                    currentPacket,
+                    fCurrentCpu,
                     lostEventsTimestamp,
                     null,
                     null,
                     null,
+                    null,
                     new StructDefinition(
                             lostFields,
                             this, "fields", //$NON-NLS-1$
@@ -17,6 +17,13 @@ import java.io.IOException;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.tracecompass.ctf.core.CTFException;
@@ -35,6 +42,12 @@ import com.google.common.collect.ImmutableList;
  */
 public class CTFStreamInputReader implements AutoCloseable {
 
+    /** Number of events decoded ahead, per stream */
+    private static final int READ_AHEAD_CAPACITY = 256;
+
+    /** Number of events decoded between two accesses to the buffer */
+    private static final int READ_AHEAD_BATCH = 32;
+
     // ------------------------------------------------------------------------
     // Attributes
     // ------------------------------------------------------------------------
@@ -73,6 +86,17 @@ public class CTFStreamInputReader implements AutoCloseable {
      */
     private boolean fLive = false;
 
+    /**
+     * If the events should be decoded ahead by a worker thread
+     */
+    private boolean fReadAheadEnabled = false;
+
+    /**
+     * The events decoded ahead, null when the events are decoded by the
+     * caller of {@link #readNextEvent()}
+     */
+    private ReadAhead fReadAhead = null;
+
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
@@ -98,9 +122,10 @@ public class CTFStreamInputReader implements AutoCloseable {
         try {
             fPacketReader = new CTFStreamInputPacketReader(this);
             /*
-             * Get the iterator on the packet index.
+             * Get the iterator on the packet index, before the first packet
+             * since the index may already contain packets.
              */
-            fPacketIndex = 0;
+            fPacketIndex = -1;
             /*
              * Make first packet the current one.
              */
@@ -124,6 +149,7 @@ public class CTFStreamInputReader implements AutoCloseable {
      */
     @Override
     public void close() throws IOException {
+        stopReadAhead();
         if (fFileChannel != null) {
             fFileChannel.close();
         }
@@ -228,6 +254,42 @@ public class CTFStreamInputReader implements AutoCloseable {
         return fLive;
     }
 
+    /**
+     * Decode the events of this stream ahead, in a worker thread, into a
+     * bounded buffer. {@link #readNextEvent()} then only takes the decoded
+     * events from the buffer, so that several streams can be decoded in
+     * parallel while they are merged by the {@link CTFTraceReader}.
+     *
+     * Live traces are always read by the caller.
+     *
+     * @param readAhead
+     *            whether the events are decoded ahead or not
+     * @since 1.1
+     */
+    public void setReadAhead(boolean readAhead) {
+        fReadAheadEnabled = readAhead;
+        if (readAhead) {
+            if (fReadAhead != null) {
+                fReadAhead.resume();
+            } else {
+                startReadAhead();
+            }
+        } else if (fReadAhead != null) {
+            /* The events decoded so far are read before decoding the next ones */
+            fReadAhead.stop();
+        }
+    }
+
+    /**
+     * Get if the events of this stream are decoded ahead
+     *
+     * @return whether the events are decoded ahead or not
+     * @since 1.1
+     */
+    public boolean isReadAhead() {
+        return fReadAheadEnabled;
+    }
+
     /**
      * Get the event context of the stream
      *
@@ -248,7 +310,38 @@ public class CTFStreamInputReader implements AutoCloseable {
      *             if an error occurs
      */
     public CTFResponse readNextEvent() throws CTFException {
+        final ReadAhead readAhead = fReadAhead;
+        if (readAhead != null) {
+            EventDefinition event = readAhead.take();
+            if (event != null) {
+                setCurrentEvent(event);
+                return CTFResponse.OK;
+            }
+            /*
+             * The worker reached the end of the stream, or it was stopped and
+             * all its events were read. The decoder is where the worker left
+             * it.
+             */
+            fReadAhead = null;
+        }
+
+        EventDefinition event = decodeNextEvent();
+        this.setCurrentEvent(event);
+        if (event != null) {
+            return CTFResponse.OK;
+        }
+        return fLive ? CTFResponse.WAIT : CTFResponse.FINISH;
+    }
 
+    /**
+     * Decode the next event of the stream. Only the thread reading ahead, or
+     * the caller if there is none, may call this.
+     *
+     * @return the next event, or null if there are no more events for now
+     * @throws CTFException
+     *             if an error occurs
+     */
+    private EventDefinition decodeNextEvent() throws CTFException {
         /*
          * Change packet if needed
          */
@@ -265,11 +358,31 @@ public class CTFStreamInputReader implements AutoCloseable {
          * If an event is available, read it.
          */
         if (fPacketReader.hasMoreEvents()) {
-            setCurrentEvent(fPacketReader.readNextEvent());
-            return CTFResponse.OK;
+            return fPacketReader.readNextEvent();
+        }
+        return null;
+    }
+
+    /**
+     * Start decoding ahead from the current position of the decoder, if it is
+     * enabled
+     */
+    private void startReadAhead() {
+        if (fReadAheadEnabled && !fLive && fReadAhead == null) {
+            fReadAhead = new ReadAhead();
+            fReadAhead.fill();
+        }
+    }
+
+    /**
+     * Stop decoding ahead and drop the events that were decoded, before moving
+     * the decoder
+     */
+    private void stopReadAhead() {
+        if (fReadAhead != null) {
+            fReadAhead.stop();
+            fReadAhead = null;
         }
-        this.setCurrentEvent(null);
-        return fLive ? CTFResponse.WAIT : CTFResponse.FINISH;
     }
 
     /**
@@ -280,19 +393,25 @@ public class CTFStreamInputReader implements AutoCloseable {
      */
     private void goToNextPacket() throws CTFException {
         fPacketIndex++;
-        // did we already index the packet?
-        if (getPacketSize() >= (fPacketIndex + 1)) {
-            fPacketReader.setCurrentPacket(getPacket());
-        } else {
-            // go to the next packet if there is one, index it at the same time
-            if (fStreamInput.addPacketHeaderIndex()) {
-                fPacketIndex = getPacketSize() - 1;
-                fPacketReader.setCurrentPacket(getPacket());
-            } else {
-                // out of packets
-                fPacketReader.setCurrentPacket(null);
+        /*
+         * Index the packets up to the next one if needed. Other readers of the
+         * stream input may be indexing it at the same time, so the packet
+         * added is not necessarily the next one.
+         */
+        int lastIndexed = getPacketSize() - 1;
+        while (lastIndexed < fPacketIndex) {
+            lastIndexed = fStreamInput.indexNextPacket();
+            if (lastIndexed < 0) {
+                /* All the packets are indexed, maybe by another reader */
+                lastIndexed = getPacketSize() - 1;
+                if (lastIndexed < fPacketIndex) {
+                    // out of packets
+                    fPacketReader.setCurrentPacket(null);
+                    return;
+                }
             }
         }
+        fPacketReader.setCurrentPacket(getPacket());
     }
 
     /**
@@ -313,6 +432,15 @@ public class CTFStreamInputReader implements AutoCloseable {
      *             if an error occurs
      */
     public long seek(long timestamp) throws CTFException {
+        stopReadAhead();
+        try {
+            return seekDecoder(timestamp);
+        } finally {
+            startReadAhead();
+        }
+    }
+
+    private long seekDecoder(long timestamp) throws CTFException {
         long offset = 0;
 
         gotoPacket(timestamp);
@@ -360,8 +488,7 @@ public class CTFStreamInputReader implements AutoCloseable {
      *             if an error occurs
      */
     private void gotoPacket(long timestamp) throws CTFException {
-        fPacketIndex = fStreamInput.getIndex().search(timestamp)
-                .previousIndex();
+        fPacketIndex = fStreamInput.getIndex().search(timestamp) - 1;
         /*
          * Switch to this packet.
          */
@@ -375,11 +502,20 @@ public class CTFStreamInputReader implements AutoCloseable {
      *             if an error occurs
      */
     public void goToLastEvent() throws CTFException {
+        stopReadAhead();
+        try {
+            goToLastEventDecoder();
+        } finally {
+            startReadAhead();
+        }
+    }
+
+    private void goToLastEventDecoder() throws CTFException {
 
         /*
          * Go to the beginning of the trace
          */
-        seek(0);
+        seekDecoder(0);
 
         /*
          * Check that there is at least one event
@@ -483,6 +619,146 @@ public class CTFStreamInputReader implements AutoCloseable {
         return fPacketReader;
     }
 
+    /**
+     * The events of the stream decoded ahead by a worker thread.
+     *
+     * A worker only runs while the buffer is not full, so the pool threads are
+     * shared by all the streams. The decoder is only used by the worker while
+     * it runs, and by the reader once it is stopped.
+     */
+    private final class ReadAhead implements Runnable {
+
+        /* All the fields are protected by this */
+        private final Deque<EventDefinition> fBuffer = new ArrayDeque<>(READ_AHEAD_CAPACITY);
+        private boolean fRunning = false;
+        private boolean fStopped = false;
+        private boolean fEnd = false;
+        private Exception fError = null;
+
+        /**
+         * Start the worker if the buffer can be filled
+         */
+        public synchronized void fill() {
+            if (!fRunning && !fStopped && !fEnd && fError == null) {
+                fRunning = true;
+                ReadAheadExecutor.INSTANCE.execute(this);
+            }
+        }
+
+        /**
+         * Restart a stopped worker, the decoder was not moved since it stopped
+         */
+        public synchronized void resume() {
+            fStopped = false;
+            fill();
+        }
+
+        /**
+         * Take the next decoded event, waiting for the worker if needed
+         *
+         * @return the event, or null if there are no more events
+         * @throws CTFException
+         *             the error the worker got decoding the event
+         */
+        public synchronized EventDefinition take() throws CTFException {
+            boolean interrupted = false;
+            try {
+                while (fBuffer.isEmpty()) {
+                    if (fError instanceof CTFException) {
+                        throw (CTFException) fError;
+                    } else if (fError != null) {
+                        throw new IllegalStateException(fError);
+                    }
+                    if (fEnd || (fStopped && !fRunning)) {
+                        return null;
+                    }
+                    fill();
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                EventDefinition event = fBuffer.poll();
+                if (fBuffer.size() <= READ_AHEAD_CAPACITY / 2) {
+                    fill();
+                }
+                return event;
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Stop the worker and wait for it, so that the decoder can be used by
+         * the reader. The events already decoded can still be taken.
+         */
+        public synchronized void stop() {
+            fStopped = true;
+            boolean interrupted = false;
+            while (fRunning) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            List<EventDefinition> batch = new ArrayList<>(READ_AHEAD_BATCH);
+            boolean done = false;
+            while (!done) {
+                boolean end = false;
+                Exception error = null;
+                try {
+                    while (batch.size() < READ_AHEAD_BATCH && !end) {
+                        EventDefinition event = decodeNextEvent();
+                        if (event == null) {
+                            end = true;
+                        } else {
+                            batch.add(event);
+                        }
+                    }
+                } catch (CTFException | RuntimeException e) {
+                    error = e;
+                }
+                synchronized (this) {
+                    fBuffer.addAll(batch);
+                    fEnd = end;
+                    fError = error;
+                    done = (fStopped || end || error != null || fBuffer.size() >= READ_AHEAD_CAPACITY);
+                    if (done) {
+                        fRunning = false;
+                    }
+                    notifyAll();
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * The threads decoding the streams ahead, created on first use
+     */
+    private static final class ReadAheadExecutor {
+        static final ExecutorService INSTANCE = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "CTF stream read-ahead"); //$NON-NLS-1$
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -137,6 +137,7 @@ public class CTFTrace implements IDefinitionScope {
     /** Handlers for the metadata files */
     private static final FileFilter METADATA_FILE_FILTER = new MetadataFileFilter();
     private static final Comparator<File> METADATA_COMPARATOR = new MetadataComparator();
+    private static final String PACKET_INDEX_CACHE_SUFFIX = ".packet_index"; //$NON-NLS-1$
 
     /** Callsite helpers */
     private CTFCallsiteComparator fCtfCallsiteComparator = new CTFCallsiteComparator();
@@ -892,6 +893,48 @@ public class CTFTrace implements IDefinitionScope {
         return callsite;
     }
 
+    /**
+     * Cache the packet index of each stream file of this trace in a file of
+     * the given directory. The index of the stream files that were not read
+     * yet is read from the cache files that are up to date, and the index of
+     * a stream file is written to its cache file once all its packets are
+     * indexed.
+     *
+     * @param directory
+     *            The directory of the cache files
+     * @since 1.1
+     */
+    public void setPacketIndexCacheDirectory(File directory) {
+        if (!directory.isDirectory()) {
+            return;
+        }
+        for (CTFStream stream : getStreams()) {
+            for (CTFStreamInput streamInput : stream.getStreamInputs()) {
+                streamInput.setIndexCacheFile(new File(directory, streamInput.getFilename() + PACKET_INDEX_CACHE_SUFFIX));
+            }
+        }
+    }
+
+    /**
+     * Scan all the events of the trace, for analyses that do not need them in
+     * timestamp order. The packets of all the streams are decoded in parallel
+     * by a fork-join pool, and the results of the packets are merged.
+     *
+     * This reads the whole trace, do not call it in the fast path.
+     *
+     * @param <R>
+     *            The type of the result
+     * @param scanner
+     *            The scanner computing the result from the events
+     * @return The result for all the events of the trace
+     * @throws CTFException
+     *             If a packet could not be read
+     * @since 1.1
+     */
+    public <R> R scanPackets(ICTFPacketScanner<R> scanner) throws CTFException {
+        return CTFPacketScanTask.scan(this, scanner);
+    }
+
     /**
      * Add a new stream
      *
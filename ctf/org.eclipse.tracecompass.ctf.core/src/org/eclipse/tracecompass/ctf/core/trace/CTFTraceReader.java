@@ -83,6 +83,11 @@ public class CTFTraceReader implements AutoCloseable {
      */
     private boolean fClosed = false;
 
+    /**
+     * Boolean to indicate if the streams are decoded ahead
+     */
+    private boolean fReadAhead = false;
+
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
@@ -133,6 +138,7 @@ public class CTFTraceReader implements AutoCloseable {
         newReader = new CTFTraceReader(fTrace);
         newReader.fStartTime = fStartTime;
         newReader.setEndTime(fEndTime);
+        newReader.setReadAhead(fReadAhead);
         return newReader;
     }
 
@@ -234,6 +240,38 @@ public class CTFTraceReader implements AutoCloseable {
         return fClosed;
     }
 
+    /**
+     * Decode the events of each stream ahead, in parallel worker threads. The
+     * priority queue then merges events that are already decoded, which
+     * speeds up reading traces with many streams, like the per-CPU streams of
+     * kernel traces.
+     *
+     * Each stream buffers a bounded number of events, so this is meant for
+     * readers going through large parts of the trace, not for random access.
+     *
+     * @param readAhead
+     *            whether the streams are decoded ahead or not
+     * @since 1.1
+     */
+    public void setReadAhead(boolean readAhead) {
+        fReadAhead = readAhead;
+        synchronized (fStreamInputReaders) {
+            for (CTFStreamInputReader reader : fStreamInputReaders) {
+                reader.setReadAhead(readAhead);
+            }
+        }
+    }
+
+    /**
+     * Get if the streams of this reader are decoded ahead
+     *
+     * @return whether the streams are decoded ahead or not
+     * @since 1.1
+     */
+    public boolean isReadAhead() {
+        return fReadAhead;
+    }
+
     /**
      * Update the priority queue to make it match the parent trace
      *
@@ -256,6 +294,7 @@ public class CTFTraceReader implements AutoCloseable {
                  */
                 if (!fStreamInputReaders.contains(streamInputReader)) {
                     streamInputReader.readNextEvent();
+                    streamInputReader.setReadAhead(fReadAhead);
                     fStreamInputReaders.add(streamInputReader);
                     readers.add(streamInputReader);
                 }
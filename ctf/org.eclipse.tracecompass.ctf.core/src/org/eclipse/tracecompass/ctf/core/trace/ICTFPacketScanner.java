@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.eclipse.tracecompass.ctf.core.trace;
+
+import org.eclipse.tracecompass.ctf.core.event.EventDefinition;
+
+/**
+ * Computes a result from all the events of a trace, for analyses that do not
+ * need the events in timestamp order, like counting the events per type or
+ * the lost events. See {@link CTFTrace#scanPackets(ICTFPacketScanner)}.
+ *
+ * The packets are decoded in parallel, each worker thread accumulating the
+ * events of some packets in its own result, so the methods must not modify
+ * shared state.
+ *
+ * @param <R>
+ *            The type of the result
+ * @since 1.1
+ */
+public interface ICTFPacketScanner<R> {
+
+    /**
+     * Create an empty result, to which the events of some packets will be
+     * added
+     *
+     * @return The empty result
+     */
+    R createResult();
+
+    /**
+     * Add an event to a result. The events of a packet are added in order,
+     * but the packets are not.
+     *
+     * @param result
+     *            The result created for this packet by
+     *            {@link #createResult()}
+     * @param packet
+     *            The packet containing the event
+     * @param event
+     *            The event
+     */
+    void addEvent(R result, ICTFPacketDescriptor packet, EventDefinition event);
+
+    /**
+     * Merge two results, computed from different packets
+     *
+     * @param first
+     *            The first result
+     * @param second
+     *            The second result
+     * @return The merged result, which can be one of the parameters
+     */
+    R merge(R first, R second);
+}
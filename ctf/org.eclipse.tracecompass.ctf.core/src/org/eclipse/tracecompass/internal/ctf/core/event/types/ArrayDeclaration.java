@@ -15,6 +15,8 @@ package org.eclipse.tracecompass.internal.ctf.core.event.types;
 import static org.eclipse.tracecompass.common.core.NonNullUtils.checkNotNull;
 
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
@@ -25,8 +27,9 @@ import org.eclipse.tracecompass.ctf.core.event.types.AbstractArrayDefinition;
 import org.eclipse.tracecompass.ctf.core.event.types.CompoundDeclaration;
 import org.eclipse.tracecompass.ctf.core.event.types.Definition;
 import org.eclipse.tracecompass.ctf.core.event.types.IDeclaration;
+import org.eclipse.tracecompass.ctf.core.event.types.IntegerDeclaration;
+import org.eclipse.tracecompass.ctf.core.event.types.IntegerDefinition;
 
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 
@@ -59,7 +62,8 @@ public final class ArrayDeclaration extends CompoundDeclaration {
      *
      * TODO: investigate performance
      */
-    private final transient ArrayListMultimap<String, String> fChildrenNames = ArrayListMultimap.create();
+    /* The names of the elements, per field name. Several readers share it. */
+    private final transient ConcurrentMap<String, List<String>> fChildrenNames = new ConcurrentHashMap<>();
 
     // ------------------------------------------------------------------------
     // Constructors
@@ -125,12 +129,24 @@ public final class ArrayDeclaration extends CompoundDeclaration {
 
     private @NonNull List<Definition> read(@NonNull BitBuffer input, @Nullable IDefinitionScope definitionScope, String fieldName) throws CTFException {
         Builder<Definition> definitions = new ImmutableList.Builder<>();
-        if (!fChildrenNames.containsKey(fieldName)) {
+        List<String> elemNames = fChildrenNames.get(fieldName);
+        if (elemNames == null) {
+            Builder<String> names = new ImmutableList.Builder<>();
             for (int i = 0; i < fLength; i++) {
-                fChildrenNames.put(fieldName, fieldName + '[' + i + ']');
+                names.add(fieldName + '[' + i + ']');
             }
+            elemNames = checkNotNull(names.build());
+            fChildrenNames.put(fieldName, elemNames);
+        }
+        if (isPackedIntegers()) {
+            IntegerDeclaration elemInt = (IntegerDeclaration) fElemType;
+            long[] values = readPackedIntegers(input, fLength);
+            for (int i = 0; i < fLength; i++) {
+                String name = checkNotNull(elemNames.get(i));
+                definitions.add(new IntegerDefinition(elemInt, definitionScope, name, values[i]));
+            }
+            return checkNotNull(definitions.build());
         }
-        List<String> elemNames = fChildrenNames.get(fieldName);
         for (int i = 0; i < fLength; i++) {
             String name = elemNames.get(i);
             if (name == null) {
@@ -13,8 +13,9 @@ package org.eclipse.tracecompass.internal.ctf.core.event.types;
 
 import static org.eclipse.tracecompass.common.core.NonNullUtils.checkNotNull;
 
-import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tracecompass.ctf.core.CTFException;
@@ -25,12 +26,11 @@ import org.eclipse.tracecompass.ctf.core.event.types.CompoundDeclaration;
 import org.eclipse.tracecompass.ctf.core.event.types.Definition;
 import org.eclipse.tracecompass.ctf.core.event.types.IDeclaration;
 import org.eclipse.tracecompass.ctf.core.event.types.IDefinition;
+import org.eclipse.tracecompass.ctf.core.event.types.IntegerDeclaration;
 import org.eclipse.tracecompass.ctf.core.event.types.IntegerDefinition;
 
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
-import com.google.common.collect.Multimap;
 
 /**
  * A CTF sequence declaration.
@@ -48,7 +48,11 @@ public class SequenceDeclaration extends CompoundDeclaration {
 
     private final IDeclaration fElemType;
     private final String fLengthName;
-    private final transient Multimap<String, String> fPaths = ArrayListMultimap.create();
+    /*
+     * The names of the elements, per field name, for the longest sequence read
+     * so far. Several readers share it.
+     */
+    private final transient ConcurrentMap<String, List<String>> fPaths = new ConcurrentHashMap<>();
 
     // ------------------------------------------------------------------------
     // Constructors
@@ -123,12 +127,18 @@ public class SequenceDeclaration extends CompoundDeclaration {
             input.get(data);
             return new ByteArrayDefinition(this, definitionScope, fieldName, data);
         }
-        Collection<String> collection = fPaths.get(fieldName);
-        while (collection.size() < length) {
-            fPaths.put(fieldName, fieldName + '[' + collection.size() + ']');
-        }
-        List<String> paths = (List<String>) fPaths.get(fieldName);
+        List<String> paths = getPaths(fieldName, (int) length);
         Builder<Definition> definitions = new ImmutableList.Builder<>();
+        if (isPackedIntegers()) {
+            IntegerDeclaration elemInt = (IntegerDeclaration) fElemType;
+            long[] values = readPackedIntegers(input, (int) length);
+            for (int i = 0; i < length; i++) {
+                String elemName = checkNotNull(paths.get(i));
+                definitions.add(new IntegerDefinition(elemInt, definitionScope, elemName, values[i]));
+            }
+            List<Definition> list = checkNotNull(definitions.build());
+            return new ArrayDefinition(this, definitionScope, fieldName, list);
+        }
         for (int i = 0; i < length; i++) {
             /* We should not have inserted any null values */
             String elemName = checkNotNull(paths.get(i));
@@ -138,6 +148,21 @@ public class SequenceDeclaration extends CompoundDeclaration {
         return new ArrayDefinition(this, definitionScope, fieldName, list);
     }
 
+    private List<String> getPaths(String fieldName, int length) {
+        List<String> paths = fPaths.get(fieldName);
+        if (paths != null && paths.size() >= length) {
+            return paths;
+        }
+        Builder<String> names = new ImmutableList.Builder<>();
+        for (int i = 0; i < length; i++) {
+            names.add(fieldName + '[' + i + ']');
+        }
+        List<String> newPaths = checkNotNull(names.build());
+        /* Another reader may have stored longer paths meanwhile, that is fine */
+        fPaths.put(fieldName, newPaths);
+        return newPaths;
+    }
+
     @Override
     public String toString() {
         /* Only used for debugging */
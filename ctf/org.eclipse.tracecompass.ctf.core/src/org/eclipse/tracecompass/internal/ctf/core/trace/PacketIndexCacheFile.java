@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.internal.ctf.core.trace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.ctf.core.trace.ICTFPacketDescriptor;
+import org.eclipse.tracecompass.internal.ctf.core.Activator;
+import org.eclipse.tracecompass.internal.ctf.core.SafeMappedByteBuffer;
+
+/**
+ * File caching the packet index of a stream file, so that the packet headers
+ * do not have to be read again when the trace is opened again.
+ * <p>
+ * The file starts with a header identifying the stream file by its size and
+ * modification time, followed by the targets of the packets. The packets are
+ * then stored as fixed-size records, which are memory-mapped when the file is
+ * read: the descriptors read their fields from the mapped records.
+ * <p>
+ * The attributes of the packet contexts are not cached,
+ * {@link ICTFPacketDescriptor#lookupAttribute} returns null for the cached
+ * packets.
+ */
+public final class PacketIndexCacheFile {
+
+    private static final int MAGIC = 0x43545049; /* "CTPI" */
+    private static final int VERSION = 1;
+
+    /** No target, the target of the packet is null */
+    private static final int NO_TARGET = -1;
+
+    /* Record: 7 longs and the index of the target */
+    private static final int OFFSET_BITS = 0;
+    private static final int PACKET_SIZE_BITS = 8;
+    private static final int CONTENT_SIZE_BITS = 16;
+    private static final int TIMESTAMP_BEGIN = 24;
+    private static final int TIMESTAMP_END = 32;
+    private static final int LOST_EVENTS = 40;
+    private static final int TARGET_ID = 48;
+    private static final int TARGET = 56;
+    private static final int RECORD_SIZE = 60;
+
+    private PacketIndexCacheFile() {
+    }
+
+    /**
+     * Read the cached packet index of a stream file
+     *
+     * @param cacheFile
+     *            The cache file
+     * @param streamFile
+     *            The stream file the index is for
+     * @return The packets, or null if there is no valid cache for the current
+     *         content of the stream file
+     */
+    public static @Nullable List<ICTFPacketDescriptor> read(File cacheFile, File streamFile) {
+        if (!cacheFile.exists()) {
+            return null;
+        }
+        try {
+            final String[] targets;
+            final int nbPackets;
+            final long recordsPosition;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION ||
+                        in.readLong() != streamFile.length() ||
+                        in.readLong() != streamFile.lastModified()) {
+                    return null;
+                }
+                targets = new String[in.readInt()];
+                for (int i = 0; i < targets.length; i++) {
+                    targets[i] = in.readUTF();
+                }
+                nbPackets = in.readInt();
+                recordsPosition = cacheFile.length() - (long) nbPackets * RECORD_SIZE;
+            }
+            if (nbPackets < 0 || recordsPosition < 0) {
+                return null;
+            }
+
+            final ByteBuffer records;
+            try (FileChannel fc = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+                records = SafeMappedByteBuffer.map(fc, MapMode.READ_ONLY, recordsPosition, (long) nbPackets * RECORD_SIZE);
+            }
+            List<ICTFPacketDescriptor> packets = new AbstractList<ICTFPacketDescriptor>() {
+                @Override
+                public ICTFPacketDescriptor get(int index) {
+                    return new CachedPacketDescriptor(records, index * RECORD_SIZE, targets);
+                }
+
+                @Override
+                public int size() {
+                    return nbPackets;
+                }
+            };
+            return (isValid(packets, targets.length) ? new ArrayList<>(packets) : null);
+        } catch (IOException e) {
+            Activator.logError("Failed to read the packet index cache " + cacheFile, e); //$NON-NLS-1$
+            return null;
+        }
+    }
+
+    private static boolean isValid(List<ICTFPacketDescriptor> packets, int nbTargets) {
+        long previousBegin = Long.MIN_VALUE;
+        for (ICTFPacketDescriptor packet : packets) {
+            int target = ((CachedPacketDescriptor) packet).getTargetIndex();
+            if (packet.getTimestampBegin() > packet.getTimestampEnd() ||
+                    packet.getTimestampBegin() < previousBegin ||
+                    target < NO_TARGET || target >= nbTargets) {
+                return false;
+            }
+            previousBegin = packet.getTimestampBegin();
+        }
+        return true;
+    }
+
+    /**
+     * Write the packet index of a stream file to its cache file
+     *
+     * @param cacheFile
+     *            The cache file
+     * @param streamFile
+     *            The stream file the index is for
+     * @param index
+     *            The packet index of the stream file
+     */
+    public static void write(File cacheFile, File streamFile, StreamInputPacketIndex index) {
+        /* Write a temporary file, so that a partial file is never read */
+        File tmpFile = new File(cacheFile.getPath() + ".tmp"); //$NON-NLS-1$
+        try {
+            Map<String, Integer> targetIndexes = new HashMap<>();
+            List<String> targets = new ArrayList<>();
+            for (int i = 0; i < index.size(); i++) {
+                String target = index.getElement(i).getTarget();
+                if (target != null && !targetIndexes.containsKey(target)) {
+                    targetIndexes.put(target, targets.size());
+                    targets.add(target);
+                }
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(streamFile.length());
+                out.writeLong(streamFile.lastModified());
+                out.writeInt(targets.size());
+                for (String target : targets) {
+                    out.writeUTF(target);
+                }
+                out.writeInt(index.size());
+                for (int i = 0; i < index.size(); i++) {
+                    ICTFPacketDescriptor packet = index.getElement(i);
+                    out.writeLong(packet.getOffsetBits());
+                    out.writeLong(packet.getPacketSizeBits());
+                    out.writeLong(packet.getContentSizeBits());
+                    out.writeLong(packet.getTimestampBegin());
+                    out.writeLong(packet.getTimestampEnd());
+                    out.writeLong(packet.getLostEvents());
+                    out.writeLong(packet.getTargetId());
+                    Integer target = targetIndexes.get(packet.getTarget());
+                    out.writeInt(target == null ? NO_TARGET : target);
+                }
+            }
+            if (cacheFile.exists() && !cacheFile.delete()) {
+                throw new IOException("Cannot delete " + cacheFile); //$NON-NLS-1$
+            }
+            if (!tmpFile.renameTo(cacheFile)) {
+                throw new IOException("Cannot rename " + tmpFile); //$NON-NLS-1$
+            }
+        } catch (IOException e) {
+            Activator.logError("Failed to write the packet index cache " + cacheFile, e); //$NON-NLS-1$
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Packet descriptor reading its fields from a mapped record
+     */
+    private static final class CachedPacketDescriptor implements ICTFPacketDescriptor {
+
+        private final ByteBuffer fRecords;
+        private final int fPosition;
+        private final String[] fTargets;
+
+        public CachedPacketDescriptor(ByteBuffer records, int position, String[] targets) {
+            fRecords = records;
+            fPosition = position;
+            fTargets = targets;
+        }
+
+        int getTargetIndex() {
+            return fRecords.getInt(fPosition + TARGET);
+        }
+
+        @Override
+        public boolean includes(long ts) {
+            return (ts >= getTimestampBegin()) && (ts <= getTimestampEnd());
+        }
+
+        @Override
+        public long getOffsetBits() {
+            return fRecords.getLong(fPosition + OFFSET_BITS);
+        }
+
+        @Override
+        public long getPacketSizeBits() {
+            return fRecords.getLong(fPosition + PACKET_SIZE_BITS);
+        }
+
+        @Override
+        public long getContentSizeBits() {
+            return fRecords.getLong(fPosition + CONTENT_SIZE_BITS);
+        }
+
+        @Override
+        public long getTimestampBegin() {
+            return fRecords.getLong(fPosition + TIMESTAMP_BEGIN);
+        }
+
+        @Override
+        public long getTimestampEnd() {
+            return fRecords.getLong(fPosition + TIMESTAMP_END);
+        }
+
+        @Override
+        public long getLostEvents() {
+            return fRecords.getLong(fPosition + LOST_EVENTS);
+        }
+
+        @Override
+        public @Nullable Object lookupAttribute(String field) {
+            return null;
+        }
+
+        @Override
+        public @Nullable String getTarget() {
+            int target = getTargetIndex();
+            return (target == NO_TARGET ? null : fTargets[target]);
+        }
+
+        @Override
+        public long getTargetId() {
+            return fRecords.getLong(fPosition + TARGET_ID);
+        }
+
+        @Override
+        public long getOffsetBytes() {
+            return getOffsetBits() / Byte.SIZE;
+        }
+
+        @Override
+        public String toString() {
+            return "CachedPacketDescriptor [offsetBits=" + getOffsetBits() //$NON-NLS-1$
+                    + ", timestampBegin=" + getTimestampBegin() + ", timestampEnd=" //$NON-NLS-1$ //$NON-NLS-2$
+                    + getTimestampEnd() + "]"; //$NON-NLS-1$
+        }
+    }
+}
@@ -22,7 +22,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.TreeSet;
 
 import org.eclipse.jdt.annotation.NonNull;
@@ -33,7 +32,8 @@ import org.eclipse.tracecompass.ctf.core.trace.ICTFPacketDescriptor;
  * <b><u>StreamInputPacketIndex</u></b>
  * <p>
  * This is a data structure containing entries, you may append to this and read
- * it. It is not thread safe.
+ * it. It is thread safe: the readers of a stream input share its index while
+ * they build it lazily.
  */
 public class StreamInputPacketIndex {
 
@@ -43,7 +43,7 @@ public class StreamInputPacketIndex {
 
     /**
      * Entries of the index. They are sorted by increasing begin timestamp.
-     * index builder.
+     * index builder. Guarded by this.
      */
     private final List<ICTFPacketDescriptor> fEntries = new ArrayList<>();
 
@@ -58,7 +58,7 @@ public class StreamInputPacketIndex {
      *
      * @return the number of elements in this data structure
      */
-    public int size() {
+    public synchronized int size() {
         return fEntries.size();
     }
 
@@ -67,7 +67,7 @@ public class StreamInputPacketIndex {
      *
      * @return {@code true} if this data structure contains no elements
      */
-    public boolean isEmpty() {
+    public synchronized boolean isEmpty() {
         return fEntries.isEmpty();
     }
 
@@ -80,7 +80,7 @@ public class StreamInputPacketIndex {
      * @throws CTFException
      *             If there was a problem reading the entry
      */
-    public void appendAll(Collection<ICTFPacketDescriptor> preParsedIndex)
+    public synchronized void appendAll(Collection<ICTFPacketDescriptor> preParsedIndex)
             throws CTFException {
         for (ICTFPacketDescriptor sipie : preParsedIndex) {
             append(checkNotNull(sipie));
@@ -92,11 +92,11 @@ public class StreamInputPacketIndex {
      *
      * @param entry
      *            element to be appended to this index, cannot be null
-     * @return {@code true} (as specified by {@link Collection#add})
+     * @return the position of the element in the index
      * @throws CTFException
      *             If there was a problem reading the entry
      */
-    public boolean append(@NonNull ICTFPacketDescriptor entry)
+    public synchronized int append(@NonNull ICTFPacketDescriptor entry)
             throws CTFException {
 
         /* Validate consistent entry. */
@@ -113,20 +113,20 @@ public class StreamInputPacketIndex {
         }
 
         fEntries.add(entry);
-        return true;
+        return fEntries.size() - 1;
     }
 
     /**
-     * Returns the first PacketIndexEntry that could include the timestamp, that
-     * is the last packet with a begin timestamp smaller than the given
-     * timestamp.
+     * Returns the position of the first PacketIndexEntry that could include the
+     * timestamp, that is the last packet with a begin timestamp smaller than
+     * the given timestamp.
      *
      * @param timestamp
      *            The timestamp to look for.
-     * @return The StreamInputPacketEntry that corresponds to the packet that
-     *         includes the given timestamp.
+     * @return The position of the packet that includes the given timestamp, 0
+     *         if the index is empty.
      */
-    public ListIterator<ICTFPacketDescriptor> search(final long timestamp) {
+    public synchronized int search(final long timestamp) {
         /*
          * Start with min and max covering all the elements.
          */
@@ -140,7 +140,7 @@ public class StreamInputPacketIndex {
          * If the index is empty, return the iterator at the very beginning.
          */
         if (isEmpty()) {
-            return fEntries.listIterator();
+            return 0;
         }
 
         if (timestamp < 0) {
@@ -179,7 +179,7 @@ public class StreamInputPacketIndex {
             }
         }
 
-        return fEntries.listIterator(guessI);
+        return guessI;
     }
 
     /**
@@ -187,7 +187,7 @@ public class StreamInputPacketIndex {
      *
      * @return the last element in the index
      */
-    public ICTFPacketDescriptor lastElement() {
+    public synchronized ICTFPacketDescriptor lastElement() {
         return fEntries.get(fEntries.size() - 1);
     }
 
@@ -201,7 +201,7 @@ public class StreamInputPacketIndex {
      *             if the index is out of range (
      *             {@code index < 0 || index >= size()})
      */
-    public ICTFPacketDescriptor getElement(int index) {
+    public synchronized ICTFPacketDescriptor getElement(int index) {
         return fEntries.get(index);
     }
 
@@ -228,7 +228,7 @@ public class StreamInputPacketIndex {
      *             not permit null elements (<a
      *             href="Collection.html#optional-restrictions">optional</a>)
      */
-    public int indexOf(ICTFPacketDescriptor element) {
+    public synchronized int indexOf(ICTFPacketDescriptor element) {
         int indexOf = -1;
         if (element != null) {
             indexOf = Collections.binarySearch(fEntries, element, new MonotonicComparator());
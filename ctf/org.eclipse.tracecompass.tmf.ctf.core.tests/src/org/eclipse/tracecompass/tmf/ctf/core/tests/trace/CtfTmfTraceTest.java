@@ -21,9 +21,12 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
@@ -420,4 +423,59 @@ public class CtfTmfTraceTest {
         assertEquals("\"84db105b-b3f4-4821-b662-efc51455106a\"", a);
     }
 
+    /**
+     * Read the trace through several contexts at once, from different
+     * threads, while the packet indexes are being built, and check that each
+     * context reads the same events as a context alone.
+     *
+     * @throws Throwable
+     *             If one of the threads failed
+     */
+    @Test
+    public void testConcurrentContexts() throws Throwable {
+        final List<Long> expected = new ArrayList<>();
+        try (CtfTmfTrace trace = new CtfTmfTrace();) {
+            trace.initTrace((IResource) null, testTrace.getPath(), CtfTmfEvent.class);
+            ITmfContext context = trace.seekEvent(0L);
+            CtfTmfEvent event;
+            while ((event = trace.getNext(context)) != null) {
+                expected.add(event.getTimestamp().getValue());
+            }
+            context.dispose();
+        }
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        ITmfContext context = fixture.seekEvent(0L);
+                        int count = 0;
+                        CtfTmfEvent event;
+                        while ((event = fixture.getNext(context)) != null) {
+                            assertTrue(count < expected.size());
+                            assertEquals("Event " + count, expected.get(count).longValue(), event.getTimestamp().getValue());
+                            count++;
+                        }
+                        context.dispose();
+                        assertEquals(expected.size(), count);
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Throwable e = error.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
 }
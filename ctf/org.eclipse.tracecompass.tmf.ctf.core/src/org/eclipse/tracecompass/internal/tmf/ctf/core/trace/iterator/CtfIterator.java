@@ -15,6 +15,8 @@ package org.eclipse.tracecompass.internal.tmf.ctf.core.trace.iterator;
 
 import static org.eclipse.tracecompass.common.core.NonNullUtils.equalsNullable;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.eclipse.tracecompass.ctf.core.CTFException;
 import org.eclipse.tracecompass.ctf.core.trace.CTFStreamInputReader;
 import org.eclipse.tracecompass.ctf.core.trace.CTFTrace;
@@ -42,6 +44,14 @@ public class CtfIterator extends CTFTraceReader
     /** An invalid location */
     public static final CtfLocation NULL_LOCATION = new CtfLocation(CtfLocation.INVALID_LOCATION);
 
+    /**
+     * System property making the iterators decode the streams ahead, in
+     * parallel, see {@link CTFTraceReader#setReadAhead(boolean)}
+     */
+    public static final String READ_AHEAD_PROPERTY = "org.eclipse.tracecompass.tmf.ctf.core.readAhead"; //$NON-NLS-1$
+
+    private static final boolean READ_AHEAD = Boolean.getBoolean(READ_AHEAD_PROPERTY);
+
     private final CtfTmfTrace fTrace;
 
     private CtfLocation fCurLocation;
@@ -50,6 +60,9 @@ public class CtfIterator extends CTFTraceReader
     private CtfLocation fPreviousLocation;
     private CtfTmfEvent fPreviousEvent;
 
+    /** Held while a context uses this iterator, so it is not given to another */
+    private final ReentrantLock fUseLock = new ReentrantLock();
+
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
@@ -70,6 +83,7 @@ public class CtfIterator extends CTFTraceReader
      */
     public CtfIterator(CTFTrace ctfTrace, CtfTmfTrace ctfTmfTrace) throws CTFException {
         super(ctfTrace);
+        setReadAhead(READ_AHEAD);
         fTrace = ctfTmfTrace;
         if (hasMoreEvents()) {
             fCurLocation = new CtfLocation(ctfTmfTrace.getStartTime());
@@ -99,6 +113,7 @@ public class CtfIterator extends CTFTraceReader
     public CtfIterator(CTFTrace ctfTrace, CtfTmfTrace ctfTmfTrace, CtfLocationInfo ctfLocationData, long rank)
             throws CTFException {
         super(ctfTrace);
+        setReadAhead(READ_AHEAD);
 
         this.fTrace = ctfTmfTrace;
         if (this.hasMoreEvents()) {
@@ -117,6 +132,32 @@ public class CtfIterator extends CTFTraceReader
         close();
     }
 
+    /**
+     * Mark this iterator as being used by the calling thread, waiting if it is
+     * used by another thread.
+     */
+    public void acquire() {
+        fUseLock.lock();
+    }
+
+    /**
+     * Mark this iterator as being used by the calling thread, only if it is not
+     * used by another thread.
+     *
+     * @return true if the iterator was acquired
+     */
+    public boolean tryAcquire() {
+        return fUseLock.tryLock();
+    }
+
+    /**
+     * Release an iterator obtained with {@link #acquire()} or
+     * {@link #tryAcquire()}
+     */
+    public void release() {
+        fUseLock.unlock();
+    }
+
     private void setUnknownLocation() {
         fCurLocation = NULL_LOCATION;
         fCurRank = UNKNOWN_RANK;
@@ -13,10 +13,10 @@
 package org.eclipse.tracecompass.internal.tmf.ctf.core.trace.iterator;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -31,6 +31,10 @@ import org.eclipse.tracecompass.tmf.ctf.core.trace.CtfTmfTrace;
  * manage the iterators that are opened to read that trace. This will allow
  * controlling the number of opened file handles per trace.
  *
+ * Contexts can be read from different threads at the same time. An iterator
+ * is only taken away from its context when it is not in use, see
+ * {@link CtfIterator#tryAcquire()}.
+ *
  * @author Matthew Khouzam
  */
 public class CtfIteratorManager {
@@ -40,7 +44,7 @@ public class CtfIteratorManager {
      */
     private static final int MAX_SIZE = 100;
 
-    /** The map of the cache */
+    /** The map of the cache, which can be read without the lock */
     private final Map<CtfTmfContext, CtfIterator> fMap;
 
     /** An array pointing to the same cache. this allows fast "random" accesses */
@@ -62,7 +66,7 @@ public class CtfIteratorManager {
      *            The trace whose iterators this manager will manage
      */
     public CtfIteratorManager(CtfTmfTrace trace) {
-        fMap = new HashMap<>();
+        fMap = new ConcurrentHashMap<>();
         fRandomAccess = new ArrayList<>();
         fRnd = new Random(System.nanoTime());
         fTrace = trace;
@@ -92,25 +96,39 @@ public class CtfIteratorManager {
 
             fAccessLock.lock();
             try {
+                iter = fMap.get(context);
+                if (iter != null) {
+                    return iter;
+                }
                 /*
                  * Assign an iterator to a context.
                  */
-                if (fRandomAccess.size() < MAX_SIZE) {
+                CtfIterator victimIter = null;
+                if (fRandomAccess.size() >= MAX_SIZE) {
                     /*
-                     * if we're not full yet, just add an element.
+                     * if we're full, randomly replace an element
+                     */
+                    victimIter = replaceRandomElement(context);
+                }
+                if (victimIter == null) {
+                    /*
+                     * if we're not full yet, or all the iterators are in use,
+                     * just add an element.
                      */
                     iter = (CtfIterator) fTrace.createIterator();
                     addElement(context, iter);
-
                 } else {
-                    /*
-                     * if we're full, randomly replace an element
-                     */
-                    iter = replaceRandomElement(context);
+                    iter = victimIter;
                 }
-                if (context.getLocation() != null) {
-                    final CtfLocationInfo location = (CtfLocationInfo) context.getLocation().getLocationInfo();
-                    iter.seek(location);
+                try {
+                    if (context.getLocation() != null) {
+                        final CtfLocationInfo location = (CtfLocationInfo) context.getLocation().getLocationInfo();
+                        iter.seek(location);
+                    }
+                } finally {
+                    if (victimIter != null) {
+                        victimIter.release();
+                    }
                 }
             } finally {
                 fAccessLock.unlock();
@@ -162,9 +180,14 @@ public class CtfIteratorManager {
     /**
      * Replace a random element
      *
+     * An iterator that is in use by another thread is never taken. The
+     * returned iterator is acquired by the calling thread, which must release
+     * it.
+     *
      * @param context
      *            the context to swap in
-     * @return the iterator of the removed elements.
+     * @return the iterator of the removed elements, or null if they all are
+     *         in use
      */
     private CtfIterator replaceRandomElement(final CtfTmfContext context) {
         /*
@@ -177,17 +200,31 @@ public class CtfIteratorManager {
         fAccessLock.lock(); // just in case, should only be called when already locked
         try {
             final int size = fRandomAccess.size();
-            final int pos = fRnd.nextInt(size);
-            final CtfTmfContext victim = fRandomAccess.get(pos);
+            int pos = -1;
+            CtfTmfContext victim = null;
+            CtfIterator elem = null;
+            for (int i = 0; i < size && elem == null; i++) {
+                pos = fRnd.nextInt(size);
+                victim = fRandomAccess.get(pos);
+                CtfIterator candidate = fMap.get(victim);
+                if (candidate.tryAcquire()) {
+                    elem = candidate;
+                }
+            }
+            if (elem == null) {
+                return null;
+            }
             fRandomAccess.set(pos, context);
-            CtfIterator elem = fMap.remove(victim);
+            fMap.remove(victim);
             if (elem.isClosed()) {
                 /*
                  * In case the iterator streams have been closed, we need to
                  * replace it by a fresh new one to access the trace.
                  */
+                elem.release();
                 elem.dispose();
                 elem = (CtfIterator) fTrace.createIterator();
+                elem.acquire();
             }
             fMap.put(context, elem);
             victim.dispose();
@@ -73,9 +73,13 @@ public class CtfTmfContext implements ITmfContext {
     @Override
     public synchronized void setLocation(ITmfLocation location) {
         if (location instanceof CtfLocation) {
-            CtfIterator iterator = getIterator();
-            iterator.seek(((CtfLocation) location).getLocationInfo());
-            fCurLocation = iterator.getLocation();
+            CtfIterator iterator = acquireIterator();
+            try {
+                iterator.seek(((CtfLocation) location).getLocationInfo());
+                fCurLocation = iterator.getLocation();
+            } finally {
+                iterator.release();
+            }
         } else {
             fCurLocation = null;
         }
@@ -113,7 +117,12 @@ public class CtfTmfContext implements ITmfContext {
      * @return The event or null
      */
     public synchronized CtfTmfEvent getCurrentEvent() {
-        return getIterator().getCurrentEvent();
+        CtfIterator iterator = acquireIterator();
+        try {
+            return iterator.getCurrentEvent();
+        } finally {
+            iterator.release();
+        }
     }
 
     /**
@@ -123,22 +132,26 @@ public class CtfTmfContext implements ITmfContext {
      */
     public synchronized boolean advance() {
         final CtfLocationInfo curLocationData = fCurLocation.getLocationInfo();
-        CtfIterator iterator = getIterator();
-        boolean retVal = iterator.advance();
-        CtfTmfEvent currentEvent = iterator.getCurrentEvent();
-
-        if (currentEvent != null) {
-            final long timestampValue = iterator.getCurrentTimestamp();
-            if (curLocationData.getTimestamp() == timestampValue) {
-                fCurLocation = new CtfLocation(timestampValue, curLocationData.getIndex() + 1);
+        CtfIterator iterator = acquireIterator();
+        try {
+            boolean retVal = iterator.advance();
+            CtfTmfEvent currentEvent = iterator.getCurrentEvent();
+
+            if (currentEvent != null) {
+                final long timestampValue = iterator.getCurrentTimestamp();
+                if (curLocationData.getTimestamp() == timestampValue) {
+                    fCurLocation = new CtfLocation(timestampValue, curLocationData.getIndex() + 1);
+                } else {
+                    fCurLocation = new CtfLocation(timestampValue, 0L);
+                }
             } else {
-                fCurLocation = new CtfLocation(timestampValue, 0L);
+                fCurLocation = new CtfLocation(CtfLocation.INVALID_LOCATION);
             }
-        } else {
-            fCurLocation = new CtfLocation(CtfLocation.INVALID_LOCATION);
-        }
 
-        return retVal;
+            return retVal;
+        } finally {
+            iterator.release();
+        }
     }
 
     @Override
@@ -154,10 +167,14 @@ public class CtfTmfContext implements ITmfContext {
      * @return success or not
      */
     public synchronized boolean seek(final long timestamp) {
-        CtfIterator iterator = getIterator();
-        boolean ret = iterator.seek(timestamp);
-        fCurLocation = iterator.getLocation();
-        return ret;
+        CtfIterator iterator = acquireIterator();
+        try {
+            boolean ret = iterator.seek(timestamp);
+            fCurLocation = iterator.getLocation();
+            return ret;
+        } finally {
+            iterator.release();
+        }
     }
 
     /**
@@ -169,7 +186,12 @@ public class CtfTmfContext implements ITmfContext {
      */
     public synchronized boolean seek(final CtfLocationInfo location) {
         fCurLocation = new CtfLocation(location);
-        return getIterator().seek(location);
+        CtfIterator iterator = acquireIterator();
+        try {
+            return iterator.seek(location);
+        } finally {
+            iterator.release();
+        }
     }
 
     // -------------------------------------------
@@ -185,4 +207,25 @@ public class CtfTmfContext implements ITmfContext {
     private CtfIterator getIterator() {
         return (CtfIterator) fTrace.createIteratorFromContext(this);
     }
+
+    /**
+     * Get the iterator of this context and acquire it, so that it is not given
+     * to another context while it is used. It must be released after use.
+     *
+     * The iterator can be given to another context between the moment it is
+     * looked up and the moment it is acquired, in which case this context gets
+     * a new one.
+     *
+     * @return the acquired iterator
+     */
+    private CtfIterator acquireIterator() {
+        while (true) {
+            CtfIterator iterator = getIterator();
+            iterator.acquire();
+            if (getIterator() == iterator) {
+                return iterator;
+            }
+            iterator.release();
+        }
+    }
 }
@@ -16,6 +16,7 @@ package org.eclipse.tracecompass.tmf.ctf.core.trace;
 
 import static org.eclipse.tracecompass.common.core.NonNullUtils.checkNotNull;
 
+import java.io.File;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -46,6 +47,7 @@ import org.eclipse.tracecompass.internal.tmf.ctf.core.trace.iterator.CtfIterator
 import org.eclipse.tracecompass.internal.tmf.ctf.core.trace.iterator.CtfIteratorManager;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEventField;
+import org.eclipse.tracecompass.tmf.core.event.ITmfLostEvent;
 import org.eclipse.tracecompass.tmf.core.event.TmfEventField;
 import org.eclipse.tracecompass.tmf.core.event.aspect.ITmfEventAspect;
 import org.eclipse.tracecompass.tmf.core.exceptions.TmfTraceException;
@@ -56,6 +58,7 @@ import org.eclipse.tracecompass.tmf.core.trace.ITmfContext;
 import org.eclipse.tracecompass.tmf.core.trace.ITmfTraceProperties;
 import org.eclipse.tracecompass.tmf.core.trace.ITmfTraceWithPreDefinedEvents;
 import org.eclipse.tracecompass.tmf.core.trace.TmfTrace;
+import org.eclipse.tracecompass.tmf.core.trace.TmfTraceManager;
 import org.eclipse.tracecompass.tmf.core.trace.TraceValidationStatus;
 import org.eclipse.tracecompass.tmf.core.trace.indexer.ITmfPersistentlyIndexable;
 import org.eclipse.tracecompass.tmf.core.trace.indexer.ITmfTraceIndexer;
@@ -156,6 +159,8 @@ public class CtfTmfTrace extends TmfTrace
 
         try {
             this.fTrace = new CTFTrace(path);
+            /* Keep the packet index in the supplementary files */
+            fTrace.setPacketIndexCacheDirectory(new File(TmfTraceManager.getSupplementaryFileDir(this)));
             CtfTmfContext ctx;
             /* Set the start and (current) end times for this trace */
             ctx = (CtfTmfContext) seekEvent(0L);
@@ -303,7 +308,7 @@ public class CtfTmfTrace extends TmfTrace
      * @return ITmfContext
      */
     @Override
-    public synchronized ITmfContext seekEvent(final ITmfLocation location) {
+    public ITmfContext seekEvent(final ITmfLocation location) {
         CtfLocation currentLocation = (CtfLocation) location;
         CtfTmfContext context = new CtfTmfContext(this);
         if (fTrace == null) {
@@ -331,7 +336,7 @@ public class CtfTmfTrace extends TmfTrace
     }
 
     @Override
-    public synchronized ITmfContext seekEvent(double ratio) {
+    public ITmfContext seekEvent(double ratio) {
         CtfTmfContext context = new CtfTmfContext(this);
         if (fTrace == null) {
             context.setLocation(null);
@@ -350,13 +355,16 @@ public class CtfTmfTrace extends TmfTrace
     /**
      * Method readNextEvent.
      *
+     * Contexts do not share their iterator, so several contexts can be read
+     * at the same time from different threads.
+     *
      * @param context
      *            ITmfContext
      * @return CtfTmfEvent
      * @see org.eclipse.tracecompass.tmf.core.trace.ITmfTrace#getNext(ITmfContext)
      */
     @Override
-    public synchronized CtfTmfEvent getNext(final ITmfContext context) {
+    public CtfTmfEvent getNext(final ITmfContext context) {
         if (fTrace == null) {
             return null;
         }
@@ -369,7 +377,9 @@ public class CtfTmfTrace extends TmfTrace
             event = ctfContext.getCurrentEvent();
 
             if (event != null) {
-                updateAttributes(context, event);
+                if (needsUpdate(context, event)) {
+                    updateAttributes(context, event);
+                }
                 ctfContext.advance();
                 ctfContext.increaseRank();
             }
@@ -378,6 +388,31 @@ public class CtfTmfTrace extends TmfTrace
         return event;
     }
 
+    /**
+     * Check if reading an event changes the trace attributes, to avoid taking
+     * the lock of {@link #updateAttributes} for every event that is read
+     * again, once the trace is indexed.
+     */
+    private boolean needsUpdate(final ITmfContext context, final ITmfEvent event) {
+        if (context.hasValidRank()) {
+            long rank = context.getRank();
+            if (rank >= getNbEvents() || rank % getCacheSize() == 0) {
+                /* New event, or checkpoint of the index */
+                return true;
+            }
+        }
+        if (event instanceof ITmfLostEvent) {
+            return true;
+        }
+        ITmfTimestamp startTime = getStartTime();
+        ITmfTimestamp endTime = getEndTime();
+        if (startTime.equals(TmfTimestamp.BIG_BANG) || endTime.equals(TmfTimestamp.BIG_CRUNCH)) {
+            return true;
+        }
+        ITmfTimestamp timestamp = event.getTimestamp();
+        return (startTime.compareTo(timestamp) > 0 || endTime.compareTo(timestamp) < 0);
+    }
+
     /**
      * Ctf traces have a clock with a unique uuid that will be used to identify
      * the host. Traces with the same clock uuid will be known to have been made
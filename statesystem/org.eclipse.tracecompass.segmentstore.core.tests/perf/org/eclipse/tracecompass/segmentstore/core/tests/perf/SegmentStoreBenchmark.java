@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.segmentstore.core.tests.perf;
+
+import java.util.Random;
+
+import org.eclipse.test.performance.Dimension;
+import org.eclipse.test.performance.Performance;
+import org.eclipse.test.performance.PerformanceMeter;
+import org.eclipse.tracecompass.segmentstore.core.BasicSegment;
+import org.eclipse.tracecompass.segmentstore.core.ISegment;
+import org.eclipse.tracecompass.segmentstore.core.ISegmentStore;
+import org.eclipse.tracecompass.segmentstore.core.SegmentStoreFactory;
+import org.junit.Test;
+
+/**
+ * Compare the performance of the segment store implementations, for filling
+ * a store with latency-like segments then querying it.
+ */
+public class SegmentStoreBenchmark {
+
+    private static final String TEST_ID = "org.eclipse.linuxtools#Segment store#";
+    private static final String TEST_SUMMARY = "Segment store: ";
+
+    private static final int LOOP_COUNT = 3;
+
+    /** Number of segments in the store */
+    private static final int NB_SEGMENTS = 100000;
+    /** Number of intersection queries of each type */
+    private static final int NB_QUERIES = 20;
+    /** Time range covered by the segments */
+    private static final long TIME_RANGE = 1000000000L;
+
+    /**
+     * Benchmark the tree map store
+     */
+    @Test
+    public void testTreeMapStore() {
+        runBenchmark("Tree map store", new StoreFactory() {
+            @Override
+            public ISegmentStore<ISegment> create() {
+                return SegmentStoreFactory.<ISegment> createTreeMapStore();
+            }
+        });
+    }
+
+    /**
+     * Benchmark the interval tree store
+     */
+    @Test
+    public void testIntervalTreeStore() {
+        runBenchmark("Interval tree store", new StoreFactory() {
+            @Override
+            public ISegmentStore<ISegment> create() {
+                return SegmentStoreFactory.<ISegment> createIntervalTreeStore();
+            }
+        });
+    }
+
+    private interface StoreFactory {
+        ISegmentStore<ISegment> create();
+    }
+
+    private static void runBenchmark(String testName, StoreFactory factory) {
+        Performance perf = Performance.getDefault();
+        PerformanceMeter pmFill = perf.createPerformanceMeter(TEST_ID + testName + " fill");
+        perf.tagAsSummary(pmFill, TEST_SUMMARY + testName + " fill", Dimension.CPU_TIME);
+        PerformanceMeter pmQuery = perf.createPerformanceMeter(TEST_ID + testName + " queries");
+        perf.tagAsSummary(pmQuery, TEST_SUMMARY + testName + " queries", Dimension.CPU_TIME);
+
+        for (int loop = 0; loop < LOOP_COUNT; loop++) {
+            /* Use the same segments and queries for every implementation */
+            Random random = new Random(loop);
+            ISegmentStore<ISegment> store = factory.create();
+
+            pmFill.start();
+            for (int i = 0; i < NB_SEGMENTS; i++) {
+                long start = (long) (random.nextDouble() * TIME_RANGE);
+                /* Mostly short segments, with a few long ones */
+                long length = (i % 100 == 0 ? random.nextInt(100000000) : random.nextInt(100000));
+                store.addElement(new BasicSegment(start, start + length));
+            }
+            pmFill.stop();
+
+            pmQuery.start();
+            long count = 0;
+            for (int i = 0; i < NB_QUERIES; i++) {
+                long time = (long) (random.nextDouble() * TIME_RANGE);
+                for (ISegment segment : store.getIntersectingElements(time)) {
+                    count += segment.getLength();
+                }
+                for (ISegment segment : store.getIntersectingElements(time, time + 1000000)) {
+                    count += segment.getLength();
+                }
+            }
+            pmQuery.stop();
+
+            /* Use the result so the queries are not optimized away */
+            if (count < 0) {
+                throw new IllegalStateException();
+            }
+            store.dispose();
+        }
+        pmFill.commit();
+        pmQuery.commit();
+    }
+}
@@ -17,6 +17,8 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+        org.eclipse.tracecompass.segmentstore.core.tests.intervaltree.AllTests.class,
+        org.eclipse.tracecompass.segmentstore.core.tests.ondisk.AllTests.class,
         org.eclipse.tracecompass.segmentstore.core.tests.treemap.AllTests.class
 })
 public class AllTests {
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.segmentstore.core.tests.intervaltree;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.eclipse.tracecompass.common.core.NonNullUtils;
+import org.eclipse.tracecompass.segmentstore.core.BasicSegment;
+import org.eclipse.tracecompass.segmentstore.core.ISegment;
+import org.eclipse.tracecompass.segmentstore.core.intervaltree.IntervalTreeStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+/**
+ * Unit tests for intersecting elements in an IntervalTreeStore
+ */
+public class IntervalTreeStoreTest {
+
+    private IntervalTreeStore<ISegment> fSegmentStore;
+
+    private static final ISegment SEGMENT_2_4 = new BasicSegment(2, 4);
+    private static final ISegment SEGMENT_6_8 = new BasicSegment(6, 8);
+    private static final ISegment SEGMENT_10_14 = new BasicSegment(10, 14);
+
+    private static final List<ISegment> SEGMENTS = ImmutableList.of(SEGMENT_2_4, SEGMENT_6_8, SEGMENT_10_14);
+
+    /**
+     * Initialize data (test vector) that will be tested
+     */
+    @Before
+    public void setup() {
+        fSegmentStore = new IntervalTreeStore<>();
+        /* Insert them out of order, the store sorts them */
+        for (int i = SEGMENTS.size() - 1; i >= 0; i--) {
+            fSegmentStore.addElement(NonNullUtils.checkNotNull(SEGMENTS.get(i)));
+        }
+    }
+
+    /**
+     * Dispose of the segment store
+     */
+    @After
+    public void teardown() {
+        fSegmentStore.dispose();
+    }
+
+    /**
+     * Testing method getNbElements
+     */
+    @Test
+    public void testGetNbElements() {
+        assertEquals(SEGMENTS.size(), fSegmentStore.getNbElements());
+    }
+
+    /**
+     * Testing method getElementAtIndex, which uses the order of the start
+     * times
+     */
+    @Test
+    public void testGetElementAtIndex() {
+        for (int i = 0; i < SEGMENTS.size(); i++) {
+            assertEquals(SEGMENTS.get(i), fSegmentStore.getElementAtIndex(i));
+        }
+    }
+
+    /**
+     * Testing the iterator, which uses the order of the start times
+     */
+    @Test
+    public void testIterator() {
+        assertEquals(SEGMENTS, ImmutableList.copyOf(fSegmentStore));
+    }
+
+    /**
+     * Testing method getIntersectingElements(long start, long end)
+     */
+    @Test
+    public void testGetIntersectingElementsRange() {
+        assertEquals(ImmutableSet.of(), ImmutableSet.copyOf(fSegmentStore.getIntersectingElements(16, 20)));
+        assertEquals(ImmutableSet.copyOf(SEGMENTS), ImmutableSet.copyOf(fSegmentStore.getIntersectingElements(1, 15)));
+        assertEquals(ImmutableSet.copyOf(SEGMENTS), ImmutableSet.copyOf(fSegmentStore.getIntersectingElements(2, 14)));
+        assertEquals(ImmutableSet.of(SEGMENT_10_14), ImmutableSet.copyOf(fSegmentStore.getIntersectingElements(11, 13)));
+        assertEquals(ImmutableSet.of(SEGMENT_6_8), ImmutableSet.copyOf(fSegmentStore.getIntersectingElements(6, 8)));
+        assertEquals(ImmutableSet.of(SEGMENT_10_14), ImmutableSet.copyOf(fSegmentStore.getIntersectingElements(14, 18)));
+        assertEquals(ImmutableSet.of(SEGMENT_2_4), ImmutableSet.copyOf(fSegmentStore.getIntersectingElements(1, 2)));
+    }
+
+    /**
+     * Testing method getIntersectingElements(long position)
+     */
+    @Test
+    public void testGetIntersectingElementsTime() {
+        assertEquals(ImmutableSet.of(SEGMENT_2_4), ImmutableSet.copyOf(fSegmentStore.getIntersectingElements(3)));
+        assertEquals(ImmutableSet.of(SEGMENT_2_4), ImmutableSet.copyOf(fSegmentStore.getIntersectingElements(2)));
+        assertEquals(ImmutableSet.of(SEGMENT_2_4), ImmutableSet.copyOf(fSegmentStore.getIntersectingElements(4)));
+        assertEquals(0, Iterables.size(fSegmentStore.getIntersectingElements(1)));
+        assertEquals(0, Iterables.size(fSegmentStore.getIntersectingElements(15)));
+    }
+
+    /**
+     * Compare the results of random queries with a linear search, with
+     * elements being added between the queries. Some segments have the same
+     * start time, or contain each other.
+     */
+    @Test
+    public void testRandomQueries() {
+        IntervalTreeStore<ISegment> store = new IntervalTreeStore<>();
+        List<ISegment> segments = new ArrayList<>();
+        Random random = new Random(42);
+
+        for (int round = 0; round < 20; round++) {
+            int nbNew = random.nextInt(2000);
+            for (int i = 0; i < nbNew; i++) {
+                long start = random.nextInt(100000);
+                long length = (random.nextInt(10) == 0 ? random.nextInt(50000) : random.nextInt(100));
+                ISegment segment = new BasicSegment(start, start + length);
+                segments.add(segment);
+                store.addElement(segment);
+            }
+            assertEquals(segments.size(), store.getNbElements());
+
+            for (int i = 0; i < 50; i++) {
+                long start = random.nextInt(110000) - 5000;
+                long end = start + random.nextInt(1000);
+                Set<ISegment> expected = new HashSet<>();
+                for (ISegment segment : segments) {
+                    if (segment.getStart() <= end && segment.getEnd() >= start) {
+                        expected.add(segment);
+                    }
+                }
+                List<ISegment> actual = ImmutableList.copyOf(store.getIntersectingElements(start, end));
+                assertEquals(expected.size(), actual.size());
+                assertEquals(expected, new HashSet<>(actual));
+            }
+        }
+        store.dispose();
+    }
+
+    /**
+     * Testing method dispose
+     */
+    @Test
+    public void testDispose() {
+        IntervalTreeStore<ISegment> store = new IntervalTreeStore<>();
+        store.addElement(NonNullUtils.checkNotNull(SEGMENT_2_4));
+        store.dispose();
+        assertEquals(0, store.getNbElements());
+        assertEquals(0, Iterables.size(store.getIntersectingElements(3)));
+    }
+}
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.segmentstore.core.tests.ondisk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.tracecompass.common.core.NonNullUtils;
+import org.eclipse.tracecompass.segmentstore.core.BasicSegment;
+import org.eclipse.tracecompass.segmentstore.core.ISegment;
+import org.eclipse.tracecompass.segmentstore.core.ondisk.BasicSegmentSerializer;
+import org.eclipse.tracecompass.segmentstore.core.ondisk.OnDiskSegmentStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Multiset;
+
+/**
+ * Unit tests for the OnDiskSegmentStore
+ */
+public class OnDiskSegmentStoreTest {
+
+    private File fFile;
+    private OnDiskSegmentStore<ISegment> fSegmentStore;
+
+    private static final ISegment SEGMENT_2_4 = new BasicSegment(2, 4);
+    private static final ISegment SEGMENT_6_8 = new BasicSegment(6, 8);
+    private static final ISegment SEGMENT_10_14 = new BasicSegment(10, 14);
+
+    private static final List<ISegment> SEGMENTS = ImmutableList.of(SEGMENT_2_4, SEGMENT_6_8, SEGMENT_10_14);
+
+    /**
+     * Initialize data (test vector) that will be tested
+     *
+     * @throws IOException
+     *             If the file could not be created
+     */
+    @Before
+    public void setup() throws IOException {
+        fFile = File.createTempFile("test-segments", ".dat");
+        fSegmentStore = new OnDiskSegmentStore<>(fFile, new BasicSegmentSerializer());
+        /* Insert them out of order, the store sorts them */
+        for (int i = SEGMENTS.size() - 1; i >= 0; i--) {
+            fSegmentStore.addElement(NonNullUtils.checkNotNull(SEGMENTS.get(i)));
+        }
+    }
+
+    /**
+     * Dispose of the segment store and delete its file
+     */
+    @After
+    public void teardown() {
+        fSegmentStore.dispose();
+        fFile.delete();
+    }
+
+    /**
+     * Testing method getNbElements
+     */
+    @Test
+    public void testGetNbElements() {
+        assertEquals(SEGMENTS.size(), fSegmentStore.getNbElements());
+        fSegmentStore.finishedBuilding();
+        assertEquals(SEGMENTS.size(), fSegmentStore.getNbElements());
+    }
+
+    /**
+     * Testing method getElementAtIndex, before and after the store is
+     * finished building
+     */
+    @Test
+    public void testGetElementAtIndex() {
+        for (int i = 0; i < SEGMENTS.size(); i++) {
+            assertEquals(SEGMENTS.get(i).toString(), fSegmentStore.getElementAtIndex(i).toString());
+        }
+        fSegmentStore.finishedBuilding();
+        for (int i = 0; i < SEGMENTS.size(); i++) {
+            assertEquals(SEGMENTS.get(i).toString(), fSegmentStore.getElementAtIndex(i).toString());
+        }
+    }
+
+    /**
+     * Testing the iterator, which uses the order of the start times
+     */
+    @Test
+    public void testIterator() {
+        assertEquals(SEGMENTS.toString(), ImmutableList.copyOf(fSegmentStore).toString());
+        fSegmentStore.finishedBuilding();
+        assertEquals(SEGMENTS.toString(), ImmutableList.copyOf(fSegmentStore).toString());
+    }
+
+    /**
+     * Testing method getIntersectingElements(long start, long end)
+     */
+    @Test
+    public void testGetIntersectingElementsRange() {
+        fSegmentStore.finishedBuilding();
+        assertEquals(0, Iterables.size(fSegmentStore.getIntersectingElements(16, 20)));
+        assertEquals(ranges(SEGMENTS), ranges(fSegmentStore.getIntersectingElements(1, 15)));
+        assertEquals(ranges(ImmutableList.<ISegment> of(SEGMENT_10_14)), ranges(fSegmentStore.getIntersectingElements(11, 13)));
+        assertEquals(ranges(ImmutableList.<ISegment> of(SEGMENT_6_8)), ranges(fSegmentStore.getIntersectingElements(6, 8)));
+        assertEquals(ranges(ImmutableList.<ISegment> of(SEGMENT_2_4)), ranges(fSegmentStore.getIntersectingElements(1, 2)));
+    }
+
+    /**
+     * Testing method getIntersectingElements(long position)
+     */
+    @Test
+    public void testGetIntersectingElementsTime() {
+        fSegmentStore.finishedBuilding();
+        assertEquals(ranges(ImmutableList.<ISegment> of(SEGMENT_2_4)), ranges(fSegmentStore.getIntersectingElements(3)));
+        assertEquals(ranges(ImmutableList.<ISegment> of(SEGMENT_2_4)), ranges(fSegmentStore.getIntersectingElements(4)));
+        assertEquals(0, Iterables.size(fSegmentStore.getIntersectingElements(1)));
+        assertEquals(0, Iterables.size(fSegmentStore.getIntersectingElements(15)));
+    }
+
+    /**
+     * Test that no element can be added once the store is finished building
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testAddAfterFinished() {
+        fSegmentStore.finishedBuilding();
+        fSegmentStore.addElement(new BasicSegment(20, 30));
+    }
+
+    /**
+     * Test that a complete file is reused by a new store, and that an
+     * incomplete one is not
+     *
+     * @throws IOException
+     *             If the file could not be opened
+     */
+    @Test
+    public void testReopen() throws IOException {
+        fSegmentStore.dispose();
+        OnDiskSegmentStore<ISegment> store = new OnDiskSegmentStore<>(fFile, new BasicSegmentSerializer());
+        assertFalse(store.isFinishedBuilding());
+        assertEquals(0, store.getNbElements());
+        for (ISegment segment : SEGMENTS) {
+            store.addElement(NonNullUtils.checkNotNull(segment));
+        }
+        store.finishedBuilding();
+        store.dispose();
+
+        fSegmentStore = new OnDiskSegmentStore<>(fFile, new BasicSegmentSerializer());
+        assertTrue(fSegmentStore.isFinishedBuilding());
+        assertEquals(SEGMENTS.size(), fSegmentStore.getNbElements());
+        assertEquals(SEGMENTS.toString(), ImmutableList.copyOf(fSegmentStore).toString());
+        assertEquals(ranges(ImmutableList.<ISegment> of(SEGMENT_6_8)), ranges(fSegmentStore.getIntersectingElements(7)));
+    }
+
+    /**
+     * Compare the results of random queries with a linear search, with
+     * enough elements to be written in several runs, before and after the
+     * store is finished building.
+     *
+     * @throws IOException
+     *             If the file could not be created
+     */
+    @Test
+    public void testRandomQueries() throws IOException {
+        File file = File.createTempFile("test-segments-random", ".dat");
+        OnDiskSegmentStore<ISegment> store = new OnDiskSegmentStore<>(file, new BasicSegmentSerializer());
+        List<ISegment> segments = new ArrayList<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 150000; i++) {
+            long start = random.nextInt(1000000);
+            long length = (random.nextInt(10) == 0 ? random.nextInt(500000) : random.nextInt(100));
+            ISegment segment = new BasicSegment(start, start + length);
+            segments.add(segment);
+            store.addElement(segment);
+        }
+        assertEquals(segments.size(), store.getNbElements());
+
+        for (int round = 0; round < 2; round++) {
+            if (round == 1) {
+                store.finishedBuilding();
+            }
+            for (int i = 0; i < 20; i++) {
+                long start = random.nextInt(1100000) - 50000;
+                long end = start + random.nextInt(1000);
+                List<ISegment> expected = new ArrayList<>();
+                for (ISegment segment : segments) {
+                    if (segment.getStart() <= end && segment.getEnd() >= start) {
+                        expected.add(segment);
+                    }
+                }
+                assertEquals(ranges(expected), ranges(store.getIntersectingElements(start, end)));
+            }
+        }
+
+        /* The elements are sorted by start time */
+        long previousStart = Long.MIN_VALUE;
+        int count = 0;
+        for (ISegment segment : store) {
+            assertTrue(segment.getStart() >= previousStart);
+            previousStart = segment.getStart();
+            count++;
+        }
+        assertEquals(segments.size(), count);
+
+        store.dispose();
+        file.delete();
+    }
+
+    /**
+     * Segments read back from the file are new objects, so they are compared
+     * by their time ranges.
+     */
+    private static Multiset<String> ranges(Iterable<ISegment> segments) {
+        Multiset<String> ranges = HashMultiset.create();
+        for (ISegment segment : segments) {
+            ranges.add(segment.getStart() + ":" + segment.getEnd());
+        }
+        return ranges;
+    }
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.segmentstore.core;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.tracecompass.segmentstore.core.intervaltree.IntervalTreeStore;
+import org.eclipse.tracecompass.segmentstore.core.ondisk.ISegmentSerializer;
+import org.eclipse.tracecompass.segmentstore.core.ondisk.OnDiskSegmentStore;
+import org.eclipse.tracecompass.segmentstore.core.treemap.TreeMapStore;
+
+/**
+ * Factory for the various types of {@link ISegmentStore} supplied by this
+ * plugin.
+ */
+@NonNullByDefault
+public final class SegmentStoreFactory {
+
+    private SegmentStoreFactory() {}
+
+    /**
+     * Create a new segment store using tree maps of the start and end times.
+     * Everything is kept in memory.
+     *
+     * @return The segment store
+     */
+    public static <T extends ISegment> ISegmentStore<T> createTreeMapStore() {
+        return new TreeMapStore<>();
+    }
+
+    /**
+     * Create a new segment store using an interval tree. Everything is kept
+     * in memory, but the intersection queries are much faster than with the
+     * tree map store on big stores. It works best when the queries are done
+     * after the store is filled.
+     *
+     * @return The segment store
+     */
+    public static <T extends ISegment> ISegmentStore<T> createIntervalTreeStore() {
+        return new IntervalTreeStore<>();
+    }
+
+    /**
+     * Create a segment store that keeps the segments in a file instead of in
+     * memory. If the file contains a complete store, it is reused, see
+     * {@link OnDiskSegmentStore#isFinishedBuilding()}.
+     *
+     * @param file
+     *            The file in which to store the segments
+     * @param serializer
+     *            The serializer of the segments
+     * @return The segment store
+     * @throws IOException
+     *             If the file cannot be opened
+     */
+    public static <T extends ISegment> OnDiskSegmentStore<T> createOnDiskSegmentStore(File file, ISegmentSerializer<T> serializer) throws IOException {
+        return new OnDiskSegmentStore<>(file, serializer);
+    }
+}
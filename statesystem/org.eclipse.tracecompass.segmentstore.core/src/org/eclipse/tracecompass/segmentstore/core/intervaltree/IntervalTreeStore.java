@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.segmentstore.core.intervaltree;
+
+import static org.eclipse.tracecompass.common.core.NonNullUtils.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.segmentstore.core.ISegment;
+import org.eclipse.tracecompass.segmentstore.core.ISegmentStore;
+
+import com.google.common.collect.Iterators;
+
+/**
+ * Implementation of a {@link ISegmentStore} using an augmented interval tree,
+ * laid out in sorted arrays.
+ *
+ * The elements are kept in an array sorted by start time, which is also the
+ * in-order traversal of an implicit balanced binary tree: the root of any
+ * range of the array is its middle element. For each node of that tree, the
+ * greatest end time of its subtree is kept in another array. Intersection
+ * queries can then skip whole subtrees that end before the requested range,
+ * and stop at the first element that starts after it, which makes them
+ * O(log n + k) in practice, without allocating anything but the result list.
+ *
+ * Elements added to the store are first appended to a small unsorted buffer,
+ * which is merged into the arrays when a query needs it. This store is meant
+ * to be filled first and queried afterwards, but queries are still correct
+ * (though slower) while elements are being added.
+ *
+ * Like {@link org.eclipse.tracecompass.segmentstore.core.treemap.TreeMapStore},
+ * everything is held in memory.
+ *
+ * @param <T>
+ *            The type of time range held
+ */
+public class IntervalTreeStore<T extends ISegment> implements ISegmentStore<T> {
+
+    /**
+     * Number of unsorted elements that queries scan linearly, instead of
+     * merging them into the tree first
+     */
+    private static final int MAX_UNSORTED_ELEMENTS = 1024;
+
+    /* The elements that are not in the tree yet. Guarded by "this" */
+    private final List<T> fUnsorted = new ArrayList<>();
+
+    /* The current tree. It is replaced, never modified, once published */
+    private volatile SortedIndex fIndex = new SortedIndex(new ISegment[0]);
+
+    private volatile long fSize = 0;
+
+    /**
+     * Constructor
+     */
+    public IntervalTreeStore() {
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return checkNotNull(Iterators.unmodifiableIterator(getElements().iterator()));
+    }
+
+    @Override
+    public synchronized void addElement(T val) {
+        fUnsorted.add(val);
+        fSize++;
+    }
+
+    @Override
+    public long getNbElements() {
+        return fSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The index is the position of the element in the order of the start
+     * times (then of the end times) of the elements.
+     */
+    @Override
+    public T getElementAtIndex(long index) {
+        SortedIndex sortedIndex = getSortedIndex();
+        if (index < 0 || index >= sortedIndex.fElements.length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return sortedIndex.<T> get((int) index);
+    }
+
+    @Override
+    public Iterable<T> getIntersectingElements(long position) {
+        return getIntersectingElements(position, position);
+    }
+
+    @Override
+    public Iterable<T> getIntersectingElements(long start, long end) {
+        List<T> result = new ArrayList<>();
+        SortedIndex index;
+
+        synchronized (this) {
+            if (fUnsorted.size() > MAX_UNSORTED_ELEMENTS) {
+                merge();
+            }
+            for (T elem : fUnsorted) {
+                if (elem.getStart() <= end && elem.getEnd() >= start) {
+                    result.add(elem);
+                }
+            }
+            index = fIndex;
+        }
+
+        /* The index is immutable, it is searched without holding the lock */
+        index.search(0, index.fElements.length, start, end, result);
+        return result;
+    }
+
+    @Override
+    public synchronized void dispose() {
+        fUnsorted.clear();
+        fIndex = new SortedIndex(new ISegment[0]);
+        fSize = 0;
+    }
+
+    /**
+     * Get all the elements, sorted by start time.
+     */
+    private List<T> getElements() {
+        SortedIndex index = getSortedIndex();
+        @SuppressWarnings("unchecked")
+        List<T> elements = (List<T>) (List<?>) Arrays.asList(index.fElements);
+        return checkNotNull(elements);
+    }
+
+    /**
+     * Get the tree, after merging the elements that are not in it yet.
+     */
+    private synchronized SortedIndex getSortedIndex() {
+        if (!fUnsorted.isEmpty()) {
+            merge();
+        }
+        return fIndex;
+    }
+
+    /**
+     * Merge the unsorted elements into a new tree. Must be called with the
+     * lock held.
+     */
+    private void merge() {
+        ISegment[] added = fUnsorted.toArray(new ISegment[fUnsorted.size()]);
+        Arrays.sort(added, SEGMENT_COMPARATOR);
+        fUnsorted.clear();
+
+        ISegment[] current = fIndex.fElements;
+        ISegment[] merged = new ISegment[current.length + added.length];
+        int i = 0, j = 0, k = 0;
+        while (i < current.length && j < added.length) {
+            /* Take the existing element first on ties, to keep the order stable */
+            if (SEGMENT_COMPARATOR.compare(added[j], current[i]) < 0) {
+                merged[k++] = added[j++];
+            } else {
+                merged[k++] = current[i++];
+            }
+        }
+        System.arraycopy(current, i, merged, k, current.length - i);
+        System.arraycopy(added, j, merged, k + current.length - i, added.length - j);
+
+        fIndex = new SortedIndex(merged);
+    }
+
+    // ------------------------------------------------------------------------
+    // Tree, in its array form
+    // ------------------------------------------------------------------------
+
+    /**
+     * Immutable snapshot of the tree. The start and end times are copied in
+     * primitive arrays, so the search does not have to dereference the
+     * elements it skips.
+     */
+    private static final class SortedIndex {
+
+        private final ISegment[] fElements;
+        private final long[] fStarts;
+        private final long[] fEnds;
+        /* Greatest end time of the subtree rooted at each element */
+        private final long[] fMaxEnds;
+
+        public SortedIndex(ISegment[] elements) {
+            fElements = elements;
+            fStarts = new long[elements.length];
+            fEnds = new long[elements.length];
+            fMaxEnds = new long[elements.length];
+            for (int i = 0; i < elements.length; i++) {
+                fStarts[i] = elements[i].getStart();
+                fEnds[i] = elements[i].getEnd();
+            }
+            computeMaxEnds(0, elements.length);
+        }
+
+        @SuppressWarnings("unchecked")
+        public <E extends ISegment> E get(int index) {
+            return (E) fElements[index];
+        }
+
+        /**
+         * Compute the max end times of the subtree of the range [lo, hi[,
+         * whose root is its middle element.
+         */
+        private long computeMaxEnds(int lo, int hi) {
+            if (lo >= hi) {
+                return Long.MIN_VALUE;
+            }
+            int mid = (lo + hi) >>> 1;
+            long maxEnd = Math.max(fEnds[mid],
+                    Math.max(computeMaxEnds(lo, mid), computeMaxEnds(mid + 1, hi)));
+            fMaxEnds[mid] = maxEnd;
+            return maxEnd;
+        }
+
+        /**
+         * Add the elements of the subtree of the range [lo, hi[ that intersect
+         * [start, end] to the result, in the order of the start times.
+         */
+        public <E extends ISegment> void search(int lo, int hi, long start, long end, List<E> result) {
+            int low = lo;
+            while (low < hi) {
+                int mid = (low + hi) >>> 1;
+                if (fMaxEnds[mid] < start) {
+                    /* Everything in this subtree ends before the range */
+                    return;
+                }
+                search(low, mid, start, end, result);
+                if (fStarts[mid] > end) {
+                    /* This element and the ones to its right start after it */
+                    return;
+                }
+                if (fEnds[mid] >= start) {
+                    result.add(this.<E> get(mid));
+                }
+                /* Continue in the right subtree */
+                low = mid + 1;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Comparator, used for sorting the elements
+    // ------------------------------------------------------------------------
+
+    private static final Comparator<ISegment> SEGMENT_COMPARATOR = new Comparator<ISegment>() {
+        @Override
+        public int compare(@Nullable ISegment o1, @Nullable ISegment o2) {
+            if (o1 == null || o2 == null) {
+                throw new IllegalArgumentException();
+            }
+            int res = Long.compare(o1.getStart(), o2.getStart());
+            return (res != 0 ? res : Long.compare(o1.getEnd(), o2.getEnd()));
+        }
+    };
+}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.segmentstore.core.ondisk;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.tracecompass.segmentstore.core.BasicSegment;
+import org.eclipse.tracecompass.segmentstore.core.ISegment;
+
+/**
+ * Serializer of segments that only have a start and end time. They are read
+ * back as {@link BasicSegment}s.
+ */
+public final class BasicSegmentSerializer implements ISegmentSerializer<ISegment> {
+
+    private static final int SIZE = 2 * (Long.SIZE / Byte.SIZE);
+
+    @Override
+    public int getSerializedSize(ISegment segment) {
+        return SIZE;
+    }
+
+    @Override
+    public void writeSegment(ByteBuffer buffer, ISegment segment) {
+        buffer.putLong(segment.getStart());
+        buffer.putLong(segment.getEnd());
+    }
+
+    @Override
+    public ISegment readSegment(ByteBuffer buffer) {
+        long start = buffer.getLong();
+        long end = buffer.getLong();
+        return new BasicSegment(start, end);
+    }
+}
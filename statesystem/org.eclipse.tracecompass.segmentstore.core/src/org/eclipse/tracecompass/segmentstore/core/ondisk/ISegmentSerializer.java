@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.segmentstore.core.ondisk;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.tracecompass.segmentstore.core.ISegment;
+
+/**
+ * Writes segments of a given type to byte buffers, and reads them back, so
+ * that they can be stored in an {@link OnDiskSegmentStore}.
+ *
+ * @param <T>
+ *            The type of segment
+ */
+public interface ISegmentSerializer<T extends ISegment> {
+
+    /**
+     * Get the number of bytes {@link #writeSegment} will use for a segment.
+     *
+     * @param segment
+     *            The segment
+     * @return The size of the serialized segment, in bytes
+     */
+    int getSerializedSize(T segment);
+
+    /**
+     * Write a segment at the current position of a buffer. Exactly
+     * {@link #getSerializedSize} bytes should be written.
+     *
+     * @param buffer
+     *            The buffer to write to
+     * @param segment
+     *            The segment to write
+     */
+    void writeSegment(ByteBuffer buffer, T segment);
+
+    /**
+     * Read a segment at the current position of a buffer, written by
+     * {@link #writeSegment}.
+     *
+     * @param buffer
+     *            The buffer to read from
+     * @return The segment
+     */
+    T readSegment(ByteBuffer buffer);
+}
@@ -0,0 +1,416 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.segmentstore.core.ondisk;
+
+import static org.eclipse.tracecompass.common.core.NonNullUtils.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.internal.segmentstore.core.Activator;
+import org.eclipse.tracecompass.segmentstore.core.ISegment;
+import org.eclipse.tracecompass.segmentstore.core.ISegmentStore;
+
+import com.google.common.collect.Iterators;
+
+/**
+ * Implementation of a {@link ISegmentStore} that keeps the segments in a
+ * file, so that the number of segments is not limited by the size of the
+ * heap.
+ *
+ * While the store is being built, segments are accumulated in a buffer of
+ * a fixed number of segments, which is sorted by start time and written as
+ * a "run" to a temporary file whenever it is full. When
+ * {@link #finishedBuilding()} is called, all the runs are merged into one
+ * sorted sequence of pages in the store's file, followed by the page index.
+ * The file is then memory-mapped for the queries. Only the page index (a few
+ * bytes per page of segments) stays on the heap.
+ *
+ * The header of the file is written last, so a file whose header is valid is
+ * complete. Creating a store on such a file reuses it directly, without
+ * having to add the segments again: {@link #isFinishedBuilding()} then
+ * returns true.
+ *
+ * The store can be queried while it is being built, but the queries then
+ * have to search every run.
+ *
+ * @param <T>
+ *            The type of segment
+ */
+public class OnDiskSegmentStore<T extends ISegment> implements ISegmentStore<T> {
+
+    private static final int MAGIC_NUMBER = 0x05E65702;
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    /** Number of segments kept in memory before being written as a run */
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final String RUNS_FILE_SUFFIX = ".runs"; //$NON-NLS-1$
+
+    private final File fFile;
+    private final File fRunsFile;
+    private final FileChannel fChannel;
+    private final ISegmentSerializer<T> fSerializer;
+
+    /* The following fields are guarded by "this" */
+    private final List<T> fBuffer = new ArrayList<>();
+    private final List<SegmentRun<T>> fRuns = new ArrayList<>();
+    private @Nullable FileChannel fRunsChannel = null;
+    private long fRunsEnd = 0;
+    private boolean fFinished = false;
+
+    /* The single run of the complete file, set once building is finished */
+    private volatile @Nullable SegmentRun<T> fFinalRun = null;
+
+    private volatile long fSize = 0;
+
+    /**
+     * Constructor. If the file contains a complete segment store, it is
+     * reused as is. Otherwise, it is overwritten.
+     *
+     * @param file
+     *            The file in which to store the segments
+     * @param serializer
+     *            The serializer of the segments. It must be the same one that
+     *            was used to write the file, if it is reused.
+     * @throws IOException
+     *             If the file cannot be opened
+     */
+    public OnDiskSegmentStore(File file, ISegmentSerializer<T> serializer) throws IOException {
+        fFile = file;
+        fRunsFile = new File(file.getPath() + RUNS_FILE_SUFFIX);
+        fSerializer = serializer;
+        fChannel = checkNotNull(FileChannel.open(file.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE));
+
+        SegmentRun<T> run = readExistingFile();
+        if (run != null) {
+            run.map();
+            fFinalRun = run;
+            fSize = run.getNbElements();
+            fFinished = true;
+        } else {
+            fChannel.truncate(0);
+        }
+        Files.deleteIfExists(fRunsFile.toPath());
+    }
+
+    /**
+     * Read the header and page index of the file, if it contains a complete
+     * segment store.
+     *
+     * @return The run of the segments of the file, or null if the file is
+     *         not a complete segment store
+     */
+    private @Nullable SegmentRun<T> readExistingFile() {
+        try {
+            if (fChannel.size() < HEADER_SIZE) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (fChannel.read(header, header.position()) < 0) {
+                    return null;
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC_NUMBER || header.getInt() != FILE_VERSION) {
+                return null;
+            }
+            long nbElements = header.getLong();
+            long indexPos = header.getLong();
+            if (indexPos < HEADER_SIZE || indexPos >= fChannel.size()) {
+                return null;
+            }
+            SegmentRun<T> run = SegmentRun.readIndex(fChannel, fSerializer, indexPos);
+            return (run.getNbElements() == nbElements ? run : null);
+        } catch (IOException e) {
+            /* Not a valid file, it will be rebuilt */
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Building
+    // ------------------------------------------------------------------------
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException
+     *             If the store is finished building, or the segments could
+     *             not be written to disk
+     */
+    @Override
+    public synchronized void addElement(T val) {
+        if (fFinished) {
+            throw new IllegalStateException("The segment store is finished building"); //$NON-NLS-1$
+        }
+        fBuffer.add(val);
+        fSize++;
+        if (fBuffer.size() >= BUFFER_SIZE) {
+            try {
+                flushBuffer();
+            } catch (IOException e) {
+                throw new IllegalStateException("Segment store write error", e); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Write the sorted buffer as a new run in the temporary file. Must be
+     * called with the lock held.
+     */
+    private void flushBuffer() throws IOException {
+        FileChannel runsChannel = fRunsChannel;
+        if (runsChannel == null) {
+            runsChannel = checkNotNull(FileChannel.open(fRunsFile.toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+            fRunsChannel = runsChannel;
+        }
+
+        Collections.sort(fBuffer, SEGMENT_COMPARATOR);
+        SegmentRunWriter<T> writer = new SegmentRunWriter<>(runsChannel, fSerializer, fRunsEnd);
+        for (T segment : fBuffer) {
+            writer.add(segment);
+        }
+        fRuns.add(writer.finish());
+        fRunsEnd = writer.getEndPosition();
+        fBuffer.clear();
+    }
+
+    /**
+     * Merge all the segments added so far into the store's file, after which
+     * no more segments can be added. The file can then be reused by a later
+     * store. This does nothing if the store is already finished.
+     *
+     * @throws IllegalStateException
+     *             If the file could not be written
+     */
+    public synchronized void finishedBuilding() {
+        if (fFinished) {
+            return;
+        }
+        try {
+            /* Merge the runs and the remaining buffered segments */
+            Collections.sort(fBuffer, SEGMENT_COMPARATOR);
+            List<Iterator<T>> sources = new ArrayList<>();
+            for (SegmentRun<T> run : fRuns) {
+                sources.add(run.iterator());
+            }
+            sources.add(fBuffer.iterator());
+            Iterator<T> merged = Iterators.mergeSorted(sources, SEGMENT_COMPARATOR);
+
+            SegmentRunWriter<T> writer = new SegmentRunWriter<>(fChannel, fSerializer, HEADER_SIZE);
+            while (merged.hasNext()) {
+                writer.add(checkNotNull(merged.next()));
+            }
+            SegmentRun<T> run = writer.finish();
+            if (run.getNbElements() != fSize) {
+                throw new IOException("Could not read back all the segments"); //$NON-NLS-1$
+            }
+            long indexPos = writer.getEndPosition();
+            fChannel.truncate(run.writeIndex(indexPos));
+            fChannel.force(false);
+
+            /* Write the header last, once everything else is on disk */
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC_NUMBER);
+            header.putInt(FILE_VERSION);
+            header.putLong(fSize);
+            header.putLong(indexPos);
+            header.clear();
+            while (header.hasRemaining()) {
+                fChannel.write(header, header.position());
+            }
+            fChannel.force(false);
+
+            closeRuns();
+            run.map();
+            fFinalRun = run;
+            fFinished = true;
+        } catch (IOException e) {
+            throw new IllegalStateException("Segment store write error", e); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * @return True if the store's file is complete, in which case no more
+     *         segments can be added
+     */
+    public synchronized boolean isFinishedBuilding() {
+        return fFinished;
+    }
+
+    /**
+     * Close and delete the temporary file of the runs. Must be called with
+     * the lock held.
+     */
+    private void closeRuns() throws IOException {
+        fBuffer.clear();
+        fRuns.clear();
+        FileChannel runsChannel = fRunsChannel;
+        if (runsChannel != null) {
+            runsChannel.close();
+            fRunsChannel = null;
+        }
+        Files.deleteIfExists(fRunsFile.toPath());
+    }
+
+    // ------------------------------------------------------------------------
+    // Queries
+    // ------------------------------------------------------------------------
+
+    @Override
+    public Iterator<T> iterator() {
+        SegmentRun<T> finalRun = fFinalRun;
+        if (finalRun != null) {
+            return checkNotNull(Iterators.unmodifiableIterator(finalRun.iterator()));
+        }
+
+        List<Iterator<T>> sources = new ArrayList<>();
+        synchronized (this) {
+            if (fFinished) {
+                /* The store was disposed */
+                return checkNotNull(Collections.<T> emptyIterator());
+            }
+            List<T> buffer = new ArrayList<>(fBuffer);
+            Collections.sort(buffer, SEGMENT_COMPARATOR);
+            sources.add(buffer.iterator());
+            for (SegmentRun<T> run : fRuns) {
+                sources.add(run.iterator());
+            }
+        }
+        /* The merged iterator is already unmodifiable */
+        return checkNotNull(Iterators.mergeSorted(sources, SEGMENT_COMPARATOR));
+    }
+
+    @Override
+    public long getNbElements() {
+        return fSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The index is the position of the element in the order of the start
+     * times (then of the end times) of the elements. This is only efficient
+     * once the store is finished building.
+     */
+    @Override
+    public T getElementAtIndex(long index) {
+        SegmentRun<T> finalRun = fFinalRun;
+        if (finalRun != null) {
+            try {
+                return finalRun.getElement(index);
+            } catch (IOException e) {
+                throw new IllegalStateException("Segment store read error", e); //$NON-NLS-1$
+            }
+        }
+
+        if (index < 0 || index >= fSize) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        Iterator<T> iterator = iterator();
+        Iterators.advance(iterator, (int) Math.min(index, Integer.MAX_VALUE));
+        if (!iterator.hasNext()) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return checkNotNull(iterator.next());
+    }
+
+    @Override
+    public Iterable<T> getIntersectingElements(long position) {
+        return getIntersectingElements(position, position);
+    }
+
+    @Override
+    public Iterable<T> getIntersectingElements(long start, long end) {
+        List<T> result = new ArrayList<>();
+        List<SegmentRun<T>> runs;
+
+        SegmentRun<T> finalRun = fFinalRun;
+        if (finalRun != null) {
+            runs = Collections.singletonList(finalRun);
+        } else {
+            synchronized (this) {
+                for (T elem : fBuffer) {
+                    if (elem.getStart() <= end && elem.getEnd() >= start) {
+                        result.add(elem);
+                    }
+                }
+                runs = new ArrayList<>(fRuns);
+            }
+        }
+
+        /* The runs are immutable, they are searched without holding the lock */
+        try {
+            for (SegmentRun<T> run : runs) {
+                run.findIntersecting(start, end, result);
+            }
+        } catch (IOException e) {
+            Activator.instance().logError("Error reading the segment store file", e); //$NON-NLS-1$
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The file is closed. It is kept if the store was finished building, so
+     * it can be reused, and deleted otherwise. The store cannot be used
+     * afterwards.
+     */
+    @Override
+    public synchronized void dispose() {
+        try {
+            closeRuns();
+            fChannel.close();
+            if (!fFinished) {
+                Files.deleteIfExists(fFile.toPath());
+            }
+        } catch (IOException e) {
+            Activator.instance().logError("Error closing the segment store file", e); //$NON-NLS-1$
+        }
+        fFinalRun = null;
+        fFinished = true;
+        fSize = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    // Comparator, used for sorting the elements
+    // ------------------------------------------------------------------------
+
+    private static final Comparator<ISegment> SEGMENT_COMPARATOR = new Comparator<ISegment>() {
+        @Override
+        public int compare(@Nullable ISegment o1, @Nullable ISegment o2) {
+            if (o1 == null || o2 == null) {
+                throw new IllegalArgumentException();
+            }
+            int res = Long.compare(o1.getStart(), o2.getStart());
+            return (res != 0 ? res : Long.compare(o1.getEnd(), o2.getEnd()));
+        }
+    };
+}
@@ -0,0 +1,417 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.segmentstore.core.ondisk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.internal.segmentstore.core.Activator;
+import org.eclipse.tracecompass.segmentstore.core.ISegment;
+
+/**
+ * A sequence of segments sorted by start time, stored in a file.
+ *
+ * The segments are grouped in pages of {@link #PAGE_ELEMENTS} segments (the
+ * last page can be smaller). The page index, kept in memory, has the
+ * position, first start time and greatest end time of each page. Like in
+ * {@link org.eclipse.tracecompass.segmentstore.core.intervaltree.IntervalTreeStore},
+ * the pages are also seen as an implicit balanced tree, with the greatest end
+ * time of each subtree, so that intersection queries only read the pages
+ * that can contain matching segments.
+ *
+ * Objects of this class are immutable, and the file is read with positional
+ * reads (or from memory-mapped buffers), so they can be queried by many
+ * threads at the same time.
+ *
+ * @param <T>
+ *            The type of segment
+ */
+final class SegmentRun<T extends ISegment> implements Iterable<T> {
+
+    /** Number of segments per page */
+    static final int PAGE_ELEMENTS = 256;
+
+    /** Maximum size of one memory-mapped chunk of the file */
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+
+    /*
+     * Mapping a file on Windows prevents it from being deleted afterwards, so
+     * we only use the channel there.
+     */
+    private static final boolean IS_WIN32 = System.getProperty("os.name").startsWith("Windows"); //$NON-NLS-1$//$NON-NLS-2$
+
+    private final FileChannel fChannel;
+    private final ISegmentSerializer<T> fSerializer;
+
+    /* Position of each page, plus the end of the last one */
+    private final long[] fOffsets;
+    private final long[] fFirstStarts;
+    private final long[] fMaxEnds;
+    private final int[] fCounts;
+    /* Greatest end time of the subtree rooted at each page */
+    private final long[] fTreeMaxEnds;
+    private final long fNbElements;
+
+    /* Memory-mapped chunks of the pages, null if they are read with the channel */
+    private volatile @Nullable Mapping fMapping = null;
+
+    /** Memory-mapped chunks of the file, each containing whole pages */
+    private static final class Mapping {
+        private final ByteBuffer[] fChunks;
+        /* Chunk of each page */
+        private final int[] fPageChunks;
+        /* Position in the file of the start of each chunk */
+        private final long[] fChunkStarts;
+
+        public Mapping(ByteBuffer[] chunks, int[] pageChunks, long[] chunkStarts) {
+            fChunks = chunks;
+            fPageChunks = pageChunks;
+            fChunkStarts = chunkStarts;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param channel
+     *            The channel of the file containing the pages
+     * @param serializer
+     *            The serializer of the segments
+     * @param offsets
+     *            The positions of the pages in the file, followed by the end
+     *            of the last page
+     * @param firstStarts
+     *            The start time of the first segment of each page
+     * @param maxEnds
+     *            The greatest end time of the segments of each page
+     * @param counts
+     *            The number of segments in each page
+     */
+    SegmentRun(FileChannel channel, ISegmentSerializer<T> serializer,
+            long[] offsets, long[] firstStarts, long[] maxEnds, int[] counts) {
+        fChannel = channel;
+        fSerializer = serializer;
+        fOffsets = offsets;
+        fFirstStarts = firstStarts;
+        fMaxEnds = maxEnds;
+        fCounts = counts;
+        fTreeMaxEnds = new long[counts.length];
+        computeTreeMaxEnds(0, counts.length);
+
+        long nbElements = 0;
+        for (int count : counts) {
+            nbElements += count;
+        }
+        fNbElements = nbElements;
+    }
+
+    private long computeTreeMaxEnds(int lo, int hi) {
+        if (lo >= hi) {
+            return Long.MIN_VALUE;
+        }
+        int mid = (lo + hi) >>> 1;
+        long maxEnd = Math.max(fMaxEnds[mid],
+                Math.max(computeTreeMaxEnds(lo, mid), computeTreeMaxEnds(mid + 1, hi)));
+        fTreeMaxEnds[mid] = maxEnd;
+        return maxEnd;
+    }
+
+    // ------------------------------------------------------------------------
+    // Page index
+    // ------------------------------------------------------------------------
+
+    /**
+     * Read the page index of a run from a file.
+     *
+     * @param channel
+     *            The channel of the file
+     * @param serializer
+     *            The serializer of the segments
+     * @param indexPos
+     *            The position of the index in the file
+     * @return The run
+     * @throws IOException
+     *             If the index could not be read, or is not valid
+     */
+    static <T extends ISegment> SegmentRun<T> readIndex(FileChannel channel,
+            ISegmentSerializer<T> serializer, long indexPos) throws IOException {
+        ByteBuffer header = readFully(channel, indexPos, Integer.SIZE / Byte.SIZE);
+        int nbPages = header.getInt();
+        if (nbPages < 0 || getIndexSize(nbPages) > channel.size() - indexPos) {
+            throw new IOException("Invalid segment store index"); //$NON-NLS-1$
+        }
+
+        ByteBuffer buffer = readFully(channel, indexPos + header.capacity(), (int) getIndexSize(nbPages) - header.capacity());
+        long[] offsets = new long[nbPages + 1];
+        long[] firstStarts = new long[nbPages];
+        long[] maxEnds = new long[nbPages];
+        int[] counts = new int[nbPages];
+        buffer.asLongBuffer().get(offsets);
+        buffer.position(buffer.position() + offsets.length * (Long.SIZE / Byte.SIZE));
+        buffer.asLongBuffer().get(firstStarts);
+        buffer.position(buffer.position() + nbPages * (Long.SIZE / Byte.SIZE));
+        buffer.asLongBuffer().get(maxEnds);
+        buffer.position(buffer.position() + nbPages * (Long.SIZE / Byte.SIZE));
+        buffer.asIntBuffer().get(counts);
+
+        for (int i = 0; i < nbPages; i++) {
+            if (offsets[i + 1] < offsets[i] || counts[i] <= 0 || counts[i] > PAGE_ELEMENTS) {
+                throw new IOException("Invalid segment store index"); //$NON-NLS-1$
+            }
+        }
+        return new SegmentRun<>(channel, serializer, offsets, firstStarts, maxEnds, counts);
+    }
+
+    /**
+     * Write the page index of this run to its file.
+     *
+     * @param indexPos
+     *            The position where to write the index
+     * @return The position right after the index
+     * @throws IOException
+     *             If the index could not be written
+     */
+    long writeIndex(long indexPos) throws IOException {
+        final int nbPages = fCounts.length;
+        ByteBuffer buffer = ByteBuffer.allocate((int) getIndexSize(nbPages));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(nbPages);
+        for (long offset : fOffsets) {
+            buffer.putLong(offset);
+        }
+        for (long firstStart : fFirstStarts) {
+            buffer.putLong(firstStart);
+        }
+        for (long maxEnd : fMaxEnds) {
+            buffer.putLong(maxEnd);
+        }
+        for (int count : fCounts) {
+            buffer.putInt(count);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            fChannel.write(buffer, indexPos + buffer.position());
+        }
+        return indexPos + buffer.capacity();
+    }
+
+    private static long getIndexSize(int nbPages) {
+        return Integer.SIZE / Byte.SIZE
+                + (2L * nbPages + 1) * (Long.SIZE / Byte.SIZE)
+                + (long) nbPages * (Long.SIZE / Byte.SIZE + Integer.SIZE / Byte.SIZE);
+    }
+
+    /**
+     * Switch to reading the pages from memory-mapped chunks of the file. This
+     * should only be done once the file is complete. If the file cannot be
+     * mapped, the pages will keep being read with the channel.
+     */
+    synchronized void map() {
+        final int nbPages = fCounts.length;
+        if (IS_WIN32 || nbPages == 0) {
+            return;
+        }
+
+        /* Chunks contain whole pages */
+        List<ByteBuffer> chunks = new ArrayList<>();
+        List<Long> chunkStarts = new ArrayList<>();
+        int[] pageChunks = new int[nbPages];
+        try {
+            int firstPage = 0;
+            while (firstPage < nbPages) {
+                int lastPage = firstPage;
+                while (lastPage + 1 < nbPages && fOffsets[lastPage + 2] - fOffsets[firstPage] <= MAX_CHUNK_SIZE) {
+                    lastPage++;
+                }
+                long chunkStart = fOffsets[firstPage];
+                ByteBuffer chunk = fChannel.map(MapMode.READ_ONLY, chunkStart, fOffsets[lastPage + 1] - chunkStart);
+                for (int i = firstPage; i <= lastPage; i++) {
+                    pageChunks[i] = chunks.size();
+                }
+                chunks.add(chunk);
+                chunkStarts.add(chunkStart);
+                firstPage = lastPage + 1;
+            }
+        } catch (IOException e) {
+            Activator.instance().logError("Could not map the segment store file, reading it from the channel instead", e); //$NON-NLS-1$
+            return;
+        }
+        long[] starts = new long[chunkStarts.size()];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = chunkStarts.get(i);
+        }
+        fMapping = new Mapping(chunks.toArray(new ByteBuffer[chunks.size()]), pageChunks, starts);
+    }
+
+    // ------------------------------------------------------------------------
+    // Queries
+    // ------------------------------------------------------------------------
+
+    /**
+     * @return The number of segments in this run
+     */
+    long getNbElements() {
+        return fNbElements;
+    }
+
+    /**
+     * Get the segment at a given position in the run. This only works if all
+     * the pages but the last one are full, which is the case when the run
+     * was written in one go.
+     *
+     * @param index
+     *            The position of the segment, in the order of the start times
+     * @return The segment
+     * @throws IOException
+     *             If the page of the segment could not be read
+     */
+    T getElement(long index) throws IOException {
+        if (index < 0 || index >= fNbElements) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        List<T> page = readPage((int) (index / PAGE_ELEMENTS));
+        return page.get((int) (index % PAGE_ELEMENTS));
+    }
+
+    /**
+     * Add the segments of this run that intersect [start, end] to a list.
+     *
+     * @param start
+     *            The start of the range
+     * @param end
+     *            The end of the range
+     * @param result
+     *            The list to which to add the segments
+     * @throws IOException
+     *             If a page could not be read
+     */
+    void findIntersecting(long start, long end, List<T> result) throws IOException {
+        searchPages(0, fCounts.length, start, end, result);
+    }
+
+    private void searchPages(int lo, int hi, long start, long end, List<T> result) throws IOException {
+        int low = lo;
+        while (low < hi) {
+            int mid = (low + hi) >>> 1;
+            if (fTreeMaxEnds[mid] < start) {
+                /* No page of this subtree has segments ending after start */
+                return;
+            }
+            searchPages(low, mid, start, end, result);
+            if (fFirstStarts[mid] > end) {
+                /* This page and the ones to its right start after the range */
+                return;
+            }
+            if (fMaxEnds[mid] >= start) {
+                for (T segment : readPage(mid)) {
+                    if (segment.getStart() > end) {
+                        break;
+                    }
+                    if (segment.getEnd() >= start) {
+                        result.add(segment);
+                    }
+                }
+            }
+            low = mid + 1;
+        }
+    }
+
+    /**
+     * Iterate over the segments of this run, in the order of their start
+     * times. Pages are read one at a time. If a page cannot be read, the
+     * error is logged and the iteration stops there.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int fNextPage = 0;
+            private Iterator<T> fPage = Collections.<T> emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!fPage.hasNext() && fNextPage < fCounts.length) {
+                    try {
+                        fPage = readPage(fNextPage++).iterator();
+                    } catch (IOException e) {
+                        Activator.instance().logError("Error reading the segment store file", e); //$NON-NLS-1$
+                        fNextPage = fCounts.length;
+                    }
+                }
+                return fPage.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return fPage.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Read and decode the segments of a page.
+     */
+    private List<T> readPage(int page) throws IOException {
+        ByteBuffer buffer;
+        Mapping mapping = fMapping;
+        int length = (int) (fOffsets[page + 1] - fOffsets[page]);
+
+        if (mapping != null) {
+            /* Create a view of the page, it does not copy anything */
+            int chunk = mapping.fPageChunks[page];
+            ByteBuffer view = mapping.fChunks[chunk].duplicate();
+            int pos = (int) (fOffsets[page] - mapping.fChunkStarts[chunk]);
+            view.limit(pos + length);
+            view.position(pos);
+            buffer = view.slice().order(ByteOrder.LITTLE_ENDIAN);
+        } else {
+            buffer = readFully(fChannel, fOffsets[page], length);
+        }
+
+        final int count = fCounts[page];
+        List<T> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            segments.add(fSerializer.readSegment(buffer));
+        }
+        return segments;
+    }
+
+    /**
+     * Read a part of the file. Positional reads do not touch the channel's
+     * position, so they can run concurrently.
+     */
+    private static ByteBuffer readFully(FileChannel channel, long pos, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, pos + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of segment store file"); //$NON-NLS-1$
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
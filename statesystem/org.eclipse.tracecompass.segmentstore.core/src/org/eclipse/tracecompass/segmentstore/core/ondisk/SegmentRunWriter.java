@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.segmentstore.core.ondisk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.eclipse.tracecompass.segmentstore.core.ISegment;
+
+/**
+ * Writes segments, which must be given in the order of their start times, in
+ * pages in a file, and builds the {@link SegmentRun} containing them.
+ *
+ * @param <T>
+ *            The type of segment
+ */
+final class SegmentRunWriter<T extends ISegment> {
+
+    private static final int INITIAL_PAGE_SIZE = 8192;
+
+    private final FileChannel fChannel;
+    private final ISegmentSerializer<T> fSerializer;
+    private long fPos;
+
+    /* The page being filled */
+    private ByteBuffer fPage = newPageBuffer(INITIAL_PAGE_SIZE);
+    private int fPageCount = 0;
+    private long fPageFirstStart;
+    private long fPageMaxEnd;
+
+    /* The index of the pages written so far */
+    private int fNbPages = 0;
+    private long[] fOffsets = new long[16];
+    private long[] fFirstStarts = new long[16];
+    private long[] fMaxEnds = new long[16];
+    private int[] fCounts = new int[16];
+
+    /**
+     * Constructor
+     *
+     * @param channel
+     *            The channel of the file to write to
+     * @param serializer
+     *            The serializer of the segments
+     * @param startPos
+     *            The position in the file where to write the first page
+     */
+    SegmentRunWriter(FileChannel channel, ISegmentSerializer<T> serializer, long startPos) {
+        fChannel = channel;
+        fSerializer = serializer;
+        fPos = startPos;
+    }
+
+    private static ByteBuffer newPageBuffer(int size) {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Add a segment after the ones already written.
+     *
+     * @param segment
+     *            The segment, which must not start before the previous one
+     * @throws IOException
+     *             If a page could not be written
+     */
+    void add(T segment) throws IOException {
+        int size = fSerializer.getSerializedSize(segment);
+        if (fPage.remaining() < size) {
+            ByteBuffer page = newPageBuffer(Math.max(2 * fPage.capacity(), fPage.position() + size));
+            fPage.flip();
+            page.put(fPage);
+            fPage = page;
+        }
+
+        if (fPageCount == 0) {
+            fPageFirstStart = segment.getStart();
+            fPageMaxEnd = segment.getEnd();
+        }
+        assert (segment.getStart() >= fPageFirstStart);
+
+        fSerializer.writeSegment(fPage, segment);
+        fPageMaxEnd = Math.max(fPageMaxEnd, segment.getEnd());
+        fPageCount++;
+        if (fPageCount == SegmentRun.PAGE_ELEMENTS) {
+            writePage();
+        }
+    }
+
+    /**
+     * Write the last page, if it is not empty, and get the run of all the
+     * segments that were added.
+     *
+     * @return The run of segments
+     * @throws IOException
+     *             If the last page could not be written
+     */
+    SegmentRun<T> finish() throws IOException {
+        if (fPageCount > 0) {
+            writePage();
+        }
+        long[] offsets = Arrays.copyOf(fOffsets, fNbPages + 1);
+        offsets[fNbPages] = fPos;
+        return new SegmentRun<>(fChannel, fSerializer, offsets,
+                Arrays.copyOf(fFirstStarts, fNbPages),
+                Arrays.copyOf(fMaxEnds, fNbPages),
+                Arrays.copyOf(fCounts, fNbPages));
+    }
+
+    /**
+     * @return The position in the file right after the last page written
+     */
+    long getEndPosition() {
+        return fPos;
+    }
+
+    private void writePage() throws IOException {
+        if (fNbPages + 1 >= fOffsets.length) {
+            int newLength = 2 * fOffsets.length;
+            fOffsets = Arrays.copyOf(fOffsets, newLength);
+            fFirstStarts = Arrays.copyOf(fFirstStarts, newLength);
+            fMaxEnds = Arrays.copyOf(fMaxEnds, newLength);
+            fCounts = Arrays.copyOf(fCounts, newLength);
+        }
+        fOffsets[fNbPages] = fPos;
+        fFirstStarts[fNbPages] = fPageFirstStart;
+        fMaxEnds[fNbPages] = fPageMaxEnd;
+        fCounts[fNbPages] = fPageCount;
+        fNbPages++;
+
+        fPage.flip();
+        final int length = fPage.remaining();
+        while (fPage.hasRemaining()) {
+            fChannel.write(fPage, fPos + fPage.position());
+        }
+        fPos += length;
+
+        fPage.clear();
+        fPageCount = 0;
+    }
+}
@@ -21,8 +21,12 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+        StateSystem2DQueryTest.class,
+        StateSystemAttributeConcurrencyTest.class,
+        StateSystemFullQueryTest.class,
         StateSystemPushPopTest.class,
         StateSystemUtilsTest.class,
+        TransientStateTest.class,
         org.eclipse.tracecompass.statesystem.core.tests.backend.AllTests.class,
         org.eclipse.tracecompass.statesystem.core.tests.statevalue.AllTests.class
 })
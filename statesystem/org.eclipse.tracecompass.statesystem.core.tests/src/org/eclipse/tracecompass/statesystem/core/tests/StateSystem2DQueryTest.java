@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.statesystem.core.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HistoryTreeBackend;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystem;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
+import org.eclipse.tracecompass.statesystem.core.StateSystemFactory;
+import org.eclipse.tracecompass.statesystem.core.StateSystemUtils;
+import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
+import org.eclipse.tracecompass.statesystem.core.exceptions.StateSystemDisposedException;
+import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
+import org.eclipse.tracecompass.statesystem.core.interval.TmfIntervalEndComparator;
+import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the 2D (attributes x time range) queries of the state system, using a
+ * history tree small enough to have several levels of nodes.
+ */
+public class StateSystem2DQueryTest {
+
+    private static final long START_TIME = 1000L;
+    private static final long END_TIME = 100000L;
+    private static final int NB_ATTRIBUTES = 20;
+
+    private File fStateFile;
+    private ITmfStateSystemBuilder fStateSystem;
+
+    /**
+     * Build the test state system
+     *
+     * @throws IOException
+     *             If the history file could not be created
+     */
+    @Before
+    public void setupStateSystem() throws IOException {
+        fStateFile = File.createTempFile("test-2d", ".ht");
+        HistoryTreeBackend backend = new HistoryTreeBackend("test-2d", fStateFile, 1, START_TIME, 4096, 3);
+        fStateSystem = StateSystemFactory.newStateSystem(backend);
+
+        int[] quarks = new int[NB_ATTRIBUTES];
+        for (int i = 0; i < NB_ATTRIBUTES; i++) {
+            quarks[i] = fStateSystem.getQuarkAbsoluteAndAdd("attribute", String.valueOf(i));
+        }
+        try {
+            /* Each attribute changes state at a different rate */
+            for (long t = START_TIME; t < END_TIME; t += 10) {
+                for (int i = 0; i < NB_ATTRIBUTES; i++) {
+                    if ((t / 10) % (i + 1) == 0) {
+                        fStateSystem.modifyAttribute(t, TmfStateValue.newValueLong(t + i), quarks[i]);
+                    }
+                }
+            }
+        } catch (AttributeNotFoundException e) {
+            fail(e.getMessage());
+        }
+        fStateSystem.closeHistory(END_TIME);
+    }
+
+    /**
+     * Clean-up
+     */
+    @After
+    public void tearDown() {
+        fStateSystem.dispose();
+        fStateFile.delete();
+    }
+
+    /**
+     * Test that a 2D query returns the same intervals as walking the history
+     * of each attribute with singular queries.
+     *
+     * @throws AttributeNotFoundException
+     *             Fails the test
+     * @throws StateSystemDisposedException
+     *             Fails the test
+     */
+    @Test
+    public void testQuery2D() throws AttributeNotFoundException, StateSystemDisposedException {
+        ITmfStateSystem ss = fStateSystem;
+        List<Integer> quarks = ss.getQuarks("attribute", "*");
+        List<Integer> subset = Arrays.asList(quarks.get(0), quarks.get(7), quarks.get(19));
+
+        checkQuery2D(ss, subset, START_TIME, END_TIME);
+        checkQuery2D(ss, subset, 25432L, 25532L);
+        checkQuery2D(ss, quarks, 50000L, 50000L);
+        checkQuery2D(ss, quarks, 42000L, 61000L);
+    }
+
+    /**
+     * Test that a 2D query with a resolution returns the intervals that
+     * contain the sampled timestamps, and the ones at the start and end of the
+     * range.
+     *
+     * @throws AttributeNotFoundException
+     *             Fails the test
+     * @throws StateSystemDisposedException
+     *             Fails the test
+     */
+    @Test
+    public void testQuery2DResolution() throws AttributeNotFoundException, StateSystemDisposedException {
+        ITmfStateSystem ss = fStateSystem;
+        int quark = ss.getQuarkAbsolute("attribute", "4");
+        long t1 = 3005L;
+        long t2 = 80003L;
+        long resolution = 1234L;
+
+        List<ITmfStateInterval> expected = new ArrayList<>();
+        for (long t = t1; t <= t2; t += resolution) {
+            ITmfStateInterval interval = ss.querySingleState(t, quark);
+            if (expected.isEmpty() || expected.get(expected.size() - 1).getStartTime() != interval.getStartTime()) {
+                expected.add(interval);
+            }
+        }
+        ITmfStateInterval last = ss.querySingleState(t2, quark);
+        if (expected.get(expected.size() - 1).getStartTime() != last.getStartTime()) {
+            expected.add(last);
+        }
+
+        List<ITmfStateInterval> actual = StateSystemUtils.queryHistoryRange(ss, quark, t1, t2, resolution, null);
+        assertIntervalsEqual(expected, actual);
+    }
+
+    /**
+     * Test that a range query with a resolution checks its monitor while it
+     * queries, and returns the intervals found until it is canceled.
+     *
+     * @throws AttributeNotFoundException
+     *             Fails the test
+     * @throws StateSystemDisposedException
+     *             Fails the test
+     */
+    @Test
+    public void testQueryResolutionCanceled() throws AttributeNotFoundException, StateSystemDisposedException {
+        ITmfStateSystem ss = fStateSystem;
+        int quark = ss.getQuarkAbsolute("attribute", "0");
+        long resolution = 10L;
+        List<ITmfStateInterval> all = StateSystemUtils.queryHistoryRange(ss, quark, START_TIME, END_TIME, resolution, null);
+
+        /* Cancel the query after it started */
+        IProgressMonitor monitor = new NullProgressMonitor() {
+            private int fNbChecks = 0;
+
+            @Override
+            public boolean isCanceled() {
+                fNbChecks++;
+                return (fNbChecks > 2);
+            }
+        };
+        List<ITmfStateInterval> canceled = StateSystemUtils.queryHistoryRange(ss, quark, START_TIME, END_TIME, resolution, monitor);
+        assertFalse(canceled.isEmpty());
+        assertTrue(canceled.size() < all.size());
+        assertIntervalsEqual(all.subList(0, canceled.size()), canceled);
+    }
+
+    private static void checkQuery2D(ITmfStateSystem ss, List<Integer> quarks, long t1, long t2)
+            throws AttributeNotFoundException, StateSystemDisposedException {
+        List<ITmfStateInterval> expected = new ArrayList<>();
+        for (int quark : quarks) {
+            long t = t1;
+            while (t <= t2) {
+                ITmfStateInterval interval = ss.querySingleState(t, quark);
+                expected.add(interval);
+                t = interval.getEndTime() + 1;
+            }
+        }
+
+        List<ITmfStateInterval> actual = new ArrayList<>();
+        for (ITmfStateInterval interval : ss.query2D(quarks, t1, t2)) {
+            assertTrue(quarks.contains(interval.getAttribute()));
+            assertTrue(interval.getStartTime() <= t2 && interval.getEndTime() >= t1);
+            actual.add(interval);
+        }
+        sortByQuarkAndTime(expected);
+        sortByQuarkAndTime(actual);
+        assertIntervalsEqual(expected, actual);
+    }
+
+    private static void sortByQuarkAndTime(List<ITmfStateInterval> intervals) {
+        Collections.sort(intervals, new TmfIntervalEndComparator() {
+            @Override
+            public int compare(ITmfStateInterval o1, ITmfStateInterval o2) {
+                int cmp = Integer.compare(o1.getAttribute(), o2.getAttribute());
+                return (cmp != 0 ? cmp : super.compare(o1, o2));
+            }
+        });
+    }
+
+    private static void assertIntervalsEqual(List<ITmfStateInterval> expected, List<ITmfStateInterval> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            ITmfStateInterval exp = expected.get(i);
+            ITmfStateInterval act = actual.get(i);
+            assertEquals(exp.getAttribute(), act.getAttribute());
+            assertEquals(exp.getStartTime(), act.getStartTime());
+            assertEquals(exp.getEndTime(), act.getEndTime());
+            assertEquals(exp.getStateValue(), act.getStateValue());
+        }
+    }
+}
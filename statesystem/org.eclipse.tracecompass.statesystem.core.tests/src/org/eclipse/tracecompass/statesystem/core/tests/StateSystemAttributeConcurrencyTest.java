@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.statesystem.core.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
+import org.eclipse.tracecompass.statesystem.core.StateSystemFactory;
+import org.eclipse.tracecompass.statesystem.core.backend.IStateHistoryBackend;
+import org.eclipse.tracecompass.statesystem.core.backend.StateHistoryBackendFactory;
+import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that attributes can be created and looked up from several threads at
+ * the same time.
+ */
+public class StateSystemAttributeConcurrencyTest {
+
+    private static final @NonNull String DUMMY_STRING = "test";
+    private static final int NB_THREADS = 4;
+    private static final int NB_PARENTS = 20;
+    private static final int NB_CHILDREN = 200;
+
+    private ITmfStateSystemBuilder fStateSystem;
+
+    /**
+     * Create an empty state system
+     */
+    @Before
+    public void setup() {
+        IStateHistoryBackend backend = StateHistoryBackendFactory.createNullBackend(DUMMY_STRING);
+        fStateSystem = StateSystemFactory.newStateSystem(backend);
+    }
+
+    /**
+     * Clean-up
+     */
+    @After
+    public void tearDown() {
+        fStateSystem.dispose();
+    }
+
+    /**
+     * Have several threads create the same attributes, in different orders,
+     * while looking them up. Each path must get a single quark.
+     *
+     * @throws Throwable
+     *             If one of the threads failed
+     */
+    @Test
+    public void testConcurrentQuarkCreation() throws Throwable {
+        final ITmfStateSystemBuilder ss = fStateSystem;
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final int[][][] quarks = new int[NB_THREADS][NB_PARENTS][NB_CHILDREN];
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < NB_THREADS; t++) {
+            final int threadId = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                        final int nbPaths = NB_PARENTS * NB_CHILDREN;
+                        for (int i = 0; i < nbPaths; i++) {
+                            /* Each thread goes through the paths in a different order */
+                            int index = (threadId % 2 == 0 ? i : nbPaths - 1 - i);
+                            index = (index + threadId * NB_CHILDREN / 2) % nbPaths;
+                            int parent = index / NB_CHILDREN;
+                            int child = index % NB_CHILDREN;
+                            String parentName = "Parent" + parent;
+                            String childName = "Child" + child;
+                            int quark = ss.getQuarkAbsoluteAndAdd(parentName, childName);
+                            quarks[threadId][parent][child] = quark;
+
+                            /* Lookups must see the attribute right away */
+                            int parentQuark = ss.getQuarkAbsolute(parentName);
+                            if (ss.getQuarkRelative(parentQuark, childName) != quark) {
+                                throw new IllegalStateException("Wrong quark for " + parentName + '/' + childName);
+                            }
+                            ss.getSubAttributes(parentQuark, false);
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Throwable e = error.get();
+        if (e != null) {
+            throw e;
+        }
+
+        /* Every thread got the same quarks, and the quarks are unique */
+        Set<Integer> allQuarks = new HashSet<>();
+        for (int parent = 0; parent < NB_PARENTS; parent++) {
+            for (int child = 0; child < NB_CHILDREN; child++) {
+                for (int t = 1; t < NB_THREADS; t++) {
+                    assertEquals(quarks[0][parent][child], quarks[t][parent][child]);
+                }
+                int quark = quarks[0][parent][child];
+                allQuarks.add(quark);
+                assertArrayEquals(new String[] { "Parent" + parent, "Child" + child }, ss.getFullAttributePathArray(quark));
+            }
+        }
+        assertEquals(NB_PARENTS * NB_CHILDREN, allQuarks.size());
+        assertEquals(NB_PARENTS * (NB_CHILDREN + 1), ss.getNbAttributes());
+    }
+
+    /**
+     * Test that the sub-attributes are listed in the order in which they
+     * were created
+     *
+     * @throws AttributeNotFoundException
+     *             If an attribute was not found
+     */
+    @Test
+    public void testSubAttributesOrder() throws AttributeNotFoundException {
+        ITmfStateSystemBuilder ss = fStateSystem;
+        List<Integer> expected = new ArrayList<>();
+        for (int i = NB_CHILDREN; i > 0; i--) {
+            expected.add(ss.getQuarkAbsoluteAndAdd(DUMMY_STRING, String.valueOf(i)));
+        }
+        int parentQuark = ss.getQuarkAbsolute(DUMMY_STRING);
+        assertEquals(expected, ss.getSubAttributes(parentQuark, false));
+    }
+}
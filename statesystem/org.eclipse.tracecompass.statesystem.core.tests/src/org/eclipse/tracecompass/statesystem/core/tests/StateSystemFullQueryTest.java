@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.statesystem.core.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
+import org.eclipse.tracecompass.statesystem.core.StateSystemFactory;
+import org.eclipse.tracecompass.statesystem.core.backend.IStateHistoryBackend;
+import org.eclipse.tracecompass.statesystem.core.backend.StateHistoryBackendFactory;
+import org.eclipse.tracecompass.statesystem.core.exceptions.StateSystemDisposedException;
+import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
+import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the full queries of the state system, with a caller-supplied list and
+ * from several threads
+ */
+public class StateSystemFullQueryTest {
+
+    private static final @NonNull String DUMMY_STRING = "test";
+    private static final long START_TIME = 0L;
+    private static final long END_TIME = 10000L;
+    private static final int NB_ATTRIBUTES = 10;
+
+    private ITmfStateSystemBuilder fStateSystem;
+
+    /**
+     * Build a state system in memory where attribute i changes value every
+     * (i + 1) * 10 time units
+     */
+    @Before
+    public void setupStateSystem() {
+        IStateHistoryBackend backend = StateHistoryBackendFactory.createInMemoryBackend(DUMMY_STRING, START_TIME);
+        fStateSystem = StateSystemFactory.newStateSystem(backend);
+        try {
+            for (int i = 0; i < NB_ATTRIBUTES; i++) {
+                fStateSystem.getQuarkAbsoluteAndAdd(String.valueOf(i));
+            }
+            for (long t = START_TIME; t < END_TIME; t += 10) {
+                for (int i = 0; i < NB_ATTRIBUTES; i++) {
+                    if (t % ((i + 1) * 10) == 0) {
+                        fStateSystem.modifyAttribute(t, TmfStateValue.newValueLong(t), i);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        fStateSystem.closeHistory(END_TIME);
+    }
+
+    /**
+     * Clean-up
+     */
+    @After
+    public void tearDown() {
+        fStateSystem.dispose();
+    }
+
+    /**
+     * Test that the list given to the query is resized to the number of
+     * attributes, whatever its initial size
+     *
+     * @throws StateSystemDisposedException
+     *             Should not happen
+     */
+    @Test
+    public void testReusedList() throws StateSystemDisposedException {
+        List<ITmfStateInterval> buffer = new ArrayList<>();
+        fStateSystem.queryFullState(1234L, buffer);
+        assertEquals(fStateSystem.queryFullState(1234L).toString(), buffer.toString());
+
+        /* Too many elements, the list is shrunk */
+        for (int i = 0; i < 5; i++) {
+            buffer.add(buffer.get(0));
+        }
+        fStateSystem.queryFullState(5678L, buffer);
+        assertEquals(NB_ATTRIBUTES, buffer.size());
+        assertEquals(fStateSystem.queryFullState(5678L).toString(), buffer.toString());
+
+        /* Too few elements, the list is grown */
+        buffer.subList(3, buffer.size()).clear();
+        fStateSystem.queryFullState(90L, buffer);
+        assertEquals(NB_ATTRIBUTES, buffer.size());
+        assertEquals(fStateSystem.queryFullState(90L).toString(), buffer.toString());
+    }
+
+    /**
+     * Run full queries from several threads at the same time, each reusing
+     * its own list, and check the results against single queries
+     *
+     * @throws Throwable
+     *             If one of the threads failed
+     */
+    @Test
+    public void testConcurrentFullQueries() throws Throwable {
+        final ITmfStateSystemBuilder ss = fStateSystem;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int n = 0; n < 4; n++) {
+            final int offset = n;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    List<ITmfStateInterval> buffer = new ArrayList<>();
+                    try {
+                        for (long t = START_TIME + offset; t < END_TIME; t += 7) {
+                            ss.queryFullState(t, buffer);
+                            for (int i = 0; i < NB_ATTRIBUTES; i++) {
+                                long expected = t - t % ((i + 1) * 10);
+                                if (buffer.get(i).getStateValue().unboxLong() != expected) {
+                                    throw new IllegalStateException("Wrong state at " + t + " for " + i);
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Throwable e = error.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+}
@@ -13,15 +13,21 @@
 package org.eclipse.tracecompass.statesystem.core.tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.tracecompass.statesystem.core.ITmfStateSystem;
 import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
 import org.eclipse.tracecompass.statesystem.core.StateSystemFactory;
 import org.eclipse.tracecompass.statesystem.core.StateSystemUtils;
+import org.eclipse.tracecompass.statesystem.core.StateSystemUtils.QuarkIterator;
 import org.eclipse.tracecompass.statesystem.core.backend.IStateHistoryBackend;
 import org.eclipse.tracecompass.statesystem.core.backend.StateHistoryBackendFactory;
 import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
@@ -128,4 +134,85 @@ public class StateSystemUtilsTest {
 
     }
 
+    /**
+     * Test the {@link StateSystemUtils.QuarkIterator} on the small state
+     * system, in both directions
+     *
+     * @throws AttributeNotFoundException
+     *             Should not happen
+     */
+    @Test
+    public void testQuarkIterator() throws AttributeNotFoundException {
+        ITmfStateSystem ss = fStateSystem;
+        int quark = ss.getQuarkAbsolute(DUMMY_STRING);
+
+        QuarkIterator iterator = new QuarkIterator(ss, quark, 1300L);
+        assertTrue(iterator.hasNext());
+        ITmfStateInterval interval = iterator.next();
+        assertEquals(1200L, interval.getStartTime());
+        assertEquals(1499L, interval.getEndTime());
+        interval = iterator.next();
+        assertEquals(1500L, interval.getStartTime());
+        assertFalse(iterator.hasNext());
+
+        /* Going back from the last interval */
+        assertEquals(1200L, iterator.previous().getStartTime());
+        interval = iterator.previous();
+        assertEquals(START_TIME, interval.getStartTime());
+        assertTrue(interval.getStateValue().isNull());
+        assertFalse(iterator.hasPrevious());
+
+        /* The first previous() returns the interval at the initial time */
+        iterator = new QuarkIterator(ss, quark, 1300L);
+        assertEquals(1200L, iterator.previous().getStartTime());
+
+        /* Outside of the state system's range, the time is brought back inside it */
+        iterator = new QuarkIterator(ss, quark, 5000L);
+        assertEquals(1500L, iterator.previous().getStartTime());
+        iterator = new QuarkIterator(ss, quark, 0L);
+        assertEquals(START_TIME, iterator.next().getStartTime());
+    }
+
+    /**
+     * Walk the whole history of an attribute with many intervals, forward
+     * then backward, and compare with singular queries
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testQuarkIteratorLongWalk() throws Exception {
+        IStateHistoryBackend backend = StateHistoryBackendFactory.createInMemoryBackend(DUMMY_STRING, 0L);
+        ITmfStateSystemBuilder ss = StateSystemFactory.newStateSystem(backend);
+        int quark = ss.getQuarkAbsoluteAndAdd(DUMMY_STRING);
+        /* Intervals of irregular durations */
+        long t = 0;
+        int nbIntervals = 0;
+        for (int i = 0; i < 5000; i++) {
+            ss.modifyAttribute(t, TmfStateValue.newValueInt(i), quark);
+            t += 1 + (i * 7919) % 97;
+            nbIntervals++;
+        }
+        ss.closeHistory(t);
+
+        QuarkIterator iterator = new QuarkIterator(ss, quark, 0L);
+        List<ITmfStateInterval> forward = new ArrayList<>();
+        while (iterator.hasNext()) {
+            ITmfStateInterval interval = iterator.next();
+            assertEquals(ss.querySingleState(interval.getStartTime(), quark).toString(), interval.toString());
+            forward.add(interval);
+        }
+        assertEquals(nbIntervals, forward.size());
+        for (int i = 1; i < forward.size(); i++) {
+            assertEquals(forward.get(i - 1).getEndTime() + 1, forward.get(i).getStartTime());
+        }
+
+        /* previous() after the last next() returns the one before it */
+        for (int i = forward.size() - 2; i >= 0; i--) {
+            assertTrue(iterator.hasPrevious());
+            assertEquals(forward.get(i).toString(), iterator.previous().toString());
+        }
+        assertFalse(iterator.hasPrevious());
+        ss.dispose();
+    }
 }
@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+
+package org.eclipse.tracecompass.statesystem.core.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.tracecompass.internal.statesystem.core.TransientState;
+import org.eclipse.tracecompass.statesystem.core.backend.IStateHistoryBackend;
+import org.eclipse.tracecompass.statesystem.core.backend.StateHistoryBackendFactory;
+import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
+import org.eclipse.tracecompass.statesystem.core.exceptions.StateSystemDisposedException;
+import org.eclipse.tracecompass.statesystem.core.exceptions.StateValueTypeException;
+import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
+import org.eclipse.tracecompass.statesystem.core.interval.TmfStateInterval;
+import org.eclipse.tracecompass.statesystem.core.statevalue.ITmfStateValue;
+import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link TransientState}, building the intervals of each
+ * type of state value in an in-memory backend.
+ */
+public class TransientStateTest {
+
+    private static final long START_TIME = 10;
+
+    private static final ITmfStateValue[] VALUES = {
+            TmfStateValue.newValueInt(-3),
+            TmfStateValue.newValueLong(Long.MAX_VALUE),
+            TmfStateValue.newValueDouble(Double.NaN),
+            TmfStateValue.newValueString("value"),
+            TmfStateValue.nullValue()
+    };
+
+    private IStateHistoryBackend fBackend;
+    private TransientState fTransientState;
+
+    /**
+     * Create the transient state
+     */
+    @Before
+    public void setUp() {
+        fBackend = StateHistoryBackendFactory.createInMemoryBackend("test-ts", START_TIME);
+        fTransientState = new TransientState(fBackend);
+    }
+
+    /**
+     * Dispose the backend
+     */
+    @After
+    public void tearDown() {
+        fBackend.dispose();
+    }
+
+    private static ITmfStateValue copy(ITmfStateValue value) {
+        /*
+         * Get a different object. The caches of the factories are direct
+         * mapped, so another value with the same low bits evicts this one.
+         */
+        switch (value.getType()) {
+        case INTEGER:
+            TmfStateValue.newValueInt(value.unboxInt() + 128);
+            return TmfStateValue.newValueInt(value.unboxInt());
+        case LONG:
+            TmfStateValue.newValueLong(value.unboxLong() - 128);
+            return TmfStateValue.newValueLong(value.unboxLong());
+        case STRING:
+            return TmfStateValue.newValueString(new String(value.unboxStr()));
+        case DOUBLE:
+        case NULL:
+        default:
+            return value;
+        }
+    }
+
+    private void assertInterval(long start, long end, int quark, ITmfStateValue value)
+            throws AttributeNotFoundException, StateSystemDisposedException {
+        ITmfStateInterval interval = fBackend.doSingularQuery(start, quark);
+        assertNotNull(interval);
+        assertEquals(start, interval.getStartTime());
+        assertEquals(end, interval.getEndTime());
+        assertEquals(value, interval.getStateValue());
+    }
+
+    /**
+     * Test the intervals built for each type of value, up to the closing of
+     * the transient state
+     *
+     * @throws AttributeNotFoundException
+     *             Fails the test
+     * @throws StateSystemDisposedException
+     *             Fails the test
+     */
+    @Test
+    public void testValueTypes() throws AttributeNotFoundException, StateSystemDisposedException {
+        for (int quark = 0; quark < VALUES.length; quark++) {
+            fTransientState.addEmptyEntry();
+            assertEquals(TmfStateValue.nullValue(), fTransientState.getOngoingStateValue(quark));
+            assertEquals(START_TIME, fTransientState.getOngoingStartTime(quark));
+        }
+
+        for (int quark = 0; quark < VALUES.length; quark++) {
+            fTransientState.processStateChange(100, VALUES[quark], quark);
+            fTransientState.processStateChange(200, TmfStateValue.nullValue(), quark);
+            fTransientState.processStateChange(300, VALUES[quark], quark);
+            assertEquals(VALUES[quark], fTransientState.getOngoingStateValue(quark));
+        }
+        assertEquals(300, fTransientState.getOngoingStartTime(0));
+        assertEquals(START_TIME, fTransientState.getOngoingStartTime(VALUES.length - 1));
+        assertEquals(300, fTransientState.getLatestTime());
+
+        ITmfStateInterval ongoing = fTransientState.getOngoingInterval(2);
+        assertEquals(300, ongoing.getStartTime());
+        assertEquals(300, ongoing.getEndTime());
+        assertEquals(VALUES[2], ongoing.getStateValue());
+
+        fTransientState.closeTransientState(400);
+        assertFalse(fTransientState.isActive());
+
+        for (int quark = 0; quark < VALUES.length - 1; quark++) {
+            assertInterval(START_TIME, 99, quark, TmfStateValue.nullValue());
+            assertInterval(100, 199, quark, VALUES[quark]);
+            assertInterval(200, 299, quark, TmfStateValue.nullValue());
+            assertInterval(300, 400, quark, VALUES[quark]);
+        }
+        /* The null attribute never changed */
+        assertInterval(START_TIME, 400, VALUES.length - 1, TmfStateValue.nullValue());
+    }
+
+    /**
+     * Test that a value equal to the ongoing one, even if it is another
+     * object, does not end the ongoing state
+     *
+     * @throws AttributeNotFoundException
+     *             Fails the test
+     */
+    @Test
+    public void testSameValue() throws AttributeNotFoundException {
+        for (int quark = 0; quark < VALUES.length; quark++) {
+            fTransientState.addEmptyEntry();
+            fTransientState.processStateChange(100, VALUES[quark], quark);
+            ITmfStateValue copy = copy(VALUES[quark]);
+            fTransientState.processStateChange(200, copy, quark);
+            long expectedStart = (copy.isNull() ? START_TIME : 100);
+            assertEquals(expectedStart, fTransientState.getOngoingStartTime(quark));
+        }
+
+        /* An integer 0 has the same bits as the null value, not the same type */
+        fTransientState.addEmptyEntry();
+        int quark = VALUES.length;
+        fTransientState.processStateChange(100, TmfStateValue.newValueInt(0), quark);
+        assertEquals(100, fTransientState.getOngoingStartTime(quark));
+        assertEquals(TmfStateValue.newValueInt(0), fTransientState.getOngoingStateValue(quark));
+    }
+
+    /**
+     * Test that the intervals handed to the backend and returned by the
+     * queries carry the value objects of the state changes: no value object
+     * is allocated, even for values outside of the caches of the factories.
+     *
+     * @throws AttributeNotFoundException
+     *             Fails the test
+     * @throws StateSystemDisposedException
+     *             Fails the test
+     */
+    @Test
+    public void testNoValueAllocation() throws AttributeNotFoundException, StateSystemDisposedException {
+        final int nbChanges = 1000;
+        final int nbAttributes = 3;
+        Set<ITmfStateValue> values = Collections.newSetFromMap(new IdentityHashMap<ITmfStateValue, Boolean>());
+        values.add(TmfStateValue.nullValue());
+        for (int quark = 0; quark < nbAttributes; quark++) {
+            fTransientState.addEmptyEntry();
+        }
+        for (int i = 0; i < nbChanges; i++) {
+            long t = 100 + i;
+            ITmfStateValue[] changes = {
+                    TmfStateValue.newValueInt(i * 1000),
+                    TmfStateValue.newValueLong(i * 1000000007L),
+                    TmfStateValue.newValueDouble(i / 7.0)
+            };
+            for (int quark = 0; quark < nbAttributes; quark++) {
+                values.add(changes[quark]);
+                fTransientState.processStateChange(t, changes[quark], quark);
+                assertSame(changes[quark], fTransientState.getOngoingStateValue(quark));
+                ITmfStateInterval ongoing = fTransientState.getIntervalAt(t, quark);
+                assertNotNull(ongoing);
+                assertSame(changes[quark], ongoing.getStateValue());
+            }
+        }
+        fTransientState.closeTransientState(100 + nbChanges);
+
+        /* Count the value objects of the intervals that were not passed in */
+        int nbAllocated = 0;
+        for (int quark = 0; quark < nbAttributes; quark++) {
+            for (long t = START_TIME; t <= 100 + nbChanges; t++) {
+                ITmfStateValue value = fBackend.doSingularQuery(t, quark).getStateValue();
+                if (!values.contains(value)) {
+                    nbAllocated++;
+                }
+            }
+        }
+        assertEquals(0, nbAllocated);
+    }
+
+    /**
+     * Test that the values of an attribute must all be of the same type, or
+     * null
+     *
+     * @throws AttributeNotFoundException
+     *             Fails the test
+     */
+    @Test
+    public void testTypeMismatch() throws AttributeNotFoundException {
+        fTransientState.addEmptyEntry();
+        fTransientState.processStateChange(100, TmfStateValue.newValueInt(1), 0);
+        fTransientState.processStateChange(200, TmfStateValue.nullValue(), 0);
+        try {
+            fTransientState.processStateChange(300, TmfStateValue.newValueLong(1), 0);
+            fail();
+        } catch (StateValueTypeException e) {
+            /* Expected */
+        }
+        assertEquals(TmfStateValue.nullValue(), fTransientState.getOngoingStateValue(0));
+    }
+
+    /**
+     * Test that changing the ongoing value keeps its start time
+     *
+     * @throws AttributeNotFoundException
+     *             Fails the test
+     */
+    @Test
+    public void testChangeOngoingStateValue() throws AttributeNotFoundException {
+        fTransientState.addEmptyEntry();
+        fTransientState.processStateChange(100, TmfStateValue.newValueInt(1), 0);
+        fTransientState.changeOngoingStateValue(0, TmfStateValue.newValueInt(2));
+        assertEquals(TmfStateValue.newValueInt(2), fTransientState.getOngoingStateValue(0));
+        assertEquals(100, fTransientState.getOngoingStartTime(0));
+    }
+
+    /**
+     * Test replacing the whole ongoing state, with fewer attributes than
+     * before
+     *
+     * @throws AttributeNotFoundException
+     *             Fails the test
+     */
+    @Test
+    public void testReplaceOngoingState() throws AttributeNotFoundException {
+        for (int quark = 0; quark < VALUES.length; quark++) {
+            fTransientState.addEmptyEntry();
+            fTransientState.processStateChange(100, VALUES[quark], quark);
+        }
+
+        List<ITmfStateInterval> intervals = new ArrayList<>();
+        intervals.add(new TmfStateInterval(50, 60, 0, TmfStateValue.newValueString("new")));
+        intervals.add(new TmfStateInterval(70, 80, 1, TmfStateValue.newValueDouble(1.5)));
+        fTransientState.replaceOngoingState(intervals);
+
+        assertEquals(TmfStateValue.newValueString("new"), fTransientState.getOngoingStateValue(0));
+        assertEquals(50, fTransientState.getOngoingStartTime(0));
+        assertEquals(TmfStateValue.newValueDouble(1.5), fTransientState.getOngoingStateValue(1));
+        assertEquals(70, fTransientState.getOngoingStartTime(1));
+        try {
+            fTransientState.getOngoingStateValue(2);
+            fail();
+        } catch (AttributeNotFoundException e) {
+            /* Expected */
+        }
+
+        /* The types of the new values are enforced */
+        try {
+            fTransientState.processStateChange(200, TmfStateValue.newValueInt(1), 0);
+            fail();
+        } catch (StateValueTypeException e) {
+            /* Expected */
+        }
+
+        /* The replaced attributes come back empty */
+        fTransientState.addEmptyEntry();
+        assertEquals(TmfStateValue.nullValue(), fTransientState.getOngoingStateValue(2));
+        fTransientState.processStateChange(200, TmfStateValue.newValueInt(1), 2);
+    }
+
+    /**
+     * Test the queries on the transient state, and the closing of the
+     * attributes whose ongoing state starts after the end time
+     *
+     * @throws AttributeNotFoundException
+     *             Fails the test
+     * @throws StateSystemDisposedException
+     *             Fails the test
+     */
+    @Test
+    public void testQueriesAndClose() throws AttributeNotFoundException, StateSystemDisposedException {
+        /* More attributes than the initial capacity of the arrays */
+        final int nbAttributes = 1000;
+        for (int quark = 0; quark < nbAttributes; quark++) {
+            fTransientState.addEmptyEntry();
+            fTransientState.processStateChange(100 + quark, TmfStateValue.newValueLong(quark), quark);
+        }
+
+        assertNull(fTransientState.getIntervalAt(150, 500));
+        ITmfStateInterval interval = fTransientState.getIntervalAt(700, 500);
+        assertNotNull(interval);
+        assertEquals(600, interval.getStartTime());
+        assertEquals(TmfStateValue.newValueLong(500), interval.getStateValue());
+        assertNull(fTransientState.getIntervalAt(700, nbAttributes));
+
+        List<ITmfStateInterval> stateInfo = new ArrayList<>();
+        for (int quark = 0; quark < nbAttributes; quark++) {
+            stateInfo.add(null);
+        }
+        fTransientState.doQuery(stateInfo, 600);
+        assertEquals(TmfStateValue.newValueLong(0), stateInfo.get(0).getStateValue());
+        assertEquals(TmfStateValue.newValueLong(500), stateInfo.get(500).getStateValue());
+        assertNull(stateInfo.get(501));
+
+        fTransientState.closeTransientState(600);
+        assertInterval(100, 600, 0, TmfStateValue.newValueLong(0));
+        assertInterval(600, 600, 500, TmfStateValue.newValueLong(500));
+        assertInterval(START_TIME, 600, 501, TmfStateValue.nullValue());
+        assertNull(fTransientState.getIntervalAt(600, 0));
+    }
+}
@@ -20,6 +20,11 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+    CachedHistoryBackendTest.class,
+    HistoryTreeBackendTest.class,
+    HT_IOTest.class,
+    HTNodeCacheTest.class,
+    HTQuarkFilterTest.class,
     InMemoryBackendTest.class
 })
 public class AllTests {
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+
+package org.eclipse.tracecompass.statesystem.core.tests.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.tracecompass.statesystem.core.backend.ICachedHistoryBackend;
+import org.eclipse.tracecompass.statesystem.core.backend.IStateHistoryBackend;
+import org.eclipse.tracecompass.statesystem.core.backend.StateHistoryBackendFactory;
+import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
+import org.eclipse.tracecompass.statesystem.core.exceptions.StateSystemDisposedException;
+import org.eclipse.tracecompass.statesystem.core.exceptions.StateValueTypeException;
+import org.eclipse.tracecompass.statesystem.core.exceptions.TimeRangeException;
+import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
+import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for the back-end that caches the results of singular queries
+ */
+public class CachedHistoryBackendTest {
+
+    private static final int NUMBER_OF_ATTRIBUTES = 10;
+    private static final int INTERVAL_DURATION = 100;
+    private static final int END_TIME = 100000;
+
+    private IStateHistoryBackend fBackend;
+    private ICachedHistoryBackend fFixture;
+
+    /**
+     * Fill an in-memory back-end where every attribute changes value every
+     * 100 time units, and wrap it in the cache
+     *
+     * @throws TimeRangeException
+     *             Should not happen
+     */
+    @Before
+    public void init() throws TimeRangeException {
+        fBackend = StateHistoryBackendFactory.createInMemoryBackend("test-ss", 0);
+        for (int attribute = 0; attribute < NUMBER_OF_ATTRIBUTES; attribute++) {
+            for (int start = 0; start < END_TIME; start += INTERVAL_DURATION) {
+                fBackend.insertPastState(start, start + INTERVAL_DURATION - 1, attribute,
+                        TmfStateValue.newValueInt(start / INTERVAL_DURATION + attribute));
+            }
+        }
+        fFixture = StateHistoryBackendFactory.createCachedBackend(fBackend, 64);
+    }
+
+    /**
+     * Test that the cached back-end returns the same results as the wrapped
+     * one, at every time stamp
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testSameResults() throws Exception {
+        for (int t = 0; t < END_TIME; t += 7) {
+            for (int attribute = 0; attribute < NUMBER_OF_ATTRIBUTES; attribute++) {
+                ITmfStateInterval expected = fBackend.doSingularQuery(t, attribute);
+                ITmfStateInterval interval = fFixture.doSingularQuery(t, attribute);
+                assertNotNull(interval);
+                assertEquals(expected.toString(), interval.toString());
+                assertEquals(t / INTERVAL_DURATION + attribute, interval.getStateValue().unboxInt());
+            }
+        }
+        assertTrue(fFixture.getHitCount() > 0);
+    }
+
+    /**
+     * Test that nearby queries are answered from the cache, and that the
+     * metrics count them
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testHits() throws Exception {
+        ITmfStateInterval interval = fFixture.doSingularQuery(1005, 3);
+        assertEquals(0, fFixture.getHitCount());
+        assertEquals(1, fFixture.getMissCount());
+
+        /* Anywhere in the same interval, same attribute */
+        for (int t = 1000; t < 1100; t += 10) {
+            assertSame(interval, fFixture.doSingularQuery(t, 3));
+        }
+        assertEquals(10, fFixture.getHitCount());
+        assertEquals(1, fFixture.getMissCount());
+        assertEquals(10.0 / 11.0, fFixture.getHitRate(), 0.0001);
+        assertEquals(1, fFixture.getCachedCount());
+
+        /* Another attribute is not mixed up with the cached one */
+        ITmfStateInterval other = fFixture.doSingularQuery(1005, 4);
+        assertEquals(4, other.getAttribute());
+        assertEquals(2, fFixture.getMissCount());
+
+        /* After clearing the cache, the query goes to the back-end again */
+        fFixture.clearCache();
+        assertEquals(0, fFixture.getCachedCount());
+        fFixture.doSingularQuery(1005, 3);
+        assertEquals(3, fFixture.getMissCount());
+    }
+
+    /**
+     * Test that the cache does not hold more intervals than its size, and
+     * that the intervals cached first are evicted first
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testEviction() throws Exception {
+        for (int t = 0; t < 100 * INTERVAL_DURATION; t += INTERVAL_DURATION) {
+            fFixture.doSingularQuery(t, 0);
+        }
+        assertEquals(64, fFixture.getCachedCount());
+        assertEquals(100, fFixture.getMissCount());
+
+        /* The last 64 intervals are cached, the first ones are not */
+        fFixture.doSingularQuery(99 * INTERVAL_DURATION + 50, 0);
+        fFixture.doSingularQuery(36 * INTERVAL_DURATION, 0);
+        assertEquals(2, fFixture.getHitCount());
+        fFixture.doSingularQuery(35 * INTERVAL_DURATION, 0);
+        assertEquals(101, fFixture.getMissCount());
+        assertEquals(64, fFixture.getCachedCount());
+    }
+
+    /**
+     * Test that a time stamp outside of a cached interval is not answered by
+     * that interval
+     *
+     * @throws AttributeNotFoundException
+     *             Should not happen
+     * @throws StateSystemDisposedException
+     *             Should not happen
+     * @throws StateValueTypeException
+     *             Should not happen
+     */
+    @Test
+    public void testIntervalBoundaries() throws AttributeNotFoundException, StateSystemDisposedException, StateValueTypeException {
+        /* 1099 and 1100 are in different intervals */
+        ITmfStateInterval first = fFixture.doSingularQuery(1099, 0);
+        ITmfStateInterval second = fFixture.doSingularQuery(1100, 0);
+        assertEquals(10, first.getStateValue().unboxInt());
+        assertEquals(11, second.getStateValue().unboxInt());
+        assertEquals(2, fFixture.getMissCount());
+
+        /* Between two cached intervals, but not inside either of them */
+        fFixture.doSingularQuery(1300, 0);
+        ITmfStateInterval between = fFixture.doSingularQuery(1250, 0);
+        assertEquals(12, between.getStateValue().unboxInt());
+        assertEquals(4, fFixture.getMissCount());
+        assertEquals(0, fFixture.getHitCount());
+    }
+
+    /**
+     * Test the creation with invalid parameters
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParameters() {
+        StateHistoryBackendFactory.createCachedBackend(fBackend, 0);
+    }
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+
+package org.eclipse.tracecompass.statesystem.core.tests.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.CoreNode;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTConfig;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTNode;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTNodeCache;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HistoryTreeBackend;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.LeafNode;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.ThreadedHistoryTreeBackend;
+import org.eclipse.tracecompass.statesystem.core.backend.IStateHistoryBackend;
+import org.eclipse.tracecompass.statesystem.core.backend.StateHistoryBackendFactory;
+import org.junit.Test;
+
+/**
+ * Test the {@link HTNodeCache} of the history tree files: hits and misses,
+ * the pinned core nodes, the CLOCK eviction of the other nodes and concurrent
+ * accesses.
+ */
+public class HTNodeCacheTest {
+
+    private static final int BLOCK_SIZE = 4096;
+    /** Room for 5 pinned core nodes and 5 other nodes */
+    private static final int CAPACITY = 10;
+
+    private static final HTConfig CONFIG = new HTConfig(new File("unused"), BLOCK_SIZE, 4, 1, 0);
+
+    private static HTNodeCache createCache() {
+        return new HTNodeCache(CAPACITY * BLOCK_SIZE, BLOCK_SIZE);
+    }
+
+    private static HTNode leaf(int seqNumber) {
+        return new LeafNode(CONFIG, seqNumber, -1, 0);
+    }
+
+    private static HTNode core(int seqNumber) {
+        return new CoreNode(CONFIG, seqNumber, -1, 0);
+    }
+
+    /**
+     * Test the capacity computed from the size of the cache
+     */
+    @Test
+    public void testCapacity() {
+        assertEquals(CAPACITY, createCache().getCapacity());
+        /* A cache smaller than a block still holds nodes */
+        assertEquals(2, new HTNodeCache(100, BLOCK_SIZE).getCapacity());
+    }
+
+    /**
+     * Test the hit and miss counts of the lookups
+     */
+    @Test
+    public void testHitsAndMisses() {
+        HTNodeCache cache = createCache();
+        assertNull(cache.get(0));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+
+        HTNode node = leaf(0);
+        cache.put(node);
+        assertSame(node, cache.get(0));
+        assertSame(node, cache.get(0));
+        assertNull(cache.get(1));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    /**
+     * Test that putting a new version of a cached node replaces it, without
+     * evicting anything
+     */
+    @Test
+    public void testReplace() {
+        HTNodeCache cache = createCache();
+        for (int i = 0; i < CAPACITY / 2; i++) {
+            cache.put(leaf(i));
+        }
+        HTNode node = leaf(2);
+        cache.put(node);
+        assertSame(node, cache.get(2));
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    /**
+     * Test that the nodes hit since the clock hand last passed get a second
+     * chance, and the others are evicted in order
+     */
+    @Test
+    public void testEviction() {
+        HTNodeCache cache = createCache();
+        int nbSlots = CAPACITY / 2;
+        for (int i = 0; i < nbSlots; i++) {
+            cache.put(leaf(i));
+        }
+        /* Node 0, under the clock hand, was referenced */
+        assertNotNull(cache.get(0));
+
+        cache.put(leaf(nbSlots));
+        assertEquals(1, cache.getEvictionCount());
+        assertNotNull(cache.get(0));
+        assertNull(cache.get(1));
+        assertNotNull(cache.get(nbSlots));
+
+        /* All the nodes referenced: the hand does a full turn, evicts node 2 */
+        for (int i = 0; i <= nbSlots; i++) {
+            cache.get(i);
+        }
+        cache.put(leaf(nbSlots + 1));
+        assertEquals(2, cache.getEvictionCount());
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(0));
+        assertNotNull(cache.get(nbSlots + 1));
+    }
+
+    /**
+     * Test that core nodes are pinned up to half the capacity, and are not
+     * evicted by the other nodes
+     */
+    @Test
+    public void testPinnedCoreNodes() {
+        HTNodeCache cache = createCache();
+        int maxPinned = CAPACITY / 2;
+        for (int i = 0; i < maxPinned + 1; i++) {
+            cache.put(core(i));
+        }
+        assertEquals(maxPinned, cache.getPinnedCount());
+
+        /* Many leaves go through the clock, the extra core node among them */
+        for (int i = 100; i < 200; i++) {
+            cache.put(leaf(i));
+        }
+        for (int i = 0; i < maxPinned; i++) {
+            assertNotNull(cache.get(i));
+        }
+        assertNull(cache.get(maxPinned));
+        assertEquals(maxPinned, cache.getPinnedCount());
+        assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    /**
+     * Test concurrent lookups and insertions. The lookups must always return
+     * the node they asked for, if any, and all be counted.
+     *
+     * @throws Exception
+     *             Fails the test
+     */
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final HTNodeCache cache = createCache();
+        final int nbNodes = 50;
+        final int nbLookups = 100000;
+        int nbThreads = 4;
+
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < nbThreads; t++) {
+                final Random random = new Random(t);
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int wrongNodes = 0;
+                        for (int i = 0; i < nbLookups; i++) {
+                            int seqNumber = random.nextInt(nbNodes);
+                            HTNode node = cache.get(seqNumber);
+                            if (node == null) {
+                                /* Like after reading the node from disk */
+                                node = (seqNumber % 10 == 0 ? core(seqNumber) : leaf(seqNumber));
+                                cache.put(node);
+                            } else if (node.getSequenceNumber() != seqNumber) {
+                                wrongNodes++;
+                            }
+                        }
+                        return wrongNodes;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(0, result.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals((long) nbThreads * nbLookups, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.getEvictionCount() > 0);
+        assertTrue(cache.getPinnedCount() <= CAPACITY / 2);
+    }
+
+    /**
+     * Test setting the size of the cache when creating a history file, with
+     * the plain and the threaded backends
+     *
+     * @throws IOException
+     *             Fails the test
+     */
+    @Test
+    public void testCacheSizeNewFile() throws IOException {
+        File file = File.createTempFile("test-ht", ".ht");
+        try {
+            long cacheSize = CAPACITY * 64 * 1024;
+            IStateHistoryBackend backend = StateHistoryBackendFactory.createHistoryTreeBackendNewFile("test-ht", file, 1, 0, 0, cacheSize);
+            assertEquals(CAPACITY, ((HistoryTreeBackend) backend).getNodeCache().getCapacity());
+            backend.dispose();
+
+            backend = StateHistoryBackendFactory.createHistoryTreeBackendNewFile("test-ht", file, 1, 0, 100, cacheSize);
+            assertEquals(CAPACITY, ((HistoryTreeBackend) backend).getNodeCache().getCapacity());
+            backend.finishedBuilding(0);
+            backend.dispose();
+
+            backend = new ThreadedHistoryTreeBackend("test-ht", new HTConfig(file, BLOCK_SIZE, 4, 1, 0, CAPACITY * BLOCK_SIZE), 100);
+            assertEquals(CAPACITY, ((HistoryTreeBackend) backend).getNodeCache().getCapacity());
+            backend.finishedBuilding(0);
+            backend.dispose();
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+
+package org.eclipse.tracecompass.statesystem.core.tests.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.eclipse.tracecompass.internal.statesystem.core.backend.QueryRange;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTConfig;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTInterval;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTNode;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTQuarkFilter;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.LeafNode;
+import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
+import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
+import org.junit.Test;
+
+/**
+ * Test the {@link HTQuarkFilter} of the history tree nodes, and that the
+ * queries skip the nodes it rules out.
+ */
+public class HTQuarkFilterTest {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    /** Roughly the number of intervals a full node holds */
+    private static final int NB_QUARKS = 2500;
+
+    private static final int SMALL_BLOCK_SIZE = 4096;
+    private static final long NODE_END = 1000;
+
+    /**
+     * Test that the filter never rules out a quark that was added, and that
+     * its false positive rate stays low for a full node of distinct quarks.
+     */
+    @Test
+    public void testFilter() {
+        HTQuarkFilter filter = new HTQuarkFilter(BLOCK_SIZE);
+        for (int quark = 0; quark < NB_QUARKS; quark++) {
+            filter.add(quark * 7);
+        }
+        for (int quark = 0; quark < NB_QUARKS; quark++) {
+            assertTrue(filter.mightContain(quark * 7));
+        }
+
+        int falsePositives = 0;
+        int nbAbsent = 0;
+        for (int quark = 0; quark < 7 * NB_QUARKS; quark++) {
+            if (quark % 7 != 0) {
+                nbAbsent++;
+                if (filter.mightContain(quark)) {
+                    falsePositives++;
+                }
+            }
+        }
+        assertTrue("False positive rate " + falsePositives + '/' + nbAbsent,
+                falsePositives < nbAbsent * 5 / 100);
+    }
+
+    /**
+     * Test checking a set of quarks against the filter
+     */
+    @Test
+    public void testMightContainAny() {
+        HTQuarkFilter filter = new HTQuarkFilter(BLOCK_SIZE);
+        BitSet quarks = new BitSet();
+        assertFalse(filter.mightContainAny(quarks));
+
+        filter.add(42);
+        quarks.set(1);
+        quarks.set(42);
+        assertTrue(filter.mightContainAny(quarks));
+    }
+
+    /**
+     * Test that the intervals of a node read back from its block are all
+     * found by the queries, whose filter then has no false negative.
+     *
+     * @throws IOException
+     *             Fails the test
+     */
+    @Test
+    public void testNoFalseNegatives() throws IOException {
+        HTConfig config = new HTConfig(new File("unused"), SMALL_BLOCK_SIZE, 4, 1, 0);
+        List<Integer> quarks = new ArrayList<>();
+        HTNode node = createFullNode(config, quarks);
+        HTNode readNode = HTNode.readNode(config, node.writeBlock());
+
+        for (int quark : quarks) {
+            for (HTNode n : new HTNode[] { node, readNode }) {
+                HTInterval interval = n.getRelevantInterval(quark, quark);
+                assertNotNull(interval);
+                assertEquals(quark, interval.getAttribute());
+            }
+        }
+
+        BitSet quarkSet = new BitSet();
+        quarkSet.set(quarks.get(quarks.size() - 1));
+        List<ITmfStateInterval> results = new ArrayList<>();
+        readNode.writeInfoFromNode(results, quarkSet, new QueryRange(0, NODE_END, 1));
+        assertEquals(1, results.size());
+    }
+
+    /**
+     * Test that queries for quarks ruled out by the filter do not read the
+     * intervals of the node at all. Their section of the block is corrupted,
+     * reading it would fail.
+     *
+     * @throws IOException
+     *             Fails the test
+     */
+    @Test
+    public void testNodeSkipped() throws IOException {
+        HTConfig config = new HTConfig(new File("unused"), SMALL_BLOCK_SIZE, 4, 1, 0);
+        HTNode node = createFullNode(config, new ArrayList<Integer>());
+        ByteBuffer block = node.writeBlock();
+        for (int i = node.getTotalHeaderSize(); i < SMALL_BLOCK_SIZE; i++) {
+            block.put(i, (byte) 0xFF);
+        }
+
+        int skipped = 0;
+        int nbAbsent = 1000;
+        for (int quark = 1; quark <= nbAbsent; quark++) {
+            /* Read the node again each time, the decoding is done only once */
+            HTNode readNode = HTNode.readNode(config, block);
+            try {
+                assertNull(readNode.getRelevantInterval(-quark, 0));
+                skipped++;
+            } catch (IllegalStateException e) {
+                /* A false positive of the filter, the intervals were read */
+            }
+        }
+        assertTrue("Skipped " + skipped + '/' + nbAbsent, skipped > nbAbsent * 95 / 100);
+    }
+
+    /**
+     * Test the nodes of the older files, without a quark filter in their
+     * header
+     *
+     * @throws IOException
+     *             Fails the test
+     */
+    @Test
+    public void testNoFilter() throws IOException {
+        HTConfig config = new HTConfig(new File("unused"), SMALL_BLOCK_SIZE, 4, 1, 0,
+                SMALL_BLOCK_SIZE, HTConfig.NodeEncoding.FIXED_BLOCKS, false);
+        HTConfig filterConfig = new HTConfig(new File("unused"), SMALL_BLOCK_SIZE, 4, 1, 0);
+        List<Integer> quarks = new ArrayList<>();
+        HTNode node = createFullNode(config, quarks);
+        assertTrue(node.getTotalHeaderSize() < new LeafNode(filterConfig, 0, -1, 0).getTotalHeaderSize());
+
+        HTNode readNode = HTNode.readNode(config, node.writeBlock());
+        for (int quark : quarks) {
+            HTInterval interval = readNode.getRelevantInterval(quark, quark);
+            assertNotNull(interval);
+            assertEquals(quark, interval.getAttribute());
+        }
+        assertNull(readNode.getRelevantInterval(-1, 0));
+    }
+
+    /**
+     * Test that the packed encodings require the quark filter
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testPackedNoFilter() {
+        new HTConfig(new File("unused"), SMALL_BLOCK_SIZE, 4, 1, 0,
+                SMALL_BLOCK_SIZE, HTConfig.NodeEncoding.PACKED, false);
+    }
+
+    /**
+     * Fill a leaf node with intervals, one for each quark, the quark being
+     * also the start time of its interval.
+     */
+    private static HTNode createFullNode(HTConfig config, List<Integer> quarks) {
+        HTNode node = new LeafNode(config, 0, -1, 0);
+        int quark = 0;
+        while (true) {
+            HTInterval interval = new HTInterval(quark, NODE_END, quark, TmfStateValue.newValueInt(quark));
+            if (interval.getIntervalSize() > node.getNodeFreeSpace()) {
+                break;
+            }
+            node.addInterval(interval);
+            quarks.add(quark);
+            quark++;
+        }
+        node.closeThisNode(NODE_END);
+        return node;
+    }
+}
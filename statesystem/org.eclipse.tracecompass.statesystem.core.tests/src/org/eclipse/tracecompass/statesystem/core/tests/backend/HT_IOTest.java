@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+
+package org.eclipse.tracecompass.statesystem.core.tests.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTConfig;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTInterval;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTNode;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HT_IO;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.LeafNode;
+import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the reads of the nodes of a history tree file by {@link HT_IO}, with
+ * positional reads and from the memory-mapped file.
+ */
+public class HT_IOTest {
+
+    private static final int BLOCK_SIZE = 4096;
+    private static final int NB_NODES = 50;
+    private static final int NB_QUARKS = 10;
+    private static final long NODE_DURATION = 100;
+
+    private File fFile;
+    private HTConfig fConfig;
+    private HT_IO fWriter;
+    private HT_IO fReader;
+
+    /**
+     * Create the file, with a writer whose nodes are read by another
+     * {@link HT_IO}. The cache is as small as possible, so that the nodes are
+     * read from the file.
+     *
+     * @throws IOException
+     *             Fails the test
+     */
+    @Before
+    public void setUp() throws IOException {
+        fFile = File.createTempFile("test-ht-io", ".ht");
+        fConfig = new HTConfig(fFile, BLOCK_SIZE, 4, 1, 0, BLOCK_SIZE);
+        fWriter = new HT_IO(fConfig, true);
+    }
+
+    /**
+     * Close and delete the file
+     */
+    @After
+    public void tearDown() {
+        if (fReader != null) {
+            fReader.closeFile();
+        }
+        fWriter.closeFile();
+        fFile.delete();
+    }
+
+    private HT_IO openReader() throws IOException {
+        fReader = new HT_IO(fConfig, false);
+        return fReader;
+    }
+
+    /**
+     * Write the nodes of the given range of sequence numbers. Each node has
+     * an interval for each quark, and covers its own time range.
+     */
+    private void writeNodes(int first, int last) {
+        for (int seqNumber = first; seqNumber <= last; seqNumber++) {
+            long start = seqNumber * NODE_DURATION;
+            HTNode node = new LeafNode(fConfig, seqNumber, -1, start);
+            for (int quark = 0; quark < NB_QUARKS; quark++) {
+                node.addInterval(new HTInterval(start, start + NODE_DURATION - 1, quark,
+                        TmfStateValue.newValueInt(seqNumber * NB_QUARKS + quark)));
+            }
+            node.closeThisNode(start + NODE_DURATION - 1);
+            fWriter.writeNode(node);
+        }
+    }
+
+    /**
+     * Check that a node read from the file is the one written by
+     * {@link #writeNodes}
+     */
+    private static boolean isExpectedNode(HTNode node, int seqNumber) {
+        long start = seqNumber * NODE_DURATION;
+        if (node.getSequenceNumber() != seqNumber || node.getNodeStart() != start ||
+                node.getNodeEnd() != start + NODE_DURATION - 1) {
+            return false;
+        }
+        for (int quark = 0; quark < NB_QUARKS; quark++) {
+            HTInterval interval = node.getRelevantInterval(quark, start);
+            if (interval == null ||
+                    !interval.getStateValue().equals(TmfStateValue.newValueInt(seqNumber * NB_QUARKS + quark))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void assertNode(HT_IO io, int seqNumber) throws IOException {
+        HTNode node = io.readNode(seqNumber);
+        assertNotNull(node);
+        assertTrue("Node " + seqNumber, isExpectedNode(node, seqNumber));
+    }
+
+    /**
+     * Test concurrent reads of the nodes, first with positional reads of the
+     * file, then from the memory-mapped file
+     *
+     * @throws Exception
+     *             Fails the test
+     */
+    @Test
+    public void testConcurrentReads() throws Exception {
+        writeNodes(0, NB_NODES - 1);
+        HT_IO reader = openReader();
+
+        concurrentReads(reader);
+        reader.mapNodes(NB_NODES);
+        concurrentReads(reader);
+
+        /* The cache cannot hold all the nodes, most of them were read */
+        assertTrue(reader.getNodeCache().getMissCount() > NB_NODES);
+    }
+
+    private static void concurrentReads(final HT_IO reader) throws Exception {
+        final int nbReads = 5000;
+        int nbThreads = 4;
+
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < nbThreads; t++) {
+                final Random random = new Random(t);
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        int wrongNodes = 0;
+                        for (int i = 0; i < nbReads; i++) {
+                            int seqNumber = random.nextInt(NB_NODES);
+                            HTNode node = reader.readNode(seqNumber);
+                            if (node == null || !isExpectedNode(node, seqNumber)) {
+                                wrongNodes++;
+                            }
+                        }
+                        return wrongNodes;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(0, result.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test reading the nodes written after the file was mapped, which are
+     * past the end of the mapped segments
+     *
+     * @throws IOException
+     *             Fails the test
+     */
+    @Test
+    public void testReadPastMappedRegion() throws IOException {
+        writeNodes(0, NB_NODES - 1);
+        HT_IO reader = openReader();
+        reader.mapNodes(NB_NODES);
+        for (int seqNumber = 0; seqNumber < NB_NODES; seqNumber++) {
+            assertNode(reader, seqNumber);
+        }
+
+        /* The file grows past the mapped region */
+        writeNodes(NB_NODES, 2 * NB_NODES - 1);
+        for (int seqNumber = 0; seqNumber < 2 * NB_NODES; seqNumber++) {
+            assertNode(reader, seqNumber);
+        }
+
+        /* Mapping the file again includes the new nodes */
+        reader.mapNodes(2 * NB_NODES);
+        for (int seqNumber = 2 * NB_NODES - 1; seqNumber >= 0; seqNumber--) {
+            assertNode(reader, seqNumber);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ ******************************************************************************/
+
+package org.eclipse.tracecompass.statesystem.core.tests.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTConfig;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTConfig.NodeEncoding;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTNodeCache;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HistoryTreeBackend;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.ThreadedHistoryTreeBackend;
+import org.eclipse.tracecompass.statesystem.core.backend.IStateHistoryBackend;
+import org.eclipse.tracecompass.statesystem.core.backend.StateHistoryBackendFactory;
+import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
+import org.eclipse.tracecompass.statesystem.core.exceptions.StateSystemDisposedException;
+import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
+import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Test cases for the history tree backend, reading back a history file from
+ * disk. The results are compared with the ones of an in-memory backend
+ * containing the same intervals. The test is run with each node encoding,
+ * with both the plain and the threaded backends writing the file. The
+ * fixed-size block files are also written without the quark filters in the
+ * node headers, like the files of the previous format version.
+ */
+@RunWith(Parameterized.class)
+public class HistoryTreeBackendTest {
+
+    private static final int NUMBER_OF_ATTRIBUTES = 8;
+    private static final long END_TIME = 20000;
+    private static final int BLOCK_SIZE = 4096;
+    /** Size of the queue of the threaded backend, smaller than one of its chunks */
+    private static final int QUEUE_SIZE = 100;
+
+    private File fStateFile;
+    private IStateHistoryBackend fReference;
+    private IStateHistoryBackend fBackend;
+
+    private final NodeEncoding fEncoding;
+    private final boolean fThreaded;
+    private final boolean fQuarkFilter;
+
+    /**
+     * @return The node encodings and backend types to test
+     */
+    @Parameters(name = "{0}, threaded={1}, filter={2}")
+    public static Collection<Object[]> getParameters() {
+        List<Object[]> params = new ArrayList<>();
+        for (NodeEncoding encoding : NodeEncoding.values()) {
+            params.add(new Object[] { encoding, false, true });
+            params.add(new Object[] { encoding, true, true });
+        }
+        params.add(new Object[] { NodeEncoding.FIXED_BLOCKS, false, false });
+        params.add(new Object[] { NodeEncoding.FIXED_BLOCKS, true, false });
+        return params;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param encoding
+     *            The node encoding of the history file
+     * @param threaded
+     *            Whether the history file is written by the threaded backend
+     * @param quarkFilter
+     *            Whether the nodes have a quark filter
+     */
+    public HistoryTreeBackendTest(NodeEncoding encoding, boolean threaded, boolean quarkFilter) {
+        fEncoding = encoding;
+        fThreaded = threaded;
+        fQuarkFilter = quarkFilter;
+    }
+
+    /**
+     * Build the history file and the reference backend, then reopen the
+     * history file with a node cache much smaller than the tree.
+     *
+     * @throws IOException
+     *             If the history file could not be created or read
+     */
+    @Before
+    public void setup() throws IOException {
+        fStateFile = File.createTempFile("test-ht", ".ht");
+        HTConfig config = new HTConfig(fStateFile, BLOCK_SIZE, 4, 1, 0, 1024 * BLOCK_SIZE, fEncoding, fQuarkFilter);
+        IStateHistoryBackend writer = (fThreaded ?
+                new ThreadedHistoryTreeBackend("test-ht", config, QUEUE_SIZE) :
+                new HistoryTreeBackend("test-ht", config));
+        fReference = StateHistoryBackendFactory.createInMemoryBackend("test-ht", 0);
+
+        for (int attribute = 0; attribute < NUMBER_OF_ATTRIBUTES; attribute++) {
+            long duration = 10 + attribute * 7;
+            for (long start = 0; start <= END_TIME; start += duration) {
+                long end = Math.min(start + duration - 1, END_TIME);
+                TmfStateValue value = getValue(attribute, start);
+                writer.insertPastState(start, end, attribute, value);
+                fReference.insertPastState(start, end, attribute, value);
+            }
+        }
+        writer.finishedBuilding(END_TIME);
+        writer.dispose();
+        fReference.finishedBuilding(END_TIME);
+
+        fBackend = StateHistoryBackendFactory.createHistoryTreeBackendExistingFile("test-ht", fStateFile, 1, 3 * BLOCK_SIZE);
+    }
+
+    /**
+     * Clean-up
+     */
+    @After
+    public void tearDown() {
+        fBackend.dispose();
+        fReference.dispose();
+        fStateFile.delete();
+    }
+
+    private static TmfStateValue getValue(int attribute, long time) {
+        switch (attribute % 4) {
+        case 0:
+            return TmfStateValue.newValueInt((int) time);
+        case 1:
+            return TmfStateValue.newValueLong(time * 1000000000L);
+        case 2:
+            return TmfStateValue.newValueDouble(time / 3.0);
+        default:
+            return ((time / 100) % 2 == 0 ? TmfStateValue.newValueString("value" + time) : TmfStateValue.nullValue());
+        }
+    }
+
+    /**
+     * Test that singular and full queries return the same intervals as the
+     * in-memory backend, with the nodes being read again from disk.
+     *
+     * @throws AttributeNotFoundException
+     *             Fails the test
+     * @throws StateSystemDisposedException
+     *             Fails the test
+     */
+    @Test
+    public void testQueries() throws AttributeNotFoundException, StateSystemDisposedException {
+        for (long t = 0; t <= END_TIME; t += 37) {
+            List<ITmfStateInterval> expected = newStateInfo();
+            List<ITmfStateInterval> actual = newStateInfo();
+            fReference.doQuery(expected, t);
+            fBackend.doQuery(actual, t);
+
+            for (int attribute = 0; attribute < NUMBER_OF_ATTRIBUTES; attribute++) {
+                assertIntervalEquals(expected.get(attribute), actual.get(attribute));
+                assertIntervalEquals(expected.get(attribute), fBackend.doSingularQuery(t, attribute));
+            }
+        }
+
+        HTNodeCache cache = ((HistoryTreeBackend) fBackend).getNodeCache();
+        assertTrue(cache.getMissCount() > 0);
+        assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    private static List<ITmfStateInterval> newStateInfo() {
+        List<ITmfStateInterval> stateInfo = new ArrayList<>(NUMBER_OF_ATTRIBUTES);
+        for (int i = 0; i < NUMBER_OF_ATTRIBUTES; i++) {
+            stateInfo.add(null);
+        }
+        return stateInfo;
+    }
+
+    private static void assertIntervalEquals(ITmfStateInterval expected, ITmfStateInterval actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getAttribute(), actual.getAttribute());
+        assertEquals(expected.getStartTime(), actual.getStartTime());
+        assertEquals(expected.getEndTime(), actual.getEndTime());
+        assertEquals(expected.getStateValue(), actual.getStateValue());
+    }
+}
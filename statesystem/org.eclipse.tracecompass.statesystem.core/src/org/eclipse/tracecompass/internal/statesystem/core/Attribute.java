@@ -17,21 +17,19 @@ package org.eclipse.tracecompass.internal.statesystem.core;
 import static org.eclipse.tracecompass.common.core.NonNullUtils.checkNotNull;
 
 import java.io.PrintWriter;
-import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.jdt.annotation.NonNull;
 
-import com.google.common.collect.ImmutableList;
-
 /**
  * An Attribute is a "node" in the Attribute Tree. It represents a smallest
  * unit of the model which can be in a particular state at a given time.
  *
- * It is abstract, as different implementations can provide different ways to
- * access sub-attributes
+ * The sub-attributes can be looked up and listed without locking, while
+ * other threads add new ones. Additions themselves must be serialized by the
+ * caller, which is done by the {@link AttributeTree}.
  *
  * @author Alexandre Montplaisir
  *
@@ -43,7 +41,10 @@ public final class Attribute {
     private final int quark;
 
     /** The sub-attributes (<basename, attribute>) of this attribute */
-    private final Map<String, Attribute> subAttributes;
+    private final ConcurrentMap<String, Attribute> subAttributes;
+
+    /** The same sub-attributes, in the order in which they were added */
+    private final AttributeList subAttributeList = new AttributeList();
 
     /**
      * Constructor
@@ -60,7 +61,7 @@ public final class Attribute {
         this.parent = parent;
         this.quark = quark;
         this.name = name;
-        this.subAttributes = Collections.synchronizedMap(new LinkedHashMap<String, Attribute>());
+        this.subAttributes = new ConcurrentHashMap<>(4);
     }
 
     // ------------------------------------------------------------------------
@@ -86,12 +87,13 @@ public final class Attribute {
     }
 
     /**
-     * Get the list of child attributes below this one.
+     * Get the list of child attributes below this one, in the order in which
+     * they were added. Attributes added afterwards are not in the list.
      *
      * @return The child attributes.
      */
     public Iterable<Attribute> getSubAttributes() {
-        return ImmutableList.copyOf(subAttributes.values());
+        return subAttributeList.snapshot();
     }
 
     /**
@@ -155,7 +157,8 @@ public final class Attribute {
     /* The methods how to access children are left to derived classes */
 
     /**
-     * Add a sub-attribute to this attribute
+     * Add a sub-attribute to this attribute. This must not be called by
+     * several threads at the same time.
      *
      * @param newSubAttribute The new attribute to add
      */
@@ -163,6 +166,7 @@ public final class Attribute {
         if (newSubAttribute == null) {
             throw new IllegalArgumentException();
         }
+        subAttributeList.add(newSubAttribute);
         subAttributes.put(newSubAttribute.getName(), newSubAttribute);
     }
 
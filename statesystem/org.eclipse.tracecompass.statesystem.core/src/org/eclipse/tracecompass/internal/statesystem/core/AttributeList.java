@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.internal.statesystem.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Append-only list of attributes, which can be read without locking while
+ * attributes are being added.
+ *
+ * Attributes are stored in an array that is replaced by a bigger copy when
+ * it is full. An attribute is written to the array before the size is
+ * increased, and both the array and the size are volatile, so a reader that
+ * sees a given size also sees an array containing that many attributes.
+ *
+ * Only one thread at a time may call {@link #add}, it is up to the caller to
+ * serialize the additions.
+ */
+final class AttributeList {
+
+    private static final int INITIAL_CAPACITY = 4;
+    private static final Attribute[] EMPTY_ARRAY = new Attribute[0];
+
+    /* Most attributes have no children, so the array is only created when needed */
+    private volatile Attribute[] fElements = EMPTY_ARRAY;
+    private volatile int fSize = 0;
+
+    /**
+     * Get the attribute at a given position.
+     *
+     * @param index
+     *            The position of the attribute
+     * @return The attribute
+     * @throws IndexOutOfBoundsException
+     *             If there is no attribute at that position
+     */
+    public Attribute get(int index) {
+        /* Read the size first, the array read afterwards is at least as big */
+        int size = fSize;
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return fElements[index];
+    }
+
+    /**
+     * @return The number of attributes in the list
+     */
+    public int size() {
+        return fSize;
+    }
+
+    /**
+     * Add an attribute at the end of the list. The caller must make sure
+     * this is not called by several threads at the same time.
+     *
+     * @param attribute
+     *            The attribute to add
+     */
+    public void add(Attribute attribute) {
+        int size = fSize;
+        Attribute[] elements = fElements;
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(INITIAL_CAPACITY, size * 2));
+            fElements = elements;
+        }
+        elements[size] = attribute;
+        fSize = size + 1;
+    }
+
+    /**
+     * Get a copy of the current contents of the list. It is not affected by
+     * later additions.
+     *
+     * @return The attributes, in the order in which they were added
+     */
+    public List<Attribute> snapshot() {
+        int size = fSize;
+        if (size == 0) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(Arrays.copyOf(fElements, size));
+    }
+}
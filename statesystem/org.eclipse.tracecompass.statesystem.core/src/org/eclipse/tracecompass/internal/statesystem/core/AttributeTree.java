@@ -28,7 +28,6 @@ import java.io.PrintWriter;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 
 import org.eclipse.jdt.annotation.NonNull;
@@ -39,6 +38,11 @@ import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundExc
  * Each node of this tree is both like a file and a directory in the
  * "file system".
  *
+ * Lookups never lock: the children of each attribute are kept in concurrent
+ * maps, and the quark-to-attribute table is an append-only array that can be
+ * read while it grows. Only the creation of new attributes is serialized,
+ * which is rare once the tree is populated.
+ *
  * @author alexmont
  *
  */
@@ -48,7 +52,7 @@ public final class AttributeTree {
     private static final int ATTRIB_TREE_MAGIC_NUMBER = 0x06EC3671;
 
     private final StateSystem ss;
-    private final List<Attribute> attributeList;
+    private final AttributeList attributeList;
     private final Attribute attributeTreeRoot;
 
     /**
@@ -59,7 +63,7 @@ public final class AttributeTree {
      */
     public AttributeTree(StateSystem ss) {
         this.ss = ss;
-        this.attributeList = Collections.synchronizedList(new ArrayList<Attribute>());
+        this.attributeList = new AttributeList();
         this.attributeTreeRoot = new Attribute(null, "root", -1); //$NON-NLS-1$
     }
 
@@ -122,8 +126,9 @@ public final class AttributeTree {
                 oos.writeInt(ATTRIB_TREE_MAGIC_NUMBER);
 
                 /* Compute the serialized list of attributes and write it */
-                List<String[]> list = new ArrayList<>(attributeList.size());
-                for (Attribute entry : this.attributeList) {
+                List<Attribute> attributes = attributeList.snapshot();
+                List<String[]> list = new ArrayList<>(attributes.size());
+                for (Attribute entry : attributes) {
                     list.add(entry.getFullAttribute());
                 }
                 oos.writeObject(list);
@@ -203,13 +208,10 @@ public final class AttributeTree {
      *            The path to the attribute, relative to the starting node.
      * @return The quark of the attribute represented by the path
      */
-    public synchronized int getQuarkAndAdd(int startingNodeQuark, String... subPath) {
-        // FIXME synchronized here is probably quite costly... maybe only locking
-        // the "for" would be enough?
+    public int getQuarkAndAdd(int startingNodeQuark, String... subPath) {
         assert (subPath != null && subPath.length > 0);
         assert (startingNodeQuark >= -1);
 
-        Attribute nextNode = null;
         Attribute prevNode;
 
         /* Get the "starting node" */
@@ -220,29 +222,34 @@ public final class AttributeTree {
         }
 
         int knownQuark = prevNode.getSubAttributeQuark(subPath);
-        if (knownQuark == -1) {
+        if (knownQuark != -1) {
             /*
-             * The attribute was not in the table previously, and we want to add
-             * it
+             * The attribute was already existing, return the quark of that
+             * attribute. This is the common case, and it does not lock.
              */
+            return knownQuark;
+        }
+
+        /*
+         * The attribute was not in the table previously, and we want to add
+         * it. Another thread may have added part of the path since the lookup
+         * above, so each level is checked again while holding the lock.
+         */
+        synchronized (this) {
             for (String curDirectory : subPath) {
-                nextNode = prevNode.getSubAttributeNode(curDirectory);
+                Attribute nextNode = prevNode.getSubAttributeNode(curDirectory);
                 if (nextNode == null) {
                     /* This is where we need to start adding */
                     nextNode = new Attribute(prevNode, checkNotNull(curDirectory), attributeList.size());
-                    prevNode.addSubAttribute(nextNode);
-                    attributeList.add(nextNode);
                     ss.addEmptyAttribute();
+                    /* Make the quark valid before the attribute can be found */
+                    attributeList.add(nextNode);
+                    prevNode.addSubAttribute(nextNode);
                 }
                 prevNode = nextNode;
             }
-            return attributeList.size() - 1;
+            return prevNode.getQuark();
         }
-        /*
-         * The attribute was already existing, return the quark of that
-         * attribute
-         */
-        return knownQuark;
     }
 
     /**
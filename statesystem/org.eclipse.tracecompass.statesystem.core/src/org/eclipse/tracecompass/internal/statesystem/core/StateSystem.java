@@ -19,12 +19,18 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.QueryRange;
 import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
 import org.eclipse.tracecompass.statesystem.core.backend.IStateHistoryBackend;
 import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
@@ -60,7 +66,13 @@ public class StateSystem implements ITmfStateSystemBuilder {
     private final CountDownLatch finishedLatch = new CountDownLatch(1);
 
     private boolean buildCancelled = false;
-    private boolean isDisposed = false;
+    private volatile boolean isDisposed = false;
+
+    /*
+     * Set once the history is closed. It cannot change afterwards, so full
+     * queries do not need to lock the state system anymore.
+     */
+    private volatile boolean fHistoryClosed = false;
 
     /**
      * New-file constructor. For when you build a state system with a new file,
@@ -97,6 +109,7 @@ public class StateSystem implements ITmfStateSystemBuilder {
             /* We're opening an existing file */
             this.attributeTree = new AttributeTree(this, backend.supplyAttributeTreeReader());
             transState.setInactive();
+            fHistoryClosed = true;
             finishedLatch.countDown(); /* The history is already built */
         }
     }
@@ -224,6 +237,7 @@ public class StateSystem implements ITmfStateSystemBuilder {
              */
             getAttributeTree().writeSelf(attributeTreeFile, attributeTreeFilePos);
         }
+        fHistoryClosed = true;
         finishedLatch.countDown(); /* Mark the history as finished building */
     }
 
@@ -553,17 +567,47 @@ public class StateSystem implements ITmfStateSystemBuilder {
     //--------------------------------------------------------------------------
 
     @Override
-    public synchronized List<ITmfStateInterval> queryFullState(long t)
+    public List<ITmfStateInterval> queryFullState(long t)
+            throws TimeRangeException, StateSystemDisposedException {
+        List<ITmfStateInterval> stateInfo = new ArrayList<>(getNbAttributes());
+        queryFullState(t, stateInfo);
+        return stateInfo;
+    }
+
+    @Override
+    public void queryFullState(long t, List<ITmfStateInterval> stateInfo)
+            throws TimeRangeException, StateSystemDisposedException {
+        if (fHistoryClosed) {
+            /*
+             * Neither the attribute tree nor the backend can change anymore,
+             * and the backends support concurrent queries.
+             */
+            doQueryFullState(t, stateInfo);
+        } else {
+            /*
+             * The history is still being built, keep serializing the full
+             * queries until it is closed.
+             */
+            synchronized (this) {
+                doQueryFullState(t, stateInfo);
+            }
+        }
+    }
+
+    private void doQueryFullState(long t, List<ITmfStateInterval> stateInfo)
             throws TimeRangeException, StateSystemDisposedException {
         if (isDisposed) {
             throw new StateSystemDisposedException();
         }
 
         final int nbAttr = getNbAttributes();
-        List<ITmfStateInterval> stateInfo = new ArrayList<>(nbAttr);
 
         /* Bring the size of the array to the current number of attributes */
-        for (int i = 0; i < nbAttr; i++) {
+        if (stateInfo.size() > nbAttr) {
+            stateInfo.subList(nbAttr, stateInfo.size()).clear();
+        }
+        Collections.fill(stateInfo, null);
+        while (stateInfo.size() < nbAttr) {
             stateInfo.add(null);
         }
 
@@ -586,7 +630,6 @@ public class StateSystem implements ITmfStateSystemBuilder {
                 throw new IllegalStateException("Incoherent interval storage"); //$NON-NLS-1$
             }
         }
-        return stateInfo;
     }
 
     @Override
@@ -616,6 +659,76 @@ public class StateSystem implements ITmfStateSystemBuilder {
         return ret;
     }
 
+    @Override
+    public List<ITmfStateInterval> query2D(Collection<Integer> quarks, long start, long end)
+            throws AttributeNotFoundException, StateSystemDisposedException {
+        return query2D(quarks, start, end, 1);
+    }
+
+    @Override
+    public List<ITmfStateInterval> query2D(Collection<Integer> quarks, long start, long end, long resolution)
+            throws AttributeNotFoundException, StateSystemDisposedException {
+        if (isDisposed) {
+            throw new StateSystemDisposedException();
+        }
+        if (end < start || resolution <= 0) {
+            throw new TimeRangeException(getSSID() + " Start:" + start + ", End:" + end + ", Resolution:" + resolution); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+
+        List<ITmfStateInterval> results = new ArrayList<>();
+
+        /* Clamp the requested range to the range of the history */
+        final long t1 = Math.max(start, getStartTime());
+        final long t2 = Math.min(end, getCurrentEndTime());
+        if (t2 < t1) {
+            return results;
+        }
+        final QueryRange range = new QueryRange(t1, t2, resolution);
+
+        final int nbAttr = getNbAttributes();
+        BitSet quarkSet = new BitSet(nbAttr);
+        for (Integer quark : quarks) {
+            if (quark == null || quark < 0 || quark >= nbAttr) {
+                throw new AttributeNotFoundException(getSSID() + " Quark:" + quark); //$NON-NLS-1$
+            }
+            quarkSet.set(quark);
+        }
+
+        /*
+         * If we are currently building the history, also look at the
+         * "ongoing" states, for stuff that might not yet be written to the
+         * history. They are queried first, so that an ongoing state that gets
+         * closed during the query will be found in the backend.
+         */
+        Map<Integer, ITmfStateInterval> ongoing = new HashMap<>();
+        if (transState.isActive()) {
+            for (int quark = quarkSet.nextSetBit(0); quark >= 0; quark = quarkSet.nextSetBit(quark + 1)) {
+                ITmfStateInterval interval = transState.getIntervalAt(t2, quark);
+                if (interval != null && range.intersects(interval.getStartTime(), t2)) {
+                    ongoing.put(quark, interval);
+                }
+            }
+        }
+
+        /* Query the storage backend */
+        backend.doQuery2D(results, quarkSet, t1, t2, resolution);
+
+        if (!ongoing.isEmpty()) {
+            /*
+             * Do not return the ongoing version of a state that the backend
+             * returned as well.
+             */
+            for (ITmfStateInterval interval : results) {
+                ITmfStateInterval ongoingInterval = ongoing.get(interval.getAttribute());
+                if (ongoingInterval != null && ongoingInterval.getStartTime() == interval.getStartTime()) {
+                    ongoing.remove(interval.getAttribute());
+                }
+            }
+            results.addAll(ongoing.values());
+        }
+        return results;
+    }
+
     //--------------------------------------------------------------------------
     //        Debug methods
     //--------------------------------------------------------------------------
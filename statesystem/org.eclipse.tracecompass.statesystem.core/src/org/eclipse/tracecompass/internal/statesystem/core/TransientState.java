@@ -16,7 +16,7 @@
 package org.eclipse.tracecompass.internal.statesystem.core;
 
 import java.io.PrintWriter;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -42,6 +42,15 @@ import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
  * of the interval will be the recorded time we have here, and the "end time"
  * will be the timestamp of the new state-changing event we just read.
  *
+ * The ongoing state is kept in arrays indexed by quark, which grow with the
+ * attribute tree. Each ongoing value is stored in a type-tagged slot: the tag
+ * is its {@link Type}, and integer, long and double values are also kept as
+ * the bits of a long. Comparing a new value with the ongoing one then does not
+ * go through equals(). The slot also keeps the value object itself, which is
+ * the one handed to the backend and returned by the queries, so no value
+ * object is allocated when an interval is emitted. The null value has no
+ * object in its slot, it is always the shared {@link TmfStateValue#nullValue()}.
+ *
  * @author Alexandre Montplaisir
  */
 @NonNullByDefault
@@ -55,10 +64,25 @@ public class TransientState {
     private volatile boolean fIsActive;
     private volatile long fLatestTime;
 
-    /* A method accessing these arrays will have to go through the lock */
-    private List<ITmfStateValue> fOngoingStateInfo;
-    private List<Long> fOngoingStateStartTimes;
-    private List<Type> fStateValueTypes;
+    private static final int INITIAL_CAPACITY = 64;
+
+    /*
+     * A method accessing these arrays will have to go through the lock. Only
+     * the first fNbAttributes entries are used.
+     */
+    private int fNbAttributes;
+    private long[] fOngoingStateStartTimes;
+    /* Type of the ongoing value, as the ordinal of its Type */
+    private byte[] fOngoingValueTags;
+    /* Ongoing integer, long or double value (as its long bits) */
+    private long[] fOngoingValueBits;
+    /* Ongoing value object, null for the null value */
+    private ITmfStateValue[] fOngoingValues;
+    /* Type of the values of each attribute, as the ordinal of its Type */
+    private byte[] fStateValueTypes;
+
+    private static final Type[] TYPES = Type.values();
+    private static final byte NULL_TAG = (byte) Type.NULL.ordinal();
 
     /**
      * Constructor
@@ -69,9 +93,12 @@ public class TransientState {
     public TransientState(IStateHistoryBackend backend) {
         fBackend = backend;
         fIsActive = true;
-        fOngoingStateInfo = new ArrayList<>();
-        fOngoingStateStartTimes = new ArrayList<>();
-        fStateValueTypes = new ArrayList<>();
+        fNbAttributes = 0;
+        fOngoingStateStartTimes = new long[INITIAL_CAPACITY];
+        fOngoingValueTags = new byte[INITIAL_CAPACITY];
+        fOngoingValueBits = new long[INITIAL_CAPACITY];
+        fOngoingValues = new ITmfStateValue[INITIAL_CAPACITY];
+        fStateValueTypes = new byte[INITIAL_CAPACITY];
 
         fLatestTime = backend.getStartTime();
     }
@@ -98,11 +125,7 @@ public class TransientState {
         fRWLock.readLock().lock();
         try {
             checkValidAttribute(quark);
-            ITmfStateValue ret = fOngoingStateInfo.get(quark);
-            if (ret == null) {
-                throw new IllegalStateException("Null interval stored in transient state"); //$NON-NLS-1$
-            }
-            return ret;
+            return getValue(quark);
         } finally {
             fRWLock.readLock().unlock();
         }
@@ -121,7 +144,7 @@ public class TransientState {
         fRWLock.readLock().lock();
         try {
             checkValidAttribute(quark);
-            return fOngoingStateStartTimes.get(quark);
+            return fOngoingStateStartTimes[quark];
         } finally {
             fRWLock.readLock().unlock();
         }
@@ -143,7 +166,7 @@ public class TransientState {
         fRWLock.writeLock().lock();
         try {
             checkValidAttribute(quark);
-            fOngoingStateInfo.set(quark, newValue);
+            setValue(quark, newValue);
         } finally {
             fRWLock.writeLock().unlock();
         }
@@ -164,8 +187,8 @@ public class TransientState {
         fRWLock.readLock().lock();
         try {
             checkValidAttribute(quark);
-            return new TmfStateInterval(fOngoingStateStartTimes.get(quark), fLatestTime,
-                    quark, fOngoingStateInfo.get(quark));
+            return new TmfStateInterval(fOngoingStateStartTimes[quark], fLatestTime,
+                    quark, getValue(quark));
         } finally {
             fRWLock.readLock().unlock();
         }
@@ -187,11 +210,11 @@ public class TransientState {
         fRWLock.readLock().lock();
         try {
             checkValidAttribute(quark);
-            if (!isActive() || time < fOngoingStateStartTimes.get(quark)) {
+            if (!isActive() || time < fOngoingStateStartTimes[quark]) {
                 return null;
             }
-            return new TmfStateInterval(fOngoingStateStartTimes.get(quark),
-                    fLatestTime, quark, fOngoingStateInfo.get(quark));
+            return new TmfStateInterval(fOngoingStateStartTimes[quark],
+                    fLatestTime, quark, getValue(quark));
         } catch (AttributeNotFoundException e) {
             return null;
         } finally {
@@ -200,11 +223,89 @@ public class TransientState {
     }
 
     private void checkValidAttribute(int quark) throws AttributeNotFoundException {
-        if (quark > fOngoingStateInfo.size() - 1 || quark < 0) {
+        if (quark > fNbAttributes - 1 || quark < 0) {
             throw new AttributeNotFoundException(fBackend.getSSID() + " Quark:" + quark); //$NON-NLS-1$
         }
     }
 
+    /**
+     * Get the ongoing value of a valid attribute, from its slot
+     */
+    private ITmfStateValue getValue(int quark) {
+        ITmfStateValue value = fOngoingValues[quark];
+        if (value != null) {
+            return value;
+        }
+        if (fOngoingValueTags[quark] != NULL_TAG) {
+            throw new IllegalStateException("Missing value in transient state"); //$NON-NLS-1$
+        }
+        return TmfStateValue.nullValue();
+    }
+
+    /**
+     * Store a value in the slot of a valid attribute
+     */
+    private void setValue(int quark, ITmfStateValue value) {
+        Type type = value.getType();
+        fOngoingValueTags[quark] = (byte) type.ordinal();
+        fOngoingValueBits[quark] = getBits(value);
+        fOngoingValues[quark] = (type == Type.NULL ? null : value);
+    }
+
+    /**
+     * Check if a value is the ongoing value of a valid attribute
+     */
+    private boolean isOngoingValue(int quark, ITmfStateValue value) {
+        Type type = value.getType();
+        if (fOngoingValueTags[quark] != type.ordinal()) {
+            return false;
+        }
+        if (type == Type.STRING) {
+            return value.equals(fOngoingValues[quark]);
+        }
+        return fOngoingValueBits[quark] == getBits(value);
+    }
+
+    /**
+     * Get the bits of the integer, long or double values, with the same
+     * equality as the value objects
+     */
+    private static long getBits(ITmfStateValue value) {
+        try {
+            switch (value.getType()) {
+            case INTEGER:
+                return value.unboxInt();
+            case LONG:
+                return value.unboxLong();
+            case DOUBLE:
+                return Double.doubleToLongBits(value.unboxDouble());
+            case NULL:
+            case STRING:
+            default:
+                return 0;
+            }
+        } catch (StateValueTypeException e) {
+            /* The type says what the value can be unboxed to */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Make sure the arrays can hold at least the given number of attributes.
+     * Must be called with the write lock held.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= fOngoingStateStartTimes.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, fOngoingStateStartTimes.length * 2);
+        fOngoingStateStartTimes = Arrays.copyOf(fOngoingStateStartTimes, newCapacity);
+        fOngoingValueTags = Arrays.copyOf(fOngoingValueTags, newCapacity);
+        fOngoingValueBits = Arrays.copyOf(fOngoingValueBits, newCapacity);
+        fOngoingValues = Arrays.copyOf(fOngoingValues, newCapacity);
+        fStateValueTypes = Arrays.copyOf(fStateValueTypes, newCapacity);
+    }
+
     /**
      * More advanced version of {@link #changeOngoingStateValue}. Replaces the
      * complete ongoingStateInfo in one go, and updates the
@@ -221,15 +322,19 @@ public class TransientState {
 
         fRWLock.writeLock().lock();
         try {
-            fOngoingStateInfo = new ArrayList<>(size);
-            fOngoingStateStartTimes = new ArrayList<>(size);
-            fStateValueTypes = new ArrayList<>(size);
+            ensureCapacity(size);
+            /* Clear the values of the entries that are not replaced */
+            Arrays.fill(fOngoingValues, size, fOngoingValues.length, null);
 
+            int i = 0;
             for (ITmfStateInterval interval : newStateIntervals) {
-                fOngoingStateInfo.add(interval.getStateValue());
-                fOngoingStateStartTimes.add(interval.getStartTime());
-                fStateValueTypes.add(interval.getStateValue().getType());
+                ITmfStateValue value = interval.getStateValue();
+                setValue(i, value);
+                fOngoingStateStartTimes[i] = interval.getStartTime();
+                fStateValueTypes[i] = (byte) value.getType().ordinal();
+                i++;
             }
+            fNbAttributes = size;
         } finally {
             fRWLock.writeLock().unlock();
         }
@@ -249,10 +354,13 @@ public class TransientState {
              * covering for all timestamps). A null interval will then get added
              * at the first state change.
              */
-            fOngoingStateInfo.add(TmfStateValue.nullValue());
-            fStateValueTypes.add(Type.NULL);
+            final int quark = fNbAttributes;
+            ensureCapacity(quark + 1);
+            setValue(quark, TmfStateValue.nullValue());
+            fStateValueTypes[quark] = NULL_TAG;
 
-            fOngoingStateStartTimes.add(fBackend.getStartTime());
+            fOngoingStateStartTimes[quark] = fBackend.getStartTime();
+            fNbAttributes = quark + 1;
         } finally {
             fRWLock.writeLock().unlock();
         }
@@ -283,8 +391,8 @@ public class TransientState {
 
         fRWLock.writeLock().lock();
         try {
-            Type expectedSvType = fStateValueTypes.get(quark);
             checkValidAttribute(quark);
+            Type expectedSvType = TYPES[fStateValueTypes[quark]];
 
             /*
              * Make sure the state value type we're inserting is the same as the
@@ -295,7 +403,7 @@ public class TransientState {
                  * The value hasn't been used yet, set it to the value we're
                  * currently inserting (which might be null/-1 again).
                  */
-                fStateValueTypes.set(quark, value.getType());
+                fStateValueTypes[quark] = (byte) value.getType().ordinal();
             } else if ((value.getType() != Type.NULL) && (value.getType() != expectedSvType)) {
                 /*
                  * We authorize inserting null values in any type of attribute,
@@ -305,7 +413,7 @@ public class TransientState {
                 throw new StateValueTypeException(fBackend.getSSID() + " Quark:" + quark + ", Type:" + value.getType() + ", Expected:" + expectedSvType); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
             }
 
-            if (fOngoingStateInfo.get(quark).equals(value)) {
+            if (isOngoingValue(quark, value)) {
                 /*
                  * This is the case where the new value and the one already
                  * present in the Builder are the same. We do not need to create
@@ -314,19 +422,20 @@ public class TransientState {
                 return;
             }
 
-            if (fOngoingStateStartTimes.get(quark) < eventTime) {
+            final long ongoingStartTime = fOngoingStateStartTimes[quark];
+            if (ongoingStartTime < eventTime) {
                 /*
                  * These two conditions are necessary to create an interval and
                  * update ongoingStateInfo.
                  */
-                fBackend.insertPastState(fOngoingStateStartTimes.get(quark),
+                fBackend.insertPastState(ongoingStartTime,
                         eventTime - 1, /* End Time */
                         quark, /* attribute quark */
-                        fOngoingStateInfo.get(quark)); /* StateValue */
+                        getValue(quark)); /* StateValue */
 
-                fOngoingStateStartTimes.set(quark, eventTime);
+                fOngoingStateStartTimes[quark] = eventTime;
             }
-            fOngoingStateInfo.set(quark, value);
+            setValue(quark, value);
 
             /* Update the Transient State's lastestTime, if needed */
             if (fLatestTime < eventTime) {
@@ -353,7 +462,7 @@ public class TransientState {
             if (!this.fIsActive) {
                 return;
             }
-            if (stateInfo.size() > fOngoingStateInfo.size()) {
+            if (stateInfo.size() > fNbAttributes) {
                 throw new IllegalArgumentException();
             }
 
@@ -390,8 +499,8 @@ public class TransientState {
 
         fRWLock.writeLock().lock();
         try {
-            for (int i = 0; i < fOngoingStateInfo.size(); i++) {
-                if (fOngoingStateStartTimes.get(i) > endTime) {
+            for (int i = 0; i < fNbAttributes; i++) {
+                if (fOngoingStateStartTimes[i] > endTime) {
                     /*
                      * Handle the cases where trace end > timestamp of last
                      * state change. This can happen when inserting "future"
@@ -400,10 +509,10 @@ public class TransientState {
                     continue;
                 }
                 try {
-                    fBackend.insertPastState(fOngoingStateStartTimes.get(i),
+                    fBackend.insertPastState(fOngoingStateStartTimes[i],
                             endTime, /* End Time */
                             i, /* attribute quark */
-                            fOngoingStateInfo.get(i)); /* StateValue */
+                            getValue(i)); /* StateValue */
 
                 } catch (TimeRangeException e) {
                     /*
@@ -414,8 +523,12 @@ public class TransientState {
                 }
             }
 
-            fOngoingStateInfo.clear();
-            fOngoingStateStartTimes.clear();
+            fNbAttributes = 0;
+            fOngoingStateStartTimes = new long[0];
+            fOngoingValueTags = new byte[0];
+            fOngoingValueBits = new long[0];
+            fOngoingValues = new ITmfStateValue[0];
+            fStateValueTypes = new byte[0];
             this.fIsActive = false;
 
         } finally {
@@ -455,10 +568,10 @@ public class TransientState {
             return;
         }
         writer.println("\nAttribute\tStateValue\tValid since time"); //$NON-NLS-1$
-        for (int i = 0; i < fOngoingStateInfo.size(); i++) {
+        for (int i = 0; i < fNbAttributes; i++) {
             writer.format("%d\t\t", i); //$NON-NLS-1$
-            writer.print(fOngoingStateInfo.get(i).toString() + "\t\t"); //$NON-NLS-1$
-            writer.println(fOngoingStateStartTimes.get(i).toString());
+            writer.print(getValue(i).toString() + "\t\t"); //$NON-NLS-1$
+            writer.println(fOngoingStateStartTimes[i]);
         }
         writer.println('\n');
         return;
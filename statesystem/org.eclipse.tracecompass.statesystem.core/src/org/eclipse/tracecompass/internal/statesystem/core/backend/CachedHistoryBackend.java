@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.internal.statesystem.core.backend;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.PrintWriter;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.tracecompass.statesystem.core.backend.ICachedHistoryBackend;
+import org.eclipse.tracecompass.statesystem.core.backend.IStateHistoryBackend;
+import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
+import org.eclipse.tracecompass.statesystem.core.exceptions.StateSystemDisposedException;
+import org.eclipse.tracecompass.statesystem.core.exceptions.TimeRangeException;
+import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
+import org.eclipse.tracecompass.statesystem.core.statevalue.ITmfStateValue;
+
+/**
+ * History back-end wrapping another one, which keeps the results of the
+ * singular queries in a cache. A query for an attribute at a time stamp that
+ * falls inside an interval returned by an earlier query is answered without
+ * going to the wrapped back-end. This helps views that query the same
+ * attributes over and over at nearby time stamps, for example while the user
+ * is panning.
+ *
+ * The cached intervals of each attribute are sorted by start time, so a query
+ * looks up the last interval starting at or before its time stamp, and uses
+ * it if it ends at or after that time stamp. Intervals stored in a back-end
+ * never change, so the cached ones never become invalid. When the cache is
+ * full, the intervals that were cached first are evicted first.
+ *
+ * The cache uses concurrent collections, so it can be used by any number of
+ * query threads.
+ */
+public class CachedHistoryBackend implements ICachedHistoryBackend {
+
+    private final IStateHistoryBackend fBackend;
+    private final int fCapacity;
+
+    /** The cached intervals of each attribute, by start time */
+    private final ConcurrentMap<Integer, ConcurrentNavigableMap<Long, ITmfStateInterval>> fIntervals = new ConcurrentHashMap<>();
+    /** The cached intervals, in the order they were added */
+    private final Queue<ITmfStateInterval> fInsertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger fSize = new AtomicInteger();
+
+    private final AtomicLong fHits = new AtomicLong();
+    private final AtomicLong fMisses = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param backend
+     *            The back-end whose singular queries will be cached
+     * @param cacheSize
+     *            The number of intervals the cache can hold
+     */
+    public CachedHistoryBackend(IStateHistoryBackend backend, int cacheSize) {
+        if (cacheSize <= 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + cacheSize); //$NON-NLS-1$
+        }
+        fBackend = backend;
+        fCapacity = cacheSize;
+    }
+
+    @Override
+    public long getHitCount() {
+        return fHits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return fMisses.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = fHits.get();
+        long total = hits + fMisses.get();
+        return (total == 0 ? 0.0 : (double) hits / total);
+    }
+
+    @Override
+    public int getCachedCount() {
+        return fSize.get();
+    }
+
+    @Override
+    public void clearCache() {
+        ITmfStateInterval interval = fInsertionOrder.poll();
+        while (interval != null) {
+            evict(interval);
+            interval = fInsertionOrder.poll();
+        }
+    }
+
+    private void cache(ITmfStateInterval interval) {
+        Integer quark = interval.getAttribute();
+        ConcurrentNavigableMap<Long, ITmfStateInterval> intervals = fIntervals.get(quark);
+        if (intervals == null) {
+            ConcurrentNavigableMap<Long, ITmfStateInterval> newIntervals = new ConcurrentSkipListMap<>();
+            intervals = fIntervals.putIfAbsent(quark, newIntervals);
+            if (intervals == null) {
+                intervals = newIntervals;
+            }
+        }
+        if (intervals.putIfAbsent(interval.getStartTime(), interval) != null) {
+            /* Another thread read the same interval */
+            return;
+        }
+        fInsertionOrder.add(interval);
+        int size = fSize.incrementAndGet();
+        while (size > fCapacity) {
+            ITmfStateInterval oldest = fInsertionOrder.poll();
+            if (oldest == null) {
+                return;
+            }
+            evict(oldest);
+            size = fSize.get();
+        }
+    }
+
+    private void evict(ITmfStateInterval interval) {
+        Map<Long, ITmfStateInterval> intervals = fIntervals.get(interval.getAttribute());
+        if (intervals != null) {
+            intervals.remove(interval.getStartTime(), interval);
+        }
+        fSize.decrementAndGet();
+    }
+
+    // ------------------------------------------------------------------------
+    // Queries
+    // ------------------------------------------------------------------------
+
+    @Override
+    public ITmfStateInterval doSingularQuery(long t, int attributeQuark)
+            throws TimeRangeException, AttributeNotFoundException, StateSystemDisposedException {
+        ConcurrentNavigableMap<Long, ITmfStateInterval> intervals = fIntervals.get(attributeQuark);
+        if (intervals != null) {
+            Map.Entry<Long, ITmfStateInterval> entry = intervals.floorEntry(t);
+            if (entry != null && t <= entry.getValue().getEndTime()) {
+                fHits.incrementAndGet();
+                return entry.getValue();
+            }
+        }
+        fMisses.incrementAndGet();
+        ITmfStateInterval interval = fBackend.doSingularQuery(t, attributeQuark);
+        if (interval != null) {
+            cache(interval);
+        }
+        return interval;
+    }
+
+    @Override
+    public void doQuery(@NonNull List<ITmfStateInterval> currentStateInfo, long t)
+            throws TimeRangeException, StateSystemDisposedException {
+        fBackend.doQuery(currentStateInfo, t);
+    }
+
+    @Override
+    public void doQuery2D(@NonNull Collection<ITmfStateInterval> results,
+            @NonNull BitSet quarks, long t1, long t2, long resolution)
+            throws TimeRangeException, StateSystemDisposedException {
+        fBackend.doQuery2D(results, quarks, t1, t2, resolution);
+    }
+
+    // ------------------------------------------------------------------------
+    // Delegated methods
+    // ------------------------------------------------------------------------
+
+    @Override
+    public String getSSID() {
+        return fBackend.getSSID();
+    }
+
+    @Override
+    public long getStartTime() {
+        return fBackend.getStartTime();
+    }
+
+    @Override
+    public long getEndTime() {
+        return fBackend.getEndTime();
+    }
+
+    @Override
+    public void insertPastState(long stateStartTime, long stateEndTime,
+            int quark, ITmfStateValue value) throws TimeRangeException {
+        fBackend.insertPastState(stateStartTime, stateEndTime, quark, value);
+    }
+
+    @Override
+    public void finishedBuilding(long endTime) throws TimeRangeException {
+        fBackend.finishedBuilding(endTime);
+    }
+
+    @Override
+    public FileInputStream supplyAttributeTreeReader() {
+        return fBackend.supplyAttributeTreeReader();
+    }
+
+    @Override
+    public File supplyAttributeTreeWriterFile() {
+        return fBackend.supplyAttributeTreeWriterFile();
+    }
+
+    @Override
+    public long supplyAttributeTreeWriterFilePosition() {
+        return fBackend.supplyAttributeTreeWriterFilePosition();
+    }
+
+    @Override
+    public void removeFiles() {
+        clearCache();
+        fBackend.removeFiles();
+    }
+
+    @Override
+    public void dispose() {
+        clearCache();
+        fBackend.dispose();
+    }
+
+    @Override
+    public void debugPrint(PrintWriter writer) {
+        writer.println("Query cache: " + getCachedCount() + " of " + fCapacity + " intervals, " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + getHitCount() + " hits, " + getMissCount() + " misses"); //$NON-NLS-1$ //$NON-NLS-2$
+        fBackend.debugPrint(writer);
+    }
+}
@@ -17,6 +17,8 @@ package org.eclipse.tracecompass.internal.statesystem.core.backend;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.PrintWriter;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -183,6 +185,27 @@ public class InMemoryBackend implements IStateHistoryBackend {
         throw new AttributeNotFoundException(ssid + " Quark:" + attributeQuark); //$NON-NLS-1$
     }
 
+    @Override
+    public void doQuery2D(Collection<ITmfStateInterval> results, BitSet quarks,
+            long t1, long t2, long resolution) throws TimeRangeException {
+        final QueryRange range = new QueryRange(t1, t2, resolution);
+
+        /*
+         * The intervals are sorted by end time, so we can binary search to get
+         * the first possible interval, then only compare their start times.
+         */
+        synchronized (intervals) {
+            Iterator<ITmfStateInterval> iter = serachforEndTime(intervals, t1);
+            while (iter.hasNext()) {
+                ITmfStateInterval entry = iter.next();
+                if (quarks.get(entry.getAttribute())
+                        && range.intersects(entry.getStartTime(), entry.getEndTime())) {
+                    results.add(entry);
+                }
+            }
+        }
+    }
+
     private boolean checkValidTime(long t) {
         if (t >= startTime && t <= latestTime) {
             return true;
@@ -15,6 +15,8 @@ package org.eclipse.tracecompass.internal.statesystem.core.backend;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.PrintWriter;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
 
 import org.eclipse.jdt.annotation.NonNull;
@@ -118,6 +120,15 @@ public class NullBackend implements IStateHistoryBackend {
         return null;
     }
 
+    /**
+     * Null back-ends cannot run queries. Nothing will be put in results.
+     */
+    @Override
+    public void doQuery2D(Collection<ITmfStateInterval> results, BitSet quarks,
+            long t1, long t2, long resolution) {
+        /* Cannot do past queries */
+    }
+
     @Override
     public void debugPrint(PrintWriter writer) {
         writer.println("Null history backend"); //$NON-NLS-1$
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.internal.statesystem.core.backend;
+
+import org.eclipse.tracecompass.statesystem.core.exceptions.TimeRangeException;
+
+/**
+ * Time range of a "2D" (attributes x time) query, with an optional sampling
+ * resolution.
+ *
+ * With a resolution of 1, every interval intersecting [start, end] is
+ * relevant. With a bigger resolution, only the intervals containing one of
+ * the sample points (start, start + resolution, start + 2 * resolution, ...
+ * and end) are relevant. This is what views need, where there is no point in
+ * returning more than one interval per pixel.
+ */
+public final class QueryRange {
+
+    private final long fStart;
+    private final long fEnd;
+    private final long fResolution;
+
+    /**
+     * Constructor
+     *
+     * @param start
+     *            Start time of the query
+     * @param end
+     *            End time of the query
+     * @param resolution
+     *            Sampling resolution of the query. Use 1 to get every
+     *            intersecting interval.
+     * @throws TimeRangeException
+     *             If end is smaller than start, or if the resolution is not
+     *             greater than zero
+     */
+    public QueryRange(long start, long end, long resolution) {
+        if (end < start || resolution <= 0) {
+            throw new TimeRangeException("Start:" + start + ", End:" + end + ", Resolution:" + resolution); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        fStart = start;
+        fEnd = end;
+        fResolution = resolution;
+    }
+
+    /**
+     * Get the start time of this range.
+     *
+     * @return The start time
+     */
+    public long getStart() {
+        return fStart;
+    }
+
+    /**
+     * Get the end time of this range.
+     *
+     * @return The end time
+     */
+    public long getEnd() {
+        return fEnd;
+    }
+
+    /**
+     * Get the sampling resolution of this range.
+     *
+     * @return The resolution, 1 if every timestamp is considered
+     */
+    public long getResolution() {
+        return fResolution;
+    }
+
+    /**
+     * Check if the given time range (which can be an interval or a whole node
+     * of a history) contains at least one of the sample points of this query
+     * range.
+     *
+     * @param start
+     *            Start time of the range to check (inclusive)
+     * @param end
+     *            End time of the range to check (inclusive)
+     * @return If this range is relevant to the query
+     */
+    public boolean intersects(long start, long end) {
+        if (end < fStart || start > fEnd) {
+            return false;
+        }
+        if (fResolution == 1 || end >= fEnd) {
+            /* The end of the query is always a sample point */
+            return true;
+        }
+
+        /* Find the first sample point at or after the start of the range */
+        long lower = Math.max(start, fStart);
+        long offset = lower - fStart;
+        long steps = offset / fResolution;
+        if (offset % fResolution != 0) {
+            steps++;
+        }
+        long nextSample = fStart + steps * fResolution;
+        return (nextSample >= lower && nextSample <= end);
+    }
+
+    @SuppressWarnings("nls")
+    @Override
+    public String toString() {
+        return "[" + fStart + ", " + fEnd + "], resolution = " + fResolution;
+    }
+}
@@ -21,14 +21,44 @@ import java.io.File;
  */
 public final class HTConfig {
 
-    private static final int DEFAULT_BLOCKSIZE = 64 * 1024;
-    private static final int DEFAULT_MAXCHILDREN = 50;
+    /**
+     * How the nodes are written in the history file
+     */
+    public static enum NodeEncoding {
+        /**
+         * Each node is written in its own fixed-size block, with fixed-width
+         * interval entries. This is the default.
+         */
+        FIXED_BLOCKS,
+        /**
+         * The nodes are written one after the other, with variable-length
+         * interval entries: times are stored as deltas and integers as
+         * varints. An index at the end of the node section gives the position
+         * of each node.
+         */
+        PACKED,
+        /**
+         * Like {@link #PACKED}, but each node is also compressed with Deflate.
+         */
+        PACKED_COMPRESSED
+    }
+
+    /** Default size of the blocks of the history file, in bytes */
+    public static final int DEFAULT_BLOCKSIZE = 64 * 1024;
+    /** Default maximum number of children of the core nodes */
+    public static final int DEFAULT_MAXCHILDREN = 50;
+
+    /** Default size of the node cache, in bytes */
+    static final long DEFAULT_NODE_CACHE_SIZE = 16L * 1024 * 1024;
 
     private final File stateFile;
     private final int blockSize;
     private final int maxChildren;
     private final int providerVersion;
     private final long treeStart;
+    private final long nodeCacheSize;
+    private final NodeEncoding nodeEncoding;
+    private final boolean quarkFilter;
 
     /**
      * Full constructor.
@@ -47,14 +77,107 @@ public final class HTConfig {
      *            uselessly.
      * @param startTime
      *            The start time of the history
+     * @param nodeCacheSize
+     *            The size, in bytes, of the cache of nodes read from the
+     *            history file
+     * @param nodeEncoding
+     *            How the nodes are written in the history file
+     * @param quarkFilter
+     *            If the node headers have a {@link HTQuarkFilter}. Only the
+     *            fixed-size block files of the older format have none, the
+     *            packed encodings always have one.
      */
     public HTConfig(File newStateFile, int blockSize, int maxChildren,
-            int providerVersion, long startTime) {
+            int providerVersion, long startTime, long nodeCacheSize,
+            NodeEncoding nodeEncoding, boolean quarkFilter) {
+        if (!quarkFilter && nodeEncoding != NodeEncoding.FIXED_BLOCKS) {
+            throw new IllegalArgumentException("Packed nodes always have a quark filter"); //$NON-NLS-1$
+        }
         this.stateFile = newStateFile;
         this.blockSize = blockSize;
         this.maxChildren = maxChildren;
         this.providerVersion = providerVersion;
         this.treeStart = startTime;
+        this.nodeCacheSize = nodeCacheSize;
+        this.nodeEncoding = nodeEncoding;
+        this.quarkFilter = quarkFilter;
+    }
+
+    /**
+     * Version of the constructor with a quark filter in the node headers.
+     *
+     * @param newStateFile
+     *            The name of the history file
+     * @param blockSize
+     *            The size of each "block" on disk. One node will always fit in
+     *            one block.
+     * @param maxChildren
+     *            The maximum number of children allowed per core (non-leaf)
+     *            node.
+     * @param providerVersion
+     *            The version of the state provider. If a file already exists,
+     *            and their versions match, the history file will not be rebuilt
+     *            uselessly.
+     * @param startTime
+     *            The start time of the history
+     * @param nodeCacheSize
+     *            The size, in bytes, of the cache of nodes read from the
+     *            history file
+     * @param nodeEncoding
+     *            How the nodes are written in the history file
+     */
+    public HTConfig(File newStateFile, int blockSize, int maxChildren,
+            int providerVersion, long startTime, long nodeCacheSize, NodeEncoding nodeEncoding) {
+        this(newStateFile, blockSize, maxChildren, providerVersion, startTime, nodeCacheSize, nodeEncoding, true);
+    }
+
+    /**
+     * Version of the constructor using fixed-size blocks in the file.
+     *
+     * @param newStateFile
+     *            The name of the history file
+     * @param blockSize
+     *            The size of each "block" on disk. One node will always fit in
+     *            one block.
+     * @param maxChildren
+     *            The maximum number of children allowed per core (non-leaf)
+     *            node.
+     * @param providerVersion
+     *            The version of the state provider. If a file already exists,
+     *            and their versions match, the history file will not be rebuilt
+     *            uselessly.
+     * @param startTime
+     *            The start time of the history
+     * @param nodeCacheSize
+     *            The size, in bytes, of the cache of nodes read from the
+     *            history file
+     */
+    public HTConfig(File newStateFile, int blockSize, int maxChildren,
+            int providerVersion, long startTime, long nodeCacheSize) {
+        this(newStateFile, blockSize, maxChildren, providerVersion, startTime, nodeCacheSize, NodeEncoding.FIXED_BLOCKS);
+    }
+
+    /**
+     * Version of the constructor using the default node cache size.
+     *
+     * @param newStateFile
+     *            The name of the history file
+     * @param blockSize
+     *            The size of each "block" on disk. One node will always fit in
+     *            one block.
+     * @param maxChildren
+     *            The maximum number of children allowed per core (non-leaf)
+     *            node.
+     * @param providerVersion
+     *            The version of the state provider. If a file already exists,
+     *            and their versions match, the history file will not be rebuilt
+     *            uselessly.
+     * @param startTime
+     *            The start time of the history
+     */
+    public HTConfig(File newStateFile, int blockSize, int maxChildren,
+            int providerVersion, long startTime) {
+        this(newStateFile, blockSize, maxChildren, providerVersion, startTime, DEFAULT_NODE_CACHE_SIZE);
     }
 
     /**
@@ -122,4 +245,31 @@ public final class HTConfig {
     public long getTreeStart() {
         return treeStart;
     }
+
+    /**
+     * Get the size of the node cache
+     *
+     * @return The size of the node cache, in bytes
+     */
+    public long getNodeCacheSize() {
+        return nodeCacheSize;
+    }
+
+    /**
+     * Get how the nodes are written in the history file
+     *
+     * @return The node encoding
+     */
+    public NodeEncoding getNodeEncoding() {
+        return nodeEncoding;
+    }
+
+    /**
+     * Get if the node headers have a quark filter
+     *
+     * @return If the nodes have a quark filter
+     */
+    public boolean hasQuarkFilter() {
+        return quarkFilter;
+    }
 }
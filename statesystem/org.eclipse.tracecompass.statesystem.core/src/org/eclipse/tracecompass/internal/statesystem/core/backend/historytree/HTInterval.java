@@ -44,19 +44,33 @@ public final class HTInterval implements ITmfStateInterval, Comparable<HTInterva
      * +  4  int (valueOffset)
      * </pre>
      */
-    private static final int DATA_ENTRY_SIZE = 25;
+    static final int DATA_ENTRY_SIZE = 25;
+
+    /**
+     * Maximum size of an entry in the packed encoding, not counting the bytes
+     * of a string value.
+     *
+     * <pre>
+     *   10  varlong (start, as a delta from the node start)
+     * + 10  varlong (duration)
+     * +  5  varint (key)
+     * +  1  byte (type)
+     * + 10  value (varint, varlong or 8-byte double)
+     * </pre>
+     */
+    private static final int MAX_PACKED_ENTRY_SIZE = 36;
 
     /* 'Byte' equivalent for state values types */
-    private static final byte TYPE_NULL = -1;
-    private static final byte TYPE_INTEGER = 0;
-    private static final byte TYPE_STRING = 1;
-    private static final byte TYPE_LONG = 2;
-    private static final byte TYPE_DOUBLE = 3;
+    static final byte TYPE_NULL = -1;
+    static final byte TYPE_INTEGER = 0;
+    static final byte TYPE_STRING = 1;
+    static final byte TYPE_LONG = 2;
+    static final byte TYPE_DOUBLE = 3;
 
     /* String entry sizes of different state values */
-    private static final int NO_ENTRY_SIZE = 0;
-    private static final int LONG_ENTRY_SIZE = 8;
-    private static final int DOUBLE_ENTRY_SIZE = 8;
+    static final int NO_ENTRY_SIZE = 0;
+    static final int LONG_ENTRY_SIZE = 8;
+    static final int DOUBLE_ENTRY_SIZE = 8;
     // sizes of string values depend on the string itself
 
     private final long start;
@@ -99,11 +113,12 @@ public final class HTInterval implements ITmfStateInterval, Comparable<HTInterva
 
     /**
      * "Faster" constructor for inner use only. When we build an interval when
-     * reading it from disk (with {@link #readFrom}), we already know the size
-     * of the strings entry, so there is no need to call
-     * {@link #computeStringsEntrySize()} and do an extra copy.
+     * reading it from disk (with {@link #readFrom} or from a
+     * {@link HTIntervalArray}), we already know the size of the strings entry,
+     * so there is no need to call {@link #computeStringsEntrySize()} and do an
+     * extra copy.
      */
-    private HTInterval(long intervalStart, long intervalEnd, int attribute,
+    HTInterval(long intervalStart, long intervalEnd, int attribute,
             TmfStateValue value, int size) throws TimeRangeException {
         if (intervalStart > intervalEnd) {
             throw new TimeRangeException("Start:" + intervalStart + ", End:" + intervalEnd); //$NON-NLS-1$ //$NON-NLS-2$
@@ -338,6 +353,81 @@ public final class HTInterval implements ITmfStateInterval, Comparable<HTInterva
         return stringsEntrySize;
     }
 
+    /**
+     * Write this interval in the packed encoding used by the
+     * {@link HTConfig.NodeEncoding#PACKED} files. Times are written as deltas
+     * and integers as variable-length integers. String values are written
+     * inline, with the same format as in the strings section of a fixed-size
+     * node (size byte, bytes, then a 0 byte).
+     *
+     * @param buffer
+     *            The buffer to write to. It must have at least
+     *            {@link #getMaxPackedSize()} bytes remaining.
+     * @param nodeStart
+     *            The start time of the node containing this interval
+     */
+    void writePacked(ByteBuffer buffer, long nodeStart) {
+        /* Intervals of core nodes can start before their node */
+        putVarLong(buffer, zigZag(start - nodeStart));
+        putVarLong(buffer, end - start);
+        putVarLong(buffer, attribute & 0xFFFFFFFFL);
+        byte type = getByteFromType(sv.getType());
+        buffer.put(type);
+
+        switch (type) {
+        case TYPE_NULL:
+            /* Nothing else to write */
+            break;
+        case TYPE_INTEGER:
+            putVarLong(buffer, zigZag(sv.unboxInt()));
+            break;
+        case TYPE_LONG:
+            putVarLong(buffer, zigZag(sv.unboxLong()));
+            break;
+        case TYPE_DOUBLE:
+            buffer.putDouble(sv.unboxDouble());
+            break;
+        case TYPE_STRING:
+            buffer.put((byte) stringsEntrySize);
+            buffer.put(sv.unboxStr().getBytes());
+            buffer.put((byte) 0);
+            break;
+        default:
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Get the maximum size this interval can use once written with
+     * {@link #writePacked}.
+     *
+     * @return The maximum packed size, in bytes
+     */
+    int getMaxPackedSize() {
+        return MAX_PACKED_ENTRY_SIZE + stringsEntrySize;
+    }
+
+    /**
+     * Write an unsigned variable-length integer, 7 bits per byte, least
+     * significant group first.
+     */
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    /**
+     * Map signed values to unsigned ones so that small negative values also
+     * use few bytes.
+     */
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
     @Override
     public long getStartTime() {
         return start;
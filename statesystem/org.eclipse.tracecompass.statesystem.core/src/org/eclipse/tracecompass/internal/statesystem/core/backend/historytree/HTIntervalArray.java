@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.internal.statesystem.core.backend.historytree;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
+
+/**
+ * Compact representation of the intervals of a node read from disk.
+ *
+ * Instead of one {@link HTInterval} and one state value object per interval,
+ * the intervals are kept in parallel primitive arrays. The interval objects
+ * are only created when they are returned to the caller of a query, with
+ * {@link #getInterval(int)}. String values are not even decoded until then:
+ * the block they are stored in is kept instead.
+ *
+ * Objects of this class are immutable, so they can be read by many threads
+ * at the same time.
+ */
+final class HTIntervalArray {
+
+    private static final String ERR_MSG = "Invalid interval data. Maybe your file is corrupt?"; //$NON-NLS-1$
+
+    private final long[] fStarts;
+    private final long[] fEnds;
+    private final int[] fAttributes;
+    private final byte[] fTypes;
+
+    /*
+     * Integer or long value, raw bits of a double value, or offset in the
+     * block of a string value
+     */
+    private final long[] fValues;
+
+    /* The node's block, only kept if there are string values to decode */
+    private final @Nullable ByteBuffer fBlock;
+
+    private HTIntervalArray(long[] starts, long[] ends, int[] attributes,
+            byte[] types, long[] values, @Nullable ByteBuffer block) {
+        fStarts = starts;
+        fEnds = ends;
+        fAttributes = attributes;
+        fTypes = types;
+        fValues = values;
+        fBlock = block;
+    }
+
+    /**
+     * Read the data section of a node. This only uses absolute gets, so many
+     * threads can read from the same buffer at the same time.
+     *
+     * @param block
+     *            The buffer containing the node's block, position 0 being the
+     *            start of the node. The buffer must not be modified
+     *            afterwards.
+     * @param dataOffset
+     *            The offset of the data section in the block
+     * @param count
+     *            The number of intervals in the node
+     * @return The intervals
+     * @throws IOException
+     *             If the data is not valid
+     */
+    static HTIntervalArray readFrom(ByteBuffer block, int dataOffset, int count) throws IOException {
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        int[] attributes = new int[count];
+        byte[] types = new byte[count];
+        long[] values = new long[count];
+        boolean hasStrings = false;
+
+        int pos = dataOffset;
+        for (int i = 0; i < count; i++) {
+            starts[i] = block.getLong(pos);
+            ends[i] = block.getLong(pos + 8);
+            attributes[i] = block.getInt(pos + 16);
+            types[i] = block.get(pos + 20);
+            int valueOrOffset = block.getInt(pos + 21);
+            pos += HTInterval.DATA_ENTRY_SIZE;
+
+            if (starts[i] > ends[i]) {
+                throw new IOException(ERR_MSG);
+            }
+
+            switch (types[i]) {
+            case HTInterval.TYPE_NULL:
+            case HTInterval.TYPE_INTEGER:
+                /* "ValueOrOffset" is the straight value */
+                values[i] = valueOrOffset;
+                break;
+
+            case HTInterval.TYPE_STRING:
+                /* Only check the entry here, it is decoded when needed */
+                int entrySize = block.get(valueOrOffset);
+                if (entrySize < 2 || block.get(valueOrOffset + entrySize - 1) != 0) {
+                    throw new IOException(ERR_MSG);
+                }
+                values[i] = valueOrOffset;
+                hasStrings = true;
+                break;
+
+            case HTInterval.TYPE_LONG:
+            case HTInterval.TYPE_DOUBLE:
+                /* Both are stored as 8 bytes in the strings section */
+                values[i] = block.getLong(valueOrOffset);
+                break;
+
+            default:
+                /* Unknown data, better to not make anything up... */
+                throw new IOException(ERR_MSG);
+            }
+        }
+
+        return new HTIntervalArray(starts, ends, attributes, types, values,
+                (hasStrings ? block : null));
+    }
+
+    /**
+     * Read the data section of a node written with the packed encoding (see
+     * {@link HTInterval#writePacked}). Like {@link #readFrom}, this does not
+     * modify the buffer.
+     *
+     * @param block
+     *            The buffer containing the node, position 0 being the start
+     *            of the node. The buffer must not be modified afterwards.
+     * @param dataOffset
+     *            The offset of the data section in the buffer
+     * @param count
+     *            The number of intervals in the node
+     * @param nodeStart
+     *            The start time of the node
+     * @return The intervals
+     * @throws IOException
+     *             If the data is not valid
+     */
+    static HTIntervalArray readPacked(ByteBuffer block, int dataOffset, int count, long nodeStart) throws IOException {
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        int[] attributes = new int[count];
+        byte[] types = new byte[count];
+        long[] values = new long[count];
+        boolean hasStrings = false;
+
+        /* Use our own view of the buffer, so we can use relative gets */
+        ByteBuffer buffer = block.duplicate();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(dataOffset);
+        try {
+            for (int i = 0; i < count; i++) {
+                starts[i] = nodeStart + unZigZag(getVarLong(buffer));
+                ends[i] = starts[i] + getVarLong(buffer);
+                attributes[i] = (int) getVarLong(buffer);
+                types[i] = buffer.get();
+
+                if (starts[i] > ends[i]) {
+                    throw new IOException(ERR_MSG);
+                }
+
+                switch (types[i]) {
+                case HTInterval.TYPE_NULL:
+                    break;
+
+                case HTInterval.TYPE_INTEGER:
+                case HTInterval.TYPE_LONG:
+                    values[i] = unZigZag(getVarLong(buffer));
+                    break;
+
+                case HTInterval.TYPE_DOUBLE:
+                    values[i] = buffer.getLong();
+                    break;
+
+                case HTInterval.TYPE_STRING:
+                    /* Same format as in the strings section, decoded when needed */
+                    int offset = buffer.position();
+                    int entrySize = buffer.get(offset);
+                    if (entrySize < 2 || buffer.get(offset + entrySize - 1) != 0) {
+                        throw new IOException(ERR_MSG);
+                    }
+                    values[i] = offset;
+                    buffer.position(offset + entrySize);
+                    hasStrings = true;
+                    break;
+
+                default:
+                    throw new IOException(ERR_MSG);
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException(ERR_MSG, e);
+        }
+
+        return new HTIntervalArray(starts, ends, attributes, types, values,
+                (hasStrings ? block : null));
+    }
+
+    private static long getVarLong(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException(ERR_MSG);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * @return The number of intervals
+     */
+    int size() {
+        return fStarts.length;
+    }
+
+    long getStart(int index) {
+        return fStarts[index];
+    }
+
+    long getEnd(int index) {
+        return fEnds[index];
+    }
+
+    int getAttribute(int index) {
+        return fAttributes[index];
+    }
+
+    /**
+     * Create the interval object at the given index.
+     *
+     * @param index
+     *            The index of the interval
+     * @return A new interval object
+     */
+    HTInterval getInterval(int index) {
+        final long value = fValues[index];
+        TmfStateValue sv;
+        int stringsEntrySize;
+
+        switch (fTypes[index]) {
+        case HTInterval.TYPE_NULL:
+            sv = TmfStateValue.nullValue();
+            stringsEntrySize = HTInterval.NO_ENTRY_SIZE;
+            break;
+        case HTInterval.TYPE_INTEGER:
+            sv = TmfStateValue.newValueInt((int) value);
+            stringsEntrySize = HTInterval.NO_ENTRY_SIZE;
+            break;
+        case HTInterval.TYPE_LONG:
+            sv = TmfStateValue.newValueLong(value);
+            stringsEntrySize = HTInterval.LONG_ENTRY_SIZE;
+            break;
+        case HTInterval.TYPE_DOUBLE:
+            sv = TmfStateValue.newValueDouble(Double.longBitsToDouble(value));
+            stringsEntrySize = HTInterval.DOUBLE_ENTRY_SIZE;
+            break;
+        case HTInterval.TYPE_STRING:
+            byte[] array = readString(index);
+            sv = TmfStateValue.newValueString(new String(array));
+            stringsEntrySize = array.length + 2;
+            break;
+        default:
+            /* The types were checked when reading the node */
+            throw new IllegalStateException();
+        }
+        return new HTInterval(fStarts[index], fEnds[index], fAttributes[index], sv, stringsEntrySize);
+    }
+
+    /**
+     * Read the bytes of a string value, without the size and 0 bytes around
+     * them. This only uses absolute gets, so concurrent readers do not
+     * interfere with each other.
+     */
+    private byte[] readString(int index) {
+        final ByteBuffer block = fBlock;
+        if (block == null) {
+            throw new IllegalStateException();
+        }
+        int offset = (int) fValues[index];
+        byte[] array = new byte[block.get(offset) - 2];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = block.get(offset + 1 + i);
+        }
+        return array;
+    }
+}
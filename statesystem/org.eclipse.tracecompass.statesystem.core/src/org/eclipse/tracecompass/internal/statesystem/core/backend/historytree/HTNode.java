@@ -18,15 +18,16 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.QueryRange;
 import org.eclipse.tracecompass.statesystem.core.exceptions.TimeRangeException;
 import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
-import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
 
 /**
  * The base class for all the types of nodes that go in the History Tree.
@@ -119,6 +120,19 @@ public abstract class HTNode {
     /* Vector containing all the intervals contained in this node */
     private final List<HTInterval> intervals;
 
+    /*
+     * Compact version of the intervals, used instead of the 'intervals' list
+     * for nodes read from disk, so that reading a node does not create one
+     * object per interval. It is only decoded from the node's block the first
+     * time the intervals are needed (undecodedBlock is null afterwards).
+     */
+    private volatile @Nullable HTIntervalArray compactIntervals = null;
+    private volatile @Nullable ByteBuffer undecodedBlock = null;
+    private int undecodedCount;
+
+    /* Filter of the quarks of the intervals in this node, null in older files */
+    private @Nullable HTQuarkFilter quarkFilter;
+
     /* Lock used to protect the accesses to intervals, nodeEnd and such */
     private final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock(false);
 
@@ -144,32 +158,30 @@ public abstract class HTNode {
         this.sizeOfIntervalSection = 0;
         this.isOnDisk = false;
         this.intervals = new ArrayList<>();
+        this.quarkFilter = (config.hasQuarkFilter() ? new HTQuarkFilter(config.getBlockSize()) : null);
     }
 
     /**
-     * Reader factory method. Build a Node object (of the right type) by reading
-     * a block in the file.
+     * Reader factory method. Build a Node object (of the right type) from a
+     * buffer containing a block of the file. The buffer can come from a read
+     * on the file channel, or be a view on a memory-mapped part of the file.
      *
      * @param config
      *            Configuration of the History Tree
-     * @param fc
-     *            FileChannel to the history file, ALREADY SEEKED at the start
-     *            of the node.
+     * @param buffer
+     *            Little-endian buffer containing the node's block (or the
+     *            packed node, depending on the node encoding of the tree).
+     *            Position 0 of the buffer must be the start of the node, since
+     *            the offsets stored in the node are relative to that position.
      * @return The node object
      * @throws IOException
-     *             If there was an error reading from the file channel
+     *             If the contents of the buffer are not a valid node
      */
-    public static final HTNode readNode(HTConfig config, FileChannel fc)
+    public static final HTNode readNode(HTConfig config, ByteBuffer buffer)
             throws IOException {
         HTNode newNode = null;
-        int res, i;
 
-        ByteBuffer buffer = ByteBuffer.allocate(config.getBlockSize());
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        buffer.clear();
-        res = fc.read(buffer);
-        assert (res == config.getBlockSize());
-        buffer.flip();
+        buffer.position(0);
 
         /* Read the common header part */
         byte typeByte = buffer.get();
@@ -201,15 +213,21 @@ public abstract class HTNode {
             throw new IOException();
         }
 
+        /* Then comes the quark filter, if the file has them */
+        if (config.hasQuarkFilter()) {
+            newNode.quarkFilter = HTQuarkFilter.readFrom(buffer, config.getBlockSize());
+        }
+
         /*
          * At this point, we should be done reading the header and 'buffer'
-         * should only have the intervals left
+         * should only have the intervals left. They will only be read if a
+         * query needs them. Their size is known from the header though: the
+         * strings section goes from its offset to the end of the block.
          */
-        for (i = 0; i < intervalCount; i++) {
-            HTInterval interval = HTInterval.readFrom(buffer);
-            newNode.intervals.add(interval);
-            newNode.sizeOfIntervalSection += interval.getIntervalSize();
-        }
+        newNode.undecodedBlock = buffer;
+        newNode.undecodedCount = intervalCount;
+        newNode.sizeOfIntervalSection = intervalCount * HTInterval.DATA_ENTRY_SIZE
+                + config.getBlockSize() - stringSectionOffset;
 
         /* Assign the node's other information we have read previously */
         newNode.nodeEnd = end;
@@ -220,75 +238,107 @@ public abstract class HTNode {
     }
 
     /**
-     * Write this node to the given file channel.
+     * Write this node as a fixed-size block, used by the
+     * {@link HTConfig.NodeEncoding#FIXED_BLOCKS} files.
      *
-     * @param fc
-     *            The file channel to write to (should be sought to be correct
-     *            position)
-     * @throws IOException
-     *             If there was an error writing
+     * The node's lock is only held while the block is filled, not while it is
+     * written to disk by the caller.
+     *
+     * @return A buffer containing the block, ready to be written
      */
-    public final void writeSelf(FileChannel fc) throws IOException {
+    public final ByteBuffer writeBlock() {
+        final int blockSize = config.getBlockSize();
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
         /*
          * Yes, we are taking the *read* lock here, because we are reading the
          * information in the node to write it to disk.
          */
         rwl.readLock().lock();
         try {
-            final int blockSize = config.getBlockSize();
             int curStringsEntryEndPos = blockSize;
 
-            ByteBuffer buffer = ByteBuffer.allocate(blockSize);
-            buffer.order(ByteOrder.LITTLE_ENDIAN);
-            buffer.clear();
-
-            /* Write the common header part */
-            buffer.put(this.getNodeType().toByte());
-            buffer.putLong(nodeStart);
-            buffer.putLong(nodeEnd);
-            buffer.putInt(sequenceNumber);
-            buffer.putInt(parentSequenceNumber);
-            buffer.putInt(intervals.size());
-            buffer.putInt(stringSectionOffset);
-            buffer.put((byte) 1); // TODO Used to be "isDone", to be removed from header
-
-            /* Now call the inner method to write the specific header part */
-            this.writeSpecificHeader(buffer);
+            writeHeader(buffer);
 
             /* Back to us, we write the intervals */
-            for (HTInterval interval : intervals) {
-                int size = interval.writeInterval(buffer, curStringsEntryEndPos);
+            for (int i = 0; i < getIntervalCount(); i++) {
+                int size = getInterval(i).writeInterval(buffer, curStringsEntryEndPos);
                 curStringsEntryEndPos -= size;
             }
 
-            /*
-             * Write padding between the end of the Data section and the start
-             * of the Strings section (needed to fill the node in case there is
-             * no Strings section)
-             */
-            while (buffer.position() < stringSectionOffset) {
-                buffer.put((byte) 0);
-            }
-
             /*
              * If the offsets were right, the size of the Strings section should
              * be == to the expected size
              */
             assert (curStringsEntryEndPos == stringSectionOffset);
+        } finally {
+            rwl.readLock().unlock();
+        }
 
-            /* Finally, write everything in the Buffer to disk */
+        /*
+         * The padding between the end of the Data section and the start of
+         * the Strings section is already zeroed, the whole block is written.
+         */
+        buffer.clear();
+        isOnDisk = true;
+        return buffer;
+    }
 
-            // if we don't do this, flip() will lose what's after.
-            buffer.position(blockSize);
+    /**
+     * Write this node with the packed encoding, used by the
+     * {@link HTConfig.NodeEncoding#PACKED} files. The header is the same as
+     * in a fixed-size block, but it is followed by the variable-length
+     * intervals only, without padding.
+     *
+     * @return A buffer containing the packed node, ready to be read
+     */
+    public final ByteBuffer writePacked() {
+        ByteBuffer buffer;
+        rwl.readLock().lock();
+        try {
+            int maxSize = getTotalHeaderSize();
+            for (int i = 0; i < getIntervalCount(); i++) {
+                maxSize += getInterval(i).getMaxPackedSize();
+            }
+            buffer = ByteBuffer.allocate(maxSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
 
+            writeHeader(buffer);
+            for (int i = 0; i < getIntervalCount(); i++) {
+                getInterval(i).writePacked(buffer, nodeStart);
+            }
             buffer.flip();
-            int res = fc.write(buffer);
-            assert (res == blockSize);
-
         } finally {
             rwl.readLock().unlock();
         }
         isOnDisk = true;
+        return buffer;
+    }
+
+    /**
+     * Write the header of the node, which is the same for all the encodings.
+     * Should only be called with the readLock taken.
+     */
+    private void writeHeader(ByteBuffer buffer) {
+        /* Write the common header part */
+        buffer.put(this.getNodeType().toByte());
+        buffer.putLong(nodeStart);
+        buffer.putLong(nodeEnd);
+        buffer.putInt(sequenceNumber);
+        buffer.putInt(parentSequenceNumber);
+        buffer.putInt(getIntervalCount());
+        buffer.putInt(stringSectionOffset);
+        buffer.put((byte) 1); // TODO Used to be "isDone", to be removed from header
+
+        /* Now call the inner method to write the specific header part */
+        this.writeSpecificHeader(buffer);
+
+        /* Then the quark filter */
+        HTQuarkFilter filter = quarkFilter;
+        if (filter != null) {
+            filter.writeTo(buffer);
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -375,6 +425,9 @@ public abstract class HTNode {
             /* Just in case, should be checked before even calling this function */
             assert (newInterval.getIntervalSize() <= this.getNodeFreeSpace());
 
+            /* Nodes read from disk have to go back to the list to be modified */
+            expandCompactIntervals();
+
             /* Find the insert position to keep the list sorted */
             int index = intervals.size();
             while (index > 0 && newInterval.compareTo(intervals.get(index - 1)) < 0) {
@@ -383,6 +436,10 @@ public abstract class HTNode {
 
             intervals.add(index, newInterval);
             sizeOfIntervalSection += newInterval.getIntervalSize();
+            HTQuarkFilter filter = quarkFilter;
+            if (filter != null) {
+                filter.add(newInterval.getAttribute());
+            }
 
             /* Update the in-node offset "pointer" */
             stringSectionOffset -= (newInterval.getStringsEntrySize());
@@ -403,13 +460,13 @@ public abstract class HTNode {
         try {
             assert (endtime >= this.nodeStart);
 
-            if (!intervals.isEmpty()) {
+            if (getIntervalCount() > 0) {
                 /*
                  * Make sure there are no intervals in this node with their
                  * EndTime > the one requested. Only need to check the last one
                  * since they are sorted
                  */
-                assert (endtime >= intervals.get(intervals.size() - 1).getEndTime());
+                assert (endtime >= getEnd(getIntervalCount() - 1));
             }
 
             this.nodeEnd = endtime;
@@ -436,7 +493,7 @@ public abstract class HTNode {
         /* This is from a state system query, we are "reading" this node */
         rwl.readLock().lock();
         try {
-            for (int i = getStartIndexFor(t); i < intervals.size(); i++) {
+            for (int i = getStartIndexFor(t); i < getIntervalCount(); i++) {
                 /*
                  * Now we only have to compare the Start times, since we now the
                  * End times necessarily fit.
@@ -445,10 +502,48 @@ public abstract class HTNode {
                  * been created after stateInfo was instantiated (they would be
                  * null anyway).
                  */
-                ITmfStateInterval interval = intervals.get(i);
-                if (interval.getStartTime() <= t &&
-                        interval.getAttribute() < stateInfo.size()) {
-                    stateInfo.set(interval.getAttribute(), interval);
+                int attribute = getAttribute(i);
+                if (getStart(i) <= t && attribute < stateInfo.size()) {
+                    stateInfo.set(attribute, getInterval(i));
+                }
+            }
+        } finally {
+            rwl.readLock().unlock();
+        }
+    }
+
+    /**
+     * The method to fill up the results of a 2D query. We'll add to the
+     * collection every interval of this node whose attribute is part of the
+     * query and which intersects its time range.
+     *
+     * @param results
+     *            The collection in which to add the intervals
+     * @param quarks
+     *            The quarks of the attributes the query is for
+     * @param range
+     *            The time range (and sampling resolution) of the query
+     * @throws TimeRangeException
+     *             If the range is invalid
+     */
+    public void writeInfoFromNode(Collection<ITmfStateInterval> results,
+            BitSet quarks, QueryRange range) throws TimeRangeException {
+        rwl.readLock().lock();
+        try {
+            HTQuarkFilter filter = quarkFilter;
+            if (filter != null && !filter.mightContainAny(quarks)) {
+                /* None of the attributes have intervals in this node */
+                return;
+            }
+
+            /*
+             * The intervals are sorted by end time, so we can skip all the
+             * ones ending before the start of the range. We cannot stop early
+             * though, since the start times are not sorted.
+             */
+            for (int i = getStartIndexFor(range.getStart()); i < getIntervalCount(); i++) {
+                if (quarks.get(getAttribute(i)) && range.intersects(getStart(i), getEnd(i))) {
+                    results.add(getInterval(i));
                 }
             }
         } finally {
@@ -472,12 +567,17 @@ public abstract class HTNode {
     public HTInterval getRelevantInterval(int key, long t) throws TimeRangeException {
         rwl.readLock().lock();
         try {
-            for (int i = getStartIndexFor(t); i < intervals.size(); i++) {
-                HTInterval curInterval = intervals.get(i);
-                if (curInterval.getAttribute() == key
-                        && curInterval.getStartTime() <= t
-                        && curInterval.getEndTime() >= t) {
-                    return curInterval;
+            HTQuarkFilter filter = quarkFilter;
+            if (filter != null && !filter.mightContain(key)) {
+                /* No need to look at the intervals at all */
+                return null;
+            }
+
+            for (int i = getStartIndexFor(t); i < getIntervalCount(); i++) {
+                if (getAttribute(i) == key
+                        && getStart(i) <= t
+                        && getEnd(i) >= t) {
+                    return getInterval(i);
                 }
             }
 
@@ -492,47 +592,99 @@ public abstract class HTNode {
     private int getStartIndexFor(long t) throws TimeRangeException {
         /* Should only be called by methods with the readLock taken */
 
-        if (intervals.isEmpty()) {
-            return 0;
-        }
         /*
          * Since the intervals are sorted by end time, we can skip all the ones
-         * at the beginning whose end times are smaller than 't'. Java does
-         * provides a .binarySearch method, but its API is quite weird...
+         * at the beginning whose end times are smaller than 't'. Look for the
+         * first interval whose end time is >= t (or the end of the node).
          */
-        HTInterval dummy = new HTInterval(0, t, 0, TmfStateValue.nullValue());
-        int index = Collections.binarySearch(intervals, dummy);
+        int low = 0;
+        int high = getIntervalCount();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getEnd(mid) < t) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
 
-        if (index < 0) {
-            /*
-             * .binarySearch returns a negative number if the exact value was
-             * not found. Here we just want to know where to start searching, we
-             * don't care if the value is exact or not.
-             */
-            index = -index - 1;
+    // ------------------------------------------------------------------------
+    // Access to the intervals, from either the list or the compact arrays.
+    // Should only be called with the readLock (or writeLock) taken.
+    // ------------------------------------------------------------------------
 
+    /**
+     * Get the compact intervals of a node read from disk, decoding them if it
+     * was not done yet. Many readers can race to decode them, they will get
+     * equivalent objects.
+     *
+     * @return The compact intervals, or null if the node uses the list
+     */
+    private @Nullable HTIntervalArray getCompactIntervals() {
+        /* Read the block first, it is only cleared once the array is set */
+        ByteBuffer block = undecodedBlock;
+        HTIntervalArray compact = compactIntervals;
+        if (compact == null && block != null) {
+            try {
+                if (config.getNodeEncoding() == HTConfig.NodeEncoding.FIXED_BLOCKS) {
+                    compact = HTIntervalArray.readFrom(block, getTotalHeaderSize(), undecodedCount);
+                } else {
+                    compact = HTIntervalArray.readPacked(block, getTotalHeaderSize(), undecodedCount, nodeStart);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Invalid intervals in node " + sequenceNumber, e); //$NON-NLS-1$
+            }
+            compactIntervals = compact;
+            undecodedBlock = null;
         }
+        return compact;
+    }
 
-        /* Sometimes binarySearch yields weird stuff... */
-        if (index < 0) {
-            index = 0;
-        }
-        if (index >= intervals.size()) {
-            index = intervals.size() - 1;
-        }
+    private int getIntervalCount() {
+        HTIntervalArray compact = getCompactIntervals();
+        return (compact != null ? compact.size() : intervals.size());
+    }
 
-        /*
-         * Another API quirkiness, the returned index is the one of the *last*
-         * element of a series of equal endtimes, which happens sometimes. We
-         * want the *first* element of such a series, to read through them
-         * again.
-         */
-        while (index > 0
-                && intervals.get(index - 1).compareTo(intervals.get(index)) == 0) {
-            index--;
-        }
+    private long getStart(int index) {
+        HTIntervalArray compact = getCompactIntervals();
+        return (compact != null ? compact.getStart(index) : intervals.get(index).getStartTime());
+    }
 
-        return index;
+    private long getEnd(int index) {
+        HTIntervalArray compact = getCompactIntervals();
+        return (compact != null ? compact.getEnd(index) : intervals.get(index).getEndTime());
+    }
+
+    private int getAttribute(int index) {
+        HTIntervalArray compact = getCompactIntervals();
+        return (compact != null ? compact.getAttribute(index) : intervals.get(index).getAttribute());
+    }
+
+    /**
+     * Get the interval object at the given index. For nodes read from disk,
+     * this creates a new object, so it should only be called for intervals
+     * that are returned to the caller.
+     */
+    private HTInterval getInterval(int index) {
+        HTIntervalArray compact = getCompactIntervals();
+        return (compact != null ? compact.getInterval(index) : intervals.get(index));
+    }
+
+    /**
+     * Move the intervals of a node read from disk back to the list, so it can
+     * be modified. Should only be called with the writeLock taken.
+     */
+    private void expandCompactIntervals() {
+        HTIntervalArray compact = getCompactIntervals();
+        if (compact == null) {
+            return;
+        }
+        for (int i = 0; i < compact.size(); i++) {
+            intervals.add(compact.getInterval(i));
+        }
+        compactIntervals = null;
     }
 
     /**
@@ -548,11 +700,14 @@ public abstract class HTNode {
 
     /**
      * Return the total header size of this node (will depend on the node type).
+     * The quark filter, whose size depends on the block size, is counted as
+     * part of the header.
      *
      * @return The total header size
      */
     public final int getTotalHeaderSize() {
-        return COMMON_HEADER_SIZE + getSpecificHeaderSize();
+        int filterSize = (config.hasQuarkFilter() ? HTQuarkFilter.getSize(config.getBlockSize()) : 0);
+        return COMMON_HEADER_SIZE + getSpecificHeaderSize() + filterSize;
     }
 
     /**
@@ -607,7 +762,7 @@ public abstract class HTNode {
         /* Only used for debugging, shouldn't be externalized */
         StringBuffer buf = new StringBuffer("Node #" + sequenceNumber + ", ");
         buf.append(this.toStringSpecific());
-        buf.append(intervals.size() + " intervals (" + this.getNodeUsagePercent()
+        buf.append(getIntervalCount() + " intervals (" + this.getNodeUsagePercent()
                 + "% used), ");
 
         buf.append("[" + this.nodeStart + " - ");
@@ -646,8 +801,8 @@ public abstract class HTNode {
 
         /* List of intervals in the node */
         writer.println("  Intervals contained:");
-        for (int i = 0; i < intervals.size(); i++) {
-            writer.println(intervals.get(i).toString());
+        for (int i = 0; i < getIntervalCount(); i++) {
+            writer.println(getInterval(i).toString());
         }
         writer.println('\n');
     }
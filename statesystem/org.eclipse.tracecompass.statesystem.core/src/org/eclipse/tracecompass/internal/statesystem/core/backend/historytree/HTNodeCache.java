@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.internal.statesystem.core.backend.historytree;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cache of the nodes read from (or written to) a history tree file.
+ *
+ * Core nodes are visited by almost every query, so they are kept pinned in
+ * the cache, as long as they use at most half of its budget. The other nodes
+ * are managed with the CLOCK algorithm: each slot has a "referenced" bit that
+ * is set when the node is hit, and the clock hand gives referenced nodes a
+ * second chance before evicting them.
+ *
+ * Lookups do not lock. Insertions, which only happen after a node was read
+ * from disk anyway, are serialized.
+ */
+public final class HTNodeCache {
+
+    private final int fCapacity;
+    private final int fMaxPinned;
+
+    /** Pinned core nodes, by sequence number */
+    private final ConcurrentMap<Integer, HTNode> fPinned = new ConcurrentHashMap<>();
+
+    /** Slot of each node in the clock, by sequence number */
+    private final ConcurrentMap<Integer, Integer> fSlotIndex = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<HTNode> fSlots;
+    private final AtomicIntegerArray fReferenced;
+    /* Guarded by "this" */
+    private int fHand = 0;
+
+    private final AtomicLong fHits = new AtomicLong();
+    private final AtomicLong fMisses = new AtomicLong();
+    private final AtomicLong fEvictions = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param maxSize
+     *            The size of the cache, in bytes. Each node is counted as one
+     *            block of the file.
+     * @param blockSize
+     *            The block size of the history tree
+     */
+    public HTNodeCache(long maxSize, int blockSize) {
+        int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(2, maxSize / blockSize));
+        fMaxPinned = capacity / 2;
+        fCapacity = capacity - fMaxPinned;
+        fSlots = new AtomicReferenceArray<>(fCapacity);
+        fReferenced = new AtomicIntegerArray(fCapacity);
+    }
+
+    /**
+     * Get a node from the cache.
+     *
+     * @param seqNumber
+     *            The sequence number of the node
+     * @return The node, or null if it is not in the cache
+     */
+    public HTNode get(int seqNumber) {
+        HTNode node = fPinned.get(seqNumber);
+        if (node == null) {
+            Integer slot = fSlotIndex.get(seqNumber);
+            if (slot != null) {
+                node = fSlots.get(slot);
+                /* The slot could have been reused in the meantime */
+                if (node != null && node.getSequenceNumber() == seqNumber) {
+                    fReferenced.set(slot, 1);
+                } else {
+                    node = null;
+                }
+            }
+        }
+
+        if (node == null) {
+            fMisses.incrementAndGet();
+        } else {
+            fHits.incrementAndGet();
+        }
+        return node;
+    }
+
+    /**
+     * Put a node in the cache, replacing the previous version of the same
+     * node if there is one.
+     *
+     * @param node
+     *            The node to cache
+     */
+    public synchronized void put(HTNode node) {
+        Integer seqNumber = node.getSequenceNumber();
+        if (fPinned.containsKey(seqNumber) ||
+                (node.getNodeType() == HTNode.NodeType.CORE && fPinned.size() < fMaxPinned)) {
+            fPinned.put(seqNumber, node);
+            return;
+        }
+
+        Integer slot = fSlotIndex.get(seqNumber);
+        if (slot != null) {
+            fSlots.set(slot, node);
+            return;
+        }
+
+        /* Move the hand until we find a free or unreferenced slot */
+        HTNode victim = fSlots.get(fHand);
+        while (victim != null && fReferenced.get(fHand) != 0) {
+            fReferenced.set(fHand, 0);
+            fHand = (fHand + 1) % fCapacity;
+            victim = fSlots.get(fHand);
+        }
+        if (victim != null) {
+            fSlotIndex.remove(victim.getSequenceNumber());
+            fEvictions.incrementAndGet();
+        }
+
+        fSlots.set(fHand, node);
+        fReferenced.set(fHand, 0);
+        fSlotIndex.put(seqNumber, fHand);
+        fHand = (fHand + 1) % fCapacity;
+    }
+
+    // ------------------------------------------------------------------------
+    // Statistics
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the maximum number of nodes this cache can hold, pinned nodes
+     * included.
+     *
+     * @return The capacity in nodes
+     */
+    public int getCapacity() {
+        return fCapacity + fMaxPinned;
+    }
+
+    /**
+     * Get the number of core nodes currently pinned in the cache.
+     *
+     * @return The number of pinned nodes
+     */
+    public int getPinnedCount() {
+        return fPinned.size();
+    }
+
+    /**
+     * Get the number of lookups that found their node in the cache.
+     *
+     * @return The number of hits
+     */
+    public long getHitCount() {
+        return fHits.get();
+    }
+
+    /**
+     * Get the number of lookups that did not find their node in the cache.
+     *
+     * @return The number of misses
+     */
+    public long getMissCount() {
+        return fMisses.get();
+    }
+
+    /**
+     * Get the number of nodes that were evicted to make room for other ones.
+     *
+     * @return The number of evictions
+     */
+    public long getEvictionCount() {
+        return fEvictions.get();
+    }
+
+    @SuppressWarnings("nls")
+    @Override
+    public String toString() {
+        return "Node cache: capacity = " + getCapacity() + ", pinned = " + getPinnedCount()
+                + ", hits = " + getHitCount() + ", misses = " + getMissCount()
+                + ", evictions = " + getEvictionCount();
+    }
+}
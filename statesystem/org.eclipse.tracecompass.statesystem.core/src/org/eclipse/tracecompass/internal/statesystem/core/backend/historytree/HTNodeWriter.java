@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.internal.statesystem.core.backend.historytree;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.internal.statesystem.core.Activator;
+
+/**
+ * Pipeline stage writing the closed nodes of a history tree in its own
+ * thread.
+ *
+ * The thread inserting the intervals only hands the nodes it closes to this
+ * stage, it does not wait for them to be serialized and written. The writer
+ * thread takes the nodes from the queue in batches, in the order in which
+ * they were closed, and passes each batch to {@link HT_IO#writeNodes}.
+ *
+ * Until a node is written, it can still be found with
+ * {@link #getPendingNode}, so queries never miss a node that is in the
+ * queue.
+ *
+ * If the writer thread fails, the first failure is kept: the nodes that are
+ * submitted afterwards are refused, and the failure is thrown again by
+ * {@link #stop}, so that closing the tree does not hide it.
+ */
+final class HTNodeWriter implements Runnable {
+
+    /** Maximum number of closed nodes waiting to be written */
+    private static final int QUEUE_SIZE = 256;
+
+    /** Maximum number of nodes written at once */
+    private static final int MAX_BATCH_SIZE = 32;
+
+    /** How often a blocked producer checks if the writer thread failed */
+    private static final long FAILURE_CHECK_PERIOD_MS = 100;
+
+    private final HT_IO fTreeIO;
+    private final BlockingQueue<HTNode> fQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final ConcurrentMap<Integer, HTNode> fPendingNodes = new ConcurrentHashMap<>();
+    private final Thread fThread;
+
+    /* Queued after the last node, to tell the thread to stop */
+    private final HTNode fEndMarker;
+    /* Guarded by "this" */
+    private boolean fStopped = false;
+    /* The first failure of the writer thread, it stops it */
+    private volatile @Nullable Throwable fFailure = null;
+
+    /**
+     * Constructor, which starts the writer thread.
+     *
+     * @param treeIO
+     *            The IO object of the tree, which does the actual writing
+     * @param config
+     *            The configuration of the tree
+     */
+    HTNodeWriter(HT_IO treeIO, HTConfig config) {
+        fTreeIO = treeIO;
+        fEndMarker = new LeafNode(config, -1, -1, config.getTreeStart());
+        fThread = new Thread(this, "History Tree Node Writer"); //$NON-NLS-1$
+        fThread.start();
+    }
+
+    /**
+     * Queue a closed node to be written. This blocks if too many nodes are
+     * already waiting to be written.
+     *
+     * @param node
+     *            The node to write. It must not be modified anymore.
+     * @throws IllegalStateException
+     *             If the writer thread failed, the node will not be written
+     */
+    void submit(HTNode node) {
+        checkFailure();
+        fPendingNodes.put(node.getSequenceNumber(), node);
+        put(node);
+    }
+
+    /**
+     * Get a node that was submitted but is not written yet.
+     *
+     * @param seqNumber
+     *            The sequence number of the node
+     * @return The node, or null if it is not waiting to be written
+     */
+    @Nullable HTNode getPendingNode(int seqNumber) {
+        return fPendingNodes.get(seqNumber);
+    }
+
+    /**
+     * Wait for all the submitted nodes to be written, then stop the writer
+     * thread. No node should be submitted afterwards.
+     *
+     * @throws IllegalStateException
+     *             If the writer thread failed, so some nodes were not written
+     */
+    synchronized void stop() {
+        if (!fStopped) {
+            fStopped = true;
+            put(fEndMarker);
+            boolean interrupted = false;
+            while (fThread.isAlive()) {
+                try {
+                    fThread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Put a node in the queue, waiting for room as long as the writer thread
+     * is running. The node is not dropped if the calling thread is
+     * interrupted, its interrupt status is only restored afterwards.
+     */
+    private void put(HTNode node) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                checkFailure();
+                try {
+                    if (fQueue.offer(node, FAILURE_CHECK_PERIOD_MS, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void checkFailure() {
+        Throwable failure = fFailure;
+        if (failure != null) {
+            throw new IllegalStateException("History tree node writer failed", failure); //$NON-NLS-1$
+        }
+    }
+
+    @Override
+    public void run() {
+        List<HTNode> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        boolean done = false;
+        try {
+            while (!done) {
+                batch.add(fQueue.take());
+                fQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+                /* The end marker is the last thing ever put in the queue */
+                if (batch.get(batch.size() - 1) == fEndMarker) {
+                    batch.remove(batch.size() - 1);
+                    done = true;
+                }
+
+                fTreeIO.writeNodes(batch);
+
+                /* The nodes can be read from the file from now on */
+                for (HTNode node : batch) {
+                    fPendingNodes.remove(node.getSequenceNumber(), node);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException | IOException | RuntimeException | Error e) {
+            /*
+             * Keep the nodes that were not written pending, they can still be
+             * queried, and free the producers waiting for room in the queue.
+             */
+            fFailure = e;
+            fQueue.clear();
+            Activator.getDefault().logError("History tree node writer failed", e); //$NON-NLS-1$
+        }
+    }
+}
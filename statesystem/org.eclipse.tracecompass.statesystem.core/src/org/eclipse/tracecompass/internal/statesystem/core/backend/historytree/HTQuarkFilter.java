@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.internal.statesystem.core.backend.historytree;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * Bloom filter of the quarks that have intervals in a node, stored in the
+ * node's header.
+ *
+ * Queries for one (or a few) attributes can check it before looking at the
+ * intervals of the node. If the filter says the quark is not there, the
+ * interval section of the node does not need to be read at all. False
+ * positives are possible, false negatives are not.
+ *
+ * The filter is sized for the worst case of a node whose intervals are all
+ * for different attributes: it has 8 bits for each fixed-size interval entry
+ * the block can hold, and each quark sets 3 of them. With every interval of a
+ * full node for a different quark, the false positive rate is then about 3%
+ * (the 64 KiB default blocks hold up to ~2500 intervals, for a 2.6 KiB
+ * filter). It is lower for the nodes with fewer attributes, like the core
+ * nodes.
+ *
+ * Instances are not thread-safe, the node is responsible for the locking.
+ */
+public final class HTQuarkFilter {
+
+    /** Number of bits of the filter for each interval a node can hold */
+    private static final int BITS_PER_INTERVAL = 8;
+
+    /** Number of bits set for each quark */
+    private static final int NB_HASHES = 3;
+
+    private final long[] fBits;
+    private final int fNbBits;
+
+    private HTQuarkFilter(long[] bits) {
+        fBits = bits;
+        fNbBits = bits.length * Long.SIZE;
+    }
+
+    /**
+     * Create a new, empty filter.
+     *
+     * @param blockSize
+     *            The block size of the history tree
+     */
+    public HTQuarkFilter(int blockSize) {
+        this(new long[getSize(blockSize) / (Long.SIZE / Byte.SIZE)]);
+    }
+
+    /**
+     * Get the size, in bytes, of the serialized filter of the nodes of a tree.
+     *
+     * @param blockSize
+     *            The block size of the history tree
+     * @return The size of the filter
+     */
+    public static int getSize(int blockSize) {
+        /* At least one long, and a whole number of them */
+        int nbBits = blockSize / HTInterval.DATA_ENTRY_SIZE * BITS_PER_INTERVAL;
+        int nbLongs = Math.max(1, (nbBits + Long.SIZE - 1) / Long.SIZE);
+        return nbLongs * (Long.SIZE / Byte.SIZE);
+    }
+
+    /**
+     * Read a filter from a byte buffer.
+     *
+     * @param buffer
+     *            The buffer to read from, it should be positioned at the start
+     *            of the filter
+     * @param blockSize
+     *            The block size of the history tree
+     * @return The filter
+     */
+    static HTQuarkFilter readFrom(ByteBuffer buffer, int blockSize) {
+        long[] bits = new long[getSize(blockSize) / (Long.SIZE / Byte.SIZE)];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = buffer.getLong();
+        }
+        return new HTQuarkFilter(bits);
+    }
+
+    /**
+     * Write this filter to a byte buffer.
+     *
+     * @param buffer
+     *            The buffer to write to, it should be positioned at the start
+     *            of the filter
+     */
+    void writeTo(ByteBuffer buffer) {
+        for (long bits : fBits) {
+            buffer.putLong(bits);
+        }
+    }
+
+    /**
+     * Add a quark to the filter.
+     *
+     * @param quark
+     *            The quark
+     */
+    public void add(int quark) {
+        long hash = hash(quark);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < NB_HASHES; i++) {
+            setBit(h1 + i * h2);
+        }
+    }
+
+    /**
+     * Check if the filter might contain a quark.
+     *
+     * @param quark
+     *            The quark
+     * @return False if the quark is certainly not in the filter
+     */
+    public boolean mightContain(int quark) {
+        long hash = hash(quark);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < NB_HASHES; i++) {
+            if (!getBit(h1 + i * h2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if the filter might contain any of the given quarks.
+     *
+     * @param quarks
+     *            The quarks
+     * @return False if none of the quarks are in the filter
+     */
+    public boolean mightContainAny(BitSet quarks) {
+        for (int quark = quarks.nextSetBit(0); quark >= 0; quark = quarks.nextSetBit(quark + 1)) {
+            if (mightContain(quark)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * The two halves of this 64-bit multiplicative hash are the two hashes of
+     * the "double hashing" giving the bit indexes: h1 + i * h2.
+     */
+    private static long hash(int quark) {
+        long h = (quark + 1) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private void setBit(int hash) {
+        int index = (hash & Integer.MAX_VALUE) % fNbBits;
+        fBits[index / Long.SIZE] |= (1L << index);
+    }
+
+    private boolean getBit(int hash) {
+        int index = (hash & Integer.MAX_VALUE) % fNbBits;
+        return (fBits[index / Long.SIZE] & (1L << index)) != 0;
+    }
+}
@@ -12,12 +12,25 @@
 
 package org.eclipse.tracecompass.internal.statesystem.core.backend.historytree;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
 
 import org.eclipse.tracecompass.internal.statesystem.core.Activator;
 
@@ -33,7 +46,7 @@ import org.eclipse.tracecompass.internal.statesystem.core.Activator;
  * @author Alexandre Montplaisir
  *
  */
-class HT_IO {
+public class HT_IO {
     /* Configuration of the History Tree */
     private final HTConfig fConfig;
 
@@ -43,9 +56,43 @@ class HT_IO {
     private final FileChannel fcIn;
     private final FileChannel fcOut;
 
-    // TODO test/benchmark optimal cache size
-    private static final int CACHE_SIZE = 256;
-    private final HTNode fNodeCache[] = new HTNode[CACHE_SIZE];
+    private final HTNodeCache fNodeCache;
+
+    /* Writer thread of the closed nodes, if the writes are asynchronous */
+    private volatile HTNodeWriter fNodeWriter = null;
+
+    /*
+     * Mapping a file on Windows prevents it from being deleted afterwards, so
+     * we only use the channel there.
+     *
+     * http://bugs.java.com/view_bug.do?bug_id=4715154
+     */
+    private static final boolean IS_WIN32 = System.getProperty("os.name").startsWith("Windows"); //$NON-NLS-1$//$NON-NLS-2$
+
+    /** Maximum size of one memory-mapped segment of the file */
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+    /*
+     * Memory-mapped segments of the node section of the file, once it is
+     * complete. Each segment contains a whole number of blocks. It is null if
+     * the nodes are to be read with the file channel.
+     */
+    private volatile ByteBuffer[] fMappedSegments = null;
+    private int fBlocksPerSegment;
+
+    /*
+     * With the packed encodings, the nodes have variable sizes and are
+     * written one after the other, in the order in which they are closed. The
+     * index gives the position and size of each node, by sequence number
+     * (entries 2n and 2n+1). The array is replaced when it grows, which only
+     * happens in writeNode().
+     */
+    private static final int INDEX_ENTRY_SIZE = 12;
+    private final boolean fPacked;
+    private volatile AtomicLongArray fPackedIndex = new AtomicLongArray(0);
+    /* Guarded by "this" */
+    private long fNextNodePos = HistoryTree.TREE_HEADER_SIZE;
+    private long fPackedIndexPos = -1;
 
     /**
      * Standard constructor
@@ -60,6 +107,8 @@ class HT_IO {
      */
     public HT_IO(HTConfig config, boolean newFile) throws IOException {
         fConfig = config;
+        fNodeCache = new HTNodeCache(config.getNodeCacheSize(), config.getBlockSize());
+        fPacked = (config.getNodeEncoding() != HTConfig.NodeEncoding.FIXED_BLOCKS);
 
         File historyTreeFile = config.getStateFile();
         if (newFile) {
@@ -91,6 +140,10 @@ class HT_IO {
     /**
      * Read a node from the file on disk.
      *
+     * This method does not lock: the file is read with positional reads, or
+     * from memory-mapped segments once the file is complete, so concurrent
+     * queries do not have to wait on each other.
+     *
      * @param seqNumber
      *            The sequence number of the node to read.
      * @return The object representing the node
@@ -99,21 +152,28 @@ class HT_IO {
      *             reading. Instead of using a big reader-writer lock, we'll
      *             just catch this exception.
      */
-    public synchronized HTNode readNode(int seqNumber) throws ClosedChannelException {
+    public HTNode readNode(int seqNumber) throws ClosedChannelException {
         /* Do a cache lookup */
-        int offset = seqNumber & (CACHE_SIZE - 1);
-        HTNode readNode = fNodeCache[offset];
-        if (readNode != null && readNode.getSequenceNumber() == seqNumber) {
+        HTNode readNode = fNodeCache.get(seqNumber);
+        if (readNode != null) {
             return readNode;
         }
 
+        /* The node could be closed, but not written yet */
+        HTNodeWriter writer = fNodeWriter;
+        if (writer != null) {
+            readNode = writer.getPendingNode(seqNumber);
+            if (readNode != null) {
+                return readNode;
+            }
+        }
+
         /* Lookup on disk */
         try {
-            seekFCToNodePos(fcIn, seqNumber);
-            readNode = HTNode.readNode(fConfig, fcIn);
+            readNode = HTNode.readNode(fConfig, getNodeBuffer(seqNumber));
 
             /* Put the node in the cache. */
-            fNodeCache[offset] = readNode;
+            fNodeCache.put(readNode);
             return readNode;
         } catch (ClosedChannelException e) {
             throw e;
@@ -124,22 +184,361 @@ class HT_IO {
         }
     }
 
-    public synchronized void writeNode(HTNode node) {
+    /**
+     * Get a buffer containing the block of a node, whose position 0 is the
+     * start of the node.
+     */
+    private ByteBuffer getNodeBuffer(int seqNumber) throws IOException {
+        if (fPacked) {
+            return getPackedNodeBuffer(seqNumber);
+        }
+
+        final int blockSize = fConfig.getBlockSize();
+        ByteBuffer[] segments = fMappedSegments;
+
+        if (segments != null) {
+            int segmentIndex = seqNumber / fBlocksPerSegment;
+            int pos = (seqNumber % fBlocksPerSegment) * blockSize;
+            /*
+             * Nodes written after the file was mapped are not in the
+             * segments, they are read with the channel below.
+             */
+            if (segmentIndex < segments.length && pos + blockSize <= segments[segmentIndex].capacity()) {
+                /* Create a view of the node's block, it does not copy anything */
+                ByteBuffer segment = segments[segmentIndex].duplicate();
+                segment.limit(pos + blockSize);
+                segment.position(pos);
+                return segment.slice().order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        return readFully(getNodePos(seqNumber), blockSize);
+    }
+
+    /**
+     * Get a buffer containing a packed node, uncompressing it if needed.
+     */
+    private ByteBuffer getPackedNodeBuffer(int seqNumber) throws IOException {
+        AtomicLongArray index = fPackedIndex;
+        int length = (2 * seqNumber + 1 < index.length() ? (int) index.get(2 * seqNumber + 1) : 0);
+        if (length <= 0) {
+            throw new IOException("Node " + seqNumber + " is not in the history file"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        ByteBuffer buffer = readFully(index.get(2 * seqNumber), length);
+        if (fConfig.getNodeEncoding() != HTConfig.NodeEncoding.PACKED_COMPRESSED) {
+            return buffer;
+        }
+
+        /* The compressed data is preceded by the uncompressed size */
+        byte[] node = new byte[buffer.getInt()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (inflater.inflate(node) != node.length) {
+                throw new IOException("Truncated node " + seqNumber); //$NON-NLS-1$
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(node).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Read a part of the file. Positional reads do not touch the channel's
+     * position, so they can run concurrently.
+     */
+    private ByteBuffer readFully(long pos, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (fcIn.read(buffer, pos + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of history file"); //$NON-NLS-1$
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Switch to reading the nodes from memory-mapped segments of the file.
+     * This should only be done once the node section of the file is complete,
+     * that is when opening an existing file or once the tree is closed. If
+     * the file cannot be mapped, the nodes will keep being read with the file
+     * channel.
+     *
+     * Packed nodes are not mapped, they are read with the channel since they
+     * have to be decoded (or uncompressed) into their own buffer anyway.
+     *
+     * @param nodeCount
+     *            The number of nodes in the file
+     */
+    public synchronized void mapNodes(int nodeCount) {
+        if (IS_WIN32 || fPacked || nodeCount <= 0) {
+            return;
+        }
+        final int blockSize = fConfig.getBlockSize();
+        final int blocksPerSegment = (int) Math.max(1, MAX_SEGMENT_SIZE / blockSize);
+        final int nbSegments = (nodeCount + blocksPerSegment - 1) / blocksPerSegment;
+
+        ByteBuffer[] segments = new ByteBuffer[nbSegments];
         try {
-            /* Insert the node into the cache. */
-            int seqNumber = node.getSequenceNumber();
-            int offset = seqNumber & (CACHE_SIZE - 1);
-            fNodeCache[offset] = node;
-
-            /* Position ourselves at the start of the node and write it */
-            seekFCToNodePos(fcOut, seqNumber);
-            node.writeSelf(fcOut);
+            for (int i = 0; i < nbSegments; i++) {
+                int firstNode = i * blocksPerSegment;
+                int nbNodes = Math.min(blocksPerSegment, nodeCount - firstNode);
+                segments[i] = fcIn.map(MapMode.READ_ONLY, getNodePos(firstNode), (long) nbNodes * blockSize);
+            }
+        } catch (IOException e) {
+            Activator.getDefault().logError("Could not map the history file, reading it from the channel instead", e); //$NON-NLS-1$
+            return;
+        }
+        fBlocksPerSegment = blocksPerSegment;
+        fMappedSegments = segments;
+    }
+
+    /**
+     * Write a closed node to the file. If the node writer thread was started,
+     * the node is only queued, and it will be written later by that thread.
+     * The node can be read back in both cases.
+     *
+     * @param node
+     *            The node to write. It must not be modified anymore.
+     */
+    public void writeNode(HTNode node) {
+        HTNodeWriter writer = fNodeWriter;
+        if (writer != null) {
+            /* It has to be pending before it can be evicted from the cache */
+            writer.submit(node);
+            fNodeCache.put(node);
+            return;
+        }
+
+        fNodeCache.put(node);
+        try {
+            writeNodes(Collections.singletonList(node));
         } catch (IOException e) {
             /* If we were able to open the file, we should be fine now... */
             Activator.getDefault().logError(e.getMessage(), e);
         }
     }
 
+    /**
+     * Start writing the nodes from a separate thread. From now on,
+     * {@link #writeNode} only queues the nodes, so the insertion of intervals
+     * does not wait on the disk.
+     */
+    public synchronized void startNodeWriter() {
+        if (fNodeWriter == null) {
+            fNodeWriter = new HTNodeWriter(this, fConfig);
+        }
+    }
+
+    /**
+     * Wait until all the queued nodes are written, and stop the node writer
+     * thread if it was started. This must not be called while holding the
+     * lock of this object, since the writer thread needs it to write.
+     *
+     * @throws IllegalStateException
+     *             If the writer thread failed, so some nodes were not written
+     */
+    public void stopNodeWriter() {
+        HTNodeWriter writer = fNodeWriter;
+        if (writer != null) {
+            writer.stop();
+            fNodeWriter = null;
+        }
+    }
+
+    /**
+     * Serialize and write a batch of nodes. The serialization (and
+     * compression) of the nodes is done without holding any lock, the file is
+     * only locked for the writes themselves.
+     *
+     * @param nodes
+     *            The nodes to write, in the order in which they were closed
+     * @throws IOException
+     *             If the nodes could not be written
+     */
+    void writeNodes(List<HTNode> nodes) throws IOException {
+        if (nodes.isEmpty()) {
+            return;
+        }
+        List<HTNode> sortedNodes = nodes;
+        if (!fPacked) {
+            /*
+             * The blocks have fixed positions, sort them to write the
+             * consecutive ones at once
+             */
+            sortedNodes = new ArrayList<>(nodes);
+            Collections.sort(sortedNodes, new Comparator<HTNode>() {
+                @Override
+                public int compare(HTNode o1, HTNode o2) {
+                    return Integer.compare(o1.getSequenceNumber(), o2.getSequenceNumber());
+                }
+            });
+        }
+
+        ByteBuffer[] buffers = new ByteBuffer[sortedNodes.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = serializeNode(sortedNodes.get(i));
+        }
+        writeBuffers(sortedNodes, buffers);
+    }
+
+    private ByteBuffer serializeNode(HTNode node) throws IOException {
+        switch (fConfig.getNodeEncoding()) {
+        case PACKED:
+            return node.writePacked();
+        case PACKED_COMPRESSED:
+            return compress(node.writePacked());
+        case FIXED_BLOCKS:
+        default:
+            return node.writeBlock();
+        }
+    }
+
+    private synchronized void writeBuffers(List<HTNode> nodes, ByteBuffer[] buffers) throws IOException {
+        if (fPacked) {
+            for (int i = 0; i < buffers.length; i++) {
+                writePackedNode(nodes.get(i).getSequenceNumber(), buffers[i]);
+            }
+            return;
+        }
+
+        /* Gather the runs of consecutive blocks in one write each */
+        int first = 0;
+        while (first < buffers.length) {
+            int last = first;
+            while (last + 1 < buffers.length &&
+                    nodes.get(last + 1).getSequenceNumber() == nodes.get(last).getSequenceNumber() + 1) {
+                last++;
+            }
+            seekFCToNodePos(fcOut, nodes.get(first).getSequenceNumber());
+            while (buffers[last].hasRemaining()) {
+                fcOut.write(buffers, first, last - first + 1);
+            }
+            first = last + 1;
+        }
+    }
+
+    /**
+     * Append a packed node to the file, and add it to the index. Should only
+     * be called from writeBuffers().
+     */
+    private void writePackedNode(int seqNumber, ByteBuffer buffer) throws IOException {
+        final long pos = fNextNodePos;
+        final int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            fcOut.write(buffer, pos + buffer.position());
+        }
+        fNextNodePos += length;
+
+        AtomicLongArray index = fPackedIndex;
+        if (2 * seqNumber + 1 >= index.length()) {
+            /* Grow the index, readers can keep using the old one meanwhile */
+            AtomicLongArray newIndex = new AtomicLongArray(Math.max(2 * seqNumber + 2, 2 * index.length()));
+            for (int i = 0; i < index.length(); i++) {
+                newIndex.set(i, index.get(i));
+            }
+            index = newIndex;
+        }
+        index.set(2 * seqNumber, pos);
+        index.set(2 * seqNumber + 1, length);
+        fPackedIndex = index;
+    }
+
+    private static ByteBuffer compress(ByteBuffer buffer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(buffer.remaining() / 2);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater);) {
+            dos.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } finally {
+            deflater.end();
+        }
+
+        ByteBuffer compressed = ByteBuffer.allocate(4 + out.size());
+        compressed.order(ByteOrder.LITTLE_ENDIAN);
+        compressed.putInt(buffer.remaining());
+        compressed.put(out.toByteArray());
+        compressed.flip();
+        return compressed;
+    }
+
+    /**
+     * Write the index of the packed nodes, after the last node. This should
+     * be done once all the nodes are written.
+     *
+     * @param nodeCount
+     *            The number of nodes in the tree
+     * @return The position of the index in the file, to be saved in the tree
+     *         header
+     * @throws IOException
+     *             If the index could not be written
+     */
+    public synchronized long writePackedIndex(int nodeCount) throws IOException {
+        AtomicLongArray index = fPackedIndex;
+        ByteBuffer buffer = ByteBuffer.allocate(nodeCount * INDEX_ENTRY_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < nodeCount; i++) {
+            buffer.putLong(index.get(2 * i));
+            buffer.putInt((int) index.get(2 * i + 1));
+        }
+        buffer.flip();
+
+        fPackedIndexPos = fNextNodePos;
+        while (buffer.hasRemaining()) {
+            fcOut.write(buffer, fPackedIndexPos + buffer.position());
+        }
+        return fPackedIndexPos;
+    }
+
+    /**
+     * Read the index of the packed nodes of an existing file.
+     *
+     * @param indexPos
+     *            The position of the index, read from the tree header
+     * @param nodeCount
+     *            The number of nodes in the tree
+     * @throws IOException
+     *             If the index could not be read
+     */
+    public synchronized void readPackedIndex(long indexPos, int nodeCount) throws IOException {
+        ByteBuffer buffer = readFully(indexPos, nodeCount * INDEX_ENTRY_SIZE);
+        AtomicLongArray index = new AtomicLongArray(2 * nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            index.set(2 * i, buffer.getLong());
+            index.set(2 * i + 1, buffer.getInt());
+        }
+        fPackedIndex = index;
+        fPackedIndexPos = indexPos;
+        fNextNodePos = indexPos;
+    }
+
+    /**
+     * Get the position of the attribute tree in the file, which is right
+     * after the node section (and the index, with the packed encodings).
+     *
+     * @param nodeCount
+     *            The number of nodes in the tree
+     * @return The position of the attribute tree
+     */
+    public synchronized long getAttributeTreePos(int nodeCount) {
+        if (fPacked) {
+            return fPackedIndexPos + (long) nodeCount * INDEX_ENTRY_SIZE;
+        }
+        return getNodePos(nodeCount);
+    }
+
+    /**
+     * Get the cache of the nodes read from and written to the file.
+     *
+     * @return The node cache
+     */
+    public HTNodeCache getNodeCache() {
+        return fNodeCache;
+    }
+
     public FileChannel getFcOut() {
         return this.fcOut;
     }
@@ -150,29 +549,45 @@ class HT_IO {
              * Position ourselves at the start of the Mapping section in the
              * file (which is right after the Blocks)
              */
-            seekFCToNodePos(fcIn, nodeOffset);
+            fcIn.position(getAttributeTreePos(nodeOffset));
         } catch (IOException e) {
             Activator.getDefault().logError(e.getMessage(), e);
         }
         return fis;
     }
 
-    public synchronized void closeFile() {
+    public void closeFile() {
+        /* Let the writer thread finish before closing the channel */
         try {
-            fis.close();
-            fos.close();
-        } catch (IOException e) {
-            Activator.getDefault().logError(e.getMessage(), e);
+            stopNodeWriter();
+        } catch (IllegalStateException e) {
+            /*
+             * The writer thread failed, it logged the error and closing the
+             * tree reported it. The file is incomplete, close it anyway.
+             */
+            fNodeWriter = null;
+        }
+        synchronized (this) {
+            /* The mappings would outlive the channel, don't use them anymore */
+            fMappedSegments = null;
+            try {
+                fis.close();
+                fos.close();
+            } catch (IOException e) {
+                Activator.getDefault().logError(e.getMessage(), e);
+            }
         }
     }
 
-    public synchronized void deleteFile() {
+    public void deleteFile() {
         closeFile();
 
-        File historyTreeFile = fConfig.getStateFile();
-        if (!historyTreeFile.delete()) {
-            /* We didn't succeed in deleting the file */
-            Activator.getDefault().logError("Failed to delete" + historyTreeFile.getName()); //$NON-NLS-1$
+        synchronized (this) {
+            File historyTreeFile = fConfig.getStateFile();
+            if (!historyTreeFile.delete()) {
+                /* We didn't succeed in deleting the file */
+                Activator.getDefault().logError("Failed to delete" + historyTreeFile.getName()); //$NON-NLS-1$
+            }
         }
     }
 
@@ -189,12 +604,16 @@ class HT_IO {
      */
     private void seekFCToNodePos(FileChannel fc, int seqNumber)
             throws IOException {
+        fc.position(getNodePos(seqNumber));
+    }
+
+    private long getNodePos(int seqNumber) {
         /*
          * Cast to (long) is needed to make sure the result is a long too and
          * doesn't get truncated
          */
-        fc.position(HistoryTree.TREE_HEADER_SIZE
-                + ((long) seqNumber) * fConfig.getBlockSize());
+        return HistoryTree.TREE_HEADER_SIZE
+                + ((long) seqNumber) * fConfig.getBlockSize();
     }
 
 }
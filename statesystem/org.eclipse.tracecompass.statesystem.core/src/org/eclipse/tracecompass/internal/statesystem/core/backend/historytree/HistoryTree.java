@@ -23,10 +23,12 @@ import java.nio.ByteOrder;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
 import org.eclipse.tracecompass.internal.statesystem.core.Activator;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.QueryRange;
 import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
 import org.eclipse.tracecompass.statesystem.core.exceptions.TimeRangeException;
 
@@ -48,7 +50,20 @@ public class HistoryTree {
     private static final int HISTORY_FILE_MAGIC_NUMBER = 0x05FFA900;
 
     /** File format version. Increment when breaking compatibility. */
-    private static final int FILE_VERSION = 5;
+    private static final int FILE_VERSION = 6;
+
+    /**
+     * File format version of the fixed-size block files whose node headers
+     * have no quark filter. They can still be read, and written if the
+     * configuration disables the filter.
+     */
+    private static final int NO_FILTER_FILE_VERSION = 5;
+
+    /**
+     * File format version of the files using the packed node encodings. They
+     * can be read alongside the fixed-size block files of {@link #FILE_VERSION}.
+     */
+    private static final int PACKED_FILE_VERSION = 7;
 
     // ------------------------------------------------------------------------
     // Tree-specific configuration
@@ -121,6 +136,23 @@ public class HistoryTree {
      *             If an error happens reading the file
      */
     public HistoryTree(File existingStateFile, int expProviderVersion) throws IOException {
+        this(existingStateFile, expProviderVersion, HTConfig.DEFAULT_NODE_CACHE_SIZE);
+    }
+
+    /**
+     * "Reader" constructor : instantiate a SHTree from an existing tree file on
+     * disk, specifying the size of the node cache
+     *
+     * @param existingStateFile
+     *            Path/filename of the history-file we are to open
+     * @param expProviderVersion
+     *            The expected version of the state provider
+     * @param nodeCacheSize
+     *            The size, in bytes, of the cache of nodes read from the file
+     * @throws IOException
+     *             If an error happens reading the file
+     */
+    public HistoryTree(File existingStateFile, int expProviderVersion, long nodeCacheSize) throws IOException {
         /*
          * Open the file ourselves, get the tree header information we need,
          * then pass on the descriptor to the TreeIO object.
@@ -128,6 +160,8 @@ public class HistoryTree {
         int rootNodeSeqNb, res;
         int bs, maxc;
         long startTime;
+        HTConfig.NodeEncoding encoding;
+        long packedIndexPos = -1;
 
         /* Java I/O mumbo jumbo... */
         if (!existingStateFile.exists()) {
@@ -156,8 +190,9 @@ public class HistoryTree {
                 throw new IOException("Wrong magic number"); //$NON-NLS-1$
             }
 
-            res = buffer.getInt(); /* File format version number */
-            if (res != FILE_VERSION) {
+            int fileVersion = buffer.getInt(); /* File format version number */
+            if (fileVersion != FILE_VERSION && fileVersion != PACKED_FILE_VERSION
+                    && fileVersion != NO_FILTER_FILE_VERSION) {
                 throw new IOException("Mismatching History Tree file format versions"); //$NON-NLS-1$
             }
 
@@ -181,7 +216,16 @@ public class HistoryTree {
             rootNodeSeqNb = buffer.getInt();
             startTime = buffer.getLong();
 
-            this.config = new HTConfig(existingStateFile, bs, maxc, expProviderVersion, startTime);
+            if (fileVersion == PACKED_FILE_VERSION) {
+                /* Is the file compressed, and where is the node index */
+                encoding = (buffer.get() != 0 ? HTConfig.NodeEncoding.PACKED_COMPRESSED : HTConfig.NodeEncoding.PACKED);
+                packedIndexPos = buffer.getLong();
+            } else {
+                encoding = HTConfig.NodeEncoding.FIXED_BLOCKS;
+            }
+
+            boolean quarkFilter = (fileVersion != NO_FILTER_FILE_VERSION);
+            this.config = new HTConfig(existingStateFile, bs, maxc, expProviderVersion, startTime, nodeCacheSize, encoding, quarkFilter);
         }
 
         /*
@@ -190,6 +234,9 @@ public class HistoryTree {
          * the SHT otherwise?
          */
         this.treeIO = new HT_IO(config, false);
+        if (encoding != HTConfig.NodeEncoding.FIXED_BLOCKS) {
+            treeIO.readPackedIndex(packedIndexPos, nodeCount);
+        }
 
         this.latestBranch = buildLatestBranch(rootNodeSeqNb);
         this.treeEnd = getRootNode().getNodeEnd();
@@ -202,6 +249,9 @@ public class HistoryTree {
             throw new IOException("Inconsistent start times in the" + //$NON-NLS-1$
                     "history file, it might be corrupted."); //$NON-NLS-1$
         }
+
+        /* The file is complete, queries can now read it from memory */
+        treeIO.mapNodes(nodeCount);
     }
 
     /**
@@ -256,7 +306,16 @@ public class HistoryTree {
                 treeIO.writeNode(latestBranch.get(i));
             }
 
+            /* The header and index can only be written after all the nodes */
+            treeIO.stopNodeWriter();
+
             try (FileChannel fc = treeIO.getFcOut();) {
+                final HTConfig.NodeEncoding encoding = config.getNodeEncoding();
+                final boolean packed = (encoding != HTConfig.NodeEncoding.FIXED_BLOCKS);
+
+                /* The packed nodes are followed by their index */
+                long packedIndexPos = (packed ? treeIO.writePackedIndex(nodeCount) : -1);
+
                 ByteBuffer buffer = ByteBuffer.allocate(TREE_HEADER_SIZE);
                 buffer.order(ByteOrder.LITTLE_ENDIAN);
                 buffer.clear();
@@ -266,7 +325,11 @@ public class HistoryTree {
 
                 buffer.putInt(HISTORY_FILE_MAGIC_NUMBER);
 
-                buffer.putInt(FILE_VERSION);
+                if (packed) {
+                    buffer.putInt(PACKED_FILE_VERSION);
+                } else {
+                    buffer.putInt(config.hasQuarkFilter() ? FILE_VERSION : NO_FILTER_FILE_VERSION);
+                }
                 buffer.putInt(config.getProviderVersion());
 
                 buffer.putInt(config.getBlockSize());
@@ -280,6 +343,11 @@ public class HistoryTree {
                 /* start time of this history */
                 buffer.putLong(latestBranch.get(0).getNodeStart());
 
+                if (packed) {
+                    buffer.put((byte) (encoding == HTConfig.NodeEncoding.PACKED_COMPRESSED ? 1 : 0));
+                    buffer.putLong(packedIndexPos);
+                }
+
                 buffer.flip();
                 int res = fc.write(buffer);
                 assert (res <= TREE_HEADER_SIZE);
@@ -292,6 +360,9 @@ public class HistoryTree {
                  */
                 throw new RuntimeException("State system write error"); //$NON-NLS-1$
             }
+
+            /* No more nodes will be written, map them for the queries */
+            treeIO.mapNodes(nodeCount);
         }
     }
 
@@ -317,6 +388,15 @@ public class HistoryTree {
         return treeEnd;
     }
 
+    /**
+     * Get the cache of the nodes read from the history file.
+     *
+     * @return The node cache
+     */
+    public HTNodeCache getNodeCache() {
+        return treeIO.getNodeCache();
+    }
+
     /**
      * Get the number of nodes in this tree.
      *
@@ -366,8 +446,7 @@ public class HistoryTree {
      * @return The position in the file where to start writing
      */
     public long supplyATWriterFilePos() {
-        return HistoryTree.TREE_HEADER_SIZE
-                + ((long) getNodeCount() * config.getBlockSize());
+        return treeIO.getAttributeTreePos(getNodeCount());
     }
 
     /**
@@ -403,6 +482,15 @@ public class HistoryTree {
         treeIO.writeNode(node);
     }
 
+    /**
+     * Write the closed nodes from a separate thread, instead of writing them
+     * synchronously from the thread inserting the intervals. The nodes are
+     * all written by the time {@link #closeTree} returns.
+     */
+    public void startNodeWriter() {
+        treeIO.startNodeWriter();
+    }
+
     /**
      * Close the history file.
      */
@@ -664,6 +752,55 @@ public class HistoryTree {
         return readNode(potentialNextSeqNb);
     }
 
+    /**
+     * Inner method to select all the children of the current node which
+     * contain at least one of the timestamps of a range query. Useful for
+     * walking down the tree once for a whole range query, instead of following
+     * one branch per timestamp.
+     *
+     * @param currentNode
+     *            The node on which the request is made
+     * @param range
+     *            The time range (and sampling resolution) of the query
+     * @param nextNodes
+     *            The collection to which the selected child nodes are added
+     * @throws ClosedChannelException
+     *             If the file channel was closed while we were reading the tree
+     */
+    public void selectNextChildren(CoreNode currentNode, QueryRange range,
+            Collection<HTNode> nextNodes) throws ClosedChannelException {
+        final int nbChildren = currentNode.getNbChildren();
+        final boolean onDisk = currentNode.isOnDisk();
+
+        for (int i = 0; i < nbChildren; i++) {
+            long childStart = currentNode.getChildStart(i);
+            if (childStart > range.getEnd()) {
+                /* The children are sorted by start time */
+                break;
+            }
+
+            /*
+             * A child ends right before its next sibling starts. The latest
+             * child ends with its parent, which is not closed yet if it is
+             * still part of the latest branch.
+             */
+            long childEnd;
+            if (i + 1 < nbChildren) {
+                childEnd = currentNode.getChildStart(i + 1) - 1;
+            } else if (onDisk) {
+                childEnd = currentNode.getNodeEnd();
+            } else {
+                childEnd = Long.MAX_VALUE;
+            }
+
+            if (range.intersects(childStart, childEnd)) {
+                /* Same as in selectNextChild(), avoid looking in latestBranch */
+                int childSeqNb = currentNode.getChild(i);
+                nextNodes.add(onDisk ? treeIO.readNode(childSeqNb) : readNode(childSeqNb));
+            }
+        }
+    }
+
     /**
      * Get the current size of the history file.
      *
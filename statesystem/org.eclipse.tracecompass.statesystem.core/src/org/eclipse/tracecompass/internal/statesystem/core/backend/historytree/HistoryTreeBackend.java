@@ -20,9 +20,14 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
 
 import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.QueryRange;
 import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.CoreNode;
 import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTConfig;
 import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTInterval;
@@ -101,9 +106,23 @@ public class HistoryTreeBackend implements IStateHistoryBackend {
             long startTime,
             int blockSize,
             int maxChildren) throws IOException {
+        this(ssid, new HTConfig(newStateFile, blockSize, maxChildren, providerVersion, startTime));
+    }
+
+    /**
+     * Constructor for new history files, using a complete configuration
+     * object. This allows choosing how the nodes are written in the file, for
+     * example.
+     *
+     * @param ssid
+     *            The state system's ID
+     * @param conf
+     *            The configuration of the new history tree
+     * @throws IOException
+     *             Thrown if we can't create the file for some reason
+     */
+    public HistoryTreeBackend(@NonNull String ssid, HTConfig conf) throws IOException {
         this.ssid = ssid;
-        final HTConfig conf = new HTConfig(newStateFile, blockSize, maxChildren,
-                providerVersion, startTime);
         sht = new HistoryTree(conf);
     }
 
@@ -129,7 +148,7 @@ public class HistoryTreeBackend implements IStateHistoryBackend {
      */
     public HistoryTreeBackend(@NonNull String ssid, File newStateFile, int providerVersion, long startTime)
             throws IOException {
-        this(ssid, newStateFile, providerVersion, startTime, 64 * 1024, 50);
+        this(ssid, new HTConfig(newStateFile, providerVersion, startTime));
     }
 
     /**
@@ -148,8 +167,22 @@ public class HistoryTreeBackend implements IStateHistoryBackend {
      */
     public HistoryTreeBackend(@NonNull String ssid, File existingStateFile, int providerVersion)
             throws IOException {
+        this(ssid, new HistoryTree(existingStateFile, providerVersion));
+    }
+
+    /**
+     * Existing history constructor, using a history tree that was already
+     * opened from an existing state-file. This allows specifying how the tree
+     * is opened, for example the size of its node cache.
+     *
+     * @param ssid
+     *            The state system's id
+     * @param existingTree
+     *            The history tree, opened with its "reader" constructor
+     */
+    public HistoryTreeBackend(@NonNull String ssid, HistoryTree existingTree) {
         this.ssid = ssid;
-        sht = new HistoryTree(existingStateFile, providerVersion);
+        sht = existingTree;
         fFinishedBuilding = true;
     }
 
@@ -259,6 +292,32 @@ public class HistoryTreeBackend implements IStateHistoryBackend {
         return getRelevantInterval(t, attributeQuark);
     }
 
+    @Override
+    public void doQuery2D(Collection<ITmfStateInterval> results, BitSet quarks,
+            long t1, long t2, long resolution)
+            throws TimeRangeException, StateSystemDisposedException {
+        final QueryRange range = new QueryRange(t1, t2, resolution);
+
+        /*
+         * Walk down all the branches of the tree intersecting the range. Since
+         * we only go from parents to children, every node is read at most
+         * once.
+         */
+        Deque<HTNode> nodesToVisit = new ArrayDeque<>();
+        nodesToVisit.add(sht.getRootNode());
+        try {
+            while (!nodesToVisit.isEmpty()) {
+                HTNode currentNode = nodesToVisit.poll();
+                currentNode.writeInfoFromNode(results, quarks, range);
+                if (currentNode.getNodeType() == HTNode.NodeType.CORE) {
+                    sht.selectNextChildren((CoreNode) currentNode, range, nodesToVisit);
+                }
+            }
+        } catch (ClosedChannelException e) {
+            throw new StateSystemDisposedException(e);
+        }
+    }
+
     private void checkValidTime(long t) {
         long treeStart = sht.getTreeStart();
         long treeEnd = sht.getTreeEnd();
@@ -302,6 +361,16 @@ public class HistoryTreeBackend implements IStateHistoryBackend {
         return sht.getFileSize();
     }
 
+    /**
+     * Get the cache of the nodes read from the history file, which keeps the
+     * hit, miss and eviction counts.
+     *
+     * @return The node cache
+     */
+    public HTNodeCache getNodeCache() {
+        return sht.getNodeCache();
+    }
+
     /**
      * Return the average node usage as a percentage (between 0 and 100)
      *
@@ -350,6 +419,7 @@ public class HistoryTreeBackend implements IStateHistoryBackend {
         writer.println(sht.toString());
         writer.println("Average node utilization: " //$NON-NLS-1$
                 + this.getAverageNodeUsage());
+        writer.println(getNodeCache().toString());
         writer.println(""); //$NON-NLS-1$
 
         sht.debugPrintFullTree(writer, printIntervals);
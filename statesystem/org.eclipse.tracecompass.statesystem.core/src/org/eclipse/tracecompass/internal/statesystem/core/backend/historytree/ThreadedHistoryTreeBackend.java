@@ -16,11 +16,18 @@ package org.eclipse.tracecompass.internal.statesystem.core.backend.historytree;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.jdt.annotation.NonNull;
-import org.eclipse.tracecompass.common.core.collect.BufferedBlockingQueue;
+import org.eclipse.tracecompass.common.core.collect.RingBufferBlockingQueue;
 import org.eclipse.tracecompass.internal.statesystem.core.Activator;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.QueryRange;
 import org.eclipse.tracecompass.statesystem.core.exceptions.StateSystemDisposedException;
 import org.eclipse.tracecompass.statesystem.core.exceptions.TimeRangeException;
 import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
@@ -37,8 +44,10 @@ public final class ThreadedHistoryTreeBackend extends HistoryTreeBackend
         implements Runnable {
 
     private static final int CHUNK_SIZE = 127;
-    private final @NonNull BufferedBlockingQueue<HTInterval> intervalQueue;
+    private final @NonNull RingBufferBlockingQueue<HTInterval> intervalQueue;
     private final @NonNull Thread shtThread;
+    /* The first failure of the insertion thread, thrown by finishedBuilding() */
+    private volatile RuntimeException fFailure = null;
 
     /**
      * New state history constructor
@@ -75,11 +84,7 @@ public final class ThreadedHistoryTreeBackend extends HistoryTreeBackend
             int blockSize,
             int maxChildren)
                     throws IOException {
-        super(ssid, newStateFile, providerVersion, startTime, blockSize, maxChildren);
-
-        intervalQueue = new BufferedBlockingQueue<>(queueSize / CHUNK_SIZE, CHUNK_SIZE);
-        shtThread = new Thread(this, "History Tree Thread"); //$NON-NLS-1$
-        shtThread.start();
+        this(ssid, new HTConfig(newStateFile, blockSize, maxChildren, providerVersion, startTime), queueSize);
     }
 
     /**
@@ -109,10 +114,38 @@ public final class ThreadedHistoryTreeBackend extends HistoryTreeBackend
             long startTime,
             int queueSize)
                     throws IOException {
-        super(ssid, newStateFile, providerVersion, startTime);
+        this(ssid, new HTConfig(newStateFile, providerVersion, startTime), queueSize);
+    }
 
-        intervalQueue = new BufferedBlockingQueue<>(queueSize / CHUNK_SIZE, CHUNK_SIZE);
+    /**
+     * New State History constructor, using a complete configuration object.
+     * This allows choosing how the nodes are written in the file, for example.
+     *
+     * @param ssid
+     *            The state system's id
+     * @param conf
+     *            The configuration of the new history tree
+     * @param queueSize
+     *            The size of the interval insertion queue. 2000 - 10000 usually
+     *            works well
+     * @throws IOException
+     *             If there was a problem opening the history file for writing
+     */
+    public ThreadedHistoryTreeBackend(@NonNull String ssid, HTConfig conf, int queueSize)
+            throws IOException {
+        super(ssid, conf);
+
+        intervalQueue = new RingBufferBlockingQueue<>(Math.max(1, queueSize / CHUNK_SIZE), CHUNK_SIZE);
         shtThread = new Thread(this, "History Tree Thread"); //$NON-NLS-1$
+        startThreads();
+    }
+
+    /**
+     * Start the insertion thread. The closed nodes are written by yet another
+     * thread, so the insertion thread does not wait on the disk.
+     */
+    private void startThreads() {
+        getSHT().startNodeWriter();
         shtThread.start();
     }
 
@@ -147,6 +180,11 @@ public final class ThreadedHistoryTreeBackend extends HistoryTreeBackend
          */
 
         stopRunningThread(endTime);
+        RuntimeException failure = fFailure;
+        if (failure != null) {
+            /* The history is incomplete, it will be deleted on dispose() */
+            throw failure;
+        }
         setFinishedBuilding(true);
         return;
     }
@@ -186,29 +224,41 @@ public final class ThreadedHistoryTreeBackend extends HistoryTreeBackend
 
     @Override
     public void run() {
-        try {
-            HTInterval currentInterval = intervalQueue.blockingPeek();
-            while (currentInterval.getStartTime() != -1) {
-                /* Send the interval to the History Tree */
-                getSHT().insertInterval(currentInterval);
-                /* Actually remove the interval from the queue */
-                // FIXME Replace with remove() once it is implemented.
-                intervalQueue.take();
-                currentInterval = intervalQueue.blockingPeek();
-            }
-            if (currentInterval.getAttribute() != -1) {
-                /* Make sure this is the "poison pill" we are waiting for */
-                throw new IllegalStateException();
-            }
+        HTInterval currentInterval = intervalQueue.blockingPeek();
+        while (currentInterval.getStartTime() != -1) {
             /*
-             * We've been told we're done, let's write down everything and quit.
-             * The end time of this "signal interval" is actually correct.
+             * Send the interval to the History Tree. Once it failed, keep
+             * emptying the queue so that the producer is never blocked.
              */
-            getSHT().closeTree(currentInterval.getEndTime());
+            if (fFailure == null) {
+                try {
+                    getSHT().insertInterval(currentInterval);
+                } catch (RuntimeException e) {
+                    fFailure = e;
+                    Activator.getDefault().logError("Error inserting in the state system", e); //$NON-NLS-1$
+                }
+            }
+            /* Actually remove the interval from the queue */
+            // FIXME Replace with remove() once it is implemented.
+            intervalQueue.take();
+            currentInterval = intervalQueue.blockingPeek();
+        }
+        if (currentInterval.getAttribute() != -1) {
+            /* Make sure this is the "poison pill" we are waiting for */
+            throw new IllegalStateException();
+        }
+        if (fFailure != null) {
             return;
-        } catch (TimeRangeException e) {
-            /* This should not happen */
-            Activator.getDefault().logError("Error starting the state system", e); //$NON-NLS-1$
+        }
+        /*
+         * We've been told we're done, let's write down everything and quit.
+         * The end time of this "signal interval" is actually correct.
+         */
+        try {
+            getSHT().closeTree(currentInterval.getEndTime());
+        } catch (RuntimeException e) {
+            fFailure = e;
+            Activator.getDefault().logError("Error closing state system", e); //$NON-NLS-1$
         }
     }
 
@@ -254,7 +304,7 @@ public final class ThreadedHistoryTreeBackend extends HistoryTreeBackend
         /*
          * We couldn't find the interval in the history tree. It's possible that
          * it is currently in the intervalQueue. Look for it there. Note that
-         * BufferedBlockingQueue's iterator() is thread-safe (no need to lock
+         * RingBufferBlockingQueue's iterator() is thread-safe (no need to lock
          * the queue).
          */
         for (ITmfStateInterval interval : intervalQueue) {
@@ -275,4 +325,56 @@ public final class ThreadedHistoryTreeBackend extends HistoryTreeBackend
         return super.doSingularQuery(t, attributeQuark);
     }
 
+    @Override
+    public void doQuery2D(Collection<ITmfStateInterval> results, BitSet quarks,
+            long t1, long t2, long resolution)
+            throws TimeRangeException, StateSystemDisposedException {
+        if (isFinishedBuilding()) {
+            super.doQuery2D(results, quarks, t1, t2, resolution);
+            return;
+        }
+
+        /*
+         * Look in the intervalQueue first. An interval that gets inserted in
+         * the tree while we are iterating on the queue will then be found in
+         * the tree, so we cannot miss it. It could be found twice however, so
+         * we remove those duplicates afterwards. Intervals read from the tree
+         * can be copies of the queued ones, so they are matched by attribute
+         * and start time.
+         */
+        QueryRange range = new QueryRange(t1, t2, resolution);
+        Map<Integer, List<ITmfStateInterval>> queuedIntervals = new HashMap<>();
+        for (ITmfStateInterval interval : intervalQueue) {
+            int quark = interval.getAttribute();
+            if (quark >= 0 && quarks.get(quark)
+                    && range.intersects(interval.getStartTime(), interval.getEndTime())) {
+                List<ITmfStateInterval> list = queuedIntervals.get(quark);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    queuedIntervals.put(quark, list);
+                }
+                list.add(interval);
+            }
+        }
+
+        super.doQuery2D(results, quarks, t1, t2, resolution);
+        if (queuedIntervals.isEmpty()) {
+            return;
+        }
+        for (ITmfStateInterval interval : results) {
+            List<ITmfStateInterval> list = queuedIntervals.get(interval.getAttribute());
+            if (list != null) {
+                Iterator<ITmfStateInterval> iter = list.iterator();
+                while (iter.hasNext()) {
+                    if (iter.next().getStartTime() == interval.getStartTime()) {
+                        iter.remove();
+                    }
+                }
+            }
+        }
+        for (List<ITmfStateInterval> list : queuedIntervals.values()) {
+            results.addAll(list);
+        }
+    }
+
 }
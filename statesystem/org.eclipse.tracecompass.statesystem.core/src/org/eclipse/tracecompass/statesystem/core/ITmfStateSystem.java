@@ -12,6 +12,7 @@
 
 package org.eclipse.tracecompass.statesystem.core;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.eclipse.jdt.annotation.NonNull;
@@ -330,6 +331,31 @@ public interface ITmfStateSystem {
     @NonNull List<ITmfStateInterval> queryFullState(long t)
             throws StateSystemDisposedException;
 
+    /**
+     * Same as {@link #queryFullState(long)}, but the intervals are put in a
+     * list supplied by the caller. The list is resized to the number of
+     * attributes, so the same list can be reused for many queries, without
+     * allocating a new one every time.
+     *
+     * Once the state system is done building, full queries do not lock the
+     * state system, so they can be run by many threads at the same time.
+     *
+     * @param t
+     *            We will recreate the state information to what it was at time
+     *            t.
+     * @param stateInfo
+     *            The list to fill with the intervals, where the offset = the
+     *            quark. Its previous contents are replaced.
+     * @throws TimeRangeException
+     *             If the 't' parameter is outside of the range of the state
+     *             history.
+     * @throws StateSystemDisposedException
+     *             If the query is sent after the state system has been disposed
+     * @since 2.0
+     */
+    void queryFullState(long t, @NonNull List<ITmfStateInterval> stateInfo)
+            throws StateSystemDisposedException;
+
     /**
      * Singular query method. This one does not update the whole stateInfo
      * vector, like queryFullState() does. It only searches for one specific
@@ -354,4 +380,69 @@ public interface ITmfStateSystem {
      */
     @NonNull ITmfStateInterval querySingleState(long t, int attributeQuark)
             throws AttributeNotFoundException, StateSystemDisposedException;
-}
\ No newline at end of file
+
+    /**
+     * Bulk query method, to get the history of several attributes over a time
+     * range. It returns every interval of the given attributes that intersects
+     * the range [start, end].
+     *
+     * This gives the same results as calling
+     * {@link StateSystemUtils#queryHistoryRange(ITmfStateSystem, int, long, long)}
+     * for each quark, but it is served by a single pass over the history,
+     * which is much faster than doing one singular query per interval.
+     *
+     * The intervals are not returned in any particular order.
+     *
+     * @param quarks
+     *            The quarks of the attributes to query
+     * @param start
+     *            Start time of the query. If it is earlier than the start of
+     *            the state system, the start of the state system is used.
+     * @param end
+     *            End time of the query. If it is later than the current end of
+     *            the state system, the current end time is used.
+     * @return A new list of the intervals of the attributes that intersect
+     *         the time range, which the caller can modify
+     * @throws TimeRangeException
+     *             If end is smaller than start
+     * @throws AttributeNotFoundException
+     *             If one of the quarks does not exist in the model
+     * @throws StateSystemDisposedException
+     *             If the query is sent after the state system has been disposed
+     * @since 2.0
+     */
+    @NonNull List<ITmfStateInterval> query2D(@NonNull Collection<Integer> quarks, long start, long end)
+            throws AttributeNotFoundException, StateSystemDisposedException;
+
+    /**
+     * Bulk query method with a sampling resolution. Similar to
+     * {@link #query2D(Collection, long, long)}, but only the intervals
+     * containing at least one of the timestamps start, start + resolution,
+     * start + 2 * resolution, ..., and end are returned. This can be useful
+     * for populating views, where it is useless to have more than one interval
+     * per pixel.
+     *
+     * @param quarks
+     *            The quarks of the attributes to query
+     * @param start
+     *            Start time of the query. If it is earlier than the start of
+     *            the state system, the start of the state system is used.
+     * @param end
+     *            End time of the query. If it is later than the current end of
+     *            the state system, the current end time is used.
+     * @param resolution
+     *            The "step" of this query
+     * @return A new list of the intervals of the attributes that contain one
+     *         of the sampled timestamps, which the caller can modify
+     * @throws TimeRangeException
+     *             If end is smaller than start, or if the resolution is not
+     *             greater than zero
+     * @throws AttributeNotFoundException
+     *             If one of the quarks does not exist in the model
+     * @throws StateSystemDisposedException
+     *             If the query is sent after the state system has been disposed
+     * @since 2.0
+     */
+    @NonNull List<ITmfStateInterval> query2D(@NonNull Collection<Integer> quarks, long start, long end, long resolution)
+            throws AttributeNotFoundException, StateSystemDisposedException;
+}
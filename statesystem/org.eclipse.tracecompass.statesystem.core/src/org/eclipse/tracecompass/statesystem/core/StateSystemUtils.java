@@ -14,12 +14,16 @@
 
 package org.eclipse.tracecompass.statesystem.core;
 
+import static org.eclipse.tracecompass.common.core.NonNullUtils.checkNotNull;
+
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
@@ -27,6 +31,7 @@ import org.eclipse.tracecompass.statesystem.core.exceptions.StateSystemDisposedE
 import org.eclipse.tracecompass.statesystem.core.exceptions.StateValueTypeException;
 import org.eclipse.tracecompass.statesystem.core.exceptions.TimeRangeException;
 import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
+import org.eclipse.tracecompass.statesystem.core.interval.TmfIntervalEndComparator;
 import org.eclipse.tracecompass.statesystem.core.statevalue.ITmfStateValue;
 
 /**
@@ -37,6 +42,15 @@ import org.eclipse.tracecompass.statesystem.core.statevalue.ITmfStateValue;
 @NonNullByDefault
 public final class StateSystemUtils {
 
+    /*
+     * The intervals of one attribute do not overlap, so sorting them by end
+     * time also sorts them by start time.
+     */
+    private static final Comparator<ITmfStateInterval> INTERVAL_COMPARATOR = new TmfIntervalEndComparator();
+
+    /** Number of resolution points queried between checks of the monitor */
+    private static final long POINTS_PER_BATCH = 256;
+
     private StateSystemUtils() {
     }
 
@@ -121,35 +135,18 @@ public final class StateSystemUtils {
             int attributeQuark, long t1, long t2)
             throws AttributeNotFoundException, StateSystemDisposedException {
 
-        List<ITmfStateInterval> intervals;
-        ITmfStateInterval currentInterval;
-        long ts, tEnd;
-
         /* Make sure the time range makes sense */
         if (t2 < t1) {
             throw new TimeRangeException(ss.getSSID() + " Start:" + t1 + ", End:" + t2); //$NON-NLS-1$ //$NON-NLS-2$
         }
+        checkValidStartTime(ss, t1);
 
-        /* Set the actual, valid end time of the range query */
-        if (t2 > ss.getCurrentEndTime()) {
-            tEnd = ss.getCurrentEndTime();
-        } else {
-            tEnd = t2;
-        }
-
-        /* Get the initial state at time T1 */
-        intervals = new ArrayList<>();
-        currentInterval = ss.querySingleState(t1, attributeQuark);
-        intervals.add(currentInterval);
-
-        /* Get the following state changes */
-        ts = currentInterval.getEndTime();
-        while (ts != -1 && ts < tEnd) {
-            ts++; /* To "jump over" to the next state in the history */
-            currentInterval = ss.querySingleState(ts, attributeQuark);
-            intervals.add(currentInterval);
-            ts = currentInterval.getEndTime();
+        /* Get all the intervals in one pass, then put them in time order */
+        List<ITmfStateInterval> intervals = new ArrayList<>();
+        for (ITmfStateInterval interval : ss.query2D(Collections.singleton(attributeQuark), t1, t2)) {
+            intervals.add(interval);
         }
+        Collections.sort(intervals, INTERVAL_COMPARATOR);
         return intervals;
     }
 
@@ -188,45 +185,75 @@ public final class StateSystemUtils {
             int attributeQuark, long t1, long t2, long resolution,
             @Nullable IProgressMonitor monitor)
             throws AttributeNotFoundException, StateSystemDisposedException {
-        List<ITmfStateInterval> intervals = new LinkedList<>();
-        ITmfStateInterval currentInterval = null;
-        long ts, tEnd;
-
         /* Make sure the time range makes sense */
         if (t2 < t1 || resolution <= 0) {
             throw new TimeRangeException(ss.getSSID() + " Start:" + t1 + ", End:" + t2 + ", Resolution:" + resolution); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
         }
+        checkValidStartTime(ss, t1);
 
         /* Set the actual, valid end time of the range query */
-        if (t2 > ss.getCurrentEndTime()) {
-            tEnd = ss.getCurrentEndTime();
-        } else {
-            tEnd = t2;
-        }
-
-        IProgressMonitor mon = monitor;
-        if (mon == null) {
-            mon = new NullProgressMonitor();
-        }
+        long tEnd = Math.min(t2, ss.getCurrentEndTime());
 
         /*
-         * Iterate over the "resolution points". We skip unneeded queries in the
-         * case the current interval is longer than the resolution.
+         * The state system only returns the intervals containing one of the
+         * "resolution points", so we can skip the ones shorter than the
+         * resolution without having to query them. The range is queried in
+         * batches of resolution points, so that the monitor is checked
+         * between them.
          */
-        for (ts = t1; ts <= tEnd; ts += ((currentInterval.getEndTime() - ts) / resolution + 1) * resolution) {
-            if (mon.isCanceled()) {
+        long batchLength = (resolution > Long.MAX_VALUE / POINTS_PER_BATCH ? Long.MAX_VALUE : resolution * POINTS_PER_BATCH);
+        List<ITmfStateInterval> intervals = new ArrayList<>();
+        List<ITmfStateInterval> batch = new ArrayList<>();
+        long batchStart = t1;
+        while (true) {
+            if (monitor != null && monitor.isCanceled()) {
                 return intervals;
             }
-            currentInterval = ss.querySingleState(ts, attributeQuark);
-            intervals.add(currentInterval);
+            long batchEnd = (tEnd - batchStart < batchLength ? tEnd : batchStart + batchLength - 1);
+            batch.clear();
+            for (ITmfStateInterval interval : ss.query2D(Collections.singleton(attributeQuark), batchStart, batchEnd, resolution)) {
+                batch.add(interval);
+            }
+            Collections.sort(batch, INTERVAL_COMPARATOR);
+            for (ITmfStateInterval interval : batch) {
+                /*
+                 * Skip the interval that was already returned by the previous
+                 * batch, and the ones that only contain the end of the batch,
+                 * which is not a resolution point of the whole query.
+                 */
+                if (!intervals.isEmpty() && interval.getStartTime() <= intervals.get(intervals.size() - 1).getEndTime()) {
+                    continue;
+                }
+                if (interval.getEndTime() < tEnd && !containsResolutionPoint(interval, t1, resolution)) {
+                    continue;
+                }
+                intervals.add(interval);
+            }
+            if (batchEnd == tEnd) {
+                return intervals;
+            }
+            batchStart = batchEnd + 1;
         }
+    }
 
-        /* Add the interval at t2, if it wasn't included already. */
-        if (currentInterval != null && currentInterval.getEndTime() < tEnd) {
-            currentInterval = ss.querySingleState(tEnd, attributeQuark);
-            intervals.add(currentInterval);
+    /**
+     * Check if an interval contains one of the timestamps t1, t1 + resolution,
+     * t1 + 2 * resolution, ...
+     */
+    private static boolean containsResolutionPoint(ITmfStateInterval interval, long t1, long resolution) {
+        long lower = Math.max(interval.getStartTime(), t1);
+        long steps = (lower - t1) / resolution;
+        if ((lower - t1) % resolution != 0) {
+            steps++;
+        }
+        long point = t1 + steps * resolution;
+        return (point >= lower && point <= interval.getEndTime());
+    }
+
+    private static void checkValidStartTime(ITmfStateSystem ss, long t) {
+        if (t < ss.getStartTime() || t > ss.getCurrentEndTime()) {
+            throw new TimeRangeException(ss.getSSID() + " Time:" + t + ", Start:" + ss.getStartTime() + ", End:" + ss.getCurrentEndTime()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
         }
-        return intervals;
     }
 
     /**
@@ -263,20 +290,203 @@ public final class StateSystemUtils {
             return null;
         }
 
-        try {
-            while (current < t2) {
-                ITmfStateInterval currentInterval = ss.querySingleState(current, attributeQuark);
-                ITmfStateValue value = currentInterval.getStateValue();
-
-                if (!value.isNull()) {
-                    return currentInterval;
-                }
-                current = currentInterval.getEndTime() + 1;
+        /* Walk the intervals in order, without one query per interval */
+        QuarkIterator iterator = new QuarkIterator(ss, attributeQuark, current);
+        while (iterator.hasNext()) {
+            ITmfStateInterval currentInterval = iterator.next();
+            if (Math.max(currentInterval.getStartTime(), current) >= t2) {
+                break;
+            }
+            if (!currentInterval.getStateValue().isNull()) {
+                return currentInterval;
             }
-        } catch (AttributeNotFoundException | StateSystemDisposedException | TimeRangeException e) {
-            /* Nothing to do */
         }
         return null;
     }
 
+    /**
+     * Iterator over the intervals of one attribute, which can go forward and
+     * backward in time. The first call to {@link #next()} or
+     * {@link #previous()} returns the interval containing the initial time,
+     * then each call to next() returns the interval that follows the last one
+     * returned, and each call to previous() the interval that precedes it.
+     *
+     * The intervals are read from the state system in batches with
+     * {@link ITmfStateSystem#query2D(java.util.Collection, long, long)}, and
+     * the time range of a batch is adjusted so that it contains a few dozen
+     * intervals. Stepping through the intervals then costs a fraction of a
+     * query per interval, instead of one singular query for each of them.
+     *
+     * If the state system is disposed, or if the attribute does not exist,
+     * the iterator has no element.
+     *
+     * @since 2.0
+     */
+    public static class QuarkIterator implements Iterator<ITmfStateInterval> {
+
+        /** Number of intervals we would like to read with each query */
+        private static final int BATCH_SIZE = 64;
+        /** Initial range of a query, as a fraction of the state system range */
+        private static final int INITIAL_DIVIDER = 1024;
+
+        private final ITmfStateSystem fSS;
+        private final int fQuark;
+        private final long fInitialTime;
+
+        /** Intervals of the last batch, sorted by time, without gaps */
+        private final List<ITmfStateInterval> fBatch = new ArrayList<>();
+        private long fRange;
+
+        private @Nullable ITmfStateInterval fCurrent = null;
+        private @Nullable ITmfStateInterval fNext = null;
+        private @Nullable ITmfStateInterval fPrevious = null;
+
+        /**
+         * Constructor
+         *
+         * @param ss
+         *            The state system to query
+         * @param quark
+         *            The attribute whose intervals are iterated
+         * @param initialTime
+         *            The time of the first interval returned. It is brought
+         *            back inside the state system's range if needed.
+         */
+        public QuarkIterator(ITmfStateSystem ss, int quark, long initialTime) {
+            fSS = ss;
+            fQuark = quark;
+            fInitialTime = initialTime;
+            fRange = Math.max(1, (ss.getCurrentEndTime() - ss.getStartTime()) / INITIAL_DIVIDER);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (fNext == null) {
+                ITmfStateInterval current = fCurrent;
+                long t;
+                if (current == null) {
+                    t = Math.max(fInitialTime, fSS.getStartTime());
+                } else if (current.getEndTime() == Long.MAX_VALUE) {
+                    return false;
+                } else {
+                    t = current.getEndTime() + 1;
+                }
+                fNext = getInterval(t, true);
+            }
+            return (fNext != null);
+        }
+
+        @Override
+        public ITmfStateInterval next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ITmfStateInterval next = checkNotNull(fNext);
+            fCurrent = next;
+            fNext = null;
+            fPrevious = null;
+            return next;
+        }
+
+        /**
+         * Returns true if there is an interval before the last one returned,
+         * or containing the initial time if no interval was returned yet
+         *
+         * @return Whether {@link #previous()} would return an interval
+         */
+        public boolean hasPrevious() {
+            if (fPrevious == null) {
+                ITmfStateInterval current = fCurrent;
+                long t;
+                if (current == null) {
+                    t = Math.min(fInitialTime, fSS.getCurrentEndTime());
+                } else if (current.getStartTime() == Long.MIN_VALUE) {
+                    return false;
+                } else {
+                    t = current.getStartTime() - 1;
+                }
+                fPrevious = getInterval(t, false);
+            }
+            return (fPrevious != null);
+        }
+
+        /**
+         * Returns the interval that precedes the last one returned, or the one
+         * containing the initial time if no interval was returned yet
+         *
+         * @return The previous interval
+         * @throws NoSuchElementException
+         *             If there is no previous interval
+         */
+        public ITmfStateInterval previous() {
+            if (!hasPrevious()) {
+                throw new NoSuchElementException();
+            }
+            ITmfStateInterval previous = checkNotNull(fPrevious);
+            fCurrent = previous;
+            fNext = null;
+            fPrevious = null;
+            return previous;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private @Nullable ITmfStateInterval getInterval(long t, boolean forward) {
+            if (t < fSS.getStartTime() || t > fSS.getCurrentEndTime()) {
+                return null;
+            }
+            ITmfStateInterval interval = searchBatch(t);
+            if (interval != null) {
+                return interval;
+            }
+
+            /* Read the next batch in the direction we are going */
+            long start = fSS.getStartTime();
+            long end = fSS.getCurrentEndTime();
+            if (forward) {
+                end = (end - t > fRange ? t + fRange : end);
+            } else {
+                start = (t - start > fRange ? t - fRange : start);
+            }
+            fBatch.clear();
+            try {
+                for (ITmfStateInterval batchInterval : fSS.query2D(Collections.singleton(fQuark), forward ? t : start, forward ? end : t)) {
+                    fBatch.add(batchInterval);
+                }
+            } catch (AttributeNotFoundException | StateSystemDisposedException | TimeRangeException e) {
+                fBatch.clear();
+                return null;
+            }
+            Collections.sort(fBatch, INTERVAL_COMPARATOR);
+
+            /* Aim for a batch size that amortizes the cost of the query */
+            int size = fBatch.size();
+            if (size < BATCH_SIZE / 2 && fRange < Long.MAX_VALUE / 4) {
+                fRange *= 2;
+            } else if (size > BATCH_SIZE * 2) {
+                fRange = Math.max(1, fRange / 2);
+            }
+            return searchBatch(t);
+        }
+
+        private @Nullable ITmfStateInterval searchBatch(long t) {
+            int low = 0;
+            int high = fBatch.size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                ITmfStateInterval interval = fBatch.get(mid);
+                if (interval.getEndTime() < t) {
+                    low = mid + 1;
+                } else if (interval.getStartTime() > t) {
+                    high = mid - 1;
+                } else {
+                    return interval;
+                }
+            }
+            return null;
+        }
+    }
 }
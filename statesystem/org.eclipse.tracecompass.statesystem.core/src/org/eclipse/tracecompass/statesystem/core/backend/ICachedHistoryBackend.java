@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.statesystem.core.backend;
+
+/**
+ * History back-end which keeps the results of the singular queries of another
+ * back-end in a cache. It gives access to the metrics of the cache.
+ *
+ * @see StateHistoryBackendFactory#createCachedBackend(IStateHistoryBackend, int)
+ * @since 2.0
+ * @noimplement Only the back-end supplied by this plugin should implement this
+ *              interface.
+ */
+public interface ICachedHistoryBackend extends IStateHistoryBackend {
+
+    /**
+     * Get the number of singular queries that were answered from the cache
+     *
+     * @return The number of cache hits
+     */
+    long getHitCount();
+
+    /**
+     * Get the number of singular queries that had to go to the wrapped
+     * back-end
+     *
+     * @return The number of cache misses
+     */
+    long getMissCount();
+
+    /**
+     * Get the proportion of the singular queries that were answered from the
+     * cache
+     *
+     * @return The hit rate, between 0 and 1, or 0 if there was no query yet
+     */
+    double getHitRate();
+
+    /**
+     * Get the number of intervals currently in the cache
+     *
+     * @return The number of cached intervals
+     */
+    int getCachedCount();
+
+    /**
+     * Empty the cache. The hit and miss counts are kept.
+     */
+    void clearCache();
+}
@@ -15,6 +15,8 @@ package org.eclipse.tracecompass.statesystem.core.backend;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.PrintWriter;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
 
 import org.eclipse.jdt.annotation.NonNull;
@@ -184,6 +186,39 @@ public interface IStateHistoryBackend {
             throws TimeRangeException, AttributeNotFoundException,
             StateSystemDisposedException;
 
+    /**
+     * Bulk query method. Write into 'results' every interval of the attributes
+     * in 'quarks' that intersects the time range [t1, t2]. Backends should do
+     * this in one pass over their storage, and not with one singular query per
+     * interval.
+     *
+     * If a resolution greater than 1 is specified, only the intervals
+     * containing at least one of the timestamps t1, t1 + resolution, t1 + 2 *
+     * resolution, ..., and t2 need to be returned. The intervals are not
+     * returned in any particular order.
+     *
+     * @param results
+     *            Collection in which to add the matching intervals
+     * @param quarks
+     *            The quarks of the attributes to query, as a set of bits
+     * @param t1
+     *            Start time of the query
+     * @param t2
+     *            End time of the query
+     * @param resolution
+     *            The sampling resolution of the query, use 1 to get every
+     *            interval
+     * @throws TimeRangeException
+     *             If t2 is smaller than t1 or if the resolution is not greater
+     *             than zero
+     * @throws StateSystemDisposedException
+     *             If the state system is disposed while a request is ongoing.
+     * @since 2.0
+     */
+    void doQuery2D(@NonNull Collection<ITmfStateInterval> results,
+            @NonNull BitSet quarks, long t1, long t2, long resolution)
+            throws TimeRangeException, StateSystemDisposedException;
+
     /**
      * Debug method to print the contents of the history backend.
      *
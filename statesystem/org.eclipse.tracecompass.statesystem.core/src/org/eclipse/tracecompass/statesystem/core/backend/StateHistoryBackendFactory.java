@@ -16,8 +16,11 @@ import java.io.File;
 import java.io.IOException;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.CachedHistoryBackend;
 import org.eclipse.tracecompass.internal.statesystem.core.backend.InMemoryBackend;
 import org.eclipse.tracecompass.internal.statesystem.core.backend.NullBackend;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HTConfig;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HistoryTree;
 import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.HistoryTreeBackend;
 import org.eclipse.tracecompass.internal.statesystem.core.backend.historytree.ThreadedHistoryTreeBackend;
 
@@ -94,6 +97,46 @@ public final class StateHistoryBackendFactory {
         return new HistoryTreeBackend(ssid, stateFile, providerVersion, startTime);
     }
 
+    /**
+     * Create a new backend using a History Tree, specifying the size of the
+     * cache of nodes read from the file. Histories that are queried heavily
+     * can use a bigger cache than the default one, of 16 MiB.
+     *
+     * @param ssid
+     *            The state system's id
+     * @param stateFile
+     *            The filename/location where to store the state history (Should
+     *            end in .ht)
+     * @param providerVersion
+     *            Version of of the state provider. We will only try to reopen
+     *            existing files if this version matches the one in the
+     *            framework.
+     * @param startTime
+     *            The earliest time stamp that will be stored in the history
+     * @param queueSize
+     *            The size of the interval insertion queue between the receiver
+     *            and writer threads. 2000 - 10000 usually works well. If 0 is
+     *            specified, no queue is used and the writes happen in the same
+     *            thread.
+     * @param nodeCacheSize
+     *            The size, in bytes, of the node cache. Each node counts as
+     *            one block of the file, which is 64 KiB.
+     * @return The state system backend
+     * @throws IOException
+     *             Thrown if we can't create the file for some reason
+     * @since 2.0
+     */
+    public static IStateHistoryBackend createHistoryTreeBackendNewFile(String ssid,
+            File stateFile, int providerVersion, long startTime, int queueSize,
+            long nodeCacheSize) throws IOException {
+        HTConfig conf = new HTConfig(stateFile, HTConfig.DEFAULT_BLOCKSIZE, HTConfig.DEFAULT_MAXCHILDREN,
+                providerVersion, startTime, nodeCacheSize);
+        if (queueSize > 0) {
+            return new ThreadedHistoryTreeBackend(ssid, conf, queueSize);
+        }
+        return new HistoryTreeBackend(ssid, conf);
+    }
+
     /**
      * Create a new History Tree backend, but attempt to open an existing file
      * on disk. If the file cannot be found or recognized, an IOException will
@@ -115,4 +158,50 @@ public final class StateHistoryBackendFactory {
             int providerVersion) throws IOException {
         return new HistoryTreeBackend(ssid, stateFile, providerVersion);
     }
+
+    /**
+     * Create a new History Tree backend, but attempt to open an existing file
+     * on disk, specifying the size of the cache of nodes read from the file.
+     * Histories that are queried heavily can use a bigger cache than the
+     * default one, of 16 MiB. If the file cannot be found or recognized, an
+     * IOException will be thrown.
+     *
+     * @param ssid
+     *            The state system's id
+     * @param stateFile
+     *            Filename/location of the history we want to load
+     * @param providerVersion
+     *            Expected version of of the state provider plugin.
+     * @param nodeCacheSize
+     *            The size, in bytes, of the node cache. Each node counts as
+     *            one block of the file.
+     * @return The state system backend
+     * @throws IOException
+     *             If we can't read the file, if it doesn't exist, is not
+     *             recognized, or if the version of the file does not match the
+     *             expected providerVersion.
+     * @since 2.0
+     */
+    public static IStateHistoryBackend createHistoryTreeBackendExistingFile(String ssid, File stateFile,
+            int providerVersion, long nodeCacheSize) throws IOException {
+        return new HistoryTreeBackend(ssid, new HistoryTree(stateFile, providerVersion, nodeCacheSize));
+    }
+
+    /**
+     * Wrap a backend so that the results of its singular queries are kept in
+     * a cache. A query for an attribute at a time stamp that is inside an
+     * interval that was already read is then answered from the cache. This is
+     * useful for histories that are queried repeatedly at nearby time stamps,
+     * for example by interactive views.
+     *
+     * @param backend
+     *            The backend to wrap
+     * @param cacheSize
+     *            The number of intervals to keep in the cache
+     * @return The caching backend, which gives access to the cache metrics
+     * @since 2.0
+     */
+    public static ICachedHistoryBackend createCachedBackend(IStateHistoryBackend backend, int cacheSize) {
+        return new CachedHistoryBackend(backend, cacheSize);
+    }
 }
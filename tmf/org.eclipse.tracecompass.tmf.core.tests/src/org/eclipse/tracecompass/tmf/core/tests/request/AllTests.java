@@ -23,6 +23,7 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
     TmfCoalescedEventRequestTest.class,
     TmfEventRequestTest.class,
+    TmfWorkStealingRequestExecutorTest.class,
 })
 public class AllTests {
 
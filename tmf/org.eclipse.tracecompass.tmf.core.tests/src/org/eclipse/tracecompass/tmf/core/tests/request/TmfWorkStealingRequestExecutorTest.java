@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.tmf.core.tests.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.tracecompass.internal.tmf.core.request.TmfWorkStealingRequestExecutor;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfTraceException;
+import org.eclipse.tracecompass.tmf.core.request.ITmfEventRequest;
+import org.eclipse.tracecompass.tmf.core.request.ITmfEventRequest.ExecutionType;
+import org.eclipse.tracecompass.tmf.core.request.TmfEventRequest;
+import org.eclipse.tracecompass.tmf.core.tests.TmfCoreTestPlugin;
+import org.eclipse.tracecompass.tmf.core.tests.shared.TmfTestTrace;
+import org.eclipse.tracecompass.tmf.tests.stubs.trace.TmfTraceStub;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+/**
+ * Test the scheduling of the requests of the event providers by the
+ * {@link TmfWorkStealingRequestExecutor}, enabled by its system property.
+ */
+public class TmfWorkStealingRequestExecutorTest {
+
+    /** Time-out tests after 60 seconds */
+    @Rule
+    public TestRule globalTimeout = new Timeout(60, TimeUnit.SECONDS);
+
+    private static final int NB_EVENTS = 10000;
+
+    /** More traces than the pool has workers */
+    private static final int NB_TRACES = Math.max(8, Runtime.getRuntime().availableProcessors()) + 2;
+
+    private static String fPreviousProperty;
+
+    private final List<TmfTraceStub> fTraces = new ArrayList<>();
+
+    /**
+     * Request recording the events it receives, which can be slowed down to
+     * keep it running
+     */
+    private static class RecordingRequest extends TmfEventRequest {
+
+        final List<Long> fTimes = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch fStarted = new CountDownLatch(1);
+        private final List<RecordingRequest> fStartOrder;
+        private final int fSleepPeriod;
+
+        public RecordingRequest(int nbRequested, ExecutionType priority, List<RecordingRequest> startOrder, int sleepPeriod) {
+            super(ITmfEvent.class, 0, nbRequested, priority);
+            fStartOrder = startOrder;
+            fSleepPeriod = sleepPeriod;
+        }
+
+        @Override
+        public void handleStarted() {
+            super.handleStarted();
+            fStartOrder.add(this);
+            fStarted.countDown();
+        }
+
+        @Override
+        public void handleData(ITmfEvent event) {
+            super.handleData(event);
+            fTimes.add(event.getTimestamp().getValue());
+            /* Sleep 1 ms every fSleepPeriod events */
+            if (fSleepPeriod > 0 && fTimes.size() % fSleepPeriod == 0) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        /* The events of the trace are at times 1, 2, 3... */
+        public void assertEventsInOrder(int nbEvents) {
+            synchronized (fTimes) {
+                assertEquals(nbEvents, fTimes.size());
+                for (int i = 0; i < nbEvents; i++) {
+                    assertEquals(i + 1, fTimes.get(i).longValue());
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Housekeeping
+    // ------------------------------------------------------------------------
+
+    /**
+     * Enable the executor for the traces created by the tests
+     */
+    @BeforeClass
+    public static void setUpClass() {
+        fPreviousProperty = System.setProperty(TmfWorkStealingRequestExecutor.ENABLE_PROPERTY, Boolean.TRUE.toString());
+    }
+
+    /**
+     * Restore the system property
+     */
+    @AfterClass
+    public static void tearDownClass() {
+        if (fPreviousProperty == null) {
+            System.clearProperty(TmfWorkStealingRequestExecutor.ENABLE_PROPERTY);
+        } else {
+            System.setProperty(TmfWorkStealingRequestExecutor.ENABLE_PROPERTY, fPreviousProperty);
+        }
+    }
+
+    /**
+     * Dispose the traces
+     */
+    @After
+    public void tearDown() {
+        for (TmfTraceStub trace : fTraces) {
+            trace.dispose();
+        }
+        fTraces.clear();
+    }
+
+    /**
+     * Create a trace whose requests run on the executor. It is not indexed,
+     * so that only the requests of the test run. Its coalescing timer is
+     * disabled, its background requests are queued by
+     * {@link #fireBackgroundRequests}.
+     */
+    private TmfTraceStub createTrace() throws Exception {
+        assertTrue(TmfWorkStealingRequestExecutor.isEnabled());
+        try {
+            URL location = FileLocator.find(TmfCoreTestPlugin.getDefault().getBundle(), new Path(TmfTestTrace.A_TEST_10K.getFullPath()), null);
+            File test = new File(FileLocator.toFileURL(location).toURI());
+            TmfTraceStub trace = new TmfTraceStub(test.getPath(), 500, false, null);
+            fTraces.add(trace);
+            trace.setTimerEnabledFlag(false);
+            return trace;
+        } catch (TmfTraceException | URISyntaxException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Queue the background requests sent to the trace so far, coalesced in
+     * one request
+     */
+    private static void fireBackgroundRequests(TmfTraceStub trace) {
+        trace.notifyPendingRequest(false);
+    }
+
+    // ------------------------------------------------------------------------
+    // Tests
+    // ------------------------------------------------------------------------
+
+    /**
+     * Test that the requests of a provider start in the order they are sent,
+     * and that each receives all its events in order
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testRequestOrder() throws Exception {
+        TmfTraceStub trace = createTrace();
+        List<RecordingRequest> startOrder = Collections.synchronizedList(new ArrayList<RecordingRequest>());
+        List<RecordingRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            RecordingRequest request = new RecordingRequest(ITmfEventRequest.ALL_DATA, ExecutionType.FOREGROUND, startOrder, 100);
+            requests.add(request);
+            trace.sendRequest(request);
+        }
+        for (RecordingRequest request : requests) {
+            request.waitForCompletion();
+            assertTrue(request.isCompleted());
+            assertFalse(request.isCancelled());
+            request.assertEventsInOrder(NB_EVENTS);
+        }
+        assertEquals(requests, startOrder);
+    }
+
+    /**
+     * Test that a foreground request does not wait for the end of a
+     * background request, which still gets all its events afterwards
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testForegroundPreemption() throws Exception {
+        TmfTraceStub trace = createTrace();
+        List<RecordingRequest> startOrder = Collections.synchronizedList(new ArrayList<RecordingRequest>());
+        RecordingRequest background = new RecordingRequest(ITmfEventRequest.ALL_DATA, ExecutionType.BACKGROUND, startOrder, 10);
+        trace.sendRequest(background);
+        fireBackgroundRequests(trace);
+        assertTrue(background.fStarted.await(10, TimeUnit.SECONDS));
+
+        RecordingRequest foreground = new RecordingRequest(100, ExecutionType.FOREGROUND, startOrder, 0);
+        trace.sendRequest(foreground);
+        foreground.waitForCompletion();
+        foreground.assertEventsInOrder(100);
+        assertFalse(background.isCompleted());
+
+        background.waitForCompletion();
+        assertFalse(background.isCancelled());
+        background.assertEventsInOrder(NB_EVENTS);
+    }
+
+    /**
+     * Test cancelling a queued request and the running one, and that the
+     * provider keeps running the requests sent afterwards
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testCancel() throws Exception {
+        TmfTraceStub trace = createTrace();
+        List<RecordingRequest> startOrder = Collections.synchronizedList(new ArrayList<RecordingRequest>());
+        RecordingRequest running = new RecordingRequest(ITmfEventRequest.ALL_DATA, ExecutionType.FOREGROUND, startOrder, 10);
+        trace.sendRequest(running);
+        assertTrue(running.fStarted.await(10, TimeUnit.SECONDS));
+
+        RecordingRequest queued = new RecordingRequest(ITmfEventRequest.ALL_DATA, ExecutionType.FOREGROUND, startOrder, 0);
+        trace.sendRequest(queued);
+        queued.cancel();
+        queued.waitForCompletion();
+        assertTrue(queued.isCancelled());
+        assertTrue(queued.fTimes.size() < NB_EVENTS);
+
+        running.cancel();
+        running.waitForCompletion();
+        assertTrue(running.isCancelled());
+        assertTrue(running.fTimes.size() < NB_EVENTS);
+
+        RecordingRequest next = new RecordingRequest(ITmfEventRequest.ALL_DATA, ExecutionType.FOREGROUND, startOrder, 0);
+        trace.sendRequest(next);
+        next.waitForCompletion();
+        assertFalse(next.isCancelled());
+        next.assertEventsInOrder(NB_EVENTS);
+    }
+
+    /**
+     * Test that disposing the provider cancels its running and queued
+     * requests
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testDispose() throws Exception {
+        TmfTraceStub trace = createTrace();
+        List<RecordingRequest> startOrder = Collections.synchronizedList(new ArrayList<RecordingRequest>());
+        RecordingRequest running = new RecordingRequest(ITmfEventRequest.ALL_DATA, ExecutionType.BACKGROUND, startOrder, 10);
+        trace.sendRequest(running);
+        fireBackgroundRequests(trace);
+        assertTrue(running.fStarted.await(10, TimeUnit.SECONDS));
+        RecordingRequest queued = new RecordingRequest(ITmfEventRequest.ALL_DATA, ExecutionType.BACKGROUND, startOrder, 0);
+        trace.sendRequest(queued);
+        fireBackgroundRequests(trace);
+
+        fTraces.remove(trace);
+        trace.dispose();
+        running.waitForCompletion();
+        queued.waitForCompletion();
+        assertTrue(running.isCancelled());
+        assertTrue(queued.isCancelled());
+    }
+
+    /**
+     * Test that coalesced requests blocked in their event handler, then
+     * suspended on the pool by foreground requests, do not keep the
+     * foreground requests of the other traces from running, even when there
+     * are more traces than workers in the pool.
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testBlockingCoalescedRequests() throws Exception {
+        List<RecordingRequest> startOrder = Collections.synchronizedList(new ArrayList<RecordingRequest>());
+        List<TmfTraceStub> traces = new ArrayList<>();
+        List<RecordingRequest> backgroundRequests = new ArrayList<>();
+        for (int i = 0; i < NB_TRACES; i++) {
+            TmfTraceStub trace = createTrace();
+            traces.add(trace);
+            /* Both requests are coalesced in one, whose events are slow to handle */
+            for (int j = 0; j < 2; j++) {
+                RecordingRequest request = new RecordingRequest(ITmfEventRequest.ALL_DATA, ExecutionType.BACKGROUND, startOrder, 1);
+                backgroundRequests.add(request);
+                trace.sendRequest(request);
+            }
+            fireBackgroundRequests(trace);
+        }
+        assertTrue(backgroundRequests.get(0).fStarted.await(10, TimeUnit.SECONDS));
+
+        List<RecordingRequest> foregroundRequests = new ArrayList<>();
+        for (TmfTraceStub trace : traces) {
+            RecordingRequest request = new RecordingRequest(100, ExecutionType.FOREGROUND, startOrder, 0);
+            foregroundRequests.add(request);
+            trace.sendRequest(request);
+        }
+        for (RecordingRequest request : foregroundRequests) {
+            request.waitForCompletion();
+            assertFalse(request.isCancelled());
+            request.assertEventsInOrder(100);
+        }
+
+        for (RecordingRequest request : backgroundRequests) {
+            request.cancel();
+        }
+        for (RecordingRequest request : backgroundRequests) {
+            request.waitForCompletion();
+            assertTrue(request.isCancelled());
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.tmf.core.tests.statesystem;
+
+import static org.eclipse.tracecompass.common.core.NonNullUtils.checkNotNull;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
+import org.eclipse.tracecompass.statesystem.core.StateSystemFactory;
+import org.eclipse.tracecompass.statesystem.core.backend.StateHistoryBackendFactory;
+import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
+import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.event.TmfEvent;
+import org.eclipse.tracecompass.tmf.core.statesystem.AbstractTmfStateProvider;
+import org.eclipse.tracecompass.tmf.core.statesystem.ITmfStateProvider;
+import org.eclipse.tracecompass.tmf.core.timestamp.TmfNanoTimestamp;
+import org.eclipse.tracecompass.tmf.core.trace.ITmfTrace;
+import org.eclipse.tracecompass.tmf.tests.stubs.trace.TmfTraceStub;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+/**
+ * Test the hand-off of the events of {@link AbstractTmfStateProvider} to its
+ * event handler's thread
+ */
+public class AbstractTmfStateProviderTest {
+
+    /** Time-out tests after 20 seconds */
+    @Rule
+    public TestRule globalTimeout = new Timeout(20, TimeUnit.SECONDS);
+
+    private static final @NonNull String SSID = "test";
+
+    /** Larger than the maximum size of a chunk */
+    private static final int NB_EVENTS = 20000;
+
+    private TmfTraceStub fTrace;
+    private RecordingStateProvider fProvider;
+    private ITmfStateSystemBuilder fSS;
+
+    /**
+     * State provider recording the events and the chunks it handles
+     */
+    private static class RecordingStateProvider extends AbstractTmfStateProvider {
+
+        final List<ITmfEvent> fEvents = Collections.synchronizedList(new ArrayList<ITmfEvent>());
+        final List<Integer> fChunkSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        volatile long fHandleTime = 0;
+        volatile CountDownLatch fLatch = new CountDownLatch(0);
+        volatile CountDownLatch fBlock = new CountDownLatch(0);
+
+        public RecordingStateProvider(ITmfTrace trace) {
+            super(trace, "Recording State Provider");
+        }
+
+        @Override
+        public int getVersion() {
+            return 0;
+        }
+
+        @Override
+        public ITmfStateProvider getNewInstance() {
+            return new RecordingStateProvider(getTrace());
+        }
+
+        @Override
+        protected void eventHandle(List<ITmfEvent> events) {
+            assertTrue(!events.isEmpty());
+            fChunkSizes.add(events.size());
+            super.eventHandle(events);
+        }
+
+        @Override
+        protected void eventHandle(ITmfEvent event) {
+            try {
+                fBlock.await();
+                if (fHandleTime > 0) {
+                    Thread.sleep(fHandleTime);
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            ITmfStateSystemBuilder ss = checkNotNull(getStateSystemBuilder());
+            int quark = ss.getQuarkAbsoluteAndAdd("Count");
+            try {
+                ss.modifyAttribute(event.getTimestamp().getValue(), TmfStateValue.newValueInt(fEvents.size()), quark);
+            } catch (AttributeNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+            fEvents.add(event);
+            fLatch.countDown();
+        }
+    }
+
+    /**
+     * Create the provider and its state system
+     */
+    @Before
+    public void setUp() {
+        fTrace = new TmfTraceStub();
+        fProvider = new RecordingStateProvider(fTrace);
+        fSS = StateSystemFactory.newStateSystem(StateHistoryBackendFactory.createInMemoryBackend(SSID, 0));
+        fProvider.assignTargetStateSystem(fSS);
+    }
+
+    /**
+     * Dispose the provider, the state system and the trace
+     */
+    @After
+    public void tearDown() {
+        fProvider.dispose();
+        fSS.dispose();
+        fTrace.dispose();
+    }
+
+    private static @NonNull ITmfEvent createEvent(long time) {
+        return new TmfEvent(null, time, new TmfNanoTimestamp(time), null, null);
+    }
+
+    private void assertEventsInOrder(int nbEvents) {
+        synchronized (fProvider.fEvents) {
+            assertEquals(nbEvents, fProvider.fEvents.size());
+            for (int i = 0; i < nbEvents; i++) {
+                assertEquals(i, fProvider.fEvents.get(i).getRank());
+            }
+        }
+    }
+
+    /**
+     * Test that all the events are handled once, in order, when they are
+     * handed off in chunks
+     */
+    @Test
+    public void testChunkedHandOff() {
+        for (int i = 0; i < NB_EVENTS; i++) {
+            fProvider.processEvent(createEvent(i));
+        }
+        fProvider.waitForEmptyQueue();
+        assertEventsInOrder(NB_EVENTS);
+    }
+
+    /**
+     * Test that {@link AbstractTmfStateProvider#eventHandle(List)} receives
+     * all the events, in non-empty chunks of bounded size
+     */
+    @Test
+    public void testEventHandleList() {
+        for (int i = 0; i < NB_EVENTS; i++) {
+            fProvider.processEvent(createEvent(i));
+        }
+        fProvider.waitForEmptyQueue();
+
+        int total = 0;
+        synchronized (fProvider.fChunkSizes) {
+            assertTrue(fProvider.fChunkSizes.size() > 1);
+            for (int size : fProvider.fChunkSizes) {
+                assertTrue(size > 0 && size <= 4096);
+                total += size;
+            }
+        }
+        assertEquals(NB_EVENTS, total);
+    }
+
+    /**
+     * Test that a partial chunk is handled without waiting for it to fill up,
+     * or for someone to wait for the queue to be empty
+     *
+     * @throws InterruptedException
+     *             Should not happen
+     */
+    @Test
+    public void testPartialChunk() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            fProvider.fLatch = new CountDownLatch(1);
+            fProvider.processEvent(createEvent(i));
+            assertTrue(fProvider.fLatch.await(5, TimeUnit.SECONDS));
+        }
+        assertEventsInOrder(3);
+    }
+
+    /**
+     * Test that {@link AbstractTmfStateProvider#waitForEmptyQueue} only
+     * returns once all the events received so far are handled
+     */
+    @Test
+    public void testWaitForEmptyQueue() {
+        /* Nothing to wait for */
+        fProvider.waitForEmptyQueue();
+        assertEventsInOrder(0);
+
+        fProvider.fHandleTime = 1;
+        for (int i = 0; i < 200; i++) {
+            fProvider.processEvent(createEvent(i));
+        }
+        fProvider.waitForEmptyQueue();
+        assertEventsInOrder(200);
+
+        fProvider.fHandleTime = 0;
+        for (int i = 200; i < NB_EVENTS; i++) {
+            fProvider.processEvent(createEvent(i));
+        }
+        fProvider.waitForEmptyQueue();
+        assertEventsInOrder(NB_EVENTS);
+    }
+
+    /**
+     * Test that the events are handled in order, without blocking, when the
+     * event handler's thread falls behind while another thread flushes the
+     * events and waits for them
+     *
+     * @throws InterruptedException
+     *             Should not happen
+     */
+    @Test
+    public void testConcurrentFlush() throws InterruptedException {
+        final RecordingStateProvider provider = fProvider;
+        provider.fBlock = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                while (done.getCount() > 0) {
+                    provider.waitForEmptyQueue();
+                }
+            }
+        };
+        waiter.start();
+
+        for (int i = 0; i < NB_EVENTS; i++) {
+            fProvider.processEvent(createEvent(i));
+            if (i == NB_EVENTS / 2) {
+                fProvider.fBlock.countDown();
+            }
+        }
+        done.countDown();
+        waiter.join();
+        fProvider.waitForEmptyQueue();
+        assertEventsInOrder(NB_EVENTS);
+    }
+
+    /**
+     * Test that disposing the provider handles the pending events and closes
+     * the history at the last event
+     */
+    @Test
+    public void testDispose() {
+        for (int i = 0; i < NB_EVENTS; i++) {
+            fProvider.processEvent(createEvent(i));
+        }
+        fProvider.dispose();
+        assertEventsInOrder(NB_EVENTS);
+        assertEquals(NB_EVENTS - 1, fSS.getCurrentEndTime());
+    }
+}
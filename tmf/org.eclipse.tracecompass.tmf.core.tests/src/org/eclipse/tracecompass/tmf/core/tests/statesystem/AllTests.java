@@ -20,7 +20,11 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+    AbstractTmfStateProviderTest.class,
     ExperimentStateSystemModuleTest.class,
+    PartialHistoryCheckpointsTest.class,
+    PartialHistoryRangeQueryTest.class,
+    SharedStateProviderRequestTest.class,
     StateSystemAnalysisModuleTest.class
 })
 public class AllTests {
@@ -0,0 +1,321 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.tmf.core.tests.statesystem;
+
+import static org.eclipse.tracecompass.common.core.NonNullUtils.checkNotNull;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystem;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
+import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
+import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
+import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.exceptions.TmfAnalysisException;
+import org.eclipse.tracecompass.tmf.core.statesystem.AbstractTmfStateProvider;
+import org.eclipse.tracecompass.tmf.core.statesystem.ITmfStateProvider;
+import org.eclipse.tracecompass.tmf.core.statesystem.TmfStateSystemAnalysisModule;
+import org.eclipse.tracecompass.tmf.core.tests.shared.TmfTestTrace;
+import org.eclipse.tracecompass.tmf.core.trace.ITmfTrace;
+import org.eclipse.tracecompass.tmf.core.trace.TmfTraceManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+/**
+ * Test the checkpoints file of the partial histories of
+ * {@link TmfStateSystemAnalysisModule}: the history is reopened from it
+ * without reading the trace, unless the file is not valid.
+ */
+public class PartialHistoryCheckpointsTest {
+
+    /** Time-out tests after 60 seconds */
+    @Rule
+    public TestRule globalTimeout = new Timeout(60, TimeUnit.SECONDS);
+
+    private static final String MODULE_ID = "org.eclipse.tracecompass.tmf.core.tests.partial";
+    private static final int NB_EVENTS = 10000;
+    private static final int NB_QUERIES = 4;
+
+    private ITmfTrace fTrace;
+    private File fHistoryFile;
+    private File fCheckpointsFile;
+    private final List<TmfStateSystemAnalysisModule> fModules = new ArrayList<>();
+
+    /**
+     * State provider counting the events it handles. The attribute of each
+     * event's type takes the event's time as value.
+     */
+    private static class CountingStateProvider extends AbstractTmfStateProvider {
+
+        final AtomicInteger fNbEvents = new AtomicInteger();
+
+        public CountingStateProvider(ITmfTrace trace) {
+            super(trace, "Counting State Provider");
+        }
+
+        @Override
+        public int getVersion() {
+            return 0;
+        }
+
+        @Override
+        public ITmfStateProvider getNewInstance() {
+            return new CountingStateProvider(getTrace());
+        }
+
+        @Override
+        protected void eventHandle(ITmfEvent event) {
+            fNbEvents.incrementAndGet();
+            ITmfStateSystemBuilder ss = checkNotNull(getStateSystemBuilder());
+            long time = event.getTimestamp().getValue();
+            int quark = ss.getQuarkAbsoluteAndAdd("Types", event.getType().getName());
+            try {
+                ss.modifyAttribute(time, TmfStateValue.newValueLong(time), quark);
+            } catch (AttributeNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Module building a partial history, keeping the provider that builds it
+     */
+    private static class PartialHistoryModule extends TmfStateSystemAnalysisModule {
+
+        private CountingStateProvider fProvider;
+
+        @Override
+        protected ITmfStateProvider createStateProvider() {
+            CountingStateProvider provider = new CountingStateProvider(checkNotNull(getTrace()));
+            fProvider = provider;
+            return provider;
+        }
+
+        @Override
+        protected StateSystemBackendType getBackendType() {
+            return StateSystemBackendType.PARTIAL;
+        }
+
+        /* The number of events read to build the history */
+        public int getNbBuildEvents() {
+            return fProvider.fNbEvents.get();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Housekeeping
+    // ------------------------------------------------------------------------
+
+    /**
+     * Open and index the trace, so that the histories start at its first
+     * event, and remove the files of previous runs
+     */
+    @Before
+    public void setUp() {
+        fTrace = TmfTestTrace.A_TEST_10K.getTrace();
+        fTrace.indexTrace(true);
+        String directory = TmfTraceManager.getSupplementaryFileDir(fTrace);
+        fHistoryFile = new File(directory + MODULE_ID + ".ht");
+        fCheckpointsFile = new File(fHistoryFile.getPath() + ".ckpt");
+        deleteFiles();
+    }
+
+    /**
+     * Dispose the modules and the trace, and remove the files
+     */
+    @After
+    public void tearDown() {
+        for (TmfStateSystemAnalysisModule module : fModules) {
+            module.dispose();
+        }
+        fModules.clear();
+        deleteFiles();
+        TmfTestTrace.A_TEST_10K.dispose();
+    }
+
+    private void deleteFiles() {
+        fHistoryFile.delete();
+        fCheckpointsFile.delete();
+    }
+
+    private PartialHistoryModule runModule() throws TmfAnalysisException {
+        PartialHistoryModule module = new PartialHistoryModule();
+        fModules.add(module);
+        module.setId(MODULE_ID);
+        module.setTrace(fTrace);
+        module.schedule();
+        assertTrue(module.waitForCompletion());
+        assertNotNull(module.getStateSystem());
+        return module;
+    }
+
+    private void disposeModule(TmfStateSystemAnalysisModule module) {
+        fModules.remove(module);
+        module.dispose();
+    }
+
+    /**
+     * Get the intervals of all the attributes at several times of the trace.
+     * Each query re-reads the trace from the previous checkpoint with a
+     * background request, so there are only a few of them.
+     */
+    private static List<String> queryStates(ITmfStateSystem ss) throws Exception {
+        List<String> states = new ArrayList<>();
+        long start = ss.getStartTime();
+        long end = ss.getCurrentEndTime();
+        for (int i = 0; i < NB_QUERIES; i++) {
+            long t = start + (end - start) / (NB_QUERIES - 1) * i;
+            for (ITmfStateInterval interval : ss.queryFullState(t)) {
+                states.add(interval.getAttribute() + ": " + interval.getStartTime() + " to "
+                        + interval.getEndTime() + " = " + interval.getStateValue());
+            }
+        }
+        return states;
+    }
+
+    // ------------------------------------------------------------------------
+    // Tests
+    // ------------------------------------------------------------------------
+
+    /**
+     * Test that the checkpoints are saved when the history is built, and that
+     * the history is then reopened from them without reading the trace
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testReopen() throws Exception {
+        PartialHistoryModule module = runModule();
+        assertEquals(NB_EVENTS, module.getNbBuildEvents());
+        assertTrue(fHistoryFile.exists());
+        assertTrue(fCheckpointsFile.exists());
+        List<String> expected = queryStates(checkNotNull(module.getStateSystem()));
+        assertFalse(expected.isEmpty());
+        disposeModule(module);
+
+        module = runModule();
+        assertEquals(0, module.getNbBuildEvents());
+        assertEquals(expected, queryStates(checkNotNull(module.getStateSystem())));
+    }
+
+    /**
+     * Test that building the history twice places the same checkpoints
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testDeterministicCheckpoints() throws Exception {
+        PartialHistoryModule module = runModule();
+        assertEquals(NB_EVENTS, module.getNbBuildEvents());
+        byte[] expected = Files.readAllBytes(fCheckpointsFile.toPath());
+        disposeModule(module);
+        deleteFiles();
+
+        module = runModule();
+        assertEquals(NB_EVENTS, module.getNbBuildEvents());
+        assertArrayEquals(expected, Files.readAllBytes(fCheckpointsFile.toPath()));
+    }
+
+    /**
+     * Test that a checkpoints file with the wrong magic number is rejected,
+     * and the history rebuilt
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testWrongMagicNumber() throws Exception {
+        testRejected(0, 0, -1);
+    }
+
+    /**
+     * Test that a checkpoints file of another version is rejected, and the
+     * history rebuilt
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testWrongVersion() throws Exception {
+        testRejected(4, 99, -1);
+    }
+
+    /**
+     * Test that a truncated checkpoints file is rejected, and the history
+     * rebuilt
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testTruncated() throws Exception {
+        /* Only the header, without the checkpoints it announces */
+        testRejected(-1, 0, 20);
+    }
+
+    /**
+     * Build the history, then corrupt its checkpoints file: the history must
+     * be rebuilt when the module runs again, and a valid checkpoints file
+     * written for the next time.
+     *
+     * @param offset
+     *            Where to overwrite an int in the file, or -1
+     * @param value
+     *            The value to write
+     * @param length
+     *            The length to truncate the file to, or -1
+     */
+    private void testRejected(long offset, int value, long length) throws Exception {
+        PartialHistoryModule module = runModule();
+        assertEquals(NB_EVENTS, module.getNbBuildEvents());
+        List<String> expected = queryStates(checkNotNull(module.getStateSystem()));
+        disposeModule(module);
+
+        try (RandomAccessFile file = new RandomAccessFile(fCheckpointsFile, "rw")) {
+            if (offset >= 0) {
+                file.seek(offset);
+                file.writeInt(value);
+            }
+            if (length >= 0) {
+                file.setLength(length);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        module = runModule();
+        assertEquals(NB_EVENTS, module.getNbBuildEvents());
+        assertEquals(expected, queryStates(checkNotNull(module.getStateSystem())));
+        disposeModule(module);
+
+        module = runModule();
+        assertEquals(0, module.getNbBuildEvents());
+        assertEquals(expected, queryStates(checkNotNull(module.getStateSystem())));
+    }
+}
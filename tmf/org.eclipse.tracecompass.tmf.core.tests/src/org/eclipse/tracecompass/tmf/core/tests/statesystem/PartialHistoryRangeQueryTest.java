@@ -0,0 +1,317 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.tmf.core.tests.statesystem;
+
+import static org.eclipse.tracecompass.common.core.NonNullUtils.checkNotNull;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.tracecompass.internal.statesystem.core.StateSystem;
+import org.eclipse.tracecompass.internal.tmf.core.statesystem.backends.partial.PartialHistoryBackend;
+import org.eclipse.tracecompass.internal.tmf.core.statesystem.backends.partial.PartialStateSystem;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystem;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
+import org.eclipse.tracecompass.statesystem.core.StateSystemFactory;
+import org.eclipse.tracecompass.statesystem.core.StateSystemUtils;
+import org.eclipse.tracecompass.statesystem.core.StateSystemUtils.QuarkIterator;
+import org.eclipse.tracecompass.statesystem.core.backend.IStateHistoryBackend;
+import org.eclipse.tracecompass.statesystem.core.backend.StateHistoryBackendFactory;
+import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
+import org.eclipse.tracecompass.statesystem.core.exceptions.TimeRangeException;
+import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
+import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.request.ITmfEventRequest;
+import org.eclipse.tracecompass.tmf.core.request.TmfEventRequest;
+import org.eclipse.tracecompass.tmf.core.statesystem.AbstractTmfStateProvider;
+import org.eclipse.tracecompass.tmf.core.statesystem.ITmfStateProvider;
+import org.eclipse.tracecompass.tmf.core.tests.shared.TmfTestTrace;
+import org.eclipse.tracecompass.tmf.core.timestamp.ITmfTimestamp;
+import org.eclipse.tracecompass.tmf.core.timestamp.TmfTimeRange;
+import org.eclipse.tracecompass.tmf.core.trace.ITmfTrace;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+/**
+ * Test the single and range queries, and the interval iterator, of partial
+ * histories, which re-read the trace between their checkpoints, against a
+ * full history of the same trace.
+ */
+public class PartialHistoryRangeQueryTest {
+
+    /** Time-out tests after 60 seconds */
+    @Rule
+    public TestRule globalTimeout = new Timeout(60, TimeUnit.SECONDS);
+
+    private static final @NonNull String SSID = "test-partial-range";
+    /* Small enough to have checkpoints in the middle of the trace */
+    private static final long GRANULARITY = 1000;
+    private static final int NB_RANGES = 5;
+
+    private ITmfTrace fTrace;
+    private File fHistoryFile;
+    private ITmfStateSystem fExpected;
+    private ITmfStateSystem fPartial;
+
+    /**
+     * State provider where the attribute of each event type takes the number
+     * of the step of the trace in which the event is. The intervals then span
+     * several events, and some of them contain checkpoints. The state only
+     * depends on the current event, so that re-reading the trace from a
+     * checkpoint gives the same states.
+     */
+    private static class StepStateProvider extends AbstractTmfStateProvider {
+
+        private static final long NB_STEPS = 100;
+
+        public StepStateProvider(ITmfTrace trace) {
+            super(trace, "Step State Provider");
+        }
+
+        @Override
+        public int getVersion() {
+            return 0;
+        }
+
+        @Override
+        public ITmfStateProvider getNewInstance() {
+            return new StepStateProvider(getTrace());
+        }
+
+        @Override
+        protected void eventHandle(ITmfEvent event) {
+            ITmfStateSystemBuilder ss = checkNotNull(getStateSystemBuilder());
+            TmfTimeRange range = getTrace().getTimeRange();
+            long start = range.getStartTime().normalize(0, ITmfTimestamp.NANOSECOND_SCALE).getValue();
+            long end = range.getEndTime().normalize(0, ITmfTimestamp.NANOSECOND_SCALE).getValue();
+            long time = event.getTimestamp().normalize(0, ITmfTimestamp.NANOSECOND_SCALE).getValue();
+            long step = (time - start) * NB_STEPS / Math.max(1, end - start);
+            int quark = ss.getQuarkAbsoluteAndAdd("Types", event.getType().getName());
+            try {
+                ss.modifyAttribute(time, TmfStateValue.newValueLong(step), quark);
+            } catch (AttributeNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Housekeeping
+    // ------------------------------------------------------------------------
+
+    /**
+     * Build a full history and a partial history of the test trace
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Before
+    public void setUp() throws Exception {
+        fTrace = TmfTestTrace.A_TEST_10K.getTrace();
+        fTrace.indexTrace(true);
+
+        ITmfStateProvider expectedProvider = new StepStateProvider(fTrace);
+        ITmfStateSystemBuilder expected = StateSystemFactory.newStateSystem(
+                StateHistoryBackendFactory.createInMemoryBackend(SSID, expectedProvider.getStartTime()));
+        expectedProvider.assignTargetStateSystem(expected);
+        readTrace(expectedProvider);
+        fExpected = expected;
+
+        fHistoryFile = File.createTempFile(SSID, ".ht");
+        ITmfStateProvider provider = new StepStateProvider(fTrace);
+        IStateHistoryBackend realBackend = StateHistoryBackendFactory.createHistoryTreeBackendNewFile(
+                SSID, fHistoryFile, provider.getVersion(), provider.getStartTime(), 1000);
+        ITmfStateProvider partialProvider = provider.getNewInstance();
+        PartialStateSystem pss = new PartialStateSystem();
+        partialProvider.assignTargetStateSystem(pss);
+        IStateHistoryBackend partialBackend = new PartialHistoryBackend(SSID + ".partial",
+                partialProvider, pss, realBackend, GRANULARITY);
+        StateSystem partial = (StateSystem) StateSystemFactory.newStateSystem(partialBackend);
+        pss.assignUpstream(partial);
+        provider.assignTargetStateSystem(partial);
+        readTrace(provider);
+        fPartial = partial;
+    }
+
+    /**
+     * Dispose the histories and the trace
+     */
+    @After
+    public void tearDown() {
+        if (fExpected != null) {
+            fExpected.dispose();
+        }
+        if (fPartial != null) {
+            fPartial.dispose();
+        }
+        if (fHistoryFile != null) {
+            fHistoryFile.delete();
+        }
+        TmfTestTrace.A_TEST_10K.dispose();
+    }
+
+    /*
+     * Send all the events of the trace to the provider, then dispose it, which
+     * closes its history
+     */
+    private void readTrace(final ITmfStateProvider provider) throws InterruptedException {
+        TmfEventRequest request = new TmfEventRequest(ITmfEvent.class, TmfTimeRange.ETERNITY, 0,
+                ITmfEventRequest.ALL_DATA, ITmfEventRequest.ExecutionType.BACKGROUND) {
+            @Override
+            public void handleData(ITmfEvent event) {
+                super.handleData(event);
+                provider.processEvent(event);
+            }
+        };
+        fTrace.sendRequest(request);
+        request.waitForCompletion();
+        provider.dispose();
+    }
+
+    private static String toString(List<ITmfStateInterval> intervals) {
+        StringBuilder sb = new StringBuilder();
+        for (ITmfStateInterval interval : intervals) {
+            sb.append(interval.getAttribute()).append(": ")
+                    .append(interval.getStartTime()).append(" to ")
+                    .append(interval.getEndTime()).append(" = ")
+                    .append(interval.getStateValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private List<Integer> getQuarks() {
+        List<Integer> quarks = fExpected.getQuarks("Types", "*");
+        assertFalse(quarks.isEmpty());
+        assertEquals(quarks, fPartial.getQuarks("Types", "*"));
+        return quarks;
+    }
+
+    // ------------------------------------------------------------------------
+    // Tests
+    // ------------------------------------------------------------------------
+
+    /**
+     * Test the range queries over the whole history, and over ranges that
+     * start and end between checkpoints
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testRangeQueries() throws Exception {
+        long start = fExpected.getStartTime();
+        long end = fExpected.getCurrentEndTime();
+        assertEquals(start, fPartial.getStartTime());
+        assertEquals(end, fPartial.getCurrentEndTime());
+
+        for (int quark : getQuarks()) {
+            assertEquals(toString(StateSystemUtils.queryHistoryRange(fExpected, quark, start, end)),
+                    toString(StateSystemUtils.queryHistoryRange(fPartial, quark, start, end)));
+            for (int i = 0; i < NB_RANGES; i++) {
+                long t1 = start + (end - start) / NB_RANGES * i + 123;
+                long t2 = t1 + (end - start) / (NB_RANGES * 2);
+                assertEquals(toString(StateSystemUtils.queryHistoryRange(fExpected, quark, t1, t2)),
+                        toString(StateSystemUtils.queryHistoryRange(fPartial, quark, t1, t2)));
+            }
+        }
+    }
+
+    /**
+     * Test the range queries with a resolution
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testRangeQueriesResolution() throws Exception {
+        long start = fExpected.getStartTime();
+        long end = fExpected.getCurrentEndTime();
+        long resolution = (end - start) / 100 + 1;
+
+        for (int quark : getQuarks()) {
+            assertEquals(toString(StateSystemUtils.queryHistoryRange(fExpected, quark, start, end, resolution, null)),
+                    toString(StateSystemUtils.queryHistoryRange(fPartial, quark, start, end, resolution, null)));
+        }
+    }
+
+    /**
+     * Test the single queries, which return the complete intervals
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testSingleQueries() throws Exception {
+        long start = fExpected.getStartTime();
+        long end = fExpected.getCurrentEndTime();
+        List<Integer> quarks = getQuarks();
+
+        for (int i = 0; i <= NB_RANGES; i++) {
+            long t = start + (end - start) / NB_RANGES * i;
+            List<ITmfStateInterval> expected = new ArrayList<>();
+            List<ITmfStateInterval> actual = new ArrayList<>();
+            for (int quark : quarks) {
+                expected.add(fExpected.querySingleState(t, quark));
+                actual.add(fPartial.querySingleState(t, quark));
+            }
+            assertEquals(toString(expected), toString(actual));
+        }
+    }
+
+    /**
+     * Test the interval iterator, which reads its intervals with range
+     * queries, from the middle of the history in both directions
+     */
+    @Test
+    public void testQuarkIterator() {
+        long t = (fExpected.getStartTime() + fExpected.getCurrentEndTime()) / 2;
+        for (int quark : getQuarks()) {
+            QuarkIterator expected = new QuarkIterator(fExpected, quark, t);
+            QuarkIterator actual = new QuarkIterator(fPartial, quark, t);
+            while (expected.hasNext()) {
+                assertTrue(actual.hasNext());
+                assertEquals(expected.next().toString(), actual.next().toString());
+            }
+            assertFalse(actual.hasNext());
+
+            expected = new QuarkIterator(fExpected, quark, t);
+            actual = new QuarkIterator(fPartial, quark, t);
+            while (expected.hasPrevious()) {
+                assertTrue(actual.hasPrevious());
+                assertEquals(expected.previous().toString(), actual.previous().toString());
+            }
+            assertFalse(actual.hasPrevious());
+        }
+    }
+
+    /**
+     * Test that queries outside of the history are rejected like in a full
+     * history
+     *
+     * @throws Exception
+     *             The expected exception
+     */
+    @Test(expected = TimeRangeException.class)
+    public void testSingleQueryInvalidTime() throws Exception {
+        int quark = getQuarks().get(0);
+        fPartial.querySingleState(fPartial.getCurrentEndTime() + 10, quark);
+    }
+}
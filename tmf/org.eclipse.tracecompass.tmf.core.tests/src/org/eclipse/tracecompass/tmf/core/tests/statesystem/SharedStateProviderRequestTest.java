@@ -0,0 +1,281 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.tmf.core.tests.statesystem;
+
+import static org.eclipse.tracecompass.common.core.NonNullUtils.checkNotNull;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.tracecompass.internal.tmf.core.statesystem.SharedStateProviderRequest;
+import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
+import org.eclipse.tracecompass.statesystem.core.StateSystemFactory;
+import org.eclipse.tracecompass.statesystem.core.backend.StateHistoryBackendFactory;
+import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
+import org.eclipse.tracecompass.statesystem.core.statevalue.TmfStateValue;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.statesystem.AbstractTmfStateProvider;
+import org.eclipse.tracecompass.tmf.core.statesystem.ITmfStateProvider;
+import org.eclipse.tracecompass.tmf.core.statesystem.TmfStateSystemAnalysisModule;
+import org.eclipse.tracecompass.tmf.core.tests.shared.TmfTestTrace;
+import org.eclipse.tracecompass.tmf.core.trace.ITmfTrace;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+/**
+ * Test the shared read of a trace by several state providers, with
+ * {@link SharedStateProviderRequest}
+ */
+public class SharedStateProviderRequestTest {
+
+    /** Time-out tests after 60 seconds */
+    @Rule
+    public TestRule globalTimeout = new Timeout(60, TimeUnit.SECONDS);
+
+    private static final @NonNull String SSID = "test";
+    private static final int NB_EVENTS = 10000;
+    private static final int NB_PROVIDERS = 5;
+
+    private ITmfTrace fTrace;
+    private final List<CountingStateProvider> fProviders = new ArrayList<>();
+    private final List<ITmfStateSystemBuilder> fStateSystems = new ArrayList<>();
+
+    /**
+     * State provider counting the events it handles, in order. The attribute
+     * of each event's type takes the event's time as value.
+     */
+    private static class CountingStateProvider extends AbstractTmfStateProvider {
+
+        final AtomicInteger fNbEvents = new AtomicInteger();
+        volatile boolean fInOrder = true;
+        private long fLastRank = -1;
+
+        public CountingStateProvider(ITmfTrace trace) {
+            super(trace, "Counting State Provider");
+        }
+
+        @Override
+        public int getVersion() {
+            return 0;
+        }
+
+        @Override
+        public ITmfStateProvider getNewInstance() {
+            return new CountingStateProvider(getTrace());
+        }
+
+        @Override
+        protected void eventHandle(ITmfEvent event) {
+            if (event.getRank() != fLastRank + 1) {
+                fInOrder = false;
+            }
+            fLastRank = event.getRank();
+            fNbEvents.incrementAndGet();
+            ITmfStateSystemBuilder ss = checkNotNull(getStateSystemBuilder());
+            long time = event.getTimestamp().getValue();
+            int quark = ss.getQuarkAbsoluteAndAdd("Types", event.getType().getName());
+            try {
+                ss.modifyAttribute(time, TmfStateValue.newValueLong(time), quark);
+            } catch (AttributeNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Module building an in-memory history, keeping its provider
+     */
+    private static class CountingModule extends TmfStateSystemAnalysisModule {
+
+        private CountingStateProvider fProvider;
+
+        @Override
+        protected ITmfStateProvider createStateProvider() {
+            CountingStateProvider provider = new CountingStateProvider(checkNotNull(getTrace()));
+            fProvider = provider;
+            return provider;
+        }
+
+        @Override
+        protected StateSystemBackendType getBackendType() {
+            return StateSystemBackendType.INMEM;
+        }
+
+        public int getNbBuildEvents() {
+            return fProvider.fNbEvents.get();
+        }
+    }
+
+    /**
+     * Open and index the trace
+     */
+    @Before
+    public void setUp() {
+        fTrace = TmfTestTrace.A_TEST_10K.getTrace();
+        fTrace.indexTrace(true);
+    }
+
+    /**
+     * Dispose the providers, the state systems and the trace
+     */
+    @After
+    public void tearDown() {
+        for (CountingStateProvider provider : fProviders) {
+            provider.dispose();
+        }
+        for (ITmfStateSystemBuilder ss : fStateSystems) {
+            ss.dispose();
+        }
+        fProviders.clear();
+        fStateSystems.clear();
+        TmfTestTrace.A_TEST_10K.dispose();
+    }
+
+    private CountingStateProvider createProvider() {
+        CountingStateProvider provider = new CountingStateProvider(fTrace);
+        ITmfStateSystemBuilder ss = StateSystemFactory.newStateSystem(
+                StateHistoryBackendFactory.createInMemoryBackend(SSID, provider.getStartTime()));
+        provider.assignTargetStateSystem(ss);
+        fProviders.add(provider);
+        fStateSystems.add(ss);
+        return provider;
+    }
+
+    /**
+     * Test that the providers joining together share one request, which reads
+     * the trace once, and that each one handles every event in order
+     *
+     * @throws InterruptedException
+     *             Should not happen
+     */
+    @Test
+    public void testSharedRead() throws InterruptedException {
+        List<SharedStateProviderRequest> requests = new ArrayList<>();
+        for (int i = 0; i < NB_PROVIDERS; i++) {
+            requests.add(SharedStateProviderRequest.join(createProvider()));
+        }
+        SharedStateProviderRequest request = requests.get(0);
+        for (int i = 0; i < NB_PROVIDERS; i++) {
+            assertSame(request, requests.get(i));
+            assertTrue(request.waitForProvider(fProviders.get(i)));
+        }
+        assertEquals(NB_EVENTS, request.getNbRead());
+        assertEquals(NB_PROVIDERS, request.getProviders().size());
+
+        for (int i = 0; i < NB_PROVIDERS; i++) {
+            CountingStateProvider provider = fProviders.get(i);
+            provider.dispose();
+            assertEquals(NB_EVENTS, provider.fNbEvents.get());
+            assertTrue(provider.fInOrder);
+            ITmfStateSystemBuilder ss = fStateSystems.get(i);
+            assertTrue(ss.waitUntilBuilt(0));
+            assertEquals(fTrace.getEndTime().getValue(), ss.getCurrentEndTime());
+        }
+    }
+
+    /**
+     * Test that a provider joining once the request has started reading the
+     * trace gets a new request
+     *
+     * @throws InterruptedException
+     *             Should not happen
+     */
+    @Test
+    public void testJoinAfterStart() throws InterruptedException {
+        CountingStateProvider first = createProvider();
+        SharedStateProviderRequest firstRequest = SharedStateProviderRequest.join(first);
+        assertTrue(firstRequest.waitForProvider(first));
+
+        CountingStateProvider second = createProvider();
+        SharedStateProviderRequest secondRequest = SharedStateProviderRequest.join(second);
+        assertNotSame(firstRequest, secondRequest);
+        assertTrue(secondRequest.waitForProvider(second));
+
+        first.dispose();
+        second.dispose();
+        assertEquals(NB_EVENTS, first.fNbEvents.get());
+        assertEquals(NB_EVENTS, second.fNbEvents.get());
+    }
+
+    /**
+     * Test that a provider leaving the request does not stop the others, and
+     * that the request is cancelled once they all left
+     *
+     * @throws InterruptedException
+     *             Should not happen
+     */
+    @Test
+    public void testLeave() throws InterruptedException {
+        CountingStateProvider leaving = createProvider();
+        CountingStateProvider staying = createProvider();
+        SharedStateProviderRequest request = SharedStateProviderRequest.join(leaving);
+        assertSame(request, SharedStateProviderRequest.join(staying));
+
+        request.leave(leaving);
+        assertFalse(request.waitForProvider(leaving));
+        leaving.dispose();
+        assertTrue(request.waitForProvider(staying));
+        assertFalse(request.isCancelled());
+        staying.dispose();
+        assertEquals(NB_EVENTS, staying.fNbEvents.get());
+
+        CountingStateProvider last = createProvider();
+        request = SharedStateProviderRequest.join(last);
+        request.leave(last);
+        assertFalse(request.waitForProvider(last));
+        last.dispose();
+        request.waitForCompletion();
+        assertTrue(request.isCancelled());
+    }
+
+    /**
+     * Test that the analysis modules scheduled together on a trace each
+     * build their history from one shared read of the trace
+     *
+     * @throws Exception
+     *             Should not happen
+     */
+    @Test
+    public void testModules() throws Exception {
+        List<CountingModule> modules = new ArrayList<>();
+        try {
+            for (int i = 0; i < NB_PROVIDERS; i++) {
+                CountingModule module = new CountingModule();
+                modules.add(module);
+                module.setId("org.eclipse.tracecompass.tmf.core.tests.shared" + i);
+                module.setTrace(fTrace);
+            }
+            for (CountingModule module : modules) {
+                module.schedule();
+            }
+            for (CountingModule module : modules) {
+                assertTrue(module.waitForCompletion());
+                assertEquals(NB_EVENTS, module.getNbBuildEvents());
+                assertTrue(checkNotNull(module.getStateSystem()).waitUntilBuilt(0));
+            }
+        } finally {
+            for (CountingModule module : modules) {
+                module.dispose();
+            }
+        }
+    }
+}
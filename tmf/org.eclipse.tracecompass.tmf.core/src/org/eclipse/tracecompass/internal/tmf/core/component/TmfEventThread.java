@@ -15,6 +15,7 @@
 package org.eclipse.tracecompass.internal.tmf.core.component;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 
 import org.eclipse.tracecompass.internal.tmf.core.Activator;
 import org.eclipse.tracecompass.internal.tmf.core.TmfCoreTracer;
@@ -193,8 +194,11 @@ public class TmfEventThread implements Runnable {
 
                 // Pause execution if requested
                 while (fIsPaused) {
-                    CountDownLatch latch = fLatch;
-                    latch.await();
+                    /*
+                     * When run in a fork/join pool, let the pool start another
+                     * worker while this one is blocked.
+                     */
+                    ForkJoinPool.managedBlock(new LatchBlocker(fLatch));
                 }
 
                 // To avoid an unnecessary read passed the last event requested
@@ -254,4 +258,28 @@ public class TmfEventThread implements Runnable {
             fRequest.cancel();
         }
     }
+
+    // ------------------------------------------------------------------------
+    // Helper classes
+    // ------------------------------------------------------------------------
+
+    private static final class LatchBlocker implements ForkJoinPool.ManagedBlocker {
+
+        private final CountDownLatch fBlockerLatch;
+
+        public LatchBlocker(CountDownLatch latch) {
+            fBlockerLatch = latch;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            fBlockerLatch.await();
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return (fBlockerLatch.getCount() == 0);
+        }
+    }
 }
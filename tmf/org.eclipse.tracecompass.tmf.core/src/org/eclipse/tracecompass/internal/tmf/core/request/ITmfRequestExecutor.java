@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.internal.tmf.core.request;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor of the event requests of an event provider. The commands it
+ * receives are the
+ * {@link org.eclipse.tracecompass.internal.tmf.core.component.TmfEventThread}s
+ * of the requests.
+ */
+public interface ITmfRequestExecutor extends Executor {
+
+    /**
+     * Initialize the executor
+     */
+    void init();
+
+    /**
+     * Stops the executor, cancelling the requests that are not completed
+     */
+    void stop();
+
+    /**
+     * @return the shutdown state (i.e. if it is accepting new requests)
+     */
+    boolean isShutdown();
+
+    /**
+     * @return the termination state
+     */
+    boolean isTerminated();
+}
@@ -18,7 +18,6 @@ import java.util.Queue;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -38,7 +37,7 @@ import org.eclipse.tracecompass.tmf.core.request.ITmfEventRequest.ExecutionType;
  * @author Simon Delisle
  * @version 1.1
  */
-public class TmfRequestExecutor implements Executor {
+public class TmfRequestExecutor implements ITmfRequestExecutor {
 
     // ------------------------------------------------------------------------
     // Constants
@@ -86,16 +85,12 @@ public class TmfRequestExecutor implements Executor {
     // Getters
     // ------------------------------------------------------------------------
 
-    /**
-     * @return the shutdown state (i.e. if it is accepting new requests)
-     */
+    @Override
     public boolean isShutdown() {
         return fExecutor.isShutdown();
     }
 
-    /**
-     * @return the termination state
-     */
+    @Override
     public boolean isTerminated() {
         return fExecutor.isTerminated();
     }
@@ -104,9 +99,7 @@ public class TmfRequestExecutor implements Executor {
     // Operations
     // ------------------------------------------------------------------------
 
-    /**
-     * Initialize the executor
-     */
+    @Override
     public void init() {
         if (fTimer != null) {
             return;
@@ -207,9 +200,7 @@ public class TmfRequestExecutor implements Executor {
         }
     }
 
-    /**
-     * Stops the executor
-     */
+    @Override
     public synchronized void stop() {
         if (fTimerTask != null) {
             fTimerTask.cancel();
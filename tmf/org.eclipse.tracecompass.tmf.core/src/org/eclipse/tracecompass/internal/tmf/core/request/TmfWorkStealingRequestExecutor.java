@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.internal.tmf.core.request;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.tracecompass.internal.tmf.core.TmfCoreTracer;
+import org.eclipse.tracecompass.internal.tmf.core.component.TmfEventThread;
+import org.eclipse.tracecompass.tmf.core.request.ITmfEventRequest.ExecutionType;
+
+/**
+ * Request executor running the requests of all the event providers on a
+ * shared {@link ForkJoinPool}, so that the requests of different traces run
+ * concurrently. Suspended requests let the pool start other workers while
+ * they wait.
+ *
+ * The requests of one provider still run one at a time, like with the
+ * {@link TmfRequestExecutor}, but:
+ * <ul>
+ * <li>a request starts as soon as it is queued if the provider is idle,</li>
+ * <li>a foreground request immediately pre-empts a background request,</li>
+ * <li>requests of the same provider only share it by time slices when there
+ * are several of them, with the same 4 to 1 ratio between foreground and
+ * background requests,</li>
+ * <li>the queues are not bounded, so no request is cancelled because too many
+ * are pending.</li>
+ * </ul>
+ *
+ * It is used instead of the {@link TmfRequestExecutor} when the
+ * {@link #ENABLE_PROPERTY} system property is set to true.
+ */
+public class TmfWorkStealingRequestExecutor implements ITmfRequestExecutor {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /** System property enabling this executor for the event providers */
+    public static final String ENABLE_PROPERTY = "org.eclipse.tracecompass.tmf.core.workStealingExecutor"; //$NON-NLS-1$
+
+    private static final long TIME_SLICE = 100;
+    private static final int FOREGROUND_SLOT = 4;
+
+    /*
+     * Reading events mostly waits on I/O, so run more requests than there
+     * are processors, so that the traces do not wait for each other.
+     */
+    private static final int MIN_PARALLELISM = 8;
+
+    /** Pool running the requests of every provider, in FIFO order */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(MIN_PARALLELISM, Runtime.getRuntime().availableProcessors()),
+            ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+
+    /** Timer ending the time slices of every provider */
+    private static final ScheduledExecutorService SLICE_TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "TmfWorkStealingRequestExecutor time slices"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // ------------------------------------------------------------------------
+    // Attributes
+    // ------------------------------------------------------------------------
+
+    // The request queues
+    private final Deque<TmfEventThread> fForegroundTasks = new ArrayDeque<>();
+    private final Deque<TmfEventThread> fBackgroundTasks = new ArrayDeque<>();
+
+    // The tasks
+    private TmfEventThread fActiveTask;
+    private ScheduledFuture<?> fSliceEnd;
+    /* Incremented when a slice starts or is cancelled, to ignore late timer calls */
+    private long fSliceGeneration = 0;
+
+    private int fForegroundCycle = 0;
+    private boolean fIsShutdown = false;
+
+    // ------------------------------------------------------------------------
+    // Operations
+    // ------------------------------------------------------------------------
+
+    /**
+     * @return If the event providers should use this executor
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLE_PROPERTY);
+    }
+
+    @Override
+    public void init() {
+        /* The pool and the timer are shared, there is nothing to start */
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return fIsShutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        return fIsShutdown && fActiveTask == null;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable command) {
+
+        // We are expecting TmfEventThread:s
+        if (!(command instanceof TmfEventThread)) {
+            return;
+        }
+        TmfEventThread thread = (TmfEventThread) command;
+        if (fIsShutdown) {
+            thread.cancel();
+            return;
+        }
+
+        TmfEventThread wrapper = new TmfEventThread(thread) {
+            @Override
+            public void run() {
+                try {
+                    command.run();
+                } finally {
+                    taskCompleted(this);
+                }
+            }
+        };
+
+        if (thread.getExecType() == ExecutionType.FOREGROUND) {
+            fForegroundTasks.addLast(wrapper);
+        } else {
+            fBackgroundTasks.addLast(wrapper);
+        }
+
+        if (fActiveTask == null) {
+            schedule();
+        } else if (thread.getExecType() == ExecutionType.FOREGROUND &&
+                fActiveTask.getExecType() == ExecutionType.BACKGROUND) {
+            /* Do not make the interactive request wait for the end of the slice */
+            suspendActiveTask(true);
+            fForegroundCycle = 0;
+            schedule();
+        } else {
+            startTimeSlice();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        fIsShutdown = true;
+        cancelTimeSlice();
+
+        if (fActiveTask != null) {
+            cancelTask(fActiveTask);
+        }
+        TmfEventThread task;
+        while ((task = fForegroundTasks.poll()) != null) {
+            cancelTask(task);
+        }
+        while ((task = fBackgroundTasks.poll()) != null) {
+            cancelTask(task);
+        }
+
+        if (TmfCoreTracer.isComponentTraced()) {
+            TmfCoreTracer.trace(this + " terminated"); //$NON-NLS-1$
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Helper methods
+    // ------------------------------------------------------------------------
+
+    private synchronized void taskCompleted(TmfEventThread task) {
+        if (fActiveTask == task) {
+            fActiveTask = null;
+            if (!fIsShutdown) {
+                schedule();
+            }
+        } else {
+            /* It completed right when it was being suspended */
+            fForegroundTasks.remove(task);
+            fBackgroundTasks.remove(task);
+        }
+    }
+
+    private synchronized void endTimeSlice(long generation) {
+        if (generation != fSliceGeneration) {
+            return;
+        }
+        fSliceEnd = null;
+        if (fActiveTask == null || fIsShutdown || !hasTasks()) {
+            return;
+        }
+        suspendActiveTask(false);
+        schedule();
+    }
+
+    /**
+     * Suspend the active task and put it back in its queue, either at the
+     * head (it was pre-empted) or at the tail (its time slice is over).
+     */
+    private void suspendActiveTask(boolean atHead) {
+        TmfEventThread task = fActiveTask;
+        fActiveTask = null;
+        if (task.getThread().isCompleted()) {
+            return;
+        }
+        task.getThread().suspend();
+        Deque<TmfEventThread> queue = (task.getExecType() == ExecutionType.FOREGROUND ? fForegroundTasks : fBackgroundTasks);
+        if (atHead) {
+            queue.addFirst(task);
+        } else {
+            queue.addLast(task);
+        }
+    }
+
+    /**
+     * Start the next pending request, foreground ones first
+     */
+    private void schedule() {
+        cancelTimeSlice();
+        if (!fForegroundTasks.isEmpty() &&
+                (fForegroundCycle < FOREGROUND_SLOT || fBackgroundTasks.isEmpty())) {
+            ++fForegroundCycle;
+            fActiveTask = fForegroundTasks.poll();
+        } else {
+            fForegroundCycle = 0;
+            fActiveTask = fBackgroundTasks.poll();
+        }
+        if (fActiveTask == null) {
+            return;
+        }
+        if (fActiveTask.getThread().isPaused()) {
+            fActiveTask.getThread().resume();
+        } else {
+            POOL.execute(fActiveTask);
+        }
+        startTimeSlice();
+    }
+
+    /**
+     * Only time-slice the active request when others are waiting
+     */
+    private void startTimeSlice() {
+        if (fSliceEnd == null && fActiveTask != null && hasTasks()) {
+            final long generation = ++fSliceGeneration;
+            fSliceEnd = SLICE_TIMER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    endTimeSlice(generation);
+                }
+            }, TIME_SLICE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void cancelTimeSlice() {
+        fSliceGeneration++;
+        if (fSliceEnd != null) {
+            fSliceEnd.cancel(false);
+            fSliceEnd = null;
+        }
+    }
+
+    private static void cancelTask(TmfEventThread task) {
+        task.cancel();
+        /* A suspended request must run again to see it is cancelled */
+        if (task.getThread().isPaused()) {
+            task.getThread().resume();
+        }
+    }
+
+    private boolean hasTasks() {
+        return !(fForegroundTasks.isEmpty() && fBackgroundTasks.isEmpty());
+    }
+
+    // ------------------------------------------------------------------------
+    // Object
+    // ------------------------------------------------------------------------
+
+    @Override
+    @SuppressWarnings("nls")
+    public String toString() {
+        return "[TmfWorkStealingRequestExecutor]";
+    }
+
+}
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ericsson
+ *
+ * All rights reserved. This program and the accompanying materials are
+ * made available under the terms of the Eclipse Public License v1.0 which
+ * accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.eclipse.tracecompass.internal.tmf.core.statesystem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.tracecompass.common.core.collect.BroadcastBlockingQueue;
+import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
+import org.eclipse.tracecompass.tmf.core.request.ITmfEventRequest;
+import org.eclipse.tracecompass.tmf.core.request.TmfEventRequest;
+import org.eclipse.tracecompass.tmf.core.statesystem.AbstractTmfStateProvider;
+import org.eclipse.tracecompass.tmf.core.timestamp.TmfTimeRange;
+import org.eclipse.tracecompass.tmf.core.trace.ITmfTrace;
+import org.eclipse.tracecompass.tmf.core.trace.experiment.TmfExperiment;
+
+/**
+ * Event request that reads a whole trace once and feeds the events to several
+ * state providers. The events are grouped in chunks and broadcast to the
+ * providers through a {@link BroadcastBlockingQueue}, so that each provider
+ * handles them in its own thread, at its own pace. The slowest provider
+ * limits how far ahead the reading of the trace can go.
+ *
+ * The providers join the request of their trace with {@link #join}. A request
+ * accepts new providers until it publishes its first events; after that, the
+ * next provider to join starts a new request. Since background requests are
+ * only dispatched after a delay, the analyses started together on a trace end
+ * up sharing one request.
+ *
+ * Whether the request succeeds, fails or is cancelled, the end of the events
+ * is sent to the providers, which then close their history.
+ */
+public final class SharedStateProviderRequest extends TmfEventRequest {
+
+    /** Number of events in a chunk */
+    private static final int CHUNK_SIZE = 127;
+    /** Number of chunks the slowest provider can lag behind */
+    private static final int QUEUE_SIZE = 128;
+
+    /** The request of each trace that can still be joined */
+    private static final Map<ITmfTrace, SharedStateProviderRequest> OPEN_REQUESTS = new HashMap<>();
+
+    private final ITmfTrace fTrace;
+    private final BroadcastBlockingQueue<List<ITmfEvent>> fQueue;
+
+    /* Only modified with OPEN_REQUESTS held */
+    private volatile boolean fJoinable = true;
+
+    /* The providers which did not leave the request, protected by "this" */
+    private final Set<AbstractTmfStateProvider> fProviders = new HashSet<>();
+    /* Set once the end of the events is published, protected by "this" */
+    private boolean fFinished = false;
+
+    /* Producer side, protected by fProducerLock */
+    private final Object fProducerLock = new Object();
+    private List<ITmfEvent> fChunk = new ArrayList<>(CHUNK_SIZE);
+    private boolean fEnded = false;
+
+    private SharedStateProviderRequest(ITmfTrace trace) {
+        super(ITmfEvent.class,
+                TmfTimeRange.ETERNITY,
+                0,
+                ITmfEventRequest.ALL_DATA,
+                ITmfEventRequest.ExecutionType.BACKGROUND);
+        fTrace = trace;
+        /* Each chunk is published as soon as it is put */
+        fQueue = new BroadcastBlockingQueue<>(QUEUE_SIZE, 1);
+    }
+
+    /**
+     * Have a state provider take its events from the shared request of its
+     * trace. If there is no such request, or if it already started sending
+     * events, a new one is sent to the trace.
+     *
+     * The provider must not have received any event. The trace must be
+     * complete, since the request reads it until its end.
+     *
+     * @param provider
+     *            The state provider
+     * @return The request feeding the provider
+     */
+    public static SharedStateProviderRequest join(AbstractTmfStateProvider provider) {
+        ITmfTrace trace = provider.getTrace();
+        SharedStateProviderRequest newRequest;
+        synchronized (OPEN_REQUESTS) {
+            SharedStateProviderRequest request = OPEN_REQUESTS.get(trace);
+            if (request != null && request.fJoinable) {
+                request.addProvider(provider);
+                return request;
+            }
+            newRequest = new SharedStateProviderRequest(trace);
+            newRequest.addProvider(provider);
+            OPEN_REQUESTS.put(trace, newRequest);
+        }
+        trace.sendRequest(newRequest);
+        return newRequest;
+    }
+
+    /* Must be called with OPEN_REQUESTS held, while the request is joinable */
+    private void addProvider(AbstractTmfStateProvider provider) {
+        /* Subscribe before any event is published */
+        provider.setSharedInput(fQueue);
+        synchronized (this) {
+            fProviders.add(provider);
+        }
+    }
+
+    /* No provider can join once events are published */
+    private void closeJoin() {
+        synchronized (OPEN_REQUESTS) {
+            fJoinable = false;
+            if (OPEN_REQUESTS.get(fTrace) == this) {
+                OPEN_REQUESTS.remove(fTrace);
+            }
+        }
+    }
+
+    /**
+     * Stop feeding a provider, for example because its analysis is
+     * cancelled. The provider still receives the events published so far,
+     * and stops when it is disposed. The request is cancelled once every
+     * provider has left.
+     *
+     * @param provider
+     *            The state provider leaving the request
+     */
+    public void leave(AbstractTmfStateProvider provider) {
+        boolean cancel;
+        synchronized (this) {
+            cancel = fProviders.remove(provider) && fProviders.isEmpty();
+            notifyAll();
+        }
+        if (cancel) {
+            cancel();
+        }
+    }
+
+    /**
+     * Block until the request is completed and the end of the events is
+     * published, or until the provider leaves it.
+     *
+     * @param provider
+     *            The state provider fed by this request
+     * @return True if the provider received all the events of the trace,
+     *         false if the request failed, was cancelled or if the provider
+     *         left it
+     * @throws InterruptedException
+     *             If the thread was interrupted while waiting
+     */
+    public boolean waitForProvider(AbstractTmfStateProvider provider) throws InterruptedException {
+        synchronized (this) {
+            while (fProviders.contains(provider) && !fFinished) {
+                wait();
+            }
+            return fProviders.contains(provider) && !isCancelled() && !isFailed();
+        }
+    }
+
+    /**
+     * Get the state providers fed by this request, which did not leave it.
+     *
+     * @return The state providers
+     */
+    public synchronized Set<AbstractTmfStateProvider> getProviders() {
+        return Collections.unmodifiableSet(new HashSet<>(fProviders));
+    }
+
+    @Override
+    public void handleData(final ITmfEvent event) {
+        super.handleData(event);
+        if (!isFromTrace(event)) {
+            return;
+        }
+        /* The request may be cancelled from another thread */
+        synchronized (fProducerLock) {
+            if (fEnded) {
+                return;
+            }
+            if (fJoinable) {
+                closeJoin();
+            }
+            fChunk.add(event);
+            if (fChunk.size() >= CHUNK_SIZE) {
+                fQueue.put(fChunk);
+                fChunk = new ArrayList<>(CHUNK_SIZE);
+            }
+        }
+    }
+
+    private boolean isFromTrace(ITmfEvent event) {
+        if (event.getTrace() == fTrace) {
+            return true;
+        }
+        if (fTrace instanceof TmfExperiment) {
+            /*
+             * If the request is for an experiment, check if the event is from
+             * one of the child traces
+             */
+            for (ITmfTrace childTrace : ((TmfExperiment) fTrace).getTraces()) {
+                if (childTrace == event.getTrace()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void handleCompleted() {
+        closeJoin();
+        /*
+         * Whether the request succeeded, failed or was cancelled, the
+         * providers must receive the end of the events, or they would wait
+         * forever.
+         */
+        synchronized (fProducerLock) {
+            if (!fEnded) {
+                fEnded = true;
+                if (!fChunk.isEmpty()) {
+                    fQueue.put(fChunk);
+                }
+                fQueue.put(Collections.<ITmfEvent> emptyList());
+                fQueue.flushInputBuffer();
+            }
+        }
+        super.handleCompleted();
+        synchronized (this) {
+            fFinished = true;
+            notifyAll();
+        }
+    }
+}
@@ -12,15 +12,30 @@
 
 package org.eclipse.tracecompass.internal.tmf.core.statesystem.backends.partial;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
 
 import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.QueryRange;
+import org.eclipse.tracecompass.internal.tmf.core.Activator;
 import org.eclipse.tracecompass.statesystem.core.ITmfStateSystem;
 import org.eclipse.tracecompass.statesystem.core.backend.IStateHistoryBackend;
 import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
@@ -53,6 +68,17 @@ import org.eclipse.tracecompass.tmf.core.trace.ITmfTrace;
  * earlier checkpoint, and will re-feed the state-change-input with events from
  * the trace, to restore the real state at the time that was requested.
  *
+ * The granularity is a maximum: checkpoints are also placed once the events
+ * since the previous one cover as much trace time as the granularity covers
+ * on average. Sparse parts of the trace, where queries at evenly spaced times
+ * often land, get closer checkpoints. The placement only depends on the
+ * events of the trace, so building a history twice gives the same
+ * checkpoints.
+ *
+ * If a checkpoints file is given, the checkpoints are saved to it once the
+ * history is built. The history can then be reopened from that file and the
+ * real history's file, without reading the trace again.
+ *
  * @author Alexandre Montplaisir
  */
 public class PartialHistoryBackend implements IStateHistoryBackend {
@@ -82,8 +108,18 @@ public class PartialHistoryBackend implements IStateHistoryBackend {
 
     private final long fGranularity;
 
+    /** File where to save the checkpoints once the history is built */
+    private final @Nullable File fCheckpointsFile;
+
     private long fLatestTime;
 
+    /* "Magic number" and version of the checkpoints files */
+    private static final int CHECKPOINTS_MAGIC_NUMBER = 0x0BC4F9A3;
+    private static final int CHECKPOINTS_FILE_VERSION = 1;
+
+    /** Checkpoints are never closer than granularity / this factor */
+    private static final long MIN_GRANULARITY_FACTOR = 16;
+
     /**
      * Constructor
      *
@@ -108,6 +144,37 @@ public class PartialHistoryBackend implements IStateHistoryBackend {
             PartialStateSystem pss,
             IStateHistoryBackend realBackend,
             long granularity) {
+        this(ssid, partialInput, pss, realBackend, granularity, null);
+    }
+
+    /**
+     * Constructor for a new history whose checkpoints will be saved to a file
+     *
+     * @param ssid
+     *            The state system's ID
+     * @param partialInput
+     *            The state change input object that was used to build the
+     *            upstream state system. This partial history will make its own
+     *            copy (since they have different targets).
+     * @param pss
+     *            The partial history's inner state system. It should already be
+     *            assigned to partialInput.
+     * @param realBackend
+     *            The real state history back-end to use. It's supposed to be
+     *            modular, so it should be able to be of any type.
+     * @param granularity
+     *            Configuration parameter indicating the maximum number of trace
+     *            events there should be between each checkpoint
+     * @param checkpointsFile
+     *            The file where to save the checkpoints once the history is
+     *            built, or null to not save them
+     */
+    public PartialHistoryBackend(@NonNull String ssid,
+            ITmfStateProvider partialInput,
+            PartialStateSystem pss,
+            IStateHistoryBackend realBackend,
+            long granularity,
+            @Nullable File checkpointsFile) {
         if (granularity <= 0 || partialInput == null || pss == null ||
                 partialInput.getAssignedStateSystem() != pss) {
             throw new IllegalArgumentException();
@@ -121,12 +188,62 @@ public class PartialHistoryBackend implements IStateHistoryBackend {
 
         fInnerHistory = realBackend;
         fGranularity = granularity;
+        fCheckpointsFile = checkpointsFile;
 
         fLatestTime = startTime;
 
+        /* An older checkpoints file does not match the history being built */
+        if (checkpointsFile != null) {
+            checkpointsFile.delete();
+        }
         registerCheckpoints();
     }
 
+    /**
+     * "Existing file" constructor. Reopens a partial history whose real
+     * back-end was opened from an existing file, with the checkpoints that
+     * were saved when it was built.
+     *
+     * @param ssid
+     *            The state system's ID
+     * @param partialInput
+     *            The state change input object, which is used to re-read the
+     *            events between the checkpoints
+     * @param pss
+     *            The partial history's inner state system. It should already be
+     *            assigned to partialInput.
+     * @param realBackend
+     *            The real state history back-end, opened from an existing file
+     * @param checkpointsFile
+     *            The file where the checkpoints were saved
+     * @throws IOException
+     *             If the checkpoints file cannot be read, or is not valid
+     */
+    public PartialHistoryBackend(@NonNull String ssid,
+            ITmfStateProvider partialInput,
+            PartialStateSystem pss,
+            IStateHistoryBackend realBackend,
+            File checkpointsFile) throws IOException {
+        if (partialInput == null || pss == null ||
+                partialInput.getAssignedStateSystem() != pss) {
+            throw new IllegalArgumentException();
+        }
+
+        fSSID = ssid;
+        fPartialInput = partialInput;
+        fPartialSS = pss;
+
+        fInnerHistory = realBackend;
+        fCheckpointsFile = checkpointsFile;
+
+        fGranularity = readCheckpoints(checkpointsFile, fCheckpoints);
+        if (fCheckpoints.isEmpty() || fCheckpoints.firstKey() != realBackend.getStartTime()) {
+            throw new IOException("The checkpoints do not match the state history"); //$NON-NLS-1$
+        }
+        fLatestTime = realBackend.getEndTime();
+        fCheckpointsReady.countDown();
+    }
+
     private void registerCheckpoints() {
         ITmfEventRequest request = new CheckpointsRequest(fPartialInput, fCheckpoints);
         fPartialInput.getTrace().sendRequest(request);
@@ -174,6 +291,17 @@ public class PartialHistoryBackend implements IStateHistoryBackend {
     @Override
     public void finishedBuilding(long endTime) throws TimeRangeException {
         fInnerHistory.finishedBuilding(endTime);
+
+        File checkpointsFile = fCheckpointsFile;
+        if (checkpointsFile != null) {
+            try {
+                writeCheckpoints(checkpointsFile);
+            } catch (IOException e) {
+                /* The history is still usable, it will be rebuilt next time */
+                Activator.logError("Could not save the checkpoints of partial history " + fSSID, e); //$NON-NLS-1$
+                checkpointsFile.delete();
+            }
+        }
     }
 
     @Override
@@ -194,6 +322,10 @@ public class PartialHistoryBackend implements IStateHistoryBackend {
     @Override
     public void removeFiles() {
         fInnerHistory.removeFiles();
+        File checkpointsFile = fCheckpointsFile;
+        if (checkpointsFile != null) {
+            checkpointsFile.delete();
+        }
     }
 
     @Override
@@ -226,22 +358,7 @@ public class PartialHistoryBackend implements IStateHistoryBackend {
         fPartialSS.replaceOngoingState(currentStateInfo);
 
         /* Send an event request to update the state system to the target time. */
-        TmfTimeRange range = new TmfTimeRange(
-                /*
-                 * The state at the checkpoint already includes any state change
-                 * caused by the event(s) happening exactly at 'checkpointTime',
-                 * if any. We must not include those events in the query.
-                 */
-                new TmfTimestamp(checkpointTime + 1, ITmfTimestamp.NANOSECOND_SCALE),
-                new TmfTimestamp(t, ITmfTimestamp.NANOSECOND_SCALE));
-        ITmfEventRequest request = new PartialStateSystemRequest(fPartialInput, range);
-        fPartialInput.getTrace().sendRequest(request);
-
-        try {
-            request.waitForCompletion();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        replayEvents(checkpointTime, t);
 
         /*
          * Now the partial state system should have the ongoing time we are
@@ -267,12 +384,110 @@ public class PartialHistoryBackend implements IStateHistoryBackend {
     }
 
     /**
-     * Single queries are not supported in partial histories. To get the same
-     * result you can do a full query, then call fullState.get(attribute).
+     * Single queries re-read the trace like range queries, see
+     * {@link #doQuery2D}. When many attributes are needed at the same time, it
+     * is faster to do a full query, then call fullState.get(attribute).
      */
     @Override
-    public ITmfStateInterval doSingularQuery(long t, int attributeQuark) {
-        throw new UnsupportedOperationException();
+    public ITmfStateInterval doSingularQuery(long t, int attributeQuark)
+            throws TimeRangeException, AttributeNotFoundException, StateSystemDisposedException {
+        if (attributeQuark < 0 || attributeQuark >= fPartialSS.getNbAttributes()) {
+            throw new AttributeNotFoundException(fSSID + " Quark:" + attributeQuark); //$NON-NLS-1$
+        }
+        BitSet quarks = new BitSet();
+        quarks.set(attributeQuark);
+        List<ITmfStateInterval> intervals = new ArrayList<>(1);
+        doQuery2D(intervals, quarks, t, t, 1);
+        return (intervals.isEmpty() ? null : intervals.get(0));
+    }
+
+    /**
+     * Range queries reload the checkpoint preceding the start of the range,
+     * and re-read the trace up to the checkpoint following its end, recording
+     * the intervals that the partial state system closes on the way. The
+     * intervals still ongoing at that checkpoint cross it, so their end time
+     * is found in the real history.
+     */
+    @Override
+    public void doQuery2D(Collection<ITmfStateInterval> results, BitSet quarks,
+            long t1, long t2, long resolution)
+            throws TimeRangeException, StateSystemDisposedException {
+        /* Wait for required steps to be done */
+        waitForCheckpoints();
+        fPartialSS.getUpstreamSS().waitUntilBuilt();
+
+        if (!checkValidTime(t1) || !checkValidTime(t2)) {
+            throw new TimeRangeException(fSSID + " Start:" + t1 + ", End:" + t2 + ", History start:" + getStartTime() + ", History end:" + getEndTime()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        }
+        QueryRange range = new QueryRange(t1, t2, resolution);
+
+        long checkpointTime = fCheckpoints.floorKey(t1);
+        Long nextCheckpointTime = fCheckpoints.ceilingKey(t2);
+        long replayEnd = (nextCheckpointTime == null ? getEndTime() : nextCheckpointTime);
+
+        int nbAttributes = fPartialSS.getNbAttributes();
+        List<ITmfStateInterval> stateInfo = new ArrayList<>(Collections.<ITmfStateInterval> nCopies(nbAttributes, null));
+        fInnerHistory.doQuery(stateInfo, checkpointTime);
+
+        List<ITmfStateInterval> intervals = new ArrayList<>();
+        fPartialSS.takeQueryLock();
+        try {
+            fPartialSS.replaceOngoingState(stateInfo);
+            fPartialSS.startRecording(intervals, quarks);
+            try {
+                replayEvents(checkpointTime, replayEnd);
+            } finally {
+                fPartialSS.stopRecording();
+            }
+
+            /*
+             * The states that are still ongoing contain the next checkpoint,
+             * or last until the end of the history.
+             */
+            if (nextCheckpointTime != null) {
+                fInnerHistory.doQuery(stateInfo, nextCheckpointTime);
+            }
+            for (int quark = quarks.nextSetBit(0); quark >= 0 && quark < nbAttributes; quark = quarks.nextSetBit(quark + 1)) {
+                long start = ((ITmfStateSystem) fPartialSS).getOngoingStartTime(quark);
+                ITmfStateValue value = ((ITmfStateSystem) fPartialSS).queryOngoingState(quark);
+                long end = (nextCheckpointTime == null ? getEndTime() : stateInfo.get(quark).getEndTime());
+                intervals.add(new TmfStateInterval(start, end, quark, value));
+            }
+        } catch (AttributeNotFoundException e) {
+            /* Should not happen, we iterate over existing values. */
+            Activator.logError("Range query on partial history " + fSSID + " found a missing attribute", e); //$NON-NLS-1$ //$NON-NLS-2$
+        } finally {
+            fPartialSS.releaseQueryLock();
+        }
+
+        for (ITmfStateInterval interval : intervals) {
+            if (range.intersects(interval.getStartTime(), interval.getEndTime())) {
+                results.add(interval);
+            }
+        }
+    }
+
+    /**
+     * Send the events in the range ]checkpointTime, t] to the partial state
+     * provider, and wait until they are handled. The events at the
+     * checkpoint itself are already included in the state at the checkpoint.
+     */
+    private void replayEvents(long checkpointTime, long t) {
+        if (t <= checkpointTime) {
+            return;
+        }
+        TmfTimeRange range = new TmfTimeRange(
+                new TmfTimestamp(checkpointTime + 1, ITmfTimestamp.NANOSECOND_SCALE),
+                new TmfTimestamp(t, ITmfTimestamp.NANOSECOND_SCALE));
+        ITmfEventRequest request = new PartialStateSystemRequest(fPartialInput, range);
+        fPartialInput.getTrace().sendRequest(request);
+
+        try {
+            request.waitForCompletion();
+        } catch (InterruptedException e) {
+            Activator.logError("Interrupted while replaying the events of partial history " + fSSID, e); //$NON-NLS-1$
+            Thread.currentThread().interrupt();
+        }
     }
 
     private boolean checkValidTime(long t) {
@@ -292,6 +507,54 @@ public class PartialHistoryBackend implements IStateHistoryBackend {
         }
     }
 
+    // ------------------------------------------------------------------------
+    // Checkpoints file
+    // ------------------------------------------------------------------------
+
+    /**
+     * Write the checkpoints to a file. They are first written to a temporary
+     * file, which is then moved in place, so that a file with the expected
+     * name is always complete.
+     */
+    private void writeCheckpoints(File file) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp"); //$NON-NLS-1$
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(CHECKPOINTS_MAGIC_NUMBER);
+            out.writeInt(CHECKPOINTS_FILE_VERSION);
+            out.writeLong(fGranularity);
+            out.writeInt(fCheckpoints.size());
+            for (Map.Entry<Long, Long> checkpoint : fCheckpoints.entrySet()) {
+                out.writeLong(checkpoint.getKey());
+                out.writeLong(checkpoint.getValue());
+            }
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Read the checkpoints from a file written by {@link #writeCheckpoints}.
+     *
+     * @return The granularity that was used when building the history
+     */
+    private static long readCheckpoints(File file, Map<Long, Long> checkpoints) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != CHECKPOINTS_MAGIC_NUMBER || in.readInt() != CHECKPOINTS_FILE_VERSION) {
+                throw new IOException("The checkpoints file is either invalid or corrupted."); //$NON-NLS-1$
+            }
+            long granularity = in.readLong();
+            int nbCheckpoints = in.readInt();
+            if (granularity <= 0 || nbCheckpoints <= 0) {
+                throw new IOException("The checkpoints file is either invalid or corrupted."); //$NON-NLS-1$
+            }
+            for (int i = 0; i < nbCheckpoints; i++) {
+                long timestamp = in.readLong();
+                long rank = in.readLong();
+                checkpoints.put(timestamp, rank);
+            }
+            return granularity;
+        }
+    }
+
     // ------------------------------------------------------------------------
     // Event requests types
     // ------------------------------------------------------------------------
@@ -299,8 +562,11 @@ public class PartialHistoryBackend implements IStateHistoryBackend {
     private class CheckpointsRequest extends TmfEventRequest {
         private final ITmfTrace trace;
         private final Map<Long, Long> checkpts;
+        private final long startTime;
+        private final long minGranularity;
         private long eventCount;
         private long lastCheckpointAt;
+        private long lastCheckpointTime;
 
         public CheckpointsRequest(ITmfStateProvider input, Map<Long, Long> checkpoints) {
             super(ITmfEvent.class,
@@ -311,11 +577,14 @@ public class PartialHistoryBackend implements IStateHistoryBackend {
             checkpoints.clear();
             this.trace = input.getTrace();
             this.checkpts = checkpoints;
+            startTime = input.getStartTime();
+            minGranularity = Math.max(1, fGranularity / MIN_GRANULARITY_FACTOR);
             eventCount = 0;
             lastCheckpointAt = 0;
+            lastCheckpointTime = startTime;
 
             /* Insert a checkpoint at the start of the trace */
-            checkpoints.put(input.getStartTime(), 0L);
+            checkpoints.put(startTime, 0L);
         }
 
         @Override
@@ -325,13 +594,32 @@ public class PartialHistoryBackend implements IStateHistoryBackend {
                 eventCount++;
 
                 /* Check if we need to register a new checkpoint */
-                if (eventCount >= lastCheckpointAt + fGranularity) {
-                    checkpts.put(event.getTimestamp().getValue(), eventCount);
+                long ts = event.getTimestamp().getValue();
+                if (isCheckpoint(ts)) {
+                    checkpts.put(ts, eventCount);
                     lastCheckpointAt = eventCount;
+                    lastCheckpointTime = ts;
                 }
             }
         }
 
+        /**
+         * A checkpoint is placed after "granularity" events, or earlier if the
+         * events since the previous checkpoint span more trace time than
+         * "granularity" events do on average so far.
+         */
+        private boolean isCheckpoint(long ts) {
+            long nbEvents = eventCount - lastCheckpointAt;
+            if (nbEvents >= fGranularity) {
+                return true;
+            }
+            if (nbEvents < minGranularity || ts <= startTime) {
+                return false;
+            }
+            double averageSpan = (double) (ts - startTime) / eventCount * fGranularity;
+            return (ts - lastCheckpointTime) >= averageSpan;
+        }
+
         @Override
         public void handleCompleted() {
             super.handleCompleted();
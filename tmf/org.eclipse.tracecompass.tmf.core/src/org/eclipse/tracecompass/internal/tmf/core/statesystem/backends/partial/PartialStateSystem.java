@@ -11,17 +11,23 @@
 
 package org.eclipse.tracecompass.internal.tmf.core.statesystem.backends.partial;
 
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.tracecompass.internal.statesystem.core.AttributeTree;
 import org.eclipse.tracecompass.internal.statesystem.core.StateSystem;
+import org.eclipse.tracecompass.internal.statesystem.core.backend.NullBackend;
 import org.eclipse.tracecompass.statesystem.core.ITmfStateSystem;
-import org.eclipse.tracecompass.statesystem.core.backend.StateHistoryBackendFactory;
 import org.eclipse.tracecompass.statesystem.core.exceptions.AttributeNotFoundException;
 import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
+import org.eclipse.tracecompass.statesystem.core.interval.TmfStateInterval;
+import org.eclipse.tracecompass.statesystem.core.statevalue.ITmfStateValue;
 
 /**
  * State system interface-like extension to use with partial state histories.
@@ -32,13 +38,14 @@ import org.eclipse.tracecompass.statesystem.core.interval.ITmfStateInterval;
  *
  * @author Alexandre Montplaisir
  */
-@SuppressWarnings("restriction") /* We're using AttributeTree directly */
+@SuppressWarnings("restriction") /* We're using AttributeTree and NullBackend directly */
 public class PartialStateSystem extends StateSystem {
 
     private static final String ERR_MSG = "Partial state system should not modify the attribute tree!"; //$NON-NLS-1$
 
     private final CountDownLatch ssAssignedLatch = new CountDownLatch(1);
     private final Lock queryLock = new ReentrantLock();
+    private final RecordingBackend recordingBackend;
 
     /**
      * Reference to the real upstream state system. This is used so we can read
@@ -52,9 +59,15 @@ public class PartialStateSystem extends StateSystem {
     public PartialStateSystem() {
         /*
          * We use a Null back end here : we only use this state system for its
-         * "ongoing" values, so no need to save the changes that are inserted.
+         * "ongoing" values, so no need to save the changes that are inserted,
+         * unless a range query asks to record them.
          */
-        super(StateHistoryBackendFactory.createNullBackend("partial")); //$NON-NLS-1$
+        this(new RecordingBackend("partial")); //$NON-NLS-1$
+    }
+
+    private PartialStateSystem(RecordingBackend backend) {
+        super(backend);
+        recordingBackend = backend;
     }
 
     /**
@@ -115,6 +128,28 @@ public class PartialStateSystem extends StateSystem {
         queryLock.unlock();
     }
 
+    /**
+     * Start recording the intervals of the given attributes that are closed
+     * by the state changes sent to this state system. This should be done
+     * while holding the query lock, and the recording stopped before
+     * releasing it.
+     *
+     * @param intervals
+     *            The collection in which to add the closed intervals
+     * @param quarks
+     *            The quarks of the attributes whose intervals are recorded
+     */
+    public void startRecording(Collection<ITmfStateInterval> intervals, BitSet quarks) {
+        recordingBackend.start(intervals, quarks);
+    }
+
+    /**
+     * Stop recording the closed intervals.
+     */
+    public void stopRecording() {
+        recordingBackend.stop();
+    }
+
     @Override
     public AttributeTree getAttributeTree() {
         waitUntilReady();
@@ -159,4 +194,37 @@ public class PartialStateSystem extends StateSystem {
         }
     }
 
+    /**
+     * Null back end which can record the intervals that get inserted, for
+     * the duration of a range query.
+     */
+    private static class RecordingBackend extends NullBackend {
+
+        private volatile @Nullable Collection<ITmfStateInterval> fIntervals = null;
+        private volatile @Nullable BitSet fQuarks = null;
+
+        public RecordingBackend(@NonNull String ssid) {
+            super(ssid);
+        }
+
+        public void start(Collection<ITmfStateInterval> intervals, BitSet quarks) {
+            fQuarks = quarks;
+            fIntervals = intervals;
+        }
+
+        public void stop() {
+            fIntervals = null;
+            fQuarks = null;
+        }
+
+        @Override
+        public void insertPastState(long stateStartTime, long stateEndTime,
+                int quark, ITmfStateValue value) {
+            Collection<ITmfStateInterval> intervals = fIntervals;
+            BitSet quarks = fQuarks;
+            if (intervals != null && quarks != null && quarks.get(quark)) {
+                intervals.add(new TmfStateInterval(stateStartTime, stateEndTime, quark, value));
+            }
+        }
+    }
 }
@@ -28,8 +28,10 @@ import org.eclipse.tracecompass.common.core.NonNullUtils;
 import org.eclipse.tracecompass.internal.tmf.core.TmfCoreTracer;
 import org.eclipse.tracecompass.internal.tmf.core.component.TmfEventThread;
 import org.eclipse.tracecompass.internal.tmf.core.component.TmfProviderManager;
+import org.eclipse.tracecompass.internal.tmf.core.request.ITmfRequestExecutor;
 import org.eclipse.tracecompass.internal.tmf.core.request.TmfCoalescedEventRequest;
 import org.eclipse.tracecompass.internal.tmf.core.request.TmfRequestExecutor;
+import org.eclipse.tracecompass.internal.tmf.core.request.TmfWorkStealingRequestExecutor;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
 import org.eclipse.tracecompass.tmf.core.filter.ITmfFilter;
 import org.eclipse.tracecompass.tmf.core.request.ITmfEventRequest;
@@ -71,7 +73,7 @@ public abstract class TmfEventProvider extends TmfComponent implements ITmfEvent
     /** The type of event handled by this provider */
     private Class<? extends ITmfEvent> fType;
 
-    private final TmfRequestExecutor fExecutor;
+    private final ITmfRequestExecutor fExecutor;
 
     private final Object fLock = new Object();
 
@@ -105,7 +107,11 @@ public abstract class TmfEventProvider extends TmfComponent implements ITmfEvent
     public TmfEventProvider() {
         super();
         setTimerEnabled(true);
-        fExecutor = new TmfRequestExecutor();
+        if (TmfWorkStealingRequestExecutor.isEnabled()) {
+            fExecutor = new TmfWorkStealingRequestExecutor();
+        } else {
+            fExecutor = new TmfRequestExecutor();
+        }
     }
 
     /**
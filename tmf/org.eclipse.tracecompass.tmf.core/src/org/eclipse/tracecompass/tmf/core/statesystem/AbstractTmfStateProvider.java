@@ -12,17 +12,20 @@
 
 package org.eclipse.tracecompass.tmf.core.statesystem;
 
-import static org.eclipse.tracecompass.common.core.NonNullUtils.checkNotNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
-import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
-import org.eclipse.tracecompass.common.core.collect.BufferedBlockingQueue;
+import org.eclipse.tracecompass.common.core.collect.BroadcastBlockingQueue;
+import org.eclipse.tracecompass.common.core.collect.BroadcastBlockingQueue.Subscriber;
+import org.eclipse.tracecompass.internal.tmf.core.Activator;
 import org.eclipse.tracecompass.statesystem.core.ITmfStateSystem;
 import org.eclipse.tracecompass.statesystem.core.ITmfStateSystemBuilder;
 import org.eclipse.tracecompass.tmf.core.event.ITmfEvent;
-import org.eclipse.tracecompass.tmf.core.event.TmfEvent;
 import org.eclipse.tracecompass.tmf.core.timestamp.ITmfTimestamp;
-import org.eclipse.tracecompass.tmf.core.trace.ITmfContext;
 import org.eclipse.tracecompass.tmf.core.trace.ITmfTrace;
 
 /**
@@ -35,22 +38,83 @@ import org.eclipse.tracecompass.tmf.core.trace.ITmfTrace;
  * processEvent() is replaced with eventHandle(), so that all the multi-thread
  * logic is abstracted away.
  *
+ * The events are handed to the processing thread in chunks. The size of the
+ * chunks adapts to the rate at which the events arrive: it grows when they
+ * arrive quickly, to reduce the cost of the hand-off, and shrinks when they
+ * arrive slowly, so that they do not wait too long before being processed.
+ * A chunk is also handed off before it is full when the processing thread
+ * has nothing left to do, and the processing thread takes the chunk being
+ * filled itself if no event arrives for a while, so that events never wait
+ * long on a thread that is idle.
+ *
+ * Alternatively, the chunks of events can come from a queue shared with other
+ * providers, see {@link #setSharedInput}, so that several providers are fed
+ * by a single read of the trace.
+ *
  * @author Alexandre Montplaisir
  */
 public abstract class AbstractTmfStateProvider implements ITmfStateProvider {
 
+    /** Number of chunks that can be waiting to be processed */
     private static final int DEFAULT_EVENTS_QUEUE_SIZE = 127;
     private static final int DEFAULT_EVENTS_CHUNK_SIZE = 127;
+    private static final int MIN_CHUNK_SIZE = 16;
+    private static final int MAX_CHUNK_SIZE = 4096;
+
+    /*
+     * The chunk size is doubled when a chunk fills faster than this, and
+     * halved when it fills slower than ten times this.
+     */
+    private static final long TARGET_CHUNK_FILL_TIME = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /* Time after which an idle event handler takes a partial chunk */
+    private static final long MAX_CHUNK_WAIT_TIME = TARGET_CHUNK_FILL_TIME * 10;
+
+    /** Marker telling the event handler's thread to stop */
+    private static final List<ITmfEvent> END_CHUNK = new ArrayList<>(0);
 
     private final ITmfTrace fTrace;
-    private final BufferedBlockingQueue<ITmfEvent> fEventsQueue;
+    private final BlockingQueue<List<ITmfEvent>> fEventsQueue;
     private final Thread fEventHandlerThread;
 
-    private boolean fStateSystemAssigned;
+    private volatile boolean fStateSystemAssigned;
+
+    /* Shared queue the events come from, instead of processEvent() */
+    private @Nullable BroadcastBlockingQueue<List<ITmfEvent>> fSharedQueue = null;
+    private volatile @Nullable Subscriber<List<ITmfEvent>> fSharedInput = null;
+    /* Position in the shared queue at which to stop, set when disposed */
+    private volatile long fSharedInputEnd = Long.MAX_VALUE;
 
     /** State system in which to insert the state changes */
     private @Nullable ITmfStateSystemBuilder fSS = null;
 
+    /* Input side, protected by fInputLock */
+    private final Object fInputLock = new Object();
+    private List<ITmfEvent> fInputChunk;
+    private int fChunkSize = DEFAULT_EVENTS_CHUNK_SIZE;
+    private long fChunkStartTime;
+    private long fNbQueued = 0;
+
+    /*
+     * Set while a chunk taken from the input side is not in the queue yet.
+     * The chunk being filled must not be handled before it.
+     */
+    private boolean fChunkInFlight = false;
+
+    /*
+     * Held while a chunk is put in the queue, so that the chunks are queued
+     * in the order in which they were taken. The event handler's thread never
+     * takes it.
+     */
+    private final Object fQueueLock = new Object();
+
+    /* Set while the event handler's thread waits for a chunk */
+    private volatile boolean fHandlerIdle = false;
+
+    /* Number of events handled so far, protected by fHandledLock */
+    private final Object fHandledLock = new Object();
+    private long fNbHandled = 0;
+
     /**
      * Instantiate a new state provider plugin.
      *
@@ -61,7 +125,8 @@ public abstract class AbstractTmfStateProvider implements ITmfStateProvider {
      */
     public AbstractTmfStateProvider(ITmfTrace trace, String id) {
         fTrace = trace;
-        fEventsQueue = new BufferedBlockingQueue<>(DEFAULT_EVENTS_QUEUE_SIZE, DEFAULT_EVENTS_CHUNK_SIZE);
+        fEventsQueue = new ArrayBlockingQueue<>(DEFAULT_EVENTS_QUEUE_SIZE);
+        fInputChunk = new ArrayList<>(fChunkSize);
         fStateSystemAssigned = false;
 
         fEventHandlerThread = new Thread(new EventProcessor(), id + " Event Handler"); //$NON-NLS-1$
@@ -86,6 +151,30 @@ public abstract class AbstractTmfStateProvider implements ITmfStateProvider {
         return fTrace.getStartTime().normalize(0, ITmfTimestamp.NANOSECOND_SCALE).getValue();
     }
 
+    /**
+     * Have this provider take its events from a queue shared with other
+     * providers, instead of receiving them through {@link #processEvent}. The
+     * provider subscribes to the queue right away, and handles the chunks of
+     * events published from now on. An empty chunk marks the end of the
+     * events: the history is then closed.
+     *
+     * This must be called before the provider receives any event. Calling
+     * {@link #dispose()} then handles the chunks published so far, and stops.
+     *
+     * @param queue
+     *            The queue of chunks of events
+     * @since 2.0
+     */
+    public void setSharedInput(BroadcastBlockingQueue<List<ITmfEvent>> queue) {
+        synchronized (fInputLock) {
+            if (fSharedInput != null || fNbQueued > 0 || !fInputChunk.isEmpty()) {
+                throw new IllegalStateException("The state provider already receives events"); //$NON-NLS-1$
+            }
+            fSharedQueue = queue;
+            fSharedInput = queue.subscribe();
+        }
+    }
+
     @Override
     public void assignTargetStateSystem(ITmfStateSystemBuilder ssb) {
         fSS = ssb;
@@ -100,13 +189,24 @@ public abstract class AbstractTmfStateProvider implements ITmfStateProvider {
 
     @Override
     public void dispose() {
-        /* Insert a null event in the queue to stop the event handler's thread. */
+        /*
+         * Send the pending events, then tell the event handler's thread to
+         * stop. With a shared input, it stops after the chunks published so
+         * far, or at the end of the events if it comes first.
+         */
         try {
-            fEventsQueue.put(END_EVENT);
-            fEventsQueue.flushInputBuffer();
+            BroadcastBlockingQueue<List<ITmfEvent>> sharedQueue = fSharedQueue;
+            if (sharedQueue != null) {
+                fSharedInputEnd = sharedQueue.getNbPublished();
+            } else {
+                synchronized (fQueueLock) {
+                    flushInputChunk();
+                    fEventsQueue.put(END_CHUNK);
+                }
+            }
             fEventHandlerThread.join();
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Activator.logError("Interrupted while stopping the state provider", e); //$NON-NLS-1$
         }
         fStateSystemAssigned = false;
         fSS = null;
@@ -119,52 +219,119 @@ public abstract class AbstractTmfStateProvider implements ITmfStateProvider {
             System.err.println("Cannot process event without a target state system"); //$NON-NLS-1$
             return;
         }
+        if (fSharedInput != null) {
+            Activator.logError("Events cannot be sent to a state provider with a shared input"); //$NON-NLS-1$
+            return;
+        }
 
-        /* Insert the event we're received into the events queue */
-        ITmfEvent curEvent = event;
-        fEventsQueue.put(curEvent);
+        /* Insert the event we're received into the current chunk */
+        boolean flush;
+        synchronized (fInputLock) {
+            if (fInputChunk.isEmpty()) {
+                fChunkStartTime = System.nanoTime();
+            }
+            fInputChunk.add(event);
+            boolean full = (fInputChunk.size() >= fChunkSize);
+            if (full) {
+                adaptChunkSize(System.nanoTime() - fChunkStartTime);
+            }
+            flush = (full || fHandlerIdle);
+        }
+        if (flush) {
+            try {
+                flushInputChunk();
+            } catch (InterruptedException e) {
+                /* The chunk was kept, it will be sent with the next one */
+                Activator.logError("Interrupted while queuing events", e); //$NON-NLS-1$
+            }
+        }
     }
 
     /**
-     * Block the caller until the events queue is empty.
+     * Block the caller until all the events received so far have been
+     * processed.
      */
     public void waitForEmptyQueue() {
-        /*
-         * We will first insert a dummy event that is guaranteed to not modify
-         * the state. That way, when that event leaves the queue, we will know
-         * for sure that the state system processed the preceding real event.
-         */
+        Subscriber<List<ITmfEvent>> sharedInput = fSharedInput;
+        BroadcastBlockingQueue<List<ITmfEvent>> sharedQueue = fSharedQueue;
+        if (sharedInput != null && sharedQueue != null) {
+            waitForSharedInput(sharedInput, sharedQueue.getNbPublished());
+            return;
+        }
         try {
-            fEventsQueue.put(EMPTY_QUEUE_EVENT);
-            fEventsQueue.flushInputBuffer();
-            while (!fEventsQueue.isEmpty()) {
-                Thread.sleep(100);
+            long target;
+            flushInputChunk();
+            synchronized (fInputLock) {
+                target = fNbQueued;
+            }
+            synchronized (fHandledLock) {
+                while (fNbHandled < target) {
+                    fHandledLock.wait();
+                }
             }
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Activator.logError("Interrupted while waiting for the events to be processed", e); //$NON-NLS-1$
         }
     }
 
-    // ------------------------------------------------------------------------
-    // Special event types
-    // ------------------------------------------------------------------------
-
-    /** Fake event indicating the build is over, and the provider should close */
-    private static class EndEvent extends TmfEvent {
-        public EndEvent() {
-            super(null, ITmfContext.UNKNOWN_RANK, null, null, null);
+    private void waitForSharedInput(Subscriber<List<ITmfEvent>> sharedInput, long target) {
+        try {
+            synchronized (fHandledLock) {
+                /* The position only moves past a chunk once it is handled */
+                while (fNbHandled != Long.MAX_VALUE && sharedInput.getPosition() < target) {
+                    fHandledLock.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Activator.logError("Interrupted while waiting for the events to be processed", e); //$NON-NLS-1$
         }
     }
 
-    /** Fake event indicating we want to clear the current queue */
-    private static class EmptyQueueEvent extends TmfEvent {
-        public EmptyQueueEvent() {
-            super(null, ITmfContext.UNKNOWN_RANK, null, null, null);
+    /*
+     * Must not be called with fInputLock held: putting the chunk in the queue
+     * blocks if the event handler's thread is too far behind, and that thread
+     * may need fInputLock to get there. The chunk is only counted once it is
+     * in the queue.
+     */
+    private void flushInputChunk() throws InterruptedException {
+        synchronized (fQueueLock) {
+            List<ITmfEvent> chunk;
+            synchronized (fInputLock) {
+                chunk = fInputChunk;
+                if (chunk.isEmpty()) {
+                    return;
+                }
+                fInputChunk = new ArrayList<>(fChunkSize);
+                fChunkInFlight = true;
+            }
+            boolean queued = false;
+            try {
+                fEventsQueue.put(chunk);
+                queued = true;
+            } finally {
+                synchronized (fInputLock) {
+                    fChunkInFlight = false;
+                    if (queued) {
+                        fHandlerIdle = false;
+                        fNbQueued += chunk.size();
+                    } else {
+                        /* Put the events back in front of the ones received since */
+                        chunk.addAll(fInputChunk);
+                        fInputChunk = chunk;
+                    }
+                }
+            }
         }
     }
 
-    private static final EndEvent END_EVENT = new EndEvent();
-    private static final EmptyQueueEvent EMPTY_QUEUE_EVENT = new EmptyQueueEvent();
+    /* Must be called with fInputLock held */
+    private void adaptChunkSize(long fillTime) {
+        if (fillTime < TARGET_CHUNK_FILL_TIME) {
+            fChunkSize = Math.min(MAX_CHUNK_SIZE, fChunkSize * 2);
+        } else if (fillTime > TARGET_CHUNK_FILL_TIME * 10) {
+            fChunkSize = Math.max(MIN_CHUNK_SIZE, fChunkSize / 2);
+        }
+    }
 
     // ------------------------------------------------------------------------
     // Inner classes
@@ -172,7 +339,7 @@ public abstract class AbstractTmfStateProvider implements ITmfStateProvider {
 
     /**
      * This is the runner class for the second thread, which will take the
-     * events from the queue and pass them through the state system.
+     * chunks of events from the queue and pass them through the state system.
      */
     private class EventProcessor implements Runnable {
 
@@ -185,25 +352,87 @@ public abstract class AbstractTmfStateProvider implements ITmfStateProvider {
                 return;
             }
 
+            try {
+                List<ITmfEvent> chunk = nextChunk();
+                /* This is a singleton, we want to do != instead of !x.equals */
+                while (chunk != END_CHUNK) {
+                    eventHandle(chunk);
+                    currentEvent = chunk.get(chunk.size() - 1);
+                    synchronized (fHandledLock) {
+                        Subscriber<List<ITmfEvent>> sharedInput = fSharedInput;
+                        if (sharedInput != null) {
+                            sharedInput.take();
+                        }
+                        fNbHandled += chunk.size();
+                        fHandledLock.notifyAll();
+                    }
+                    chunk = nextChunk();
+                }
+                /* We've received the last event, clean up */
+                closeStateSystem();
+            } catch (InterruptedException e) {
+                Activator.logError("State provider interrupted", e); //$NON-NLS-1$
+            } finally {
+                Subscriber<List<ITmfEvent>> sharedInput = fSharedInput;
+                if (sharedInput != null) {
+                    /* Do not hold back the other providers */
+                    sharedInput.close();
+                }
+                /* Do not leave anyone waiting for events that will never be handled */
+                synchronized (fHandledLock) {
+                    fNbHandled = Long.MAX_VALUE;
+                    fHandledLock.notifyAll();
+                }
+            }
+        }
+
+        private List<ITmfEvent> nextChunk() throws InterruptedException {
+            List<ITmfEvent> chunk = fEventsQueue.poll();
+            while (chunk == null) {
+                Subscriber<List<ITmfEvent>> sharedInput = fSharedInput;
+                if (sharedInput != null) {
+                    return nextSharedChunk(sharedInput);
+                }
+                /* Have the next event sent right away, without a full chunk */
+                fHandlerIdle = true;
+                chunk = fEventsQueue.poll(MAX_CHUNK_WAIT_TIME, TimeUnit.NANOSECONDS);
+                fHandlerIdle = false;
+                if (chunk == null) {
+                    chunk = takeInputChunk();
+                }
+            }
+            return chunk;
+        }
+
+        /*
+         * A chunk of a shared input is only taken once it is handled, so that
+         * the position of the subscriber tells what has been handled. The end
+         * of the events is an empty chunk.
+         */
+        private List<ITmfEvent> nextSharedChunk(Subscriber<List<ITmfEvent>> sharedInput) {
+            if (sharedInput.getPosition() >= fSharedInputEnd) {
+                return END_CHUNK;
+            }
+            List<ITmfEvent> chunk = sharedInput.blockingPeek();
+            return (chunk.isEmpty() ? END_CHUNK : chunk);
+        }
 
-            /*
-             * We never insert null in the queue. Cannot be checked at
-             * compile-time until Java 8 annotations...
-             */
-            @NonNull ITmfEvent event = checkNotNull(fEventsQueue.take());
-            /* This is a singleton, we want to do != instead of !x.equals */
-            while (event != END_EVENT) {
-                if (event == EMPTY_QUEUE_EVENT) {
-                    /* Synchronization event, should be ignored */
-                    event = checkNotNull(fEventsQueue.take());
-                    continue;
+        /*
+         * Take the chunk being filled, when no event was sent for a while. The
+         * queue is checked again with the input lock held, since the chunks
+         * in it, and the one about to be put in it, come before the one being
+         * filled.
+         */
+        private @Nullable List<ITmfEvent> takeInputChunk() {
+            synchronized (fInputLock) {
+                List<ITmfEvent> chunk = fEventsQueue.poll();
+                if (chunk == null && !fChunkInFlight && !fInputChunk.isEmpty()) {
+                    chunk = fInputChunk;
+                    fInputChunk = new ArrayList<>(fChunkSize);
+                    fNbQueued += chunk.size();
                 }
-                currentEvent = event;
-                eventHandle(event);
-                event = checkNotNull(fEventsQueue.take());
+                return chunk;
             }
-            /* We've received the last event, clean up */
-            closeStateSystem();
         }
 
         private void closeStateSystem() {
@@ -221,6 +450,25 @@ public abstract class AbstractTmfStateProvider implements ITmfStateProvider {
     // Abstract methods
     // ------------------------------------------------------------------------
 
+    /**
+     * Handle a chunk of events, in the order in which they were received.
+     * This is called in the event handler's thread.
+     *
+     * The default implementation calls {@link #eventHandle(ITmfEvent)} for
+     * each event. Providers that can process several events more efficiently
+     * than one at a time can override it. The list must not be kept after
+     * this method returns.
+     *
+     * @param events
+     *            The events to process, never empty
+     * @since 2.0
+     */
+    protected void eventHandle(List<ITmfEvent> events) {
+        for (ITmfEvent event : events) {
+            eventHandle(event);
+        }
+    }
+
     /**
      * Handle the given event and send the appropriate state transitions into
      * the the state system.
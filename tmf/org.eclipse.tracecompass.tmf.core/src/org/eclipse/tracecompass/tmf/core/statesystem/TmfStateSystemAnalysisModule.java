@@ -24,6 +24,7 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.tracecompass.internal.tmf.core.statesystem.SharedStateProviderRequest;
 import org.eclipse.tracecompass.internal.tmf.core.statesystem.backends.partial.PartialHistoryBackend;
 import org.eclipse.tracecompass.internal.tmf.core.statesystem.backends.partial.PartialStateSystem;
 import org.eclipse.tracecompass.statesystem.core.ITmfStateSystem;
@@ -60,6 +61,10 @@ public abstract class TmfStateSystemAnalysisModule extends TmfAbstractAnalysisMo
         implements ITmfAnalysisModuleWithStateSystems {
 
     private static final String EXTENSION = ".ht"; //$NON-NLS-1$
+    private static final String CHECKPOINTS_EXTENSION = ".ckpt"; //$NON-NLS-1$
+
+    /** Number of intervals cached for the singular queries of a reopened history */
+    private static final int QUERY_CACHE_SIZE = 4096;
 
     private final CountDownLatch fInitialized = new CountDownLatch(1);
     private final Object fRequestSyncObj = new Object();
@@ -221,7 +226,11 @@ public abstract class TmfStateSystemAnalysisModule extends TmfAbstractAnalysisMo
     @Override
     protected void canceling() {
         ITmfEventRequest req = fRequest;
-        if ((req != null) && (!req.isCompleted())) {
+        ITmfStateProvider provider = fStateProvider;
+        if (req instanceof SharedStateProviderRequest && provider instanceof AbstractTmfStateProvider) {
+            /* Do not cancel the other analyses reading the trace */
+            ((SharedStateProviderRequest) req).leave((AbstractTmfStateProvider) provider);
+        } else if ((req != null) && (!req.isCompleted())) {
             req.cancel();
         }
     }
@@ -253,8 +262,13 @@ public abstract class TmfStateSystemAnalysisModule extends TmfAbstractAnalysisMo
            /* Load an existing history */
             final int version = provider.getVersion();
             try {
-                IStateHistoryBackend backend = StateHistoryBackendFactory.createHistoryTreeBackendExistingFile(
-                        id, htFile, version);
+                /*
+                 * The history is only queried from now on, typically by views
+                 * doing many singular queries at nearby times, so cache them.
+                 */
+                IStateHistoryBackend backend = StateHistoryBackendFactory.createCachedBackend(
+                        StateHistoryBackendFactory.createHistoryTreeBackendExistingFile(id, htFile, version),
+                        QUERY_CACHE_SIZE);
                 fHtBackend = backend;
                 fStateSystem = StateSystemFactory.newStateSystem(backend, false);
                 fInitialized.countDown();
@@ -296,9 +310,50 @@ public abstract class TmfStateSystemAnalysisModule extends TmfAbstractAnalysisMo
      * Also note that single-queries are implemented using a full-query
      * underneath, (which are much slower), so this might not be a good fit for
      * a use case where you have to do lots of single queries.
+     *
+     * The checkpoints are saved next to the history file. If both files
+     * already exist, the history is reopened without reading the trace.
      */
     private void createPartialHistory(String id, ITmfStateProvider provider, File htPartialFile)
             throws TmfTraceException {
+        File checkpointsFile = new File(htPartialFile.getPath() + CHECKPOINTS_EXTENSION);
+        String partialId = new String(id + ".partial"); //$NON-NLS-1$
+
+        if (htPartialFile.exists() && checkpointsFile.exists()) {
+            IStateHistoryBackend realBackend = null;
+            ITmfStateProvider partialProvider = null;
+            try {
+                realBackend = StateHistoryBackendFactory.createHistoryTreeBackendExistingFile(
+                        id, htPartialFile, provider.getVersion());
+                partialProvider = provider.getNewInstance();
+                PartialStateSystem pss = new PartialStateSystem();
+                partialProvider.assignTargetStateSystem(pss);
+                IStateHistoryBackend partialBackend =
+                        new PartialHistoryBackend(partialId, partialProvider, pss, realBackend, checkpointsFile);
+
+                @SuppressWarnings("restriction")
+                org.eclipse.tracecompass.internal.statesystem.core.StateSystem realSS =
+                (org.eclipse.tracecompass.internal.statesystem.core.StateSystem) StateSystemFactory.newStateSystem(partialBackend, false);
+                pss.assignUpstream(realSS);
+
+                fHtBackend = partialBackend;
+                fStateSystem = realSS;
+                fInitialized.countDown();
+                return;
+            } catch (IOException e) {
+                /*
+                 * The files are invalid, or from an older version. Build a new
+                 * history from scratch instead.
+                 */
+                if (partialProvider != null) {
+                    partialProvider.dispose();
+                }
+                if (realBackend != null) {
+                    realBackend.dispose();
+                }
+            }
+        }
+
         /*
          * The order of initializations is very tricky (but very important!)
          * here. We need to follow this pattern:
@@ -341,9 +396,8 @@ public abstract class TmfStateSystemAnalysisModule extends TmfAbstractAnalysisMo
         partialProvider.assignTargetStateSystem(pss);
 
         /* 3 */
-        String partialId = new String(id + ".partial"); //$NON-NLS-1$
         IStateHistoryBackend partialBackend =
-                new PartialHistoryBackend(partialId, partialProvider, pss, realBackend, granularity);
+                new PartialHistoryBackend(partialId, partialProvider, pss, realBackend, granularity, checkpointsFile);
 
         /* 4 */
         @SuppressWarnings("restriction")
@@ -417,7 +471,12 @@ public abstract class TmfStateSystemAnalysisModule extends TmfAbstractAnalysisMo
 
         fStateProvider = provider;
         synchronized (fRequestSyncObj) {
-            startRequest();
+            if (provider instanceof AbstractTmfStateProvider && isCompleteTrace(trace)) {
+                /* Read the trace once with the other analyses starting now */
+                fRequest = SharedStateProviderRequest.join((AbstractTmfStateProvider) provider);
+            } else {
+                startRequest();
+            }
         }
 
         /*
@@ -431,8 +490,13 @@ public abstract class TmfStateSystemAnalysisModule extends TmfAbstractAnalysisMo
          * progress monitor displays that it is running).
          */
         try {
-            if (fRequest != null) {
-                fRequest.waitForCompletion();
+            ITmfEventRequest req = fRequest;
+            if (req instanceof SharedStateProviderRequest) {
+                /* The shared request does not know about this module */
+                boolean completed = ((SharedStateProviderRequest) req).waitForProvider((AbstractTmfStateProvider) provider);
+                disposeProvider(!completed);
+            } else if (req != null) {
+                req.waitForCompletion();
             }
         } catch (InterruptedException e) {
              e.printStackTrace();